@@ -21,16 +21,12 @@ package sviolet.slate.common.x.net.loadbalance;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import sviolet.thistle.util.concurrent.ThreadPoolExecutorUtils;
 import sviolet.thistle.util.judge.CheckUtils;
-import sviolet.thistle.util.reflect.MethodCaller;
 
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 负载均衡--远端URL管理器
@@ -38,7 +34,7 @@ import java.util.concurrent.atomic.AtomicReference;
  * <pre>{@code
  *      //实例化
  *      LoadBalancedHostManager hostManager = new LoadBalancedHostManager()
- *              //设置/刷新远端清单(线程安全/异步更新)
+ *              //设置/刷新远端清单(线程安全/同步更新)
  *              .setHostArray(new String[]{
  *                  "http://www.baidu.com",
  *                  "http://127.0.0.1:8080",
@@ -46,17 +42,14 @@ import java.util.concurrent.atomic.AtomicReference;
  *              });
  * }</pre>
  *
+ * <p>远端清单同步生效: set方法返回后, nextHost不会再返回被移除的远端, getVersion返回的版本号递增. 被移除的远端会通知给
+ * HostRemovedListener(例如MultiHostOkHttpClient), 由其等待发往该远端的请求结束后, 清理连接池中该远端的连接.</p>
+ *
  * @author S.Violet
  */
 public class LoadBalancedHostManager {
 
     private static final String LOG_PREFIX = "LoadBalance | ";
-    private static final long WARNING_THRESHOLD = 4L;
-    private static final boolean WARNING_DISABLED;
-
-    static {
-        WARNING_DISABLED = "true".equals(System.getProperty("slate.loadbalance.warndisabled", "false"));
-    }
 
     private Logger logger = LoggerFactory.getLogger(getClass());
     private String tag = LOG_PREFIX;
@@ -65,11 +58,12 @@ public class LoadBalancedHostManager {
     private AtomicInteger refugeCounter = new AtomicInteger(0);
 
     private volatile Host[] hostArray = new Host[0];
-    private Map<String, Integer> hostIndexMap = new HashMap<>(0);
+    private volatile Map<String, Integer> hostIndexMap = new HashMap<>(0);
+    private volatile long version = 0L;
 
     private boolean returnNullIfAllBlocked = false;
 
-    private ThreadLocal<Long> hostChangeTime = new ThreadLocal<>();
+    private final List<HostRemovedListener> hostRemovedListeners = new CopyOnWriteArrayList<>();
 
     /**
      * [线程安全的]
@@ -77,8 +71,6 @@ public class LoadBalancedHostManager {
      */
     public Host nextHost(){
 
-        check();
-
         Host[] hostArray = this.hostArray;
 
         if (hostArray.length <= 0){
@@ -109,47 +101,15 @@ public class LoadBalancedHostManager {
 
     }
 
-    private void check() {
-        if (WARNING_DISABLED) {
-            return;
-        }
-        Long previousHostChangeTime = hostChangeTime.get();
-        if (previousHostChangeTime != null) {
-            if (System.currentTimeMillis() - previousHostChangeTime < WARNING_THRESHOLD && logger.isErrorEnabled()) {
-                logger.error(LOG_PREFIX + "ERROR at " + getCallerInfo() + "!!! DO NOT set the hosts before requesting! Because the new hosts will " +
-                        "not take effect immediately! It will send the request to the old hosts! See doc: " +
-                        "https://github.com/shepherdviolet/slate/blob/master/docs/loadbalance/guide.md");
-            }
-        }
-    }
-
-    private final Collection<String> startsWithSkips = Arrays.asList(
-            "sviolet.slate.common.x.net.loadbalance.",
-            "org.springframework.cglib.proxy.Proxy$ProxyImpl$$"
-    );
-
-    private String getCallerInfo() {
-        MethodCaller methodCaller = MethodCaller.getMethodCaller(null, startsWithSkips);
-        if (methodCaller != null) {
-            return methodCaller.getCallerClass() + "#" + methodCaller.getCallerMethodName();
-        }
-        return "";
-    }
-
     /*****************************************************************************************************************
      * settings
      */
 
-    private ExecutorService settingThreadPool = ThreadPoolExecutorUtils.createLazy(60L, "Slate-LBHostManager-Set-%d");
-    private AtomicReference<List<String>> newSettings = new AtomicReference<>(null);
-
-    private volatile boolean initialized = false;
-    private volatile boolean updating = false;
-    private AtomicBoolean initLock = new AtomicBoolean(false);
+    private final Object settingLock = new Object();
 
     /**
-     * [线程安全/异步生效/可运行时修改]
-     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端(但不是同步生效)
+     * [线程安全/同步生效/可运行时修改]
+     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端
      *
      * @param hosts 远端列表, 格式:"http://127.0.0.1:8081/,http://127.0.0.1:8082/"
      */
@@ -163,8 +123,8 @@ public class LoadBalancedHostManager {
     }
 
     /**
-     * [线程安全/异步生效/可运行时修改]
-     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端(但不是同步生效)
+     * [线程安全/同步生效/可运行时修改]
+     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端
      *
      * @param hosts 远端列表
      */
@@ -178,8 +138,9 @@ public class LoadBalancedHostManager {
     }
 
     /**
-     * [线程安全/异步生效/可运行时修改]
-     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端(但不是同步生效)
+     * [线程安全/同步生效/可运行时修改]
+     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端. 方法返回后新的远端列表即生效, 被移除的远端不再被选中,
+     * 并通知HostRemovedListener(等待请求结束, 清理连接).
      *
      * @param hosts 远端列表
      */
@@ -196,25 +157,48 @@ public class LoadBalancedHostManager {
             }
         }
 
-        //初始化耗时短, 用自旋锁
-        while (!initialized){
-            if (!initLock.get() && initLock.compareAndSet(false, true)) {
-                settingInstall(hosts);
-                initialized = true;
-                if (logger.isInfoEnabled()) {
-                    logger.info(printHostsStatus(tag + "Set hosts:"));
+        List<String> removedUrls;
+        long version;
+        synchronized (settingLock) {
+            removedUrls = settingInstall(hosts);
+            version = this.version;
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info(printHostsStatus(tag + "Set hosts (version " + version + "):"));
+        }
+
+        //通知被移除的远端
+        for (String removedUrl : removedUrls) {
+            for (HostRemovedListener listener : hostRemovedListeners) {
+                try {
+                    listener.onHostRemoved(removedUrl, version);
+                } catch (Throwable t) {
+                    if (logger.isErrorEnabled()) {
+                        logger.error(tag + "Error while notifying host removed, url " + removedUrl + ", listener " + listener, t);
+                    }
                 }
-                return this;
-            } else {
-                Thread.yield();
             }
         }
+        return this;
+    }
 
-        newSettings.set(hosts);
-        settingThreadPool.execute(settingInstallTask);
+    /**
+     * 添加远端移除监听器, 远端被移除时(同步)回调, 监听器中不要做耗时操作
+     * @param listener 监听器
+     */
+    public LoadBalancedHostManager addHostRemovedListener(HostRemovedListener listener) {
+        if (listener != null) {
+            hostRemovedListeners.add(listener);
+        }
+        return this;
+    }
 
-        //record host change time
-        hostChangeTime.set(System.currentTimeMillis());
+    /**
+     * 移除远端移除监听器
+     * @param listener 监听器
+     */
+    public LoadBalancedHostManager removeHostRemovedListener(HostRemovedListener listener) {
+        hostRemovedListeners.remove(listener);
         return this;
     }
 
@@ -228,6 +212,10 @@ public class LoadBalancedHostManager {
         return this;
     }
 
+    public boolean isReturnNullIfAllBlocked() {
+        return returnNullIfAllBlocked;
+    }
+
     /**
      * 设置客户端的标识
      * @param tag 标识
@@ -257,6 +245,84 @@ public class LoadBalancedHostManager {
         return status;
     }
 
+    /**
+     * [线程安全的]
+     * 获得当前健康的远端(不在阻断期和恢复期), 无副作用(不消耗恢复期的放行名额), 用于批量请求在远端间均匀分配
+     * @return 健康的远端, 可能为空
+     */
+    public List<Host> getHealthyHosts(){
+        Host[] hostArray = this.hostArray;
+        long currentTimeMillis = System.currentTimeMillis();
+        List<Host> hosts = new ArrayList<>(hostArray.length);
+        for (Host host : hostArray) {
+            if (!host.isInBlockPeriod(currentTimeMillis) && !host.isInRecoveryPeriod(currentTimeMillis)) {
+                hosts.add(host);
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * [线程安全的]
+     * 获得当前全部远端(按设置的顺序, 包括阻断中的), 无副作用
+     * @return 全部远端, 可能为空
+     */
+    public List<Host> getHosts(){
+        return Arrays.asList(hostArray.clone());
+    }
+
+    /**
+     * [线程安全的]
+     * 获得当前远端列表的状态快照(阻断/恢复期/阻断和恢复次数等), 无副作用, 可用于健康检查和监控
+     */
+    public List<LoadBalancedHostSnapshot> getHostSnapshots(){
+        Host[] hostArray = this.hostArray;
+        long currentTimeMillis = System.currentTimeMillis();
+        List<LoadBalancedHostSnapshot> snapshots = new ArrayList<>(hostArray.length);
+        for (Host host : hostArray) {
+            snapshots.add(host.snapshot(currentTimeMillis));
+        }
+        return snapshots;
+    }
+
+    /**
+     * 获得当前远端列表的版本号, 每次设置远端列表后递增(初始为0)
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 当前远端列表中是否包含指定远端
+     * @param url 远端URL
+     */
+    public boolean containsHost(String url) {
+        return url != null && hostIndexMap.containsKey(url.trim());
+    }
+
+    /**
+     * 获得当前远端数量
+     */
+    public int getHostCount(){
+        return hostArray.length;
+    }
+
+    /**
+     * [线程安全的]
+     * 获得当前可被选择的远端数量(不在阻断期, 包括恢复期), 无副作用(不消耗恢复期的放行名额)
+     */
+    public int getAvailableHostCount(){
+        Host[] hostArray = this.hostArray;
+        long currentTimeMillis = System.currentTimeMillis();
+        int count = 0;
+        for (Host host : hostArray) {
+            if (!host.isInBlockPeriod(currentTimeMillis)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     @Override
     public String toString() {
         return printHostsStatus(null);
@@ -268,10 +334,6 @@ public class LoadBalancedHostManager {
      * @return 远端列表和状态
      */
     public String printHostsStatus(String prefix){
-        if (updating || newSettings.get() != null) {
-            return (prefix != null ? prefix : "") + " Hosts updating";
-        }
-
         Host[] hostArray = this.hostArray;
 
         StringBuilder stringBuilder = new StringBuilder(prefix != null ? prefix : "");
@@ -295,24 +357,11 @@ public class LoadBalancedHostManager {
         return this.hostArray;
     }
 
-    private Runnable settingInstallTask = new Runnable() {
-        @Override
-        public void run() {
-            boolean updated = false;
-            List<String> newSettings;
-            while ((newSettings = LoadBalancedHostManager.this.newSettings.getAndSet(null)) != null){
-                settingInstall(newSettings);
-                updated = true;
-            }
-            if (updated && logger.isInfoEnabled()) {
-                logger.info(printHostsStatus(tag + "Set new hosts:"));
-            }
-        }
-    };
-
-    private void settingInstall(List<String> newSettings) {
-        updating = true;
-
+    /**
+     * 安装新的远端列表(在settingLock中执行)
+     * @return 被移除的远端
+     */
+    private List<String> settingInstall(List<String> newSettings) {
         Host[] hostArray = LoadBalancedHostManager.this.hostArray;
 
         int newSize = newSettings.size();
@@ -327,22 +376,46 @@ public class LoadBalancedHostManager {
 
             if (oldIndex != null){
                 try {
-                    newHostArray[i] = new Host(newUrl, hostArray[oldIndex].blockUntil, hostArray[oldIndex].recoveryUntil, hostArray[oldIndex].recoveryGate);
+                    Host oldHost = hostArray[oldIndex];
+                    newHostArray[i] = new Host(newUrl, oldHost.blockUntil, oldHost.recoveryUntil, oldHost.recoveryGate, oldHost.succeedTime, oldHost.blockCount, oldHost.recoverCount, oldHost.inspectRtt);
                 } catch (Throwable ignore){
-                    newHostArray[i] = new Host(newUrl, new AtomicLong(0), new AtomicLong(0), new AtomicInteger(0));
+                    newHostArray[i] = new Host(newUrl, new AtomicLong(0), new AtomicLong(0), new AtomicInteger(Integer.MIN_VALUE), new AtomicLong(0), new AtomicLong(0), new AtomicLong(0), new AtomicLong(-1));
                 }
             } else {
-                newHostArray[i] = new Host(newUrl, new AtomicLong(0), new AtomicLong(0), new AtomicInteger(0));
+                newHostArray[i] = new Host(newUrl, new AtomicLong(0), new AtomicLong(0), new AtomicInteger(Integer.MIN_VALUE), new AtomicLong(0), new AtomicLong(0), new AtomicLong(0), new AtomicLong(-1));
             }
 
             newHostIndexMap.put(newUrl, i);
 
         }
 
+        Map<String, Integer> oldHostIndexMap = hostIndexMap;
+
         LoadBalancedHostManager.this.hostArray = newHostArray;
         hostIndexMap = newHostIndexMap;
+        version++;
+
+        List<String> removedUrls = new ArrayList<>(0);
+        for (String oldUrl : oldHostIndexMap.keySet()) {
+            if (!newHostIndexMap.containsKey(oldUrl)) {
+                removedUrls.add(oldUrl);
+            }
+        }
+        return removedUrls;
+    }
+
+    /**
+     * 远端移除监听器
+     */
+    public interface HostRemovedListener {
+
+        /**
+         * 远端被移除时(同步)回调, 此时该远端已不会再被选中, 不要做耗时操作
+         * @param url 被移除的远端URL
+         * @param version 移除后的远端列表版本号
+         */
+        void onHostRemoved(String url, long version);
 
-        updating = false;
     }
 
     public static class Host {
@@ -351,12 +424,21 @@ public class LoadBalancedHostManager {
         private AtomicLong blockUntil;//阻断至
         private AtomicLong recoveryUntil;//恢复期至
         private AtomicInteger recoveryGate;//恢复期限流
+        private AtomicLong succeedTime;//最近一次反馈健康的时间
+        private AtomicLong blockCount;//被阻断的次数
+        private AtomicLong recoverCount;//阻断后恢复的次数
+        private AtomicLong inspectRtt;//主动探测往返耗时(指数加权移动平均, 微秒), -1表示没有
 
-        private Host(String url, AtomicLong blockUntil, AtomicLong recoveryUntil, AtomicInteger recoveryGate) {
+        private Host(String url, AtomicLong blockUntil, AtomicLong recoveryUntil, AtomicInteger recoveryGate, AtomicLong succeedTime,
+                     AtomicLong blockCount, AtomicLong recoverCount, AtomicLong inspectRtt) {
             this.url = url;
             this.blockUntil = blockUntil;
             this.recoveryUntil = recoveryUntil;
             this.recoveryGate = recoveryGate;
+            this.succeedTime = succeedTime;
+            this.blockCount = blockCount;
+            this.recoverCount = recoverCount;
+            this.inspectRtt = inspectRtt;
         }
 
         /**
@@ -393,8 +475,12 @@ public class LoadBalancedHostManager {
          * 放行
          */
         private void release(){
-            //解除阻断恢复期的流量限制
-            this.recoveryGate.set(Integer.MIN_VALUE);
+            //解除阻断恢复期的流量限制, 阻断后(阻断时重置为0, 只增不减)第一次反馈健康记为一次恢复
+            if (this.recoveryGate.getAndSet(Integer.MIN_VALUE) >= 0) {
+                this.recoverCount.incrementAndGet();
+            }
+            //记录健康时间(主动探测器据此跳过近期有正常流量的后端), 无需立即可见
+            this.succeedTime.lazySet(System.currentTimeMillis());
         }
 
         /**
@@ -422,6 +508,7 @@ public class LoadBalancedHostManager {
             }
             //恢复期流量重置(仅允许通过一次)
             this.recoveryGate.set(0);
+            this.blockCount.incrementAndGet();
         }
 
         /**
@@ -445,6 +532,71 @@ public class LoadBalancedHostManager {
             return false;
         }
 
+        /**
+         * 记录一次成功的主动探测的往返耗时(LoadBalancedInspectManager调用), 与之前的结果做指数加权移动平均(新值权重0.3)
+         * @param rttNanos 往返耗时, 纳秒
+         */
+        void recordInspectRtt(long rttNanos) {
+            long rtt = Math.max(0L, rttNanos / 1000L);
+            //多个探测并发回调时(如探测器切换期间), CAS保证不丢失结果
+            long previous;
+            long next;
+            do {
+                previous = inspectRtt.get();
+                next = previous < 0 ? rtt : (previous * 7L + rtt * 3L) / 10L;
+            } while (!inspectRtt.compareAndSet(previous, next));
+        }
+
+        /**
+         * @return 主动探测往返耗时(指数加权移动平均), 微秒, -1表示没有(未探测或探测器不支持)
+         */
+        public long getInspectRtt() {
+            return inspectRtt.get();
+        }
+
+        /**
+         * 是否处于阻断期(不含恢复期, 无副作用)
+         * @param currentTimeMillis 当前时间戳
+         */
+        boolean isInBlockPeriod(long currentTimeMillis) {
+            return currentTimeMillis < blockUntil.get();
+        }
+
+        /**
+         * 获取后端状态快照(无副作用)
+         * @param currentTimeMillis 当前时间戳
+         */
+        public LoadBalancedHostSnapshot snapshot(long currentTimeMillis) {
+            long blockUntil = this.blockUntil.get();
+            long recoveryUntil = this.recoveryUntil.get();
+            return new LoadBalancedHostSnapshot(url,
+                    currentTimeMillis < blockUntil,
+                    currentTimeMillis >= blockUntil && isInRecoveryPeriod(currentTimeMillis),
+                    blockUntil,
+                    recoveryUntil,
+                    succeedTime.get(),
+                    blockCount.get(),
+                    recoverCount.get(),
+                    inspectRtt.get());
+        }
+
+        /**
+         * 是否处于恢复期(无副作用), 恢复期内反馈过健康(release, 恢复期限流解除)即视为已恢复
+         * @param currentTimeMillis 当前时间戳
+         */
+        boolean isInRecoveryPeriod(long currentTimeMillis) {
+            return currentTimeMillis < recoveryUntil.get() && recoveryGate.get() >= 0;
+        }
+
+        /**
+         * 该远端是否在指定时间内被反馈过健康(有正常的请求流量)
+         * @param currentTimeMillis 当前时间戳
+         * @param duration 时长ms
+         */
+        boolean isRecentlySucceed(long currentTimeMillis, long duration) {
+            return currentTimeMillis - succeedTime.get() < duration && currentTimeMillis >= blockUntil.get();
+        }
+
         @Override
         public String toString() {
             return "Host<" + url + ">";
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance;
+
+/**
+ * <p>均衡负载--后端状态快照(LoadBalancedHostManager#getHostSnapshots)</p>
+ *
+ * @author S.Violet
+ */
+public class LoadBalancedHostSnapshot {
+
+    private final String url;
+    private final boolean blocked;
+    private final boolean recovering;
+    private final long blockUntil;
+    private final long recoveryUntil;
+    private final long lastSucceedTime;
+    private final long blockCount;
+    private final long recoverCount;
+    private final long inspectRtt;
+
+    LoadBalancedHostSnapshot(String url, boolean blocked, boolean recovering, long blockUntil, long recoveryUntil,
+                             long lastSucceedTime, long blockCount, long recoverCount, long inspectRtt) {
+        this.url = url;
+        this.blocked = blocked;
+        this.recovering = recovering;
+        this.blockUntil = blockUntil;
+        this.recoveryUntil = recoveryUntil;
+        this.lastSucceedTime = lastSucceedTime;
+        this.blockCount = blockCount;
+        this.recoverCount = recoverCount;
+        this.inspectRtt = inspectRtt;
+    }
+
+    /**
+     * @return 后端URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return true: 处于阻断期(不可用)
+     */
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * @return true: 处于恢复期(阻断期已过, 限制流量, 收到健康反馈前只放行一个请求)
+     */
+    public boolean isRecovering() {
+        return recovering;
+    }
+
+    /**
+     * @return 阻断期截止时间, 0表示从未阻断
+     */
+    public long getBlockUntil() {
+        return blockUntil;
+    }
+
+    /**
+     * @return 恢复期截止时间, 0表示从未阻断
+     */
+    public long getRecoveryUntil() {
+        return recoveryUntil;
+    }
+
+    /**
+     * @return 最近一次反馈健康的时间, 0表示没有
+     */
+    public long getLastSucceedTime() {
+        return lastSucceedTime;
+    }
+
+    /**
+     * @return 累计被阻断的次数(被动阻断/主动探测/异常检测)
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return 累计阻断后恢复(收到健康反馈)的次数
+     */
+    public long getRecoverCount() {
+        return recoverCount;
+    }
+
+    /**
+     * @return 主动探测往返耗时(指数加权移动平均), 微秒, -1表示没有
+     */
+    public long getInspectRtt() {
+        return inspectRtt;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadBalancedHostSnapshot{" +
+                "url='" + url + '\'' +
+                ", blocked=" + blocked +
+                ", recovering=" + recovering +
+                ", blockUntil=" + blockUntil +
+                ", recoveryUntil=" + recoveryUntil +
+                ", lastSucceedTime=" + lastSucceedTime +
+                ", blockCount=" + blockCount +
+                ", recoverCount=" + recoverCount +
+                ", inspectRtt=" + inspectRtt +
+                '}';
+    }
+
+}
@@ -21,17 +21,19 @@ package sviolet.slate.common.x.net.loadbalance;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sviolet.slate.common.x.net.loadbalance.inspector.AsyncLoadBalanceInspector;
 import sviolet.slate.common.x.net.loadbalance.inspector.FixedTimeoutLoadBalanceInspector;
 import sviolet.slate.common.x.net.loadbalance.inspector.TelnetLoadBalanceInspector;
-import sviolet.thistle.compat.concurrent.CompatThreadFactoryBuilder;
 import sviolet.thistle.util.common.CloseableUtils;
-import sviolet.thistle.util.concurrent.ThreadPoolExecutorUtils;
 import sviolet.thistle.util.lifecycle.CloseableManageUtils;
 
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -41,7 +43,15 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *     注意!!!!!!<br>
  *     1.如果你是Servlet项目, 可以注册sviolet.slate.common.helperx.servlet.SlateServletContextListener监听器, 监听器会帮你
  *     自动销毁本探测器.<br>
- *     2.如果不是Servlet项目或没有注册监听器, 请在服务停止的时候调用close()方法销毁本实例, 以释放线程池.<br>
+ *     2.如果不是Servlet项目或没有注册监听器, 请在服务停止的时候调用close()方法销毁本实例, 以停止探测.<br>
+ * </p>
+ *
+ * <p>
+ *     所有实例共用一个进程级的探测调度器(一个定时线程+有界探测线程池, 见LoadBalancedInspectScheduler), 每个实例仍按自己的
+ *     探测间隔/超时工作. 每轮探测中, 各远端的探测时间在探测间隔的前半段内随机错开, 避免同一时刻集中发起探测. 探测线程数达到
+ *     上限时, 探测任务在本轮内稍后重试, 不会被丢弃. 开启setSkipIfRecentlySucceed时(默认关闭), 若远端在一个探测间隔内被真实请求
+ *     反馈为健康(见LoadBalancedHostManager.Host#feedback), 则跳过本轮对它的探测. 探测成功时, 探测耗时记入远端的往返耗时
+ *     (见LoadBalancedHostManager.Host#getInspectRtt).
  * </p>
  *
  * <pre>{@code
@@ -51,7 +61,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *              .setHostManager(hostManager)
  *              //探测间隔(阻断时长为该值的两倍, 探测超时为该值的1/2)
  *              .setInspectInterval(5000L)
- *              //设置探测器
+ *              //设置探测器(远端数量很多时可使用NioTelnetLoadBalanceInspector)
  *              .setInspector(new TelnetLoadBalanceInspector())
  *              //允许输出调试日志
  *              .setVerboseLog(true);
@@ -69,6 +79,8 @@ public class LoadBalancedInspectManager implements Closeable {
     public static final long DEFAULT_INSPECT_INTERVAL = 5000L;
 
     private static final String LOG_PREFIX = "LoadBalance | ";
+    //探测线程数达到上限时, 重试探测的间隔
+    private static final long REJECTED_RETRY_DELAY = 200L;
 
     private Logger logger = LoggerFactory.getLogger(getClass());
     private String tag = LOG_PREFIX;
@@ -79,14 +91,16 @@ public class LoadBalancedInspectManager implements Closeable {
     private AtomicBoolean started = new AtomicBoolean(false);
     private AtomicBoolean closed = new AtomicBoolean(false);
     private boolean verboseLog = false;
+    private boolean skipIfRecentlySucceed = false;
 
     private long inspectInterval = DEFAULT_INSPECT_INTERVAL;
     private long inspectTimeout = DEFAULT_INSPECT_INTERVAL / 2;
     private long blockDuration = DEFAULT_INSPECT_INTERVAL * 2;
 
-    private ExecutorService dispatchThreadPool = ThreadPoolExecutorUtils.createFixed(1,
-            new CompatThreadFactoryBuilder().setNameFormat("Slate-LBInspect-Dispatch-%d").setDaemon(true).build());
-    private ExecutorService inspectThreadPool = ThreadPoolExecutorUtils.createCached(0, Integer.MAX_VALUE, 60, "Slate-LBInspect-Inspect-%d");
+    private final LoadBalancedInspectScheduler scheduler = LoadBalancedInspectScheduler.getInstance();
+    private volatile ScheduledFuture<?> roundFuture;
+    //正在探测的远端, 防止上一次探测未结束时重复探测
+    private final Set<String> inspectingHosts = ConcurrentHashMap.newKeySet();
 
     /**
      * 自动开始探测(无需调用start()方法手动开启)
@@ -120,20 +134,19 @@ public class LoadBalancedInspectManager implements Closeable {
     }
 
     /**
-     * 关闭探测器(关闭调度线程)
+     * 关闭探测器(停止调度, 共享的探测线程池不关闭)
      */
     @Override
     public void close() {
         if (!closed.compareAndSet(false, true)) {
             return;
         }
-        try {
-            dispatchThreadPool.shutdownNow();
-        } catch (Throwable ignore){
+        ScheduledFuture<?> roundFuture = this.roundFuture;
+        if (roundFuture != null) {
+            roundFuture.cancel(false);
         }
-        try {
-            inspectThreadPool.shutdownNow();
-        } catch (Throwable ignore){
+        if (started.get() && logger.isInfoEnabled()) {
+            logger.info(tag + "InspectManager Closed: " + LoadBalancedInspectManager.this);
         }
     }
 
@@ -204,6 +217,18 @@ public class LoadBalancedInspectManager implements Closeable {
         return this;
     }
 
+    /**
+     * [可运行时修改]
+     * 设置是否跳过近期有正常流量的远端, 默认关闭. 开启时, 若远端在一个探测间隔内被真实请求反馈为健康, 则跳过本轮对它的探测,
+     * 远端数量很多时可以减少探测量. 注意: 跳过期间只依赖真实请求发现故障, 若探测器检查的内容与真实请求不同(例如检查专门的健康接口),
+     * 不要开启.
+     * @param skipIfRecentlySucceed true:跳过近期有正常流量的远端
+     */
+    public LoadBalancedInspectManager setSkipIfRecentlySucceed(boolean skipIfRecentlySucceed) {
+        this.skipIfRecentlySucceed = skipIfRecentlySucceed;
+        return this;
+    }
+
     /**
      * @param verboseLog true:打印更多的调试日志, 默认关闭
      */
@@ -227,6 +252,7 @@ public class LoadBalancedInspectManager implements Closeable {
                 ", inspectInterval=" + inspectInterval +
                 ", inspectTimeout=" + inspectTimeout +
                 ", blockDuration=" + blockDuration +
+                ", skipIfRecentlySucceed=" + skipIfRecentlySucceed +
                 ", verboseLog=" + verboseLog;
     }
 
@@ -247,112 +273,229 @@ public class LoadBalancedInspectManager implements Closeable {
     }
 
     /**
-     * 调度线程启动
+     * 开始调度, 第一轮探测在一个探测间隔后开始(加随机错开, 避免多个客户端同时启动时集中探测)
      */
     private void dispatchStart() {
-        dispatchThreadPool.execute(new Runnable() {
+        long interval = inspectInterval;
+        scheduleRound(interval + randomDelay(interval), true);
+    }
+
+    private void scheduleRound(long delay, final boolean first) {
+        if (closed.get()) {
+            return;
+        }
+        roundFuture = scheduler.schedule(new Runnable() {
             @Override
             public void run() {
-                try {
-                    Thread.sleep(inspectInterval);
-                } catch (InterruptedException ignored) {
-                }
-                if (logger.isInfoEnabled()) {
+                if (first && logger.isInfoEnabled()) {
                     logger.info(tag + "InspectManager Start: " + LoadBalancedInspectManager.this);
                 }
-                LoadBalancedHostManager hostManager;
-                LoadBalancedHostManager.Host[] hostArray;
-                while (!closed.get()){
-                    //间隔
-                    try {
-                        Thread.sleep(inspectInterval);
-                    } catch (InterruptedException ignored) {
-                    }
-                    //持有当前的hostManager
-                    hostManager = LoadBalancedInspectManager.this.hostManager;
-                    //检查是否配置
-                    if (hostManager == null){
-                        if (logger.isDebugEnabled()) {
-                            logger.debug(tag + "InspectManager has no hostManager, skip inspect");
-                        }
-                        continue;
-                    }
-                    //获取远端列表
-                    hostArray = hostManager.getHostArray();
-                    if (hostArray.length <= 0){
-                        if (logger.isDebugEnabled()) {
-                            logger.debug(tag + "InspectManager has no hosts, skip inspect");
-                        }
-                        continue;
-                    }
-                    //打印当前远端状态
-                    if (logger.isDebugEnabled()) {
-                        logger.debug(hostManager.printHostsStatus(tag + "Hosts status (before inspect):"));
-                    }
-                    //探测所有远端
-                    for (LoadBalancedHostManager.Host host : hostArray){
-                        inspect(host);
+                try {
+                    dispatchRound();
+                } catch (Throwable t) {
+                    if (logger.isErrorEnabled()) {
+                        logger.error(tag + "InspectManager: Un-captured error while dispatching", t);
                     }
                 }
-                if (logger.isInfoEnabled()) {
-                    logger.info(tag + "InspectManager Closed: " + LoadBalancedInspectManager.this);
+                //每轮结束后按当前的探测间隔安排下一轮(探测间隔可运行时修改)
+                scheduleRound(inspectInterval, false);
+            }
+        }, delay);
+        //防止close()与调度并发时漏取消
+        if (closed.get()) {
+            roundFuture.cancel(false);
+        }
+    }
+
+    /**
+     * 一轮探测: 在定时线程中执行, 只负责把各远端的探测错开安排, 不做耗时操作
+     */
+    private void dispatchRound() {
+        //持有当前的hostManager
+        LoadBalancedHostManager hostManager = this.hostManager;
+        //检查是否配置
+        if (hostManager == null){
+            if (logger.isDebugEnabled()) {
+                logger.debug(tag + "InspectManager has no hostManager, skip inspect");
+            }
+            return;
+        }
+        //获取远端列表
+        LoadBalancedHostManager.Host[] hostArray = hostManager.getHostArray();
+        if (hostArray.length <= 0){
+            if (logger.isDebugEnabled()) {
+                logger.debug(tag + "InspectManager has no hosts, skip inspect");
+            }
+            return;
+        }
+        //打印当前远端状态
+        if (logger.isDebugEnabled()) {
+            logger.debug(hostManager.printHostsStatus(tag + "Hosts status (before inspect):"));
+        }
+        long interval = inspectInterval;
+        long currentTimeMillis = System.currentTimeMillis();
+        //本轮探测的截止时间(下一轮开始), 被拒绝的探测在此之前重试
+        final long roundDeadline = currentTimeMillis + interval;
+        //探测所有远端, 探测时间随机错开
+        for (final LoadBalancedHostManager.Host host : hostArray){
+            if (skipIfRecentlySucceed && host.isRecentlySucceed(currentTimeMillis, interval)) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace(tag + "Inspect: skip " + host.getUrl() + ", recently succeed");
                 }
+                continue;
             }
-        });
+            scheduleInspect(host, randomDelay(interval), roundDeadline);
+        }
+    }
+
+    private void scheduleInspect(final LoadBalancedHostManager.Host host, long delay, final long roundDeadline) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                inspect(host, roundDeadline);
+            }
+        }, delay);
+    }
+
+    private long randomDelay(long interval) {
+        return ThreadLocalRandom.current().nextLong(interval / 2 + 1);
     }
 
     /**
      * 开始异步探测
      */
-    private void inspect(final LoadBalancedHostManager.Host host) {
-        inspectThreadPool.execute(new Runnable() {
+    private void inspect(final LoadBalancedHostManager.Host host, long roundDeadline) {
+        if (closed.get()) {
+            return;
+        }
+        final String url = host.getUrl();
+        //上一次探测还未结束
+        if (!inspectingHosts.add(url)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug(tag + "Inspect: skip " + url + ", previous inspection not finished");
+            }
+            return;
+        }
+        //只有一个异步探测器时, 不占用探测线程池
+        List<LoadBalanceInspector> inspectors = this.inspectors;
+        if (inspectors != null && inspectors.size() == 1 && inspectors.get(0) instanceof AsyncLoadBalanceInspector) {
+            inspectAsync(host, (AsyncLoadBalanceInspector) inspectors.get(0));
+            return;
+        }
+        boolean accepted = scheduler.execute(new Runnable() {
             @Override
             public void run() {
-                if (logger.isTraceEnabled()) {
-                    logger.trace(tag + "Inspect: inspecting " + host.getUrl());
+                try {
+                    inspect0(host);
+                } finally {
+                    inspectingHosts.remove(url);
                 }
-                //持有探测器
-                List<LoadBalanceInspector> inspectors = LoadBalancedInspectManager.this.inspectors;
-                if (inspectors == null){
-                    if (logger.isDebugEnabled()) {
-                        logger.debug(tag + "Inspect: no inspectors, skip inspect");
-                    }
-                    return;
+            }
+        });
+        if (!accepted) {
+            inspectingHosts.remove(url);
+            //探测线程数达到上限, 本轮内稍后重试
+            if (System.currentTimeMillis() + REJECTED_RETRY_DELAY < roundDeadline) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(tag + "Inspect: " + url + " rejected, inspect threads exhausted, retry after " + REJECTED_RETRY_DELAY + " ms");
                 }
-                //只要有一个探测器返回false, 就阻断远端
-                boolean block = false;
-                for (LoadBalanceInspector inspector : inspectors){
-                    /*
-                     * 注意:探测器必须在指定的timeout时间内探测完毕, 不要过久的占用线程,
-                     * 尽量处理掉所有异常, 如果抛出异常, 视为探测失败, 阻断远端
-                     */
+                scheduleInspect(host, REJECTED_RETRY_DELAY, roundDeadline);
+            } else if (logger.isErrorEnabled()) {
+                logger.error(tag + "Inspect: " + url + " not inspected in this round, inspect threads exhausted, " +
+                        "increase -Dslate.loadbalance.inspect.maxWorkers or use NioTelnetLoadBalanceInspector");
+            }
+        }
+    }
+
+    private void inspectAsync(final LoadBalancedHostManager.Host host, AsyncLoadBalanceInspector inspector) {
+        final String url = host.getUrl();
+        if (logger.isTraceEnabled()) {
+            logger.trace(tag + "Inspect: inspecting " + url);
+        }
+        final long startNanos = System.nanoTime();
+        try {
+            inspector.inspectAsync(url, inspectTimeout, verboseLog, new AsyncLoadBalanceInspector.Callback() {
+                @Override
+                public void onResult(boolean ok) {
                     try {
-                        if (!inspector.inspect(host.getUrl(), inspectTimeout, verboseLog)) {
-                            block = true;
-                            break;
-                        }
-                    } catch (Throwable t) {
-                        if (logger.isErrorEnabled()){
-                            logger.error(tag + "Inspect: Un-captured error, url " + host.getUrl() + ", in " + inspector.getClass(), t);
+                        if (ok) {
+                            host.recordInspectRtt(System.nanoTime() - startNanos);
+                        } else {
+                            block(host);
                         }
-                        if (isBlockIfInspectorError()) {
-                            block = true;
-                            break;
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(tag + "Inspect: inspected " + url);
                         }
+                    } finally {
+                        inspectingHosts.remove(url);
                     }
                 }
-                //阻断(无恢复期)
-                if (block){
-                    host.feedback(false, blockDuration, 1);
-                    if (logger.isWarnEnabled()) {
-                        logger.warn(tag + "Inspect: Bad host " + host.getUrl() + ", block for " + blockDuration + " ms, initiative block");
-                    }
+            });
+        } catch (Throwable t) {
+            inspectingHosts.remove(url);
+            if (logger.isErrorEnabled()){
+                logger.error(tag + "Inspect: Un-captured error, url " + url + ", in " + inspector.getClass(), t);
+            }
+            if (isBlockIfInspectorError()) {
+                block(host);
+            }
+        }
+    }
+
+    private void inspect0(final LoadBalancedHostManager.Host host) {
+        if (logger.isTraceEnabled()) {
+            logger.trace(tag + "Inspect: inspecting " + host.getUrl());
+        }
+        //持有探测器
+        List<LoadBalanceInspector> inspectors = LoadBalancedInspectManager.this.inspectors;
+        if (inspectors == null){
+            if (logger.isDebugEnabled()) {
+                logger.debug(tag + "Inspect: no inspectors, skip inspect");
+            }
+            return;
+        }
+        //只要有一个探测器返回false, 就阻断远端
+        boolean block = false;
+        long startNanos = System.nanoTime();
+        for (LoadBalanceInspector inspector : inspectors){
+            /*
+             * 注意:探测器必须在指定的timeout时间内探测完毕, 不要过久的占用线程,
+             * 尽量处理掉所有异常, 如果抛出异常, 视为探测失败, 阻断远端
+             */
+            try {
+                if (!inspector.inspect(host.getUrl(), inspectTimeout, verboseLog)) {
+                    block = true;
+                    break;
                 }
-                if (logger.isTraceEnabled()) {
-                    logger.trace(tag + "Inspect: inspected " + host.getUrl());
+            } catch (Throwable t) {
+                if (logger.isErrorEnabled()){
+                    logger.error(tag + "Inspect: Un-captured error, url " + host.getUrl() + ", in " + inspector.getClass(), t);
+                }
+                if (isBlockIfInspectorError()) {
+                    block = true;
+                    break;
                 }
             }
-        });
+        }
+        if (block){
+            block(host);
+        } else {
+            //所有探测器的总耗时
+            host.recordInspectRtt(System.nanoTime() - startNanos);
+        }
+        if (logger.isTraceEnabled()) {
+            logger.trace(tag + "Inspect: inspected " + host.getUrl());
+        }
+    }
+
+    /**
+     * 阻断(无恢复期)
+     */
+    private void block(LoadBalancedHostManager.Host host) {
+        host.feedback(false, blockDuration, 1);
+        if (logger.isWarnEnabled()) {
+            logger.warn(tag + "Inspect: Bad host " + host.getUrl() + ", block for " + blockDuration + " ms, initiative block");
+        }
     }
 
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance;
+
+import sviolet.thistle.compat.concurrent.CompatThreadFactoryBuilder;
+
+import java.util.concurrent.*;
+
+/**
+ * <p>均衡负载--进程级共享的探测调度器(LoadBalancedInspectManager内部使用)</p>
+ *
+ * <p>所有LoadBalancedInspectManager共用一个定时线程和一个探测线程池, 避免客户端数量多时每个客户端各自占用调度线程.
+ * 定时线程只负责计时, 探测任务一律交给探测线程池执行.</p>
+ *
+ * <p>阻塞型探测器(如TelnetLoadBalanceInspector)探测不通的远端时会占用线程直到超时(探测间隔的1/2), 因此探测线程池不排队,
+ * 每个进行中的探测占用一个线程(按需创建, 空闲60秒后回收), 远端大量故障时一轮探测仍能在探测间隔内完成. 线程数达到上限时
+ * 探测任务被拒绝, 由LoadBalancedInspectManager稍后重试. 远端数量很多时建议使用NioTelnetLoadBalanceInspector(不占用探测线程).</p>
+ *
+ * <p>探测线程数可通过启动参数调整:<br>
+ * -Dslate.loadbalance.inspect.workers=8 常驻探测线程数, 默认max(4, CPU核数)<br>
+ * -Dslate.loadbalance.inspect.maxWorkers=256 最大探测线程数(同时进行的阻塞探测数), 默认256<br>
+ * </p>
+ *
+ * @author S.Violet
+ */
+final class LoadBalancedInspectScheduler {
+
+    private static final int WORKERS = Math.max(1, Integer.getInteger("slate.loadbalance.inspect.workers",
+            Math.max(4, Runtime.getRuntime().availableProcessors())));
+    private static final int MAX_WORKERS = Math.max(WORKERS, Integer.getInteger("slate.loadbalance.inspect.maxWorkers", 256));
+
+    private final ScheduledThreadPoolExecutor timer;
+    private final ThreadPoolExecutor workers;
+
+    private LoadBalancedInspectScheduler() {
+        timer = new ScheduledThreadPoolExecutor(1,
+                new CompatThreadFactoryBuilder().setNameFormat("Slate-LBInspect-Schedule-%d").setDaemon(true).build());
+        timer.setRemoveOnCancelPolicy(true);
+        workers = new ThreadPoolExecutor(WORKERS, MAX_WORKERS, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(),
+                new CompatThreadFactoryBuilder().setNameFormat("Slate-LBInspect-Inspect-%d").setDaemon(true).build());
+        workers.allowCoreThreadTimeOut(true);
+    }
+
+    static LoadBalancedInspectScheduler getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * 延迟执行任务(在定时线程中执行, 任务必须非常轻量, 耗时操作请用execute交给探测线程池)
+     * @param task 任务
+     * @param delay 延迟ms
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return timer.schedule(task, Math.max(0L, delay), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在探测线程池中执行任务
+     * @param task 任务
+     * @return false:探测线程数已达上限, 任务被拒绝(需要调用方稍后重试)
+     */
+    boolean execute(Runnable task) {
+        try {
+            workers.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private static class InstanceHolder {
+        private static final LoadBalancedInspectScheduler INSTANCE = new LoadBalancedInspectScheduler();
+    }
+
+}
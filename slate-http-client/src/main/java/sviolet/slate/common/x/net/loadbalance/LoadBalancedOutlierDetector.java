@@ -0,0 +1,554 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sviolet.thistle.util.lifecycle.CloseableManageUtils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>均衡负载--被动异常检测器(Outlier Detection)</p>
+ *
+ * <p>由MultiHostOkHttpClient在请求结束时上报每个请求的结果和耗时(record方法), 检测器按周期统计各远端的成功率和平均耗时,
+ * 与其他远端比较, 明显偏离(低于/高于所有远端均值 - / + 1.9倍标准差)的远端将被阻断(通过Host#feedback). 另外, 失败率达到
+ * failurePercentThreshold的远端也会被阻断(多个远端同时异常时, 标准差会被拉大, 仅靠偏离程度判断不出来). 同一个远端连续被
+ * 判定异常时, 阻断时长按次数递增(baseEjectionTime * 次数, 最大maxEjectionTime), 远端恢复正常后次数逐周期递减.</p>
+ *
+ * <p>除了真实请求的耗时, 主动探测(LoadBalancedInspectManager)的往返耗时(Host#getInspectRtt)也参与耗时判定: 探测往返耗时明显
+ * 高于其他远端(同样按均值+1.9倍标准差, 且至少为均值的1.5倍)的远端判定异常. 探测往返耗时不受请求量限制, 请求量很少的远端也能被发现,
+ * 可通过setInspectRttEnabled关闭.</p>
+ *
+ * <p>为避免把所有远端都阻断, 当处于阻断期的远端数量达到远端总数的maxEjectionPercent时, 不再阻断新的远端. 另外, 一个周期内请求数
+ * 不足minRequestVolume的远端不参与成功率/请求耗时统计, 参与统计的远端少于minHosts个时不做判定(探测往返耗时单独计数).</p>
+ *
+ * <pre>{@code
+ *      LoadBalancedOutlierDetector outlierDetector = new LoadBalancedOutlierDetector()
+ *              .setHostManager(hostManager)
+ *              .setDetectInterval(10000L)
+ *              .setMaxEjectionPercent(50);
+ *      client.setOutlierDetector(outlierDetector);
+ * }</pre>
+ *
+ * <p>被动检测启用后, 主动探测(LoadBalancedInspectManager)的间隔可以适当调大.</p>
+ *
+ * @author S.Violet
+ */
+public class LoadBalancedOutlierDetector implements Closeable {
+
+    public static final long DEFAULT_DETECT_INTERVAL = 10000L;
+    public static final long DEFAULT_BASE_EJECTION_TIME = 30000L;
+    public static final long DEFAULT_MAX_EJECTION_TIME = 300000L;
+    public static final int DEFAULT_MAX_EJECTION_PERCENT = 50;
+    public static final int DEFAULT_MIN_REQUEST_VOLUME = 10;
+    public static final int DEFAULT_MIN_HOSTS = 3;
+    public static final int DEFAULT_FAILURE_PERCENT_THRESHOLD = 50;
+
+    private static final double STDEV_FACTOR = 1.9d;
+    //耗时至少是均值的1.5倍才判定异常, 避免各远端耗时都很接近时(标准差很小)误判
+    private static final double LATENCY_MIN_RATIO = 1.5d;
+
+    private static final String LOG_PREFIX = "LoadBalance | ";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+    private String tag = LOG_PREFIX;
+
+    private LoadBalancedHostManager hostManager;
+    private final Map<String, HostStats> hostStatsMap = new ConcurrentHashMap<>();
+
+    private AtomicBoolean started = new AtomicBoolean(false);
+    private AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean enabled = true;
+    private volatile boolean inspectRttEnabled = true;
+
+    private long detectInterval = DEFAULT_DETECT_INTERVAL;
+    private long baseEjectionTime = DEFAULT_BASE_EJECTION_TIME;
+    private long maxEjectionTime = DEFAULT_MAX_EJECTION_TIME;
+    private int maxEjectionPercent = DEFAULT_MAX_EJECTION_PERCENT;
+    private int minRequestVolume = DEFAULT_MIN_REQUEST_VOLUME;
+    private int minHosts = DEFAULT_MIN_HOSTS;
+    private int failurePercentThreshold = DEFAULT_FAILURE_PERCENT_THRESHOLD;
+
+    private final LoadBalancedInspectScheduler scheduler = LoadBalancedInspectScheduler.getInstance();
+    private volatile ScheduledFuture<?> detectFuture;
+
+    /**
+     * 自动开始检测(无需调用start()方法手动开启)
+     */
+    public LoadBalancedOutlierDetector() {
+        this(true);
+    }
+
+    /**
+     * @param autoStart true:自动开始检测(无需调用start()方法手动开启) false:不自动开始检测(需要调用start()方法手动开启)
+     */
+    public LoadBalancedOutlierDetector(boolean autoStart) {
+        //注册到管理器, 便于集中销毁
+        CloseableManageUtils.register(this);
+        //自动开始
+        if (autoStart) {
+            start();
+        }
+    }
+
+    /**
+     * 若构造方法autoStart=false时, 需要手动调用该方法开始检测
+     */
+    public void start() {
+        if (started.compareAndSet(false, true)) {
+            scheduleDetect();
+        }
+    }
+
+    /**
+     * 关闭检测器(停止调度)
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        ScheduledFuture<?> detectFuture = this.detectFuture;
+        if (detectFuture != null) {
+            detectFuture.cancel(false);
+        }
+        hostStatsMap.clear();
+    }
+
+    /**
+     * 上报请求结果(MultiHostOkHttpClient调用)
+     * @param host 远端
+     * @param isOk true:请求正常 false:请求异常(网络故障等需要阻断的情况)
+     * @param elapsedMillis 请求耗时ms, 小于0表示不统计耗时(例如流式请求)
+     */
+    public void record(LoadBalancedHostManager.Host host, boolean isOk, long elapsedMillis) {
+        if (!enabled || !started.get() || closed.get()) {
+            return;
+        }
+        HostStats stats = getHostStats(host);
+        stats.requests.increment();
+        if (!isOk) {
+            stats.errors.increment();
+        }
+        if (elapsedMillis >= 0) {
+            stats.latencyRequests.increment();
+            stats.latencySum.add(elapsedMillis);
+        }
+    }
+
+    private HostStats getHostStats(LoadBalancedHostManager.Host host) {
+        HostStats stats = hostStatsMap.get(host.getUrl());
+        if (stats == null) {
+            HostStats newStats = new HostStats();
+            stats = hostStatsMap.putIfAbsent(host.getUrl(), newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 设置远端管理器(必须)
+     * @param hostManager 远端管理器
+     */
+    public LoadBalancedOutlierDetector setHostManager(LoadBalancedHostManager hostManager) {
+        this.hostManager = hostManager;
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * @param enabled true:启用检测(默认) false:停用检测
+     */
+    public LoadBalancedOutlierDetector setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            hostStatsMap.clear();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * @param inspectRttEnabled true:主动探测的往返耗时参与耗时判定(默认) false:只使用真实请求的耗时
+     */
+    public LoadBalancedOutlierDetector setInspectRttEnabled(boolean inspectRttEnabled) {
+        this.inspectRttEnabled = inspectRttEnabled;
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置检测周期, 每个周期统计一次并清空计数
+     * @param detectInterval 检测周期ms, 最小1000, 默认10000
+     */
+    public LoadBalancedOutlierDetector setDetectInterval(long detectInterval) {
+        this.detectInterval = Math.max(1000L, detectInterval);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置基础阻断时长, 实际阻断时长 = 基础阻断时长 * 连续判定异常的次数
+     * @param baseEjectionTime 基础阻断时长ms, 默认30000
+     */
+    public LoadBalancedOutlierDetector setBaseEjectionTime(long baseEjectionTime) {
+        this.baseEjectionTime = Math.max(1000L, baseEjectionTime);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置最大阻断时长
+     * @param maxEjectionTime 最大阻断时长ms, 默认300000
+     */
+    public LoadBalancedOutlierDetector setMaxEjectionTime(long maxEjectionTime) {
+        this.maxEjectionTime = Math.max(1000L, maxEjectionTime);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置最大阻断比例, 处于阻断期的远端达到该比例后不再阻断新的远端
+     * @param maxEjectionPercent 最大阻断比例(0-100), 默认50
+     */
+    public LoadBalancedOutlierDetector setMaxEjectionPercent(int maxEjectionPercent) {
+        this.maxEjectionPercent = Math.max(0, Math.min(100, maxEjectionPercent));
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置参与统计的最小请求数, 一个周期内请求数不足的远端不参与统计
+     * @param minRequestVolume 最小请求数, 默认10
+     */
+    public LoadBalancedOutlierDetector setMinRequestVolume(int minRequestVolume) {
+        this.minRequestVolume = Math.max(1, minRequestVolume);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置参与统计的最少远端数, 不足时不做判定
+     * @param minHosts 最少远端数, 最小2, 默认3
+     */
+    public LoadBalancedOutlierDetector setMinHosts(int minHosts) {
+        this.minHosts = Math.max(2, minHosts);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置失败率阈值, 失败率达到该值的远端直接判定异常(不与其他远端比较)
+     * @param failurePercentThreshold 失败率阈值(1-100), 设置大于100关闭, 默认50
+     */
+    public LoadBalancedOutlierDetector setFailurePercentThreshold(int failurePercentThreshold) {
+        this.failurePercentThreshold = Math.max(1, failurePercentThreshold);
+        return this;
+    }
+
+    /**
+     * 设置客户端的标识
+     * @param tag 标识
+     */
+    public LoadBalancedOutlierDetector setTag(String tag) {
+        this.tag = tag != null ? LOG_PREFIX + tag + "> " : LOG_PREFIX;
+        return this;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getDetectInterval() {
+        return detectInterval;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    @Override
+    public String toString() {
+        return "enabled=" + enabled +
+                ", inspectRttEnabled=" + inspectRttEnabled +
+                ", detectInterval=" + detectInterval +
+                ", baseEjectionTime=" + baseEjectionTime +
+                ", maxEjectionTime=" + maxEjectionTime +
+                ", maxEjectionPercent=" + maxEjectionPercent +
+                ", minRequestVolume=" + minRequestVolume +
+                ", minHosts=" + minHosts +
+                ", failurePercentThreshold=" + failurePercentThreshold;
+    }
+
+    private void scheduleDetect() {
+        if (closed.get()) {
+            return;
+        }
+        detectFuture = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (enabled) {
+                        detect();
+                    }
+                } catch (Throwable t) {
+                    if (logger.isErrorEnabled()) {
+                        logger.error(tag + "OutlierDetector: Un-captured error while detecting", t);
+                    }
+                }
+                scheduleDetect();
+            }
+        }, detectInterval);
+        //防止close()与调度并发时漏取消
+        if (closed.get()) {
+            detectFuture.cancel(false);
+        }
+    }
+
+    /**
+     * 一个周期的检测(在共享的定时线程中执行, 只做少量计算)
+     */
+    private void detect() {
+        LoadBalancedHostManager hostManager = this.hostManager;
+        if (hostManager == null) {
+            return;
+        }
+        LoadBalancedHostManager.Host[] hostArray = hostManager.getHostArray();
+        long currentTimeMillis = System.currentTimeMillis();
+
+        //取出本周期的计数, 清理已移除的远端
+        boolean inspectRttEnabled = this.inspectRttEnabled;
+        Set<String> urls = new HashSet<>(hostArray.length * 2);
+        List<Sample> samples = new ArrayList<>(hostArray.length);
+        int volumeCount = 0;
+        int rttCount = 0;
+        int blockedCount = 0;
+        for (LoadBalancedHostManager.Host host : hostArray) {
+            urls.add(host.getUrl());
+            if (host.isInBlockPeriod(currentTimeMillis)) {
+                blockedCount++;
+            }
+            HostStats stats = getHostStats(host);
+            //探测往返耗时(us -> ms), 处于阻断期的远端不参与(探测失败时不更新, 值已过时)
+            double rtt = -1d;
+            long inspectRtt = host.getInspectRtt();
+            if (inspectRttEnabled && inspectRtt >= 0 && !host.isInBlockPeriod(currentTimeMillis)) {
+                rtt = inspectRtt / 1000d;
+            }
+            Sample sample = stats.sample(host, minRequestVolume, rtt);
+            if (sample.volume) {
+                volumeCount++;
+            }
+            if (sample.rtt >= 0) {
+                rttCount++;
+            }
+            if (sample.volume || sample.rtt >= 0) {
+                samples.add(sample);
+            }
+        }
+        hostStatsMap.keySet().retainAll(urls);
+
+        if (volumeCount >= minHosts || rttCount >= minHosts) {
+            judge(samples, volumeCount >= minHosts, rttCount >= minHosts, hostArray.length, blockedCount, currentTimeMillis);
+        }
+
+        //不在阻断期的远端(包括本周期未被判定异常的), 阻断次数逐周期递减
+        for (HostStats stats : hostStatsMap.values()) {
+            if (stats.ejectedUntil <= currentTimeMillis && stats.ejectionCount > 0) {
+                stats.ejectionCount--;
+            }
+        }
+    }
+
+    private void judge(List<Sample> samples, boolean judgeVolume, boolean judgeRtt, int hostCount, int blockedCount, long currentTimeMillis) {
+
+        //成功率/请求耗时的均值和标准差(请求量足够的远端)
+        double successRateThreshold = -1d;
+        double latencyThreshold = Double.MAX_VALUE;
+        if (judgeVolume) {
+            double successRateMean = 0d;
+            double latencyMean = 0d;
+            int volumeCount = 0;
+            int latencyCount = 0;
+            for (Sample sample : samples) {
+                if (!sample.volume) {
+                    continue;
+                }
+                volumeCount++;
+                successRateMean += sample.successRate;
+                if (sample.latency >= 0) {
+                    latencyMean += sample.latency;
+                    latencyCount++;
+                }
+            }
+            successRateMean /= volumeCount;
+            latencyMean = latencyCount > 0 ? latencyMean / latencyCount : 0d;
+            double successRateVariance = 0d;
+            double latencyVariance = 0d;
+            for (Sample sample : samples) {
+                if (!sample.volume) {
+                    continue;
+                }
+                successRateVariance += (sample.successRate - successRateMean) * (sample.successRate - successRateMean);
+                if (sample.latency >= 0) {
+                    latencyVariance += (sample.latency - latencyMean) * (sample.latency - latencyMean);
+                }
+            }
+            successRateThreshold = successRateMean - STDEV_FACTOR * Math.sqrt(successRateVariance / volumeCount);
+            latencyThreshold = latencyCount > 0 ? outlierThreshold(latencyMean, latencyVariance / latencyCount) : Double.MAX_VALUE;
+        }
+
+        //探测往返耗时的均值和标准差
+        double rttThreshold = Double.MAX_VALUE;
+        if (judgeRtt) {
+            double rttMean = 0d;
+            int rttCount = 0;
+            for (Sample sample : samples) {
+                if (sample.rtt >= 0) {
+                    rttMean += sample.rtt;
+                    rttCount++;
+                }
+            }
+            rttMean /= rttCount;
+            double rttVariance = 0d;
+            for (Sample sample : samples) {
+                if (sample.rtt >= 0) {
+                    rttVariance += (sample.rtt - rttMean) * (sample.rtt - rttMean);
+                }
+            }
+            rttThreshold = outlierThreshold(rttMean, rttVariance / rttCount);
+        }
+
+        //判定
+        int maxEjectionCount = hostCount * maxEjectionPercent / 100;
+        for (Sample sample : samples) {
+            boolean errorOutlier = judgeVolume && sample.volume && (sample.successRate < successRateThreshold ||
+                    (1d - sample.successRate) * 100d >= failurePercentThreshold);
+            boolean latencyOutlier = judgeVolume && sample.volume && sample.latency >= 0 && sample.latency > latencyThreshold;
+            boolean rttOutlier = judgeRtt && sample.rtt >= 0 && sample.rtt > rttThreshold;
+            if (!errorOutlier && !latencyOutlier && !rttOutlier) {
+                continue;
+            }
+            if (sample.host.isInBlockPeriod(currentTimeMillis)) {
+                continue;
+            }
+            if (blockedCount >= maxEjectionCount) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn(tag + "OutlierDetector: Outlier host " + sample.host.getUrl() + " not blocked, " + blockedCount +
+                            " of " + hostCount + " hosts already blocked, maxEjectionPercent " + maxEjectionPercent);
+                }
+                continue;
+            }
+            HostStats stats = sample.stats;
+            stats.ejectionCount++;
+            long ejectionTime = Math.min(baseEjectionTime * stats.ejectionCount, Math.max(baseEjectionTime, maxEjectionTime));
+            stats.ejectedUntil = currentTimeMillis + ejectionTime;
+            sample.host.feedback(false, ejectionTime, 1);
+            blockedCount++;
+            if (logger.isWarnEnabled()) {
+                StringBuilder reason = new StringBuilder();
+                if (errorOutlier || latencyOutlier) {
+                    reason.append(", successRate ").append(String.format("%.4f", sample.successRate))
+                            .append(" (threshold ").append(String.format("%.4f", successRateThreshold)).append(")");
+                    reason.append(", latency ").append(String.format("%.1f", sample.latency))
+                            .append(" ms (threshold ").append(String.format("%.1f", latencyThreshold)).append(")");
+                }
+                if (rttOutlier) {
+                    reason.append(", inspect rtt ").append(String.format("%.1f", sample.rtt))
+                            .append(" ms (threshold ").append(String.format("%.1f", rttThreshold)).append(")");
+                }
+                logger.warn(tag + "OutlierDetector: Bad host " + sample.host.getUrl() + ", block for " + ejectionTime + " ms, outlier block" +
+                        reason + ", ejection count " + stats.ejectionCount);
+            }
+        }
+    }
+
+    /**
+     * 耗时的异常阈值: 均值+1.9倍标准差, 且至少为均值的1.5倍
+     */
+    private static double outlierThreshold(double mean, double variance) {
+        return Math.max(mean + STDEV_FACTOR * Math.sqrt(variance), mean * LATENCY_MIN_RATIO);
+    }
+
+    /**
+     * 远端计数(record方法写, 检测时取出并清零)
+     */
+    private static class HostStats {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder latencyRequests = new LongAdder();
+        private final LongAdder latencySum = new LongAdder();
+
+        //以下字段只在定时线程中访问
+        private int ejectionCount = 0;
+        private long ejectedUntil = 0L;
+
+        private Sample sample(LoadBalancedHostManager.Host host, int minRequestVolume, double rtt) {
+            long requests = this.requests.sumThenReset();
+            long errors = this.errors.sumThenReset();
+            long latencyRequests = this.latencyRequests.sumThenReset();
+            long latencySum = this.latencySum.sumThenReset();
+            return new Sample(host, this, requests >= minRequestVolume,
+                    requests > 0 ? (double) (requests - errors) / requests : 1d,
+                    latencyRequests > 0 ? (double) latencySum / latencyRequests : -1d,
+                    rtt);
+        }
+
+    }
+
+    /**
+     * 单个周期的统计结果
+     */
+    private static class Sample {
+
+        private final LoadBalancedHostManager.Host host;
+        private final HostStats stats;
+        //请求量是否足够(成功率和请求耗时是否参与统计)
+        private final boolean volume;
+        private final double successRate;
+        private final double latency;
+        //探测往返耗时ms, -1表示没有
+        private final double rtt;
+
+        private Sample(LoadBalancedHostManager.Host host, HostStats stats, boolean volume, double successRate, double latency, double rtt) {
+            this.host = host;
+            this.stats = stats;
+            this.volume = volume;
+            this.successRate = successRate;
+            this.latency = latency;
+            this.rtt = rtt;
+        }
+
+    }
+
+}
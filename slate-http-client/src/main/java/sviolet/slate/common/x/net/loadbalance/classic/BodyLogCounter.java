@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>报文日志统计(采样的异步报文日志, 详见MultiHostOkHttpClient#setBodyLogEnabled)</p>
+ *
+ * @author S.Violet
+ */
+public class BodyLogCounter {
+
+    private final AtomicLong sampled = new AtomicLong(0);
+    private final AtomicLong logged = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong truncated = new AtomicLong(0);
+
+    BodyLogCounter() {
+    }
+
+    void addSampled() {
+        sampled.incrementAndGet();
+    }
+
+    void addLogged() {
+        logged.incrementAndGet();
+    }
+
+    void addDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void addTruncated() {
+        truncated.incrementAndGet();
+    }
+
+    /**
+     * @return 被采样的请求数
+     */
+    public long getSampled() {
+        return sampled.get();
+    }
+
+    /**
+     * @return 已输出的日志数
+     */
+    public long getLogged() {
+        return logged.get();
+    }
+
+    /**
+     * @return 缓冲区已满被丢弃的日志数
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return 报文体被截断的日志数
+     */
+    public long getTruncated() {
+        return truncated.get();
+    }
+
+    @Override
+    public String toString() {
+        return "sampled=" + sampled +
+                ", logged=" + logged +
+                ", dropped=" + dropped +
+                ", truncated=" + truncated;
+    }
+
+}
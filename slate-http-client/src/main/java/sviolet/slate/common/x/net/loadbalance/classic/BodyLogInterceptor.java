@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import okhttp3.*;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sviolet.thistle.util.concurrent.ThreadPoolExecutorUtils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>采样的异步报文日志拦截器(MultiHostOkHttpClient内部使用)</p>
+ *
+ * <p>1.请求结束(收到响应头或网络异常)后判断是否采样: 每N个请求采样1个, 耗时(收到响应头为止)超过阈值, 或失败(网络异常/非2XX).
+ * 未被采样的请求除一次计数外没有额外开销.</p>
+ * <p>2.被采样的请求, 在当前线程截取请求/响应报文体的前maxLength字节(截取响应报文体使用peekBody, 不影响调用方读取),
+ * 然后放入有界缓冲区, 由日志线程转换为字符串并输出. 缓冲区满时丢弃并计数, 不阻塞调用方.</p>
+ * <p>3.日志使用本类的Logger以INFO级别输出, 可单独配置日志级别和输出位置.</p>
+ *
+ * @author S.Violet
+ */
+class BodyLogInterceptor implements Interceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BodyLogInterceptor.class);
+
+    private static final String REASON_RATE = "rate";
+    private static final String REASON_SLOW = "slow";
+    private static final String REASON_FAILURE = "failure";
+
+    private final String tag;
+    private final int sampleRate;
+    private final long slowThreshold;
+    private final boolean logFailures;
+    private final int maxLength;
+    private final Charset defaultCharset;
+    private final Writer writer;
+    private final BodyLogCounter counter;
+
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    BodyLogInterceptor(String tag, int sampleRate, long slowThreshold, boolean logFailures, int maxLength, String encode, Writer writer, BodyLogCounter counter) {
+        this.tag = tag;
+        this.sampleRate = sampleRate;
+        this.slowThreshold = slowThreshold;
+        this.logFailures = logFailures;
+        this.maxLength = maxLength;
+        this.defaultCharset = Charset.forName(encode);
+        this.writer = writer;
+        this.counter = counter;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        okhttp3.Request request = chain.request();
+        if (!logger.isInfoEnabled()) {
+            return chain.proceed(request);
+        }
+        boolean rateSampled = sampleRate > 0 && sequence.getAndIncrement() % sampleRate == 0;
+        long startTime = System.currentTimeMillis();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            long elapsed = System.currentTimeMillis() - startTime;
+            String reason = logFailures ? REASON_FAILURE : sampleReason(rateSampled, elapsed);
+            if (reason != null) {
+                Record record = newRecord(request, reason, elapsed);
+                record.error = e.toString();
+                submit(record);
+            }
+            throw e;
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        String reason = logFailures && !response.isSuccessful() ? REASON_FAILURE : sampleReason(rateSampled, elapsed);
+        if (reason == null) {
+            return response;
+        }
+        Record record = newRecord(request, reason, elapsed);
+        record.code = response.code();
+        captureResponseBody(request, response, record);
+        submit(record);
+        return response;
+    }
+
+    private String sampleReason(boolean rateSampled, long elapsed) {
+        if (slowThreshold > 0 && elapsed >= slowThreshold) {
+            return REASON_SLOW;
+        }
+        return rateSampled ? REASON_RATE : null;
+    }
+
+    private Record newRecord(okhttp3.Request request, String reason, long elapsed) {
+        counter.addSampled();
+        Record record = new Record();
+        Object stub = request.tag();
+        int requestId = stub instanceof MultiHostOkHttpClient.Stub ? ((MultiHostOkHttpClient.Stub) stub).getRequestId() : Integer.MAX_VALUE;
+        record.prefix = requestId == Integer.MAX_VALUE ? tag : tag + requestId + " ";
+        record.method = request.method();
+        record.url = request.url().toString();
+        record.reason = reason;
+        record.elapsed = elapsed;
+        captureRequestBody(request, record);
+        return record;
+    }
+
+    /**
+     * 截取请求报文体, 超过maxLength的部分不写入内存. 文件报文体不截取(避免读取文件和触发进度回调)
+     */
+    private void captureRequestBody(okhttp3.Request request, Record record) {
+        RequestBody body = request.body();
+        if (body == null) {
+            return;
+        }
+        if (body instanceof FileRequestBody) {
+            record.requestNote = "file body";
+            return;
+        }
+        Buffer buffer = new Buffer();
+        try {
+            record.requestLength = body.contentLength();
+            try {
+                BufferedSink sink = Okio.buffer(new LimitedSink(buffer, maxLength));
+                body.writeTo(sink);
+                sink.flush();
+            } catch (LimitReachedException ignore) {
+                //超过长度, 停止写入
+            }
+            //超过maxLength的部分(最多1个字节)留在buffer中, 表示被截断
+            record.requestBody = buffer.readByteArray(Math.min(buffer.size(), maxLength));
+            record.requestTruncated = record.requestLength > maxLength || buffer.size() > 0;
+            record.requestCharset = charsetOf(body.contentType());
+        } catch (Throwable t) {
+            record.requestBody = null;
+            record.requestNote = "can not capture, " + t;
+        }
+    }
+
+    /**
+     * 截取响应报文体(peekBody, 不消耗响应数据). 流式请求(sendForLines/sendForEvents)不截取
+     */
+    private void captureResponseBody(okhttp3.Request request, Response response, Record record) {
+        ResponseBody body = response.body();
+        Object stub = request.tag();
+        if (body == null || (stub instanceof MultiHostOkHttpClient.Stub && ((MultiHostOkHttpClient.Stub) stub).isStream())) {
+            return;
+        }
+        try {
+            record.responseLength = body.contentLength();
+            byte[] peeked = response.peekBody(maxLength + 1L).bytes();
+            record.responseTruncated = peeked.length > maxLength || record.responseLength > maxLength;
+            if (peeked.length > maxLength) {
+                byte[] truncated = new byte[maxLength];
+                System.arraycopy(peeked, 0, truncated, 0, maxLength);
+                peeked = truncated;
+            }
+            record.responseBody = peeked;
+            record.responseCharset = charsetOf(body.contentType());
+        } catch (Throwable t) {
+            record.responseNote = "can not capture, " + t;
+        }
+    }
+
+    private Charset charsetOf(MediaType contentType) {
+        return contentType != null ? contentType.charset(defaultCharset) : defaultCharset;
+    }
+
+    private void submit(Record record) {
+        if (record.requestTruncated || record.responseTruncated) {
+            counter.addTruncated();
+        }
+        writer.offer(record);
+    }
+
+    /**
+     * 报文日志(字符串转换在日志线程中进行)
+     */
+    static class Record {
+
+        private String prefix;
+        private String method;
+        private String url;
+        private String reason;
+        private long elapsed;
+        private int code = -1;
+        private String error;
+
+        private byte[] requestBody;
+        private long requestLength = -1;
+        private boolean requestTruncated;
+        private Charset requestCharset;
+        private String requestNote;
+
+        private byte[] responseBody;
+        private long responseLength = -1;
+        private boolean responseTruncated;
+        private Charset responseCharset;
+        private String responseNote;
+
+        private String toLog() {
+            StringBuilder builder = new StringBuilder(256);
+            builder.append(prefix).append("Body-log: ").append(method).append(' ').append(url)
+                    .append(", sampled-by:").append(reason)
+                    .append(", elapsed:").append(elapsed).append("ms");
+            if (error != null) {
+                builder.append(", error:").append(error);
+            } else {
+                builder.append(", code:").append(code);
+            }
+            appendBody(builder, ", request-body", requestBody, requestLength, requestTruncated, requestCharset, requestNote);
+            appendBody(builder, ", response-body", responseBody, responseLength, responseTruncated, responseCharset, responseNote);
+            return builder.toString();
+        }
+
+        private static void appendBody(StringBuilder builder, String name, byte[] body, long length, boolean truncated, Charset charset, String note) {
+            builder.append(name);
+            if (note != null) {
+                builder.append("(").append(note).append(")");
+                return;
+            }
+            if (body == null) {
+                builder.append(": null");
+                return;
+            }
+            builder.append("(").append(length >= 0 ? length : "?").append(" bytes");
+            if (truncated) {
+                builder.append(", truncated to ").append(body.length);
+            }
+            builder.append("):").append(new String(body, charset));
+        }
+
+    }
+
+    /**
+     * 日志缓冲区和日志线程. 缓冲区容量固定, 满时丢弃, 日志线程空闲时自动退出
+     */
+    static class Writer {
+
+        private static final ExecutorService WRITER_POOL = ThreadPoolExecutorUtils.createLazy(60L, "Slate-HttpClient-BodyLog-%d");
+
+        private final int capacity;
+        private final BlockingQueue<Record> buffer;
+        private final AtomicBoolean writing = new AtomicBoolean(false);
+        private final BodyLogCounter counter;
+
+        Writer(int capacity, BodyLogCounter counter) {
+            this.capacity = capacity;
+            this.buffer = new ArrayBlockingQueue<>(capacity);
+            this.counter = counter;
+        }
+
+        int getCapacity() {
+            return capacity;
+        }
+
+        private void offer(Record record) {
+            if (!buffer.offer(record)) {
+                counter.addDropped();
+                return;
+            }
+            if (writing.compareAndSet(false, true)) {
+                try {
+                    WRITER_POOL.execute(writeTask);
+                } catch (Throwable t) {
+                    writing.set(false);
+                }
+            }
+        }
+
+        private final Runnable writeTask = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Record record;
+                    while ((record = buffer.poll()) != null) {
+                        try {
+                            logger.info(record.toLog());
+                            counter.addLogged();
+                        } catch (Throwable t) {
+                            logger.warn(record.prefix + "Error while printing body log", t);
+                        }
+                    }
+                    //退出前再检查一次, 防止漏掉刚加入的日志
+                    writing.set(false);
+                    if (buffer.isEmpty() || !writing.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            }
+        };
+
+    }
+
+    /**
+     * 超过长度后中止写入
+     */
+    private static class LimitedSink extends ForwardingSink {
+
+        private final Buffer buffer;
+        private final long limit;
+
+        private LimitedSink(Buffer buffer, long limit) {
+            super(buffer);
+            this.buffer = buffer;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            long writable = Math.min(byteCount, limit + 1 - buffer.size());
+            if (writable > 0) {
+                super.write(source, writable);
+            }
+            if (writable < byteCount) {
+                source.skip(byteCount - Math.max(writable, 0L));
+                throw LimitReachedException.INSTANCE;
+            }
+        }
+
+    }
+
+    private static class LimitReachedException extends IOException {
+
+        private static final long serialVersionUID = 6213391867612018347L;
+
+        private static final LimitReachedException INSTANCE = new LimitReachedException();
+
+        private LimitReachedException() {
+            super("Body log limit reached", null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+/**
+ * <p>批量请求中单个请求的结果(MultiHostOkHttpClient#sendAll), 与请求一一对应, 顺序与传入的请求相同</p>
+ *
+ * @author S.Violet
+ */
+public class BulkResult {
+
+    private final int index;
+    private final String host;
+    private final byte[] body;
+    private final Exception error;
+    private final long elapsed;
+
+    BulkResult(int index, String host, byte[] body, Exception error, long elapsed) {
+        this.index = index;
+        this.host = host;
+        this.body = body;
+        this.error = error;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * @return 请求在传入集合中的序号(从0开始)
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return 请求实际使用的后端, 未发送(例如没有后端)时为分配的后端或null
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return 响应报文体, 可能为null
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return 失败原因, 成功时为null. 与异步请求的异常相同: NoHostException/RequestBuildException(包括DeadlineExceededException/
+     * RateLimitException)/IOException/HttpRejectException等
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return true: 请求成功
+     */
+    public boolean isSucceed() {
+        return error == null;
+    }
+
+    /**
+     * @return 从批量开始到该请求结束的耗时ms
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResult{" +
+                "index=" + index +
+                ", host='" + host + '\'' +
+                ", bodyLength=" + (body != null ? body.length : -1) +
+                ", error=" + error +
+                ", elapsed=" + elapsed +
+                '}';
+    }
+
+}
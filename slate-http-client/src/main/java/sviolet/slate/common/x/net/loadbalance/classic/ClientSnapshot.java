@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import sviolet.slate.common.x.net.loadbalance.LoadBalancedHostSnapshot;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>客户端运行状态快照(MultiHostOkHttpClient#getSnapshot), 包括后端状态, 进行中/排队的请求数, 连接池占用和累计计数.</p>
+ *
+ * <p>速率(每秒请求数/失败数)由两次快照的累计计数相减得到, 例如定时获取快照, 与上一次的快照比较:</p>
+ *
+ * <pre>{@code
+ *      ClientSnapshot current = client.getSnapshot();
+ *      double qps = current.getRequestRate(previous);
+ *      previous = current;
+ * }</pre>
+ *
+ * @author S.Violet
+ */
+public class ClientSnapshot {
+
+    private final String tag;
+    private final long timestamp;
+    private final List<LoadBalancedHostSnapshot> hosts;
+    private final Map<String, Integer> inFlightByHost;
+    private final Map<RequestPriority, PriorityLaneStats> priorityLanes;
+    private final int dispatcherRunning;
+    private final int dispatcherQueued;
+    private final int connectionCount;
+    private final int idleConnectionCount;
+    private final long requestCount;
+    private final long failureCount;
+
+    ClientSnapshot(String tag, long timestamp, List<LoadBalancedHostSnapshot> hosts, Map<String, Integer> inFlightByHost,
+                   Map<RequestPriority, PriorityLaneStats> priorityLanes, int dispatcherRunning, int dispatcherQueued,
+                   int connectionCount, int idleConnectionCount, long requestCount, long failureCount) {
+        this.tag = tag;
+        this.timestamp = timestamp;
+        this.hosts = hosts;
+        this.inFlightByHost = inFlightByHost;
+        this.priorityLanes = priorityLanes;
+        this.dispatcherRunning = dispatcherRunning;
+        this.dispatcherQueued = dispatcherQueued;
+        this.connectionCount = connectionCount;
+        this.idleConnectionCount = idleConnectionCount;
+        this.requestCount = requestCount;
+        this.failureCount = failureCount;
+    }
+
+    /**
+     * @return 客户端标识
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return 快照时间
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return 后端状态
+     */
+    public List<LoadBalancedHostSnapshot> getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return 已阻断的后端数量(阻断期)
+     */
+    public int getBlockedHostCount() {
+        int count = 0;
+        for (LoadBalancedHostSnapshot host : hosts) {
+            if (host.isBlocked()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 后端 -> 进行中的请求数(已发出, 响应体尚未关闭, 包括同步/异步/流式请求)
+     */
+    public Map<String, Integer> getInFlightByHost() {
+        return inFlightByHost;
+    }
+
+    /**
+     * @return 进行中的请求总数
+     */
+    public int getInFlight() {
+        int count = 0;
+        for (Integer inFlight : inFlightByHost.values()) {
+            count += inFlight;
+        }
+        return count;
+    }
+
+    /**
+     * @return 异步请求各优先级的调度统计
+     */
+    public Map<RequestPriority, PriorityLaneStats> getPriorityLanes() {
+        return priorityLanes;
+    }
+
+    /**
+     * @return 按优先级排队中(尚未交给OkHttp)的异步请求数
+     */
+    public int getAsyncQueued() {
+        int count = 0;
+        for (PriorityLaneStats stats : priorityLanes.values()) {
+            count += stats.getQueued();
+        }
+        return count;
+    }
+
+    /**
+     * @return OkHttp Dispatcher中执行中的异步请求数
+     */
+    public int getDispatcherRunning() {
+        return dispatcherRunning;
+    }
+
+    /**
+     * @return OkHttp Dispatcher中排队的异步请求数(超过maxThreadsPerHost时)
+     */
+    public int getDispatcherQueued() {
+        return dispatcherQueued;
+    }
+
+    /**
+     * @return 连接池中的连接数
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * @return 连接池中空闲的连接数
+     */
+    public int getIdleConnectionCount() {
+        return idleConnectionCount;
+    }
+
+    /**
+     * @return 连接池中使用中的连接数
+     */
+    public int getActiveConnectionCount() {
+        return Math.max(0, connectionCount - idleConnectionCount);
+    }
+
+    /**
+     * @return 累计完成的请求数
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return 累计失败的请求数(网络故障等需要阻断后端的失败)
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @param previous 上一次的快照(同一个客户端)
+     * @return 两次快照间平均每秒完成的请求数, previous为空或时间间隔为0时返回0
+     */
+    public double getRequestRate(ClientSnapshot previous) {
+        return rate(requestCount, previous != null ? previous.requestCount : 0L, previous);
+    }
+
+    /**
+     * @param previous 上一次的快照(同一个客户端)
+     * @return 两次快照间平均每秒失败的请求数, previous为空或时间间隔为0时返回0
+     */
+    public double getFailureRate(ClientSnapshot previous) {
+        return rate(failureCount, previous != null ? previous.failureCount : 0L, previous);
+    }
+
+    private double rate(long current, long last, ClientSnapshot previous) {
+        if (previous == null || timestamp <= previous.timestamp) {
+            return 0d;
+        }
+        return (current - last) * 1000d / (timestamp - previous.timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return "ClientSnapshot{" +
+                "tag='" + tag + '\'' +
+                ", timestamp=" + timestamp +
+                ", hosts=" + hosts +
+                ", inFlightByHost=" + inFlightByHost +
+                ", priorityLanes=" + priorityLanes +
+                ", dispatcherRunning=" + dispatcherRunning +
+                ", dispatcherQueued=" + dispatcherQueued +
+                ", connectionCount=" + connectionCount +
+                ", idleConnectionCount=" + idleConnectionCount +
+                ", requestCount=" + requestCount +
+                ", failureCount=" + failureCount +
+                '}';
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>压缩统计(单个后端), 记录请求/响应报文体压缩前(raw)和压缩后(compressed)的字节数</p>
+ *
+ * <p>只统计经过压缩/解压处理的报文, 未达到压缩阈值的请求和未压缩的响应不计入.</p>
+ *
+ * @author S.Violet
+ */
+public class CompressionCounter {
+
+    private final AtomicLong requestRawBytes = new AtomicLong(0);
+    private final AtomicLong requestCompressedBytes = new AtomicLong(0);
+    private final AtomicLong responseRawBytes = new AtomicLong(0);
+    private final AtomicLong responseCompressedBytes = new AtomicLong(0);
+
+    CompressionCounter() {
+    }
+
+    void addRequestRaw(long rawBytes) {
+        requestRawBytes.addAndGet(rawBytes);
+    }
+
+    void addRequestCompressed(long compressedBytes) {
+        requestCompressedBytes.addAndGet(compressedBytes);
+    }
+
+    void addResponseRaw(long rawBytes) {
+        responseRawBytes.addAndGet(rawBytes);
+    }
+
+    void addResponseCompressed(long compressedBytes) {
+        responseCompressedBytes.addAndGet(compressedBytes);
+    }
+
+    /**
+     * @return 请求报文体压缩前的字节数
+     */
+    public long getRequestRawBytes() {
+        return requestRawBytes.get();
+    }
+
+    /**
+     * @return 请求报文体压缩后(实际发送)的字节数
+     */
+    public long getRequestCompressedBytes() {
+        return requestCompressedBytes.get();
+    }
+
+    /**
+     * @return 响应报文体解压后的字节数
+     */
+    public long getResponseRawBytes() {
+        return responseRawBytes.get();
+    }
+
+    /**
+     * @return 响应报文体解压前(实际接收)的字节数
+     */
+    public long getResponseCompressedBytes() {
+        return responseCompressedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "requestRawBytes=" + requestRawBytes +
+                ", requestCompressedBytes=" + requestCompressedBytes +
+                ", responseRawBytes=" + responseRawBytes +
+                ", responseCompressedBytes=" + responseCompressedBytes;
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import okhttp3.*;
+import okio.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>请求/响应压缩拦截器(MultiHostOkHttpClient内部使用)</p>
+ *
+ * <p>1.请求报文体长度达到阈值时, 按指定算法压缩, 并设置Content-Encoding. 长度未知(-1)或已设置Content-Encoding的请求不处理.
+ * 默认在发送时流式压缩(分块传输, 长度未知), 不在内存中缓存整个报文体, 不影响报文体自身的写出逻辑(如FileRequestBody的进度回调).
+ * 开启buffered后, 先在内存中压缩完整个报文体, 再以定长(Content-Length)发送, 适用于不接受分块传输的服务端.</p>
+ * <p>2.若请求未设置Accept-Encoding, 则设置为"gzip, deflate", 并由本拦截器负责解压响应(OkHttp自带的透明解压仅支持gzip,
+ * 且在应用层设置Accept-Encoding后会失效). 若请求自行设置了Accept-Encoding, 则响应原样返回, 由调用方自行解压.</p>
+ * <p>3.压缩前后的字节数按后端(scheme://host:port)统计在CompressionCounter中, 后端被移除后由MultiHostOkHttpClient清理.</p>
+ *
+ * @author S.Violet
+ */
+class CompressionInterceptor implements Interceptor {
+
+    static final String ALGORITHM_GZIP = "gzip";
+    static final String ALGORITHM_DEFLATE = "deflate";
+
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ACCEPT_ENCODING = ALGORITHM_GZIP + ", " + ALGORITHM_DEFLATE;
+
+    private final String algorithm;
+    private final long minSize;
+    private final boolean buffered;
+    private final Map<String, CompressionCounter> counters;
+
+    CompressionInterceptor(String algorithm, long minSize, boolean buffered, Map<String, CompressionCounter> counters) {
+        this.algorithm = algorithm;
+        this.minSize = minSize;
+        this.buffered = buffered;
+        this.counters = counters;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        okhttp3.Request request = chain.request();
+        CompressionCounter counter = getCounter(request.url());
+
+        okhttp3.Request.Builder builder = null;
+
+        //压缩请求报文体
+        RequestBody body = request.body();
+        if (body != null && request.header(HEADER_CONTENT_ENCODING) == null) {
+            long rawLength = body.contentLength();
+            if (rawLength >= 0 && rawLength >= minSize) {
+                RequestBody compressedBody = new CompressedRequestBody(body, algorithm, counter);
+                if (buffered) {
+                    //在内存中压缩完, 以定长发送
+                    Buffer buffer = new Buffer();
+                    compressedBody.writeTo(buffer);
+                    compressedBody = RequestBody.create(body.contentType(), buffer.readByteString());
+                }
+                builder = request.newBuilder()
+                        .header(HEADER_CONTENT_ENCODING, algorithm)
+                        .removeHeader(HEADER_CONTENT_LENGTH)
+                        .method(request.method(), compressedBody);
+            }
+        }
+
+        //协商响应压缩
+        boolean decodeResponse = false;
+        if (request.header(HEADER_ACCEPT_ENCODING) == null) {
+            if (builder == null) {
+                builder = request.newBuilder();
+            }
+            builder.header(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODING);
+            decodeResponse = true;
+        }
+
+        Response response = chain.proceed(builder != null ? builder.build() : request);
+
+        if (!decodeResponse) {
+            return response;
+        }
+        return decodeResponse(response, counter);
+    }
+
+    private Response decodeResponse(Response response, CompressionCounter counter) {
+        ResponseBody body = response.body();
+        if (body == null || body.contentLength() == 0 ||
+                response.code() == 204 || response.code() == 304 || "HEAD".equals(response.request().method())) {
+            return response;
+        }
+        String contentEncoding = response.header(HEADER_CONTENT_ENCODING);
+        if (contentEncoding == null) {
+            return response;
+        }
+        contentEncoding = contentEncoding.trim();
+
+        Source compressedSource = new CountingSource(body.source(), counter, false);
+        Source rawSource;
+        if (ALGORITHM_GZIP.equalsIgnoreCase(contentEncoding)) {
+            rawSource = new GzipSource(compressedSource);
+        } else if (ALGORITHM_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+            rawSource = new InflaterSource(compressedSource, new Inflater());
+        } else {
+            //不支持的算法, 原样返回
+            return response;
+        }
+
+        return response.newBuilder()
+                .removeHeader(HEADER_CONTENT_ENCODING)
+                .removeHeader(HEADER_CONTENT_LENGTH)
+                .body(ResponseBody.create(body.contentType(), -1L,
+                        Okio.buffer(new CountingSource(rawSource, counter, true))))
+                .build();
+    }
+
+    private CompressionCounter getCounter(HttpUrl url) {
+        String key = counterKey(url);
+        CompressionCounter counter = counters.get(key);
+        if (counter == null) {
+            CompressionCounter newCounter = new CompressionCounter();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * 统计的Key: scheme://host:port
+     */
+    static String counterKey(HttpUrl url) {
+        return url.scheme() + "://" + url.host() + ":" + url.port();
+    }
+
+    /**
+     * 发送时流式压缩的请求报文体, 长度未知(-1), 压缩前后的字节数在写出时统计
+     */
+    private static class CompressedRequestBody extends RequestBody {
+
+        private final RequestBody delegate;
+        private final String algorithm;
+        private final CompressionCounter counter;
+
+        private CompressedRequestBody(RequestBody delegate, String algorithm, CompressionCounter counter) {
+            this.delegate = delegate;
+            this.algorithm = algorithm;
+            this.counter = counter;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return -1L;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            Sink compressedSink = new CountingSink(sink, counter, false);
+            Sink compressor = ALGORITHM_DEFLATE.equals(algorithm) ?
+                    new DeflaterSink(compressedSink, new Deflater()) : new GzipSink(compressedSink);
+            BufferedSink rawSink = Okio.buffer(new CountingSink(compressor, counter, true));
+            delegate.writeTo(rawSink);
+            //写出压缩尾部, 不关闭OkHttp的sink(由OkHttp负责关闭)
+            rawSink.close();
+        }
+
+    }
+
+    /**
+     * 统计写出字节数. 统计压缩后字节数(raw=false)时, close只flush, 不关闭下层(OkHttp)的sink
+     */
+    private static class CountingSink extends ForwardingSink {
+
+        private final CompressionCounter counter;
+        private final boolean raw;
+
+        private CountingSink(Sink delegate, CompressionCounter counter, boolean raw) {
+            super(delegate);
+            this.counter = counter;
+            this.raw = raw;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            if (raw) {
+                counter.addRequestRaw(byteCount);
+            } else {
+                counter.addRequestCompressed(byteCount);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (raw) {
+                super.close();
+            } else {
+                flush();
+            }
+        }
+
+    }
+
+    /**
+     * 统计读取字节数
+     */
+    private static class CountingSource extends ForwardingSource {
+
+        private final CompressionCounter counter;
+        private final boolean raw;
+
+        private CountingSource(Source delegate, CompressionCounter counter, boolean raw) {
+            super(delegate);
+            this.counter = counter;
+            this.raw = raw;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read > 0) {
+                if (raw) {
+                    counter.addResponseRaw(read);
+                } else {
+                    counter.addResponseCompressed(read);
+                }
+            }
+            return read;
+        }
+
+    }
+
+}
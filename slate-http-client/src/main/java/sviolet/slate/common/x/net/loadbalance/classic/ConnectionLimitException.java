@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import java.io.IOException;
+
+/**
+ * 发往该后端的连接数达到上限(maxConnectionsPerHost), 同步请求在连接超时时间内未获得许可. 不会导致后端被阻断.
+ *
+ * @author S.Violet
+ */
+public class ConnectionLimitException extends IOException {
+
+    private static final long serialVersionUID = -2958165324671270482L;
+
+    public ConnectionLimitException(String message) {
+        super(message);
+    }
+
+}
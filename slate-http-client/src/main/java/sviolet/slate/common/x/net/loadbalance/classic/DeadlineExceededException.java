@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+/**
+ * 请求在发送前已超过截止时间(网络请求发送前的异常, 准备阶段异常), 例如异步请求排队时间过长, 或流式请求重连时截止时间已到.
+ * 发送过程中到达截止时间时, 抛出的是OkHttp的InterruptedIOException("timeout").
+ *
+ * @author S.Violet
+ */
+public class DeadlineExceededException extends RequestBuildException {
+
+    private static final long serialVersionUID = -2315866502179436628L;
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import sviolet.thistle.compat.concurrent.CompatThreadFactoryBuilder;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>请求截止时间定时器(所有客户端共用一个线程): 排队中的异步请求到期移出队列, 在OkHttp队列中等待的请求到期取消.</p>
+ *
+ * <p>任务在定时线程中执行, 必须非常轻量, 耗时操作(例如回调)需交给其他线程池.</p>
+ *
+ * @author S.Violet
+ */
+final class DeadlineTimer {
+
+    private DeadlineTimer() {
+    }
+
+    /**
+     * 在截止时间执行任务
+     * @param task 任务(必须非常轻量)
+     * @param deadline 截止时间(System.currentTimeMillis())
+     * @return 用于取消任务, 取消后立即从定时器中移除
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long deadline) {
+        return InstanceHolder.TIMER.schedule(task, Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private static final class InstanceHolder {
+
+        private static final ScheduledThreadPoolExecutor TIMER;
+
+        static {
+            TIMER = new ScheduledThreadPoolExecutor(1,
+                    new CompatThreadFactoryBuilder().setNameFormat("Slate-HttpClient-Deadline-%d").setDaemon(true).build());
+            TIMER.setRemoveOnCancelPolicy(true);
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文件请求报文体, 通过FileChannel.transferTo分段写入, 不会将整个文件读入内存
+ *
+ * @author S.Violet
+ */
+class FileRequestBody extends RequestBody {
+
+    static final int TRANSFER_CHUNK_SIZE = 64 * 1024;
+
+    private final MediaType contentType;
+    private final Path file;
+    private final ProgressListener progressListener;
+
+    FileRequestBody(MediaType contentType, Path file, ProgressListener progressListener) {
+        this.contentType = contentType;
+        this.file = file;
+        this.progressListener = progressListener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return Files.size(file);
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long count = channel.transferTo(position, Math.min(TRANSFER_CHUNK_SIZE, size - position), sink);
+                if (count <= 0) {
+                    throw new IOException("File " + file + " truncated while uploading, expected size " + size + ", actual " + position);
+                }
+                position += count;
+                if (progressListener != null) {
+                    progressListener.onProgress(position, size);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileRequestBody{" +
+                "file=" + file +
+                '}';
+    }
+
+}
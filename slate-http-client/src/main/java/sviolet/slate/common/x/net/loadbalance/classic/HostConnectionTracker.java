@@ -0,0 +1,662 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import okhttp3.*;
+import okhttp3.EventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sviolet.thistle.util.concurrent.ThreadPoolExecutorUtils;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>按后端(scheme://host:port)跟踪进行中的请求和连接池中的连接(MultiHostOkHttpClient内部使用)</p>
+ *
+ * <p>后端被移除时(drain方法), 等待发往该后端的请求结束(OkHttp的callEnd/callFailed, 即响应体关闭), 超过期限的请求被取消,
+ * 然后将该后端的连接标记为不可复用, 空闲的连接立即从连接池中移除并关闭. 若等待期间后端又被加回, 则不做清理.</p>
+ *
+ * <p>按后端限制连接数(同步请求在拦截器中acquireConnection等待许可, 异步请求在PriorityDispatcher排队时tryAcquireConnection,
+ * 不占用线程等待), 以及连接归还连接池后按后端整理空闲连接(见IdleLimits, 在后台线程中执行, 每TRIM_DELAY最多一次).</p>
+ *
+ * <p>清理连接和整理空闲连接需要访问OkHttp内部API, 集中在OkHttpInternals中, OkHttp版本不支持时不做这两项(只跟踪请求和限制连接数).</p>
+ *
+ * @author S.Violet
+ */
+class HostConnectionTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(HostConnectionTracker.class);
+
+    private static final long DRAIN_CHECK_INTERVAL = 100L;
+    private static final long TRIM_DELAY = 1000L;
+
+    //后端 -> 进行中的请求
+    private final Map<String, Set<Call>> calls = new ConcurrentHashMap<>();
+    //后端 -> 连接(弱引用) -> 所属连接池
+    private final Map<String, Map<Connection, ConnectionPool>> connections = new ConcurrentHashMap<>();
+    //后端 -> 连接数限制
+    private final Map<String, ConnectionPermits> permits = new ConcurrentHashMap<>();
+    //请求 -> 占用的连接数许可, 请求结束时归还
+    private final Map<Call, ConnectionPermits> acquiredPermits = new ConcurrentHashMap<>();
+
+    private final Queue<Drain> drains = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final ExecutorService drainThreadPool = ThreadPoolExecutorUtils.createLazy(60L, "Slate-HttpClient-Drain-%d");
+
+    //最近一次归还连接的连接池(及其空闲连接数限制), 由后台线程整理
+    private volatile TrimTarget trimTarget;
+    private final AtomicBoolean trimScheduled = new AtomicBoolean(false);
+    private final ExecutorService trimThreadPool = ThreadPoolExecutorUtils.createLazy(60L, "Slate-HttpClient-IdleTrim-%d");
+
+    private final PermitListener permitListener;
+
+    HostConnectionTracker() {
+        this(null);
+    }
+
+    /**
+     * @param permitListener 连接数许可归还时回调(用于放行排队中的异步请求), 可为null
+     */
+    HostConnectionTracker(PermitListener permitListener) {
+        this.permitListener = permitListener;
+    }
+
+    /**
+     * 创建事件监听器工厂, 每次创建OkHttpClient时调用
+     * @param connectionPool OkHttpClient的连接池
+     * @param idleLimits 空闲连接数限制, 连接归还连接池后按此整理空闲连接, 为null时不整理
+     */
+    EventListener.Factory newEventListenerFactory(final ConnectionPool connectionPool, IdleLimits idleLimits) {
+        final TrimTarget trimTarget = idleLimits != null ? new TrimTarget(connectionPool, idleLimits) : null;
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(Call call) {
+                return new TrackingEventListener(connectionPool, trimTarget);
+            }
+        };
+    }
+
+    /**
+     * <p>获取后端的连接数许可, 请求结束(响应体关闭)或失败时自动归还. 按HTTP/1.1一个连接同时只处理一个请求,
+     * 以发往该后端的进行中的请求数限制连接数.</p>
+     *
+     * @param call 请求
+     * @param url 请求URL
+     * @param limit 每个后端的最大连接数, <=0不限制
+     * @param timeout 等待许可的时长ms
+     * @throws ConnectionLimitException 超时未获得许可
+     */
+    void acquireConnection(Call call, HttpUrl url, int limit, long timeout) throws ConnectionLimitException {
+        if (limit <= 0) {
+            return;
+        }
+        String key = toKey(url);
+        ConnectionPermits connectionPermits = getPermits(key);
+        try {
+            if (!connectionPermits.acquire(limit, timeout)) {
+                throw new ConnectionLimitException("Too many connections to host " + key + ", limit " + limit + ", timeout " + timeout + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionLimitException("Interrupted while waiting for connection permit of host " + key);
+        }
+        acquiredPermits.put(call, connectionPermits);
+    }
+
+    /**
+     * 非阻塞地获取后端的连接数许可(异步请求排队放行时), 获得的许可须通过bindConnection交给请求(请求结束时自动归还),
+     * 或通过releaseConnection归还
+     * @param key 后端(见toKey)
+     * @param limit 每个后端的最大连接数, <=0时不限制(仍然计数, 保证归还时成对)
+     * @return true: 获得许可
+     */
+    boolean tryAcquireConnection(String key, int limit) {
+        return getPermits(key).tryAcquire(limit > 0 ? limit : Integer.MAX_VALUE);
+    }
+
+    /**
+     * 将tryAcquireConnection获得的许可交给请求, 请求结束(响应体关闭)或失败时自动归还
+     */
+    void bindConnection(Call call, String key) {
+        ConnectionPermits connectionPermits = getPermits(key);
+        ConnectionPermits previous = acquiredPermits.put(call, connectionPermits);
+        if (previous != null) {
+            releasePermits(previous);
+        }
+    }
+
+    /**
+     * 归还tryAcquireConnection获得的(未交给请求的)许可
+     */
+    void releaseConnection(String key) {
+        releasePermits(getPermits(key));
+    }
+
+    /**
+     * 拦截器中抛出RuntimeException/Error时, OkHttp不会回调callEnd/callFailed, 在此归还许可并停止跟踪该请求
+     */
+    void callAborted(Call call) {
+        ConnectionPermits connectionPermits = acquiredPermits.remove(call);
+        if (connectionPermits != null) {
+            releasePermits(connectionPermits);
+        }
+        Set<Call> set = calls.get(toKey(call.request().url()));
+        if (set != null) {
+            set.remove(call);
+        }
+    }
+
+    private ConnectionPermits getPermits(String key) {
+        ConnectionPermits connectionPermits = permits.get(key);
+        if (connectionPermits == null) {
+            ConnectionPermits newConnectionPermits = new ConnectionPermits(key);
+            connectionPermits = permits.putIfAbsent(key, newConnectionPermits);
+            if (connectionPermits == null) {
+                connectionPermits = newConnectionPermits;
+            }
+        }
+        return connectionPermits;
+    }
+
+    /**
+     * 归还许可, 在许可锁外回调监听器
+     */
+    private void releasePermits(ConnectionPermits connectionPermits) {
+        connectionPermits.release();
+        PermitListener permitListener = this.permitListener;
+        if (permitListener != null) {
+            try {
+                permitListener.onPermitReleased(connectionPermits.key);
+            } catch (Throwable t) {
+                if (logger.isErrorEnabled()) {
+                    logger.error("Error while notifying connection permit released", t);
+                }
+            }
+        }
+    }
+
+    /**
+     * 异步等待发往该后端的请求结束, 然后清理该后端的连接
+     * @param url 被移除的后端URL
+     * @param timeout 等待期限ms, 超过期限的请求被取消
+     * @param tag 日志标识
+     * @param stillRemoved 清理前检查后端是否仍处于被移除状态
+     */
+    void drain(String url, long timeout, String tag, StillRemovedChecker stillRemoved) {
+        String key = toKey(url);
+        if (key == null) {
+            return;
+        }
+        drains.offer(new Drain(url, key, System.currentTimeMillis() + Math.max(0L, timeout), tag, stillRemoved));
+        if (draining.compareAndSet(false, true)) {
+            drainThreadPool.execute(drainTask);
+        }
+    }
+
+    /**
+     * 发往该后端的进行中的请求数(从发起到响应体关闭)
+     * @param url 后端URL
+     */
+    int getInFlight(String url) {
+        String key = toKey(url);
+        Set<Call> set = key != null ? calls.get(key) : null;
+        return set != null ? set.size() : 0;
+    }
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                List<Drain> pending = new ArrayList<>();
+                while (true) {
+                    Drain drain;
+                    while ((drain = drains.poll()) != null) {
+                        pending.add(drain);
+                    }
+                    long currentTimeMillis = System.currentTimeMillis();
+                    Iterator<Drain> iterator = pending.iterator();
+                    while (iterator.hasNext()) {
+                        drain = iterator.next();
+                        Set<Call> set = calls.get(drain.key);
+                        int inFlight = set != null ? set.size() : 0;
+                        if (inFlight > 0 && currentTimeMillis < drain.deadline) {
+                            continue;
+                        }
+                        iterator.remove();
+                        finishDrain(drain, set, inFlight);
+                    }
+                    if (pending.isEmpty()) {
+                        //退出前再检查一次, 防止漏掉刚加入的任务
+                        draining.set(false);
+                        if (drains.isEmpty() || !draining.compareAndSet(false, true)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    Thread.sleep(DRAIN_CHECK_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                draining.set(false);
+            }
+        }
+    };
+
+    private void finishDrain(Drain drain, Set<Call> set, int inFlight) {
+        try {
+            if (!drain.stillRemoved.isStillRemoved(drain.url)) {
+                if (logger.isInfoEnabled()) {
+                    logger.info(drain.tag + "Host " + drain.url + " re-added while draining, skip connection eviction");
+                }
+                return;
+            }
+            //超过期限仍未结束的请求
+            if (inFlight > 0) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn(drain.tag + "Host " + drain.url + " removed, " + inFlight + " requests not finished before deadline, cancel them");
+                }
+                for (Call call : set.toArray(new Call[0])) {
+                    call.cancel();
+                }
+            }
+            int evicted = evictConnections(drain.key);
+            if (logger.isInfoEnabled()) {
+                logger.info(drain.tag + "Host " + drain.url + " removed, drained, " + evicted + " idle connections evicted");
+            }
+        } catch (Throwable t) {
+            if (logger.isErrorEnabled()) {
+                logger.error(drain.tag + "Error while draining host " + drain.url, t);
+            }
+        }
+    }
+
+    /**
+     * 将后端的连接标记为不可复用, 空闲的连接从连接池中移除并关闭, 使用中的连接在请求结束后由连接池移除
+     */
+    private int evictConnections(String key) {
+        Map<Connection, ConnectionPool> map = connections.get(key);
+        if (map == null || !OkHttpInternals.isSupported()) {
+            return 0;
+        }
+        Map<Connection, ConnectionPool> snapshot;
+        synchronized (map) {
+            snapshot = new HashMap<>(map);
+            map.clear();
+        }
+        List<Socket> sockets = new ArrayList<>(snapshot.size());
+        for (Map.Entry<Connection, ConnectionPool> entry : snapshot.entrySet()) {
+            ConnectionPool connectionPool = entry.getValue();
+            synchronized (OkHttpInternals.lockOf(connectionPool)) {
+                evictIdle(connectionPool, entry.getKey(), sockets);
+            }
+        }
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (Throwable ignore) {
+            }
+        }
+        return sockets.size();
+    }
+
+    /**
+     * 连接归还连接池后, 在后台线程中整理空闲连接(延迟TRIM_DELAY, 期间的多次归还合并为一次整理, 不在归还连接的线程中遍历连接池)
+     */
+    private void scheduleTrim(TrimTarget target) {
+        if (trimTarget != target) {
+            trimTarget = target;
+        }
+        if (trimScheduled.compareAndSet(false, true)) {
+            trimThreadPool.execute(trimTask);
+        }
+    }
+
+    private final Runnable trimTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(TRIM_DELAY);
+            } catch (InterruptedException e) {
+                trimScheduled.set(false);
+                return;
+            }
+            //先复位, 整理期间归还的连接会触发下一次整理
+            trimScheduled.set(false);
+            TrimTarget target = trimTarget;
+            if (target == null) {
+                return;
+            }
+            try {
+                trimIdleConnections(target.connectionPool, target.idleLimits);
+            } catch (Throwable t) {
+                if (logger.isErrorEnabled()) {
+                    logger.error("Error while trimming idle connections", t);
+                }
+            }
+        }
+    };
+
+    /**
+     * 整理空闲连接: 先将每个后端的空闲连接数减到maxIdlePerHost, 连接池的空闲连接总数仍超过maxIdle时,
+     * 从空闲连接最多的后端开始关闭, 但每个后端至少保留minIdlePerHost个. 优先关闭空闲最久的连接.
+     */
+    private void trimIdleConnections(ConnectionPool connectionPool, IdleLimits idleLimits) {
+        int maxIdle = idleLimits.getMaxIdle();
+        int maxIdlePerHost = idleLimits.getMaxIdlePerHost();
+        int minIdlePerHost = Math.min(idleLimits.getMinIdlePerHost(), maxIdlePerHost);
+        //空闲连接总数不超过单个后端的上限(也不超过总数上限)时, 不可能有需要整理的连接
+        if (connectionPool.idleConnectionCount() <= Math.min(maxIdle, maxIdlePerHost)) {
+            return;
+        }
+        List<List<Connection>> allConnections = new ArrayList<>();
+        for (String hostKey : connections.keySet()) {
+            allConnections.add(snapshotConnections(hostKey, connectionPool));
+        }
+        List<Socket> sockets = new ArrayList<>();
+        synchronized (OkHttpInternals.lockOf(connectionPool)) {
+            //每个后端
+            List<List<Connection>> idleByHost = new ArrayList<>(allConnections.size());
+            for (List<Connection> list : allConnections) {
+                List<Connection> idle = filterIdle(list);
+                while (idle.size() > maxIdlePerHost) {
+                    evictIdle(connectionPool, idle.remove(0), sockets);
+                }
+                idleByHost.add(idle);
+            }
+            //全部后端
+            int total = connectionPool.idleConnectionCount();
+            while (total > maxIdle) {
+                List<Connection> most = null;
+                for (List<Connection> idle : idleByHost) {
+                    if (idle.size() > minIdlePerHost && (most == null || idle.size() > most.size())) {
+                        most = idle;
+                    }
+                }
+                if (most == null) {
+                    break;
+                }
+                evictIdle(connectionPool, most.remove(0), sockets);
+                total--;
+            }
+        }
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (Throwable ignore) {
+            }
+        }
+    }
+
+    private List<Connection> snapshotConnections(String key, ConnectionPool connectionPool) {
+        Map<Connection, ConnectionPool> map = connections.get(key);
+        if (map == null) {
+            return Collections.emptyList();
+        }
+        List<Connection> list = new ArrayList<>();
+        synchronized (map) {
+            for (Map.Entry<Connection, ConnectionPool> entry : map.entrySet()) {
+                if (entry.getValue() == connectionPool) {
+                    list.add(entry.getKey());
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 筛选连接池中的空闲连接, 空闲最久的在前(需持有连接池锁)
+     */
+    private static List<Connection> filterIdle(List<Connection> list) {
+        List<Connection> idle = new ArrayList<>(list.size());
+        for (Connection connection : list) {
+            if (OkHttpInternals.isIdle(connection)) {
+                idle.add(connection);
+            }
+        }
+        Collections.sort(idle, IDLE_AT_COMPARATOR);
+        return idle;
+    }
+
+    /**
+     * 将连接标记为不可复用, 空闲的连接移出连接池(需持有连接池锁), socket在锁外关闭
+     */
+    private static void evictIdle(ConnectionPool connectionPool, Connection connection, List<Socket> sockets) {
+        Socket socket = OkHttpInternals.evict(connectionPool, connection);
+        if (socket != null) {
+            sockets.add(socket);
+        }
+    }
+
+    private static final Comparator<Connection> IDLE_AT_COMPARATOR = new Comparator<Connection>() {
+        @Override
+        public int compare(Connection o1, Connection o2) {
+            return Long.compare(OkHttpInternals.getIdleAtNanos(o1), OkHttpInternals.getIdleAtNanos(o2));
+        }
+    };
+
+    private static String toKey(String url) {
+        HttpUrl httpUrl = url != null ? HttpUrl.parse(url.trim()) : null;
+        return httpUrl != null ? toKey(httpUrl) : null;
+    }
+
+    static String toKey(HttpUrl url) {
+        return url.scheme() + "://" + url.host() + ":" + url.port();
+    }
+
+    /**
+     * 空闲连接数限制, 每次整理空闲连接时获取(可随后端数量变化)
+     */
+    interface IdleLimits {
+
+        /**
+         * 连接池的空闲连接总数
+         */
+        int getMaxIdle();
+
+        /**
+         * 每个后端的最大空闲连接数
+         */
+        int getMaxIdlePerHost();
+
+        /**
+         * 每个后端的最少保留空闲连接数(关闭超过总数的空闲连接时保留)
+         */
+        int getMinIdlePerHost();
+
+    }
+
+    /**
+     * 后端连接数许可, 限制值每次获取时传入(可运行时修改)
+     */
+    private static class ConnectionPermits {
+
+        private final String key;
+        private int inUse = 0;
+
+        private ConnectionPermits(String key) {
+            this.key = key;
+        }
+
+        private synchronized boolean tryAcquire(int limit) {
+            if (inUse >= limit) {
+                return false;
+            }
+            inUse++;
+            return true;
+        }
+
+        private synchronized boolean acquire(int limit, long timeout) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (inUse >= limit) {
+                long remain = deadline - System.nanoTime();
+                if (remain <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remain);
+            }
+            inUse++;
+            return true;
+        }
+
+        private synchronized void release() {
+            inUse--;
+            notify();
+        }
+
+    }
+
+    /**
+     * 连接数许可归还监听器
+     */
+    interface PermitListener {
+
+        /**
+         * 许可已归还(在许可锁外回调)
+         * @param key 后端(见toKey)
+         */
+        void onPermitReleased(String key);
+
+    }
+
+    /**
+     * 清理前检查后端是否仍处于被移除状态
+     */
+    interface StillRemovedChecker {
+
+        boolean isStillRemoved(String url);
+
+    }
+
+    private static class TrimTarget {
+
+        private final ConnectionPool connectionPool;
+        private final IdleLimits idleLimits;
+
+        private TrimTarget(ConnectionPool connectionPool, IdleLimits idleLimits) {
+            this.connectionPool = connectionPool;
+            this.idleLimits = idleLimits;
+        }
+
+    }
+
+    private static class Drain {
+
+        private final String url;
+        private final String key;
+        private final long deadline;
+        private final String tag;
+        private final StillRemovedChecker stillRemoved;
+
+        private Drain(String url, String key, long deadline, String tag, StillRemovedChecker stillRemoved) {
+            this.url = url;
+            this.key = key;
+            this.deadline = deadline;
+            this.tag = tag;
+            this.stillRemoved = stillRemoved;
+        }
+
+    }
+
+    private class TrackingEventListener extends EventListener {
+
+        private final ConnectionPool connectionPool;
+        private final TrimTarget trimTarget;
+        private String key;
+
+        private TrackingEventListener(ConnectionPool connectionPool, TrimTarget trimTarget) {
+            this.connectionPool = connectionPool;
+            this.trimTarget = trimTarget;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            key = toKey(call.request().url());
+            Set<Call> set = calls.get(key);
+            if (set == null) {
+                Set<Call> newSet = ConcurrentHashMap.newKeySet();
+                set = calls.putIfAbsent(key, newSet);
+                if (set == null) {
+                    set = newSet;
+                }
+            }
+            set.add(call);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (!OkHttpInternals.isSupported() || !OkHttpInternals.isPooledConnection(connection)) {
+                return;
+            }
+            Route route = connection.route();
+            String connectionKey = toKey(route.address().url());
+            Map<Connection, ConnectionPool> map = connections.get(connectionKey);
+            if (map == null) {
+                Map<Connection, ConnectionPool> newMap = new WeakHashMap<>();
+                map = connections.putIfAbsent(connectionKey, newMap);
+                if (map == null) {
+                    map = newMap;
+                }
+            }
+            synchronized (map) {
+                map.put(connection, connectionPool);
+            }
+        }
+
+        @Override
+        public void connectionReleased(Call call, Connection connection) {
+            if (trimTarget == null || !OkHttpInternals.isSupported() || !OkHttpInternals.isPooledConnection(connection)) {
+                return;
+            }
+            scheduleTrim(trimTarget);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            release(call);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            release(call);
+        }
+
+        private void release(Call call) {
+            ConnectionPermits connectionPermits = acquiredPermits.remove(call);
+            if (connectionPermits != null) {
+                releasePermits(connectionPermits);
+            }
+            if (key == null) {
+                return;
+            }
+            Set<Call> set = calls.get(key);
+            if (set != null) {
+                set.remove(call);
+            }
+        }
+
+    }
+
+}
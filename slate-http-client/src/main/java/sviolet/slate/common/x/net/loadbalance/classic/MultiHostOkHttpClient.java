@@ -20,12 +20,15 @@
 package sviolet.slate.common.x.net.loadbalance.classic;
 
 import okhttp3.*;
+import okio.BufferedSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sviolet.slate.common.x.monitor.txtimer.TimerContext;
 import sviolet.slate.common.x.monitor.txtimer.noref.NoRefTxTimer;
 import sviolet.slate.common.x.monitor.txtimer.noref.NoRefTxTimerFactory;
 import sviolet.slate.common.x.net.loadbalance.LoadBalancedHostManager;
+import sviolet.slate.common.x.net.loadbalance.LoadBalancedHostSnapshot;
+import sviolet.slate.common.x.net.loadbalance.LoadBalancedOutlierDetector;
 import sviolet.thistle.util.common.CloseableUtils;
 import sviolet.thistle.util.conversion.ByteUtils;
 import sviolet.thistle.util.judge.CheckUtils;
@@ -36,19 +39,35 @@ import javax.net.ssl.X509TrustManager;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * <p>支持均衡负载的OkHttpClient(简单的示例模板, 建议自行实现)</p>
@@ -165,8 +184,17 @@ public class MultiHostOkHttpClient {
     private static final String LOG_PREFIX = "HttpClient | ";
 
     private static final long PASSIVE_BLOCK_DURATION = 30000L;
+    private static final long HOST_DRAIN_TIMEOUT = 30000L;
     private static final String MEDIA_TYPE = "application/json;charset=utf-8";
     private static final String ENCODE = "utf-8";
+    private static final String FILE_MEDIA_TYPE = "application/octet-stream";
+    private static final int STREAM_MAX_RECONNECTS = 3;
+    private static final long STREAM_RECONNECT_DELAY = 1000L;
+    private static final String COMPRESSION_ALGORITHM = CompressionInterceptor.ALGORITHM_GZIP;
+    private static final long COMPRESSION_MIN_SIZE = 1024L;
+    private static final int BODY_LOG_MAX_LENGTH = 1024;
+    private static final int BODY_LOG_BUFFER_SIZE = 1024;
+    private static final long BULK_AWAIT_GRACE = 1000L;
     private static final String TXTIMER_GROUP_SEND = "MultiHostOkHttpClient-Send-";
     private static final String TXTIMER_GROUP_CONNECT = "MultiHostOkHttpClient-Connect-";
 
@@ -174,7 +202,24 @@ public class MultiHostOkHttpClient {
     private static final AtomicInteger requestCounter = new AtomicInteger(0);
 
     private volatile OkHttpClient okHttpClient;
+    private volatile InspectClient inspectClient;
     private LoadBalancedHostManager hostManager;
+    private volatile LoadBalancedOutlierDetector outlierDetector;
+    private final HostConnectionTracker connectionTracker = new HostConnectionTracker(new HostConnectionTracker.PermitListener() {
+        @Override
+        public void onPermitReleased(String key) {
+            //后端连接数许可归还, 放行排队中的异步请求
+            priorityDispatcher.hostPermitReleased(key, settings.maxThreads, settings.highPriorityReservedThreads, settings.normalPriorityReservedThreads);
+        }
+    });
+    private final PriorityDispatcher priorityDispatcher = new PriorityDispatcher(new PriorityDispatcher.HostPermits() {
+        @Override
+        public boolean tryAcquire(String host) {
+            return connectionTracker.tryAcquireConnection(host, settings.maxConnectionsPerHost);
+        }
+    });
+    private final AtomicLong requestCount = new AtomicLong(0);
+    private final AtomicLong failureCount = new AtomicLong(0);
 
     private Settings settings = new Settings();
     private volatile boolean refreshSettings = false;
@@ -184,6 +229,16 @@ public class MultiHostOkHttpClient {
 
     private NoRefTxTimer txTimer;
 
+    private final Map<String, CompressionCounter> compressionCounters = new ConcurrentHashMap<>();
+    private final BodyLogCounter bodyLogCounter = new BodyLogCounter();
+    private BodyLogInterceptor.Writer bodyLogWriter;
+
+    private volatile TokenBucketRateLimiter rateLimiter;
+    private final Map<String, TokenBucketRateLimiter> hostRateLimiters = new ConcurrentHashMap<>();
+    private volatile int hostRateLimitersHostCount = 0;
+
+    private volatile long lastRequestTime = System.currentTimeMillis();
+
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // 请求 ///////////////////////////////////////////////////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -198,8 +253,7 @@ public class MultiHostOkHttpClient {
      *                  获取域名端口后面的请求路径(pathSegments)和请求参数(query).
      */
     public Request post(String urlSuffix) {
-        return new Request(this, urlSuffix, true,
-                settings.requestTraceEnabled ? requestCounter.getAndIncrement() & 0x00000FFF : Integer.MAX_VALUE);
+        return new Request(this, urlSuffix, true, nextRequestId());
     }
 
     /**
@@ -212,8 +266,62 @@ public class MultiHostOkHttpClient {
      *                  获取域名端口后面的请求路径(pathSegments)和请求参数(query).
      */
     public Request get(String urlSuffix) {
-        return new Request(this, urlSuffix, false,
-                settings.requestTraceEnabled ? requestCounter.getAndIncrement() & 0x00000FFF : Integer.MAX_VALUE);
+        return new Request(this, urlSuffix, false, nextRequestId());
+    }
+
+    /**
+     * <p>创建可复用的请求端点(默认POST), 端点配置完成后可多线程共用, 用于高频调用的固定接口.</p>
+     *
+     * <p>端点会预先解析URL后缀(按后端缓存解析后的HttpUrl), 预先构建静态请求头(客户端配置+端点配置), 每次请求只需处理
+     * 可变部分(URL参数/报文体/请求级别的请求头).</p>
+     *
+     * <pre>{@code
+     *      //创建一次, 重复使用
+     *      Endpoint endpoint = client.endpoint("/api/x").post();
+     *      //请求
+     *      Foo foo = endpoint.request().beanBody(bar).sendForBean(Foo.class);
+     * }</pre>
+     *
+     * @param urlSuffix 请求的url后缀, 不含协议/域名/端口, 例如/user/add.json
+     */
+    public Endpoint endpoint(String urlSuffix) {
+        return new Endpoint(this, urlSuffix);
+    }
+
+    /**
+     * <p>批量发送请求(异步方式)并等待全部完成, 返回与请求一一对应的结果(顺序与传入的请求相同), 个别请求失败不影响其他请求,
+     * 本方法不会抛出异常. 用于聚合类服务一次向同一个服务端集群发送大量(几十到几百个)请求的场合, 替代enqueue + CountDownLatch.</p>
+     *
+     * <p>1.同时进行中的请求数不超过concurrency, 一个请求结束后才发送下一个, 避免占满客户端的并发数(maxThreads). 请求仍然按各自的
+     * 优先级调度, 批量请求建议设置为低优先级(Request#priority(RequestPriority.LOW)).<br>
+     * 2.请求按健康的后端(不在阻断期和恢复期)中进行中请求最少的分配, 后端间负载均匀. 没有健康的后端时, 按常规方式选择后端.<br>
+     * 3.timeout是整个批量的时限, 作为每个请求的截止时间(请求自身的截止时间更早时以请求为准, 详见Request#deadlineAt), 到期后
+     * 未发送的请求不再发送, 结果为DeadlineExceededException.<br>
+     * 4.响应报文体以byte[]返回(与sendForBytes相同, 受maxReadLength限制).<br>
+     * 5.等待期间调用线程被中断时, 未完成的请求结果为InterruptedIOException, 并恢复中断标记.</p>
+     *
+     * <pre>{@code
+     *      List<MultiHostOkHttpClient.Request> requests = new ArrayList<>();
+     *      for (String id : ids) {
+     *          requests.add(client.get("/user/get.json").urlParam("id", id).priority(RequestPriority.LOW));
+     *      }
+     *      List<BulkResult> results = client.sendAll(requests, 16, 3000L);
+     * }</pre>
+     *
+     * @param requests 由本客户端创建的请求(未发送过的)
+     * @param concurrency 同时进行中的请求数上限, 小于1时按1处理
+     * @param timeout 整个批量的时限ms, 小于等于0不限
+     * @return 结果, 与请求一一对应
+     */
+    public List<BulkResult> sendAll(Collection<Request> requests, int concurrency, long timeout) {
+        if (requests == null || requests.isEmpty()) {
+            return new ArrayList<>(0);
+        }
+        return new BulkCall(requests, concurrency, timeout).execute();
+    }
+
+    private int nextRequestId() {
+        return settings.requestTraceEnabled ? requestCounter.getAndIncrement() & 0x00000FFF : Integer.MAX_VALUE;
     }
 
     /**
@@ -237,6 +345,7 @@ public class MultiHostOkHttpClient {
         private Map<String, Object> formBody;
         private Object beanBody;
         private RequestBody customBody;
+        private Path fileBody;
 
         //senior
         private boolean autoClose = true;
@@ -245,12 +354,31 @@ public class MultiHostOkHttpClient {
         private String encode;
         private DataConverter dataConverter;
         private Stub stub = new Stub();
+        private Endpoint endpoint;
+        private ProgressListener progressListener;
+        private int streamMaxReconnects = STREAM_MAX_RECONNECTS;
+        private long streamReconnectDelay = STREAM_RECONNECT_DELAY;
+        private RequestPriority priority = RequestPriority.NORMAL;
+        //批量请求分配的后端
+        private LoadBalancedHostManager.Host assignedHost;
 
         private Request(MultiHostOkHttpClient client, String urlSuffix, boolean isPost, int requestId) {
             this.clientReference = new WeakReference<>(client);
             this.urlSuffix = urlSuffix;
             this.isPost = isPost;
             this.requestId = requestId;
+            this.stub.requestId = requestId;
+        }
+
+        private Request(MultiHostOkHttpClient client, Endpoint endpoint, int requestId) {
+            this(client, endpoint.urlSuffix, endpoint.isPost, requestId);
+            this.endpoint = endpoint;
+            this.encode = endpoint.encode;
+            this.dataConverter = endpoint.dataConverter;
+            this.priority = endpoint.priority;
+            if (endpoint.deadlineTimeout > 0) {
+                this.stub.deadline = System.currentTimeMillis() + endpoint.deadlineTimeout;
+            }
         }
 
         /**
@@ -283,6 +411,7 @@ public class MultiHostOkHttpClient {
             this.formBody = null;
             this.beanBody = null;
             this.customBody = null;
+            this.fileBody = null;
             return this;
         }
 
@@ -297,6 +426,7 @@ public class MultiHostOkHttpClient {
             this.formBody = formBody;
             this.beanBody = null;
             this.customBody = null;
+            this.fileBody = null;
             return this;
         }
 
@@ -312,6 +442,7 @@ public class MultiHostOkHttpClient {
             this.formBody = null;
             this.beanBody = beanBody;
             this.customBody = null;
+            this.fileBody = null;
             return this;
         }
 
@@ -342,6 +473,23 @@ public class MultiHostOkHttpClient {
             this.formBody = null;
             this.beanBody = null;
             this.customBody = customBody;
+            this.fileBody = null;
+            return this;
+        }
+
+        /**
+         * <p>[配置]POST请求专用: 请求报文体, 文件. 发送时分段读取文件写入连接(FileChannel.transferTo), 不会将整个文件读入内存,
+         * 可以配合progressListener监听上传进度. MediaType默认为application/octet-stream, 可通过mediaType()修改</p>
+         */
+        public Request fileBody(Path fileBody) {
+            if (!isPost) {
+                throw new IllegalArgumentException("You can not set body in GET request");
+            }
+            this.body = null;
+            this.formBody = null;
+            this.beanBody = null;
+            this.customBody = null;
+            this.fileBody = fileBody;
             return this;
         }
 
@@ -419,6 +567,36 @@ public class MultiHostOkHttpClient {
             return this;
         }
 
+        /**
+         * <p>[配置]传输进度监听器, 对fileBody上传和sendToFile下载有效</p>
+         */
+        public Request progressListener(ProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        /**
+         * <p>[配置]流式请求专用(sendForLines/sendForEvents): 空闲超时, 单位ms. 超过该时间没有收到任何数据, 视为连接中断,
+         * 切换后端重连. 等同于readTimeout</p>
+         */
+        public Request idleTimeout(int idleTimeout) {
+            this.stub.readTimeout = idleTimeout;
+            return this;
+        }
+
+        /**
+         * <p>[配置]流式请求专用(sendForLines/sendForEvents): 连接中断(网络异常/空闲超时)后的重连策略, 重连时会重新选择后端,
+         * 中断的后端按被动阻断规则阻断. 默认最多连续重连3次, 间隔1000ms(SSE服务端可以通过retry字段修改间隔)</p>
+         *
+         * @param maxReconnects 最大连续重连次数, 收到数据后重新计数, 0表示不重连
+         * @param reconnectDelay 重连间隔, 单位ms
+         */
+        public Request streamReconnect(int maxReconnects, long reconnectDelay) {
+            this.streamMaxReconnects = maxReconnects > 0 ? maxReconnects : 0;
+            this.streamReconnectDelay = reconnectDelay > 0 ? reconnectDelay : 0;
+            return this;
+        }
+
         /**
          * <p>[配置]该次请求的连接超时, 单位ms</p>
          */
@@ -443,6 +621,39 @@ public class MultiHostOkHttpClient {
             return this;
         }
 
+        /**
+         * <p>[配置]该次请求的总时限, 单位ms, 从调用本方法时开始计算, 等同于deadlineAt(当前时间 + timeout).</p>
+         */
+        public Request deadline(long timeout) {
+            return deadlineAt(timeout > 0 ? System.currentTimeMillis() + timeout : 0L);
+        }
+
+        /**
+         * <p>[配置]该次请求的截止时间(绝对时间, System.currentTimeMillis()), 小于等于0不限. 截止时间覆盖请求的整个生命周期:
+         * 限流等待, 异步请求排队, 连接, 发送, 以及响应体读取(直到响应关闭), 流式请求重连时只能使用剩余的时间.
+         * connectTimeout/writeTimeout/readTimeout仍然分别生效.</p>
+         *
+         * <p>发送前已超过截止时间时抛出DeadlineExceededException(异步请求回调onErrorBeforeSend, 排队中的异步请求到截止时间即回调,
+         * 不等放行), 发送过程中(包括在OkHttp队列中等待)到达截止时间时,
+         * 请求被取消, 抛出InterruptedIOException("timeout"), 不会阻断后端. 客户端配置了deadlineHeader时, 剩余时间(ms)
+         * 会通过该请求头传给服务端, 服务端可据此放弃调用方已经不再等待的处理.</p>
+         *
+         * <p>上游请求带有截止时间时, 可以直接传递: deadlineAt(上游截止时间)</p>
+         */
+        public Request deadlineAt(long deadline) {
+            this.stub.deadline = deadline > 0 ? deadline : 0L;
+            return this;
+        }
+
+        /**
+         * <p>[配置]异步请求的优先级, 默认NORMAL, 客户端按优先级调度排队中的异步请求(详见setHighPriorityReservedThreads/setNormalPriorityReservedThreads).
+         * 同步请求使用调用线程发送, 该配置无效.</p>
+         */
+        public Request priority(RequestPriority priority) {
+            this.priority = priority != null ? priority : RequestPriority.NORMAL;
+            return this;
+        }
+
         /**
          * <p>[请求发送]同步请求并获取Bean返回,
          * 如果响应码不为2XX, 会抛出HttpRejectException异常.<br>
@@ -519,6 +730,126 @@ public class MultiHostOkHttpClient {
             }
         }
 
+        /**
+         * [请求发送]同步请求并将响应报文体写入文件(文件不存在则创建, 存在则覆盖),
+         * 如果响应码不为2XX, 会抛出HttpRejectException异常,
+         * 分段读取写入文件(FileChannel.transferFrom), 内存占用恒定, 因此不受maxReadLength限制, 可以配合progressListener监听下载进度
+         *
+         * @param file 目标文件
+         * @return 文件最终的长度
+         * @throws NoHostException       当前没有可发送的后端(网络请求发送前的异常, 准备阶段异常)
+         * @throws RequestBuildException 请求初始化异常(通常是网络请求发送前的异常, 准备阶段异常)
+         * @throws IOException           网络通讯异常(通常是网络请求发送中的异常), 或文件读写异常
+         * @throws HttpRejectException   Http请求拒绝异常(网络请求发送后的异常, HTTP响应码不为2XX)
+         */
+        public long sendToFile(Path file) throws NoHostException, RequestBuildException, HttpRejectException, IOException {
+            return sendToFile(file, false);
+        }
+
+        /**
+         * [请求发送]同步请求并将响应报文体写入文件, 支持断点续传,
+         * 如果响应码不为2XX, 会抛出HttpRejectException异常,
+         * 分段读取写入文件(FileChannel.transferFrom), 内存占用恒定, 因此不受maxReadLength限制, 可以配合progressListener监听下载进度.<br>
+         * 断点续传: resume为true且文件已存在时, 以文件当前长度为起点发送Range请求头, 服务端返回206时追加写入, 服务端不支持Range
+         * (返回200)时从头覆盖写入. 服务端返回416(起点超出范围)时视为文件已下载完整, 直接返回文件当前长度. 服务端返回206但
+         * Content-Range的起点与文件当前长度不一致时, 放弃已下载的部分, 重新完整下载.
+         *
+         * @param file 目标文件
+         * @param resume true: 断点续传
+         * @return 文件最终的长度
+         * @throws NoHostException       当前没有可发送的后端(网络请求发送前的异常, 准备阶段异常)
+         * @throws RequestBuildException 请求初始化异常(通常是网络请求发送前的异常, 准备阶段异常)
+         * @throws IOException           网络通讯异常(通常是网络请求发送中的异常), 或文件读写异常
+         * @throws HttpRejectException   Http请求拒绝异常(网络请求发送后的异常, HTTP响应码不为2XX)
+         */
+        public long sendToFile(Path file, boolean resume) throws NoHostException, RequestBuildException, HttpRejectException, IOException {
+            MultiHostOkHttpClient client = getClient();
+            if (client == null) {
+                throw new RequestBuildException("Missing MultiHostOkHttpClient instance, has been destroyed (cleaned by gc)");
+            }
+            if (file == null) {
+                throw new RequestBuildException("Target file is null");
+            }
+            long offset = 0;
+            if (resume && Files.isRegularFile(file)) {
+                offset = Files.size(file);
+                if (offset > 0) {
+                    httpHeader("Range", "bytes=" + offset + "-");
+                }
+            }
+            NoRefTxTimer txTimer = client.txTimer;
+            if (txTimer != null) {
+                try (TimerContext timerContext = txTimer.entry(TXTIMER_GROUP_SEND + client.settings.tag, urlSuffix)) {
+                    return sendToFile(client, file, offset);
+                }
+            } else {
+                return sendToFile(client, file, offset);
+            }
+        }
+
+        private long sendToFile(MultiHostOkHttpClient client, Path file, long offset) throws NoHostException, RequestBuildException, HttpRejectException, IOException {
+            ResponsePackage responsePackage;
+            try {
+                responsePackage = client.requestSend(this);
+            } catch (HttpRejectException e) {
+                //起点超出范围, 文件已下载完整
+                if (offset > 0 && e.getResponseCode() == 416) {
+                    return offset;
+                }
+                throw e;
+            }
+            if (offset > 0 && responsePackage != null && responsePackage.code() == 206 &&
+                    parseContentRangeStart(responsePackage.headers().get("Content-Range")) != offset) {
+                //返回的片段与文件当前长度不衔接, 重新完整下载
+                responsePackage.close();
+                headers.remove("Range");
+                return client.responseToFile(isPost ? client.syncPost(this) : client.syncGet(this), file, 0, this);
+            }
+            return client.responseToFile(responsePackage, file, offset, this);
+        }
+
+        /**
+         * [请求发送]同步流式请求, 按行(换行符分隔, 例如NDJSON/chunked日志流)读取响应, 每行回调一次consumer, 直到流结束或
+         * consumer返回false. 事件在当前线程回调, 处理完一行才读取下一行(反压).<br>
+         * 连接中断(网络异常/空闲超时idleTimeout)时, 按streamReconnect策略切换后端重新发送请求.<br>
+         * 如果响应码不为2XX, 会抛出HttpRejectException异常(不重连).<br>
+         * 单行长度受maxReadLength限制, 超过时抛出ResponseConvertException(不重连).
+         *
+         * @param consumer 消费者
+         * @throws NoHostException       当前没有可发送的后端(网络请求发送前的异常, 准备阶段异常)
+         * @throws RequestBuildException 请求初始化异常(通常是网络请求发送前的异常, 准备阶段异常)
+         * @throws IOException           网络通讯异常(重连次数耗尽), 单行超长(ResponseConvertException)
+         * @throws HttpRejectException   Http请求拒绝异常(网络请求发送后的异常, HTTP响应码不为2XX)
+         */
+        public void sendForLines(StreamConsumer consumer) throws NoHostException, RequestBuildException, HttpRejectException, IOException {
+            MultiHostOkHttpClient client = getClient();
+            if (client == null) {
+                throw new RequestBuildException("Missing MultiHostOkHttpClient instance, has been destroyed (cleaned by gc)");
+            }
+            client.requestStream(this, consumer, false);
+        }
+
+        /**
+         * [请求发送]同步流式请求, 按SSE(server-sent-events, text/event-stream)格式读取响应, 每个事件回调一次consumer, 直到
+         * 流结束或consumer返回false. 事件在当前线程回调, 处理完一个事件才读取下一个事件(反压).<br>
+         * 连接中断(网络异常/空闲超时idleTimeout)时, 按streamReconnect策略切换后端重新发送请求, 并携带Last-Event-ID请求头.<br>
+         * 如果响应码不为2XX, 会抛出HttpRejectException异常(不重连).<br>
+         * 单行及单个事件的data长度受maxReadLength限制, 超过时抛出ResponseConvertException(不重连).
+         *
+         * @param consumer 消费者
+         * @throws NoHostException       当前没有可发送的后端(网络请求发送前的异常, 准备阶段异常)
+         * @throws RequestBuildException 请求初始化异常(通常是网络请求发送前的异常, 准备阶段异常)
+         * @throws IOException           网络通讯异常(重连次数耗尽), 单行/单个事件超长(ResponseConvertException)
+         * @throws HttpRejectException   Http请求拒绝异常(网络请求发送后的异常, HTTP响应码不为2XX)
+         */
+        public void sendForEvents(StreamConsumer consumer) throws NoHostException, RequestBuildException, HttpRejectException, IOException {
+            MultiHostOkHttpClient client = getClient();
+            if (client == null) {
+                throw new RequestBuildException("Missing MultiHostOkHttpClient instance, has been destroyed (cleaned by gc)");
+            }
+            client.requestStream(this, consumer, true);
+        }
+
         /**
          * [请求发送]同步请求并获取ResponsePackage返回,
          * 如果响应码不为2XX, 会抛出HttpRejectException异常,
@@ -610,105 +941,405 @@ public class MultiHostOkHttpClient {
                     ", formBody=" + formBody +
                     ", beanBody=" + beanBody +
                     ", customBody=" + customBody +
+                    ", fileBody=" + fileBody +
                     ", passiveBlockDuration=" + passiveBlockDuration +
                     ", mediaType='" + mediaType + '\'' +
                     ", encode='" + encode + '\'' +
                     ", dataConverter=" + dataConverter +
+                    ", priority=" + priority +
+                    ", endpoint=" + endpoint +
                     '}';
         }
     }
 
-    private ResponsePackage requestSend(Request request) throws NoHostException, RequestBuildException, HttpRejectException, IOException {
-        if (request.isSend) {
-            throw new IllegalStateException("MultiHostOkHttpClient.Request can only send once!");
-        }
-        request.isSend = true;
+    /**
+     * <p>可复用的请求端点, 由{@link MultiHostOkHttpClient#endpoint(String)}创建.</p>
+     *
+     * <p>配置方法(post/get/httpHeader等)非线程安全, 请在使用前配置完毕, 配置完成后可多线程共用, 每次请求
+     * 通过{@link #request()}创建新的请求.</p>
+     */
+    public static class Endpoint {
 
-        if (request.isPost) {
-            return syncPost(request);
-        } else {
-            return syncGet(request);
+        //每个端点最多缓存的后端数, 超过后清空重建(后端列表一般是固定的, 仅防止后端频繁变更时无限增长)
+        private static final int MAX_CACHED_HOSTS = 64;
+
+        private final WeakReference<MultiHostOkHttpClient> clientReference;
+        private final String urlSuffix;
+        private boolean isPost = true;
+        private Map<String, String> headers;
+        private String mediaType;
+        private String encode;
+        private DataConverter dataConverter;
+        private RequestPriority priority = RequestPriority.NORMAL;
+        private long deadlineTimeout = 0L;
+
+        //后端url -> 解析完成的HttpUrl
+        private final Map<String, HttpUrl> httpUrls = new ConcurrentHashMap<>();
+        private volatile PreparedHeaders preparedHeaders;
+        private volatile PreparedMediaType preparedMediaType;
+
+        private Endpoint(MultiHostOkHttpClient client, String urlSuffix) {
+            this.clientReference = new WeakReference<>(client);
+            this.urlSuffix = urlSuffix != null ? urlSuffix : "";
         }
-    }
 
-    private void requestEnqueue(Request request, ResponsePackageCallback callback) {
-        if (request.isSend) {
-            throw new IllegalStateException("MultiHostOkHttpClient.Request can only send once!");
+        /**
+         * <p>[配置]POST请求(默认)</p>
+         */
+        public Endpoint post() {
+            this.isPost = true;
+            return this;
         }
-        request.isSend = true;
 
-        if (request.isPost) {
-            asyncPost(request, callback);
-        } else {
-            asyncGet(request, callback);
+        /**
+         * <p>[配置]GET请求</p>
+         */
+        public Endpoint get() {
+            this.isPost = false;
+            return this;
         }
-    }
 
-    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
-    // Sync ///////////////////////////////////////////////////////////////////////////////////////////////////////
-    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+        /**
+         * <p>[配置]端点的静态HTTP请求头参数, 会与客户端配置的请求头一起预先构建</p>
+         */
+        public Endpoint httpHeaders(Map<String, String> httpHeaders) {
+            this.headers = httpHeaders != null ? new HashMap<>(httpHeaders) : null;
+            this.preparedHeaders = null;
+            return this;
+        }
 
-    private <T> T responseToBean(ResponsePackage responsePackage, Class<T> type, Request request) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
-        DataConverter dataConverter = request.dataConverter != null ? request.dataConverter : settings.dataConverter;
-        if (dataConverter == null) {
-            //强制关闭
-            try {
-                responsePackage.close();
-            } catch (Throwable ignore) {
+        /**
+         * <p>[配置]添加一个端点的静态HTTP请求头参数, 会与客户端配置的请求头一起预先构建</p>
+         */
+        public Endpoint httpHeader(String key, String value) {
+            if (this.headers == null) {
+                this.headers = new HashMap<>(8);
             }
-            throw new RequestConvertException("No DataConverter set, you must set dataConverter before sendForBean()");
-        }
-        byte[] responseData = responseToBytes(responsePackage);
-        try {
-            return dataConverter.convert(responseData, type);
-        } catch (Exception e) {
-            throw new ResponseConvertException("Error while convert byte[] to bean", e);
+            this.headers.put(key, value);
+            this.preparedHeaders = null;
+            return this;
         }
-    }
 
-    private byte[] responseToBytes(ResponsePackage responsePackage) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
-        //返回空
-        if (responsePackage == null || responsePackage.body() == null) {
-            return null;
+        /**
+         * <p>[配置]报文体MediaType, 客户端配置和此处配置的均生效(此处配置优先)</p>
+         */
+        public Endpoint mediaType(String mediaType) {
+            this.mediaType = mediaType;
+            this.preparedMediaType = null;
+            return this;
         }
-        try {
-            //限定读取长度
-            if (settings.maxReadLength > 0 && responsePackage.body().contentLength() > settings.maxReadLength){
-                throw new IOException("Response contentLength is out of limit, contentLength:" + responsePackage.body().contentLength() + ", limit:" + settings.maxReadLength);
-            }
-            //返回二进制数据
-            return responsePackage.body().bytes();
-        } finally {
-            //返回byte[]类型时自动关闭
-            try {
-                responsePackage.close();
-            } catch (Throwable ignore) {
-            }
+
+        /**
+         * <p>[配置]字符编码, 客户端配置和此处配置的均生效(此处配置优先)</p>
+         */
+        public Endpoint encode(String encode) {
+            this.encode = encode;
+            return this;
         }
-    }
 
-    private InputStream responseToInputStream(ResponsePackage responsePackage) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
-        //返回空
-        if (responsePackage == null || responsePackage.body() == null) {
-            return null;
+        /**
+         * <p>[配置]数据转换器, 客户端配置和此处配置的均生效(此处配置优先)</p>
+         */
+        public Endpoint dataConverter(DataConverter dataConverter) {
+            this.dataConverter = dataConverter;
+            return this;
         }
-        //限定读取长度
-        if (settings.maxReadLength > 0 && responsePackage.body().contentLength() > settings.maxReadLength){
-            try {
-                responsePackage.body().close();
-            } catch (Throwable ignore) {
-            }
-            throw new IOException("Response contentLength is out of limit, contentLength:" + responsePackage.body().contentLength() + ", limit:" + settings.maxReadLength);
+
+        /**
+         * <p>[配置]异步请求的优先级, 默认NORMAL, 可以被Request#priority覆盖</p>
+         */
+        public Endpoint priority(RequestPriority priority) {
+            this.priority = priority != null ? priority : RequestPriority.NORMAL;
+            return this;
         }
-        //返回二进制数据
-        return responsePackage.body().byteStream();
-    }
 
-    private ResponsePackage syncPost(Request request) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
-        //获取远端
-        LoadBalancedHostManager.Host host = fetchHost();
+        /**
+         * <p>[配置]每次请求的总时限, 单位ms, 从创建请求(newRequest)时开始计算, 小于等于0不限, 可以被Request#deadline覆盖,
+         * 详见Request#deadlineAt</p>
+         */
+        public Endpoint deadline(long timeout) {
+            this.deadlineTimeout = timeout > 0 ? timeout : 0L;
+            return this;
+        }
 
-        printPostInputsLog(request, host);
+        /**
+         * <p>创建一个该端点的请求, 请求创建过程非线程安全, 请勿多线程操作同一个请求</p>
+         */
+        public Request request() {
+            MultiHostOkHttpClient client = clientReference.get();
+            return new Request(client, this, client != null ? client.nextRequestId() : Integer.MAX_VALUE);
+        }
+
+        public String getUrlSuffix() {
+            return urlSuffix;
+        }
+
+        public boolean isPost() {
+            return isPost;
+        }
+
+        /**
+         * 获取指定后端的完整HttpUrl(不含URL参数), 每个后端只解析一次
+         */
+        private HttpUrl getHttpUrl(String hostUrl) throws RequestBuildException {
+            HttpUrl httpUrl = httpUrls.get(hostUrl);
+            if (httpUrl != null) {
+                return httpUrl;
+            }
+            httpUrl = HttpUrl.parse(hostUrl + urlSuffix);
+            if (httpUrl == null){
+                throw new RequestBuildException("Invalid url:" + hostUrl + urlSuffix);
+            }
+            if (httpUrls.size() >= MAX_CACHED_HOSTS) {
+                httpUrls.clear();
+            }
+            httpUrls.put(hostUrl, httpUrl);
+            return httpUrl;
+        }
+
+        /**
+         * 获取预先构建的静态请求头(客户端配置+端点配置), 客户端请求头配置变化后重建
+         */
+        private Headers getHeaders(Settings settings) {
+            Map<String, String> settingsHeaders = settings.headers;
+            PreparedHeaders preparedHeaders = this.preparedHeaders;
+            if (preparedHeaders != null && preparedHeaders.source == settingsHeaders) {
+                return preparedHeaders.headers;
+            }
+            Headers.Builder builder = new Headers.Builder();
+            if (settingsHeaders != null) {
+                for (Map.Entry<String, String> entry : settingsHeaders.entrySet()) {
+                    builder.add(entry.getKey(), entry.getValue());
+                }
+            }
+            if (headers != null) {
+                for (Map.Entry<String, String> entry : headers.entrySet()) {
+                    builder.add(entry.getKey(), entry.getValue());
+                }
+            }
+            preparedHeaders = new PreparedHeaders(settingsHeaders, builder.build());
+            this.preparedHeaders = preparedHeaders;
+            return preparedHeaders.headers;
+        }
+
+        /**
+         * 获取预先解析的MediaType, 客户端MediaType配置变化后重新解析
+         */
+        private MediaType getMediaType(Settings settings) {
+            String source = mediaType != null ? mediaType : settings.mediaType;
+            PreparedMediaType preparedMediaType = this.preparedMediaType;
+            if (preparedMediaType != null && preparedMediaType.source == source) {
+                return preparedMediaType.mediaType;
+            }
+            preparedMediaType = new PreparedMediaType(source, MediaType.parse(source));
+            this.preparedMediaType = preparedMediaType;
+            return preparedMediaType.mediaType;
+        }
+
+        @Override
+        public String toString() {
+            return "Endpoint{" +
+                    "urlSuffix='" + urlSuffix + '\'' +
+                    ", isPost=" + isPost +
+                    ", headers=" + headers +
+                    ", mediaType='" + mediaType + '\'' +
+                    ", encode='" + encode + '\'' +
+                    ", dataConverter=" + dataConverter +
+                    ", priority=" + priority +
+                    '}';
+        }
+
+        private static class PreparedHeaders {
+
+            private final Map<String, String> source;
+            private final Headers headers;
+
+            private PreparedHeaders(Map<String, String> source, Headers headers) {
+                this.source = source;
+                this.headers = headers;
+            }
+
+        }
+
+        private static class PreparedMediaType {
+
+            private final String source;
+            private final MediaType mediaType;
+
+            private PreparedMediaType(String source, MediaType mediaType) {
+                this.source = source;
+                this.mediaType = mediaType;
+            }
+
+        }
+
+    }
+
+    private ResponsePackage requestSend(Request request) throws NoHostException, RequestBuildException, HttpRejectException, IOException {
+        if (request.isSend) {
+            throw new IllegalStateException("MultiHostOkHttpClient.Request can only send once!");
+        }
+        request.isSend = true;
+
+        if (request.isPost) {
+            return syncPost(request);
+        } else {
+            return syncGet(request);
+        }
+    }
+
+    private void requestStream(Request request, StreamConsumer consumer, boolean sse) throws NoHostException, RequestBuildException, HttpRejectException, IOException {
+        if (request.isSend) {
+            throw new IllegalStateException("MultiHostOkHttpClient.Request can only send once!");
+        }
+        request.isSend = true;
+        if (consumer == null) {
+            throw new RequestBuildException("StreamConsumer is null");
+        }
+
+        streamCall(request, consumer, sse);
+    }
+
+    private void requestEnqueue(Request request, ResponsePackageCallback callback) {
+        if (request.isSend) {
+            throw new IllegalStateException("MultiHostOkHttpClient.Request can only send once!");
+        }
+        request.isSend = true;
+
+        if (request.isPost) {
+            asyncPost(request, callback);
+        } else {
+            asyncGet(request, callback);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Sync ///////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private <T> T responseToBean(ResponsePackage responsePackage, Class<T> type, Request request) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
+        DataConverter dataConverter = request.dataConverter != null ? request.dataConverter : settings.dataConverter;
+        if (dataConverter == null) {
+            //强制关闭
+            try {
+                responsePackage.close();
+            } catch (Throwable ignore) {
+            }
+            throw new RequestConvertException("No DataConverter set, you must set dataConverter before sendForBean()");
+        }
+        byte[] responseData = responseToBytes(responsePackage);
+        try {
+            return dataConverter.convert(responseData, type);
+        } catch (Exception e) {
+            throw new ResponseConvertException("Error while convert byte[] to bean", e);
+        }
+    }
+
+    private byte[] responseToBytes(ResponsePackage responsePackage) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
+        //返回空
+        if (responsePackage == null || responsePackage.body() == null) {
+            return null;
+        }
+        try {
+            //限定读取长度
+            if (settings.maxReadLength > 0 && responsePackage.body().contentLength() > settings.maxReadLength){
+                throw new IOException("Response contentLength is out of limit, contentLength:" + responsePackage.body().contentLength() + ", limit:" + settings.maxReadLength);
+            }
+            //返回二进制数据
+            return responsePackage.body().bytes();
+        } finally {
+            //返回byte[]类型时自动关闭
+            try {
+                responsePackage.close();
+            } catch (Throwable ignore) {
+            }
+        }
+    }
+
+    private InputStream responseToInputStream(ResponsePackage responsePackage) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
+        //返回空
+        if (responsePackage == null || responsePackage.body() == null) {
+            return null;
+        }
+        //限定读取长度
+        if (settings.maxReadLength > 0 && responsePackage.body().contentLength() > settings.maxReadLength){
+            try {
+                responsePackage.body().close();
+            } catch (Throwable ignore) {
+            }
+            throw new IOException("Response contentLength is out of limit, contentLength:" + responsePackage.body().contentLength() + ", limit:" + settings.maxReadLength);
+        }
+        //返回二进制数据
+        return responsePackage.body().byteStream();
+    }
+
+    /**
+     * 解析Content-Range的起点, 例如"bytes 100-199/200"返回100, 无法解析时返回-1
+     */
+    private static long parseContentRangeStart(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        contentRange = contentRange.trim();
+        if (!contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int end = contentRange.indexOf('-');
+        if (end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, end).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private long responseToFile(ResponsePackage responsePackage, Path file, long offset, Request request) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            //服务端返回206时从offset处追加, 否则从头覆盖
+            long position = responsePackage != null && responsePackage.code() == 206 ? offset : 0;
+            channel.truncate(position);
+            //返回空
+            if (responsePackage == null || responsePackage.body() == null) {
+                return position;
+            }
+            long contentLength = responsePackage.body().contentLength();
+            long total = contentLength >= 0 ? position + contentLength : -1;
+            BufferedSource source = responsePackage.body().source();
+            while (true) {
+                long count = channel.transferFrom(source, position, FileRequestBody.TRANSFER_CHUNK_SIZE);
+                if (count <= 0) {
+                    //transferFrom返回0时, 可能是数据未到达, 也可能是已读完
+                    if (source.exhausted()) {
+                        break;
+                    }
+                    continue;
+                }
+                position += count;
+                if (request.progressListener != null) {
+                    request.progressListener.onProgress(position, total);
+                }
+            }
+            return position;
+        } finally {
+            //写入文件后自动关闭
+            if (responsePackage != null) {
+                try {
+                    responsePackage.close();
+                } catch (Throwable ignore) {
+                }
+            }
+        }
+    }
+
+    private ResponsePackage syncPost(Request request) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
+        //获取远端
+        LoadBalancedHostManager.Host host = fetchHost();
+        //限流
+        acquirePermit(host, request);
+
+        printPostInputsLog(request, host);
         printUrlLog(request, host);
 
         //装配Request
@@ -733,6 +1364,8 @@ public class MultiHostOkHttpClient {
     private ResponsePackage syncGet(Request request) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
         //获取远端
         LoadBalancedHostManager.Host host = fetchHost();
+        //限流
+        acquirePermit(host, request);
 
         printGetInputsLog(request, host);
         printUrlLog(request, host);
@@ -761,9 +1394,15 @@ public class MultiHostOkHttpClient {
         boolean isOk = true;
         //被动阻断时长
         long passiveBlockDuration = request.passiveBlockDuration >= 0 ? request.passiveBlockDuration : settings.passiveBlockDuration;
+        //耗时(收到响应头为止)
+        long startTime = System.currentTimeMillis();
+        long elapsed = -1;
+        //截止时间
+        checkDeadline(request);
         try {
             //同步请求
-            Response response = getOkHttpClient().newCall(okRequest).execute();
+            Response response = newCall(okRequest, request).execute();
+            elapsed = System.currentTimeMillis() - startTime;
             printResponseCodeLog(request, response);
             //Http拒绝
             if (!isSucceed(response)) {
@@ -789,6 +1428,141 @@ public class MultiHostOkHttpClient {
         } finally {
             //反馈健康状态
             host.feedback(isOk, passiveBlockDuration, settings.recoveryCoefficient);
+            recordResult(host, isOk, elapsed);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Stream /////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void streamCall(Request request, StreamConsumer consumer, boolean sse) throws NoHostException, RequestBuildException, IOException, HttpRejectException {
+        request.stub.stream = true;
+        String lastEventId = null;
+        long reconnectDelay = request.streamReconnectDelay;
+        int failures = 0;
+        while (true) {
+            //获取远端(重连时会选择下一个后端)
+            LoadBalancedHostManager.Host host = fetchHost();
+            //限流
+            acquirePermit(host, request);
+
+            if (request.isPost) {
+                printPostInputsLog(request, host);
+            } else {
+                printGetInputsLog(request, host);
+            }
+            printUrlLog(request, host);
+
+            //装配Request
+            okhttp3.Request okRequest;
+            try {
+                okRequest = request.isPost ? buildPostRequest(host.getUrl(), request, settings) : buildGetRequest(host.getUrl(), request, settings);
+            } catch (Throwable t) {
+                throw new RequestBuildException("Error while building request", t);
+            }
+            if (okRequest == null) {
+                throw new RequestBuildException("Null request built");
+            }
+            if (sse) {
+                okhttp3.Request.Builder builder = okRequest.newBuilder();
+                if (okRequest.header("Accept") == null) {
+                    builder.header("Accept", "text/event-stream");
+                }
+                if (lastEventId != null) {
+                    builder.header("Last-Event-ID", lastEventId);
+                }
+                okRequest = builder.build();
+            }
+
+            if (logger.isInfoEnabled() && CheckUtils.isFlagMatch(settings.logConfig, LOG_CONFIG_REAL_URL)) {
+                logger.info(genLogPrefix(settings.tag, request) + (request.isPost ? "POST" : "GET") + "(stream): real-url:" + okRequest.url().toString());
+            }
+
+            //后端是否健康
+            boolean isOk = true;
+            //被动阻断时长
+            long passiveBlockDuration = request.passiveBlockDuration >= 0 ? request.passiveBlockDuration : settings.passiveBlockDuration;
+            StreamReader reader = null;
+            Response response = null;
+            //截止时间(重连时只剩余下的时间)
+            checkDeadline(request);
+            try {
+                response = newCall(okRequest, request).execute();
+                printResponseCodeLog(request, response);
+                //Http拒绝
+                if (!isSucceed(response)) {
+                    throw new HttpRejectException(response.code(), response.message());
+                }
+                ResponseBody body = response.body();
+                if (body == null) {
+                    return;
+                }
+                MediaType contentType = body.contentType();
+                Charset charset = contentType != null ? contentType.charset(Charset.forName(settings.encode)) : Charset.forName(settings.encode);
+                reader = new StreamReader(body.source(), charset, sse, lastEventId, settings.maxReadLength);
+                StreamEvent event;
+                while ((event = reader.next()) != null) {
+                    //收到数据, 重连次数重新计数
+                    failures = 0;
+                    if (!consumer.onEvent(event)) {
+                        return;
+                    }
+                }
+                //流结束
+                return;
+            } catch (Throwable t) {
+                if (needBlock(t, settings)) {
+                    //网络故障阻断后端
+                    isOk = false;
+                    if (logger.isInfoEnabled() && CheckUtils.isFlagMatch(settings.logConfig, LOG_CONFIG_BLOCK)){
+                        logger.info(genLogPrefix(settings.tag, request) + "Bad host " + host.getUrl() + ", block for " + passiveBlockDuration + " ms, passive block, recoveryCoefficient " + settings.recoveryCoefficient);
+                    }
+                }
+                if (t instanceof HttpRejectException) {
+                    throw (HttpRejectException) t;
+                } else if (!(t instanceof IOException)) {
+                    if (t instanceof RuntimeException) {
+                        //consumer抛出的异常
+                        throw (RuntimeException) t;
+                    } else if (t instanceof Error) {
+                        throw (Error) t;
+                    }
+                    throw new RequestBuildException("Error while request build ?", t);
+                }
+                //网络异常/空闲超时, 重连(已到截止时间则不再重连), 单行/单个事件超长不重连
+                if (t instanceof ResponseConvertException || failures >= request.streamMaxReconnects || isDeadlineExceeded(request)) {
+                    throw (IOException) t;
+                }
+                failures++;
+                if (logger.isWarnEnabled()) {
+                    logger.warn(genLogPrefix(settings.tag, request) + "Stream interrupted from " + host.getUrl() + ", reconnect " + failures + "/" + request.streamMaxReconnects + ", cause:" + t);
+                }
+                consumer.onReconnect(failures, t);
+            } finally {
+                //反馈健康状态
+                host.feedback(isOk, passiveBlockDuration, settings.recoveryCoefficient);
+                recordResult(host, isOk, -1);
+                CloseableUtils.closeQuiet(response);
+                if (reader != null) {
+                    lastEventId = reader.getLastEventId();
+                    if (reader.getRetry() >= 0) {
+                        reconnectDelay = reader.getRetry();
+                    }
+                }
+            }
+            //重连间隔
+            if (reconnectDelay > 0) {
+                if (request.stub.deadline > 0) {
+                    reconnectDelay = Math.max(0L, Math.min(reconnectDelay, request.stub.deadline - System.currentTimeMillis()));
+                }
+                try {
+                    Thread.sleep(reconnectDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for stream reconnection");
+                }
+            }
         }
     }
 
@@ -802,7 +1576,9 @@ public class MultiHostOkHttpClient {
 
         try {
             //获取远端
-            LoadBalancedHostManager.Host host = fetchHost();
+            LoadBalancedHostManager.Host host = fetchHost(request);
+            //限流
+            acquirePermit(host, request);
 
             printPostInputsLog(request, host);
             printUrlLog(request, host);
@@ -835,7 +1611,9 @@ public class MultiHostOkHttpClient {
 
         try {
             //获取远端
-            LoadBalancedHostManager.Host host = fetchHost();
+            LoadBalancedHostManager.Host host = fetchHost(request);
+            //限流
+            acquirePermit(host, request);
 
             printGetInputsLog(request, host);
             printUrlLog(request, host);
@@ -862,12 +1640,76 @@ public class MultiHostOkHttpClient {
         }
     }
 
-    private void asyncCall(final LoadBalancedHostManager.Host host, okhttp3.Request okRequest, final Request request, final ResponsePackageCallback callback)  {
+    private void asyncCall(final LoadBalancedHostManager.Host host, final okhttp3.Request okRequest, final Request request, final ResponsePackageCallback callback)  {
+        //按优先级排队, 限制每个后端的连接数时, 排队时获取后端的许可(不占用线程等待), 放行后交给OkHttp
+        final RequestPriority priority = request.priority;
+        final String permitHost = settings.maxConnectionsPerHost > 0 ? HostConnectionTracker.toKey(okRequest.url()) : null;
+        final long deadline = request.stub.deadline;
+        boolean accepted = priorityDispatcher.submit(priority, permitHost, new Runnable() {
+            @Override
+            public void run() {
+                //许可先交给Stub, 由拦截器交给请求(请求结束时归还), 若请求未到达拦截器, 在asyncCallFinished中归还
+                request.stub.hostPermit.set(permitHost);
+                asyncCall0(host, okRequest, request, callback, priority);
+            }
+        }, deadline, deadline > 0 ? new Runnable() {
+            @Override
+            public void run() {
+                //排队到截止时间仍未放行(在定时线程中执行, 回调交给OkHttp的线程池)
+                final DeadlineExceededException exception = new DeadlineExceededException("Deadline exceeded while queuing, priority " + priority);
+                executeCallback(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onErrorBeforeSend(exception);
+                    }
+                });
+            }
+        } : null, settings.maxQueuedRequests, settings.maxThreads, settings.highPriorityReservedThreads, settings.normalPriorityReservedThreads);
+        if (!accepted) {
+            callback.onErrorBeforeSend(new QueueFullException("Too many queued async requests, priority " + priority + ", limit " + settings.maxQueuedRequests));
+        }
+    }
+
+    private void asyncCallFinished(Request request, RequestPriority priority) {
+        String permitHost = request.stub.hostPermit.getAndSet(null);
+        if (permitHost != null) {
+            connectionTracker.releaseConnection(permitHost);
+        }
+        priorityDispatcher.finished(priority, settings.maxThreads, settings.highPriorityReservedThreads, settings.normalPriorityReservedThreads);
+    }
+
+    private void asyncCall0(final LoadBalancedHostManager.Host host, okhttp3.Request okRequest, final Request request,
+                            final ResponsePackageCallback callback, final RequestPriority priority)  {
+        //排队期间已到截止时间, 不再发送
+        try {
+            checkDeadline(request);
+        } catch (DeadlineExceededException e) {
+            asyncCallFinished(request, priority);
+            callback.onErrorBeforeSend(e);
+            return;
+        }
+        //耗时(收到响应头为止)
+        final long startTime = System.currentTimeMillis();
         //异步请求
         try {
-            getOkHttpClient().newCall(okRequest).enqueue(new Callback() {
+            Call call = newCall(okRequest, request);
+            //OkHttp的call.timeout()从开始执行时计时, 在OkHttp队列中等待(maxThreadsPerHost)的时间不计入, 到截止时间取消请求,
+            //取消后OkHttp仍在轮到执行时才回调(立即失败, 不发送)
+            final DeadlineCancel deadlineCancel = request.stub.deadline > 0 ? new DeadlineCancel(call, request.stub.deadline) : null;
+            call.enqueue(new Callback() {
                 @Override
                 public void onResponse(Call call, Response response) throws IOException {
+                    if (deadlineCancel != null) {
+                        deadlineCancel.stop();
+                    }
+                    try {
+                        onResponse0(response);
+                    } finally {
+                        asyncCallFinished(request, priority);
+                    }
+                }
+                private void onResponse0(Response response) {
+                    long elapsed = System.currentTimeMillis() - startTime;
                     printResponseCodeLog(request, response);
                     //Http拒绝
                     if (!isSucceed(response)) {
@@ -879,6 +1721,7 @@ public class MultiHostOkHttpClient {
                     }
                     //反馈健康(反馈健康无需计算阻断时长)
                     host.feedback(true, 0);
+                    recordResult(host, true, elapsed);
                     //报文体
                     try {
                         callback.onSucceed(ResponsePackage.newInstance(request, response));
@@ -893,29 +1736,285 @@ public class MultiHostOkHttpClient {
                         CloseableUtils.closeQuiet(response);
                     }
                 }
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    tryBlock(e);
-                    callback.onErrorAfterSend(e);
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (deadlineCancel != null && deadlineCancel.stop()) {
+                        //被截止时间取消, 与OkHttp的call.timeout()超时一致
+                        InterruptedIOException timeout = new InterruptedIOException("timeout");
+                        timeout.initCause(e);
+                        e = timeout;
+                    }
+                    try {
+                        tryBlock(e);
+                        callback.onErrorAfterSend(e);
+                    } finally {
+                        asyncCallFinished(request, priority);
+                    }
+                }
+                private void tryBlock(Exception e){
+                    if (needBlock(e, settings)) {
+                        //网络故障阻断后端
+                        long passiveBlockDuration = request.passiveBlockDuration >= 0 ? request.passiveBlockDuration : settings.passiveBlockDuration;
+                        //反馈异常
+                        host.feedback(false, passiveBlockDuration, settings.recoveryCoefficient);
+                        recordResult(host, false, -1);
+                        if (logger.isInfoEnabled() && CheckUtils.isFlagMatch(settings.logConfig, LOG_CONFIG_BLOCK)) {
+                            logger.info(genLogPrefix(settings.tag, request) + "Bad host " + host.getUrl() + ", block for " + passiveBlockDuration + " ms, passive block, recoveryCoefficient " + settings.recoveryCoefficient);
+                        }
+                    } else {
+                        //反馈健康(反馈健康无需计算阻断时长)
+                        host.feedback(true, 0);
+                        recordResult(host, true, -1);
+                    }
+                }
+            });
+        } catch (Exception t) {
+            asyncCallFinished(request, priority);
+            callback.onErrorBeforeSend(new RequestBuildException("Error while request build ?", t));
+        }
+    }
+
+    /**
+     * 在OkHttp的线程池中执行回调, 线程池不可用时在当前线程执行
+     */
+    private void executeCallback(Runnable task) {
+        try {
+            getOkHttpClient().dispatcher().executorService().execute(task);
+        } catch (Throwable t) {
+            task.run();
+        }
+    }
+
+    /**
+     * 到截止时间取消异步请求
+     */
+    private static final class DeadlineCancel implements Runnable {
+
+        private final Call call;
+        private final ScheduledFuture<?> future;
+        private final AtomicBoolean state = new AtomicBoolean(false);
+
+        private DeadlineCancel(Call call, long deadline) {
+            this.call = call;
+            this.future = DeadlineTimer.schedule(this, deadline);
+        }
+
+        @Override
+        public void run() {
+            if (state.compareAndSet(false, true)) {
+                call.cancel();
+            }
+        }
+
+        /**
+         * 请求结束时停止定时
+         * @return true: 请求已被截止时间取消
+         */
+        private boolean stop() {
+            if (state.compareAndSet(false, true)) {
+                future.cancel(false);
+                return false;
+            }
+            return true;
+        }
+
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Bulk ///////////////////////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 批量请求: 滑动窗口发送, 按后端进行中的请求数分配后端
+     */
+    private class BulkCall {
+
+        private final Request[] requests;
+        private final int concurrency;
+        private final long startTime;
+        private final long deadline;
+
+        private final AtomicReferenceArray<BulkResult> results;
+        private final CountDownLatch latch;
+        private final AtomicInteger nextIndex = new AtomicInteger(0);
+        //后端 -> 本批量中进行中的请求数
+        private final Map<String, AtomicInteger> inFlights = new ConcurrentHashMap<>();
+        private final AtomicInteger hostOffset = new AtomicInteger(0);
+
+        private BulkCall(Collection<Request> requests, int concurrency, long timeout) {
+            this.requests = requests.toArray(new Request[0]);
+            this.concurrency = Math.max(1, concurrency);
+            this.startTime = System.currentTimeMillis();
+            this.deadline = timeout > 0 ? startTime + timeout : 0L;
+            this.results = new AtomicReferenceArray<>(this.requests.length);
+            this.latch = new CountDownLatch(this.requests.length);
+        }
+
+        private List<BulkResult> execute() {
+            int initial = Math.min(concurrency, requests.length);
+            for (int i = 0 ; i < initial ; i++) {
+                sendNext();
+            }
+            boolean interrupted = false;
+            try {
+                if (deadline > 0) {
+                    //请求在截止时间被取消, 回调稍有延迟, 多等一会儿
+                    latch.await(Math.max(0L, deadline - System.currentTimeMillis()) + BULK_AWAIT_GRACE, TimeUnit.MILLISECONDS);
+                } else {
+                    latch.await();
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            //不再发送剩余的请求
+            nextIndex.set(requests.length);
+            List<BulkResult> list = new ArrayList<>(requests.length);
+            for (int i = 0 ; i < requests.length ; i++) {
+                if (results.get(i) == null) {
+                    finish(i, null, null, interrupted ?
+                            new InterruptedIOException("Interrupted while waiting for bulk requests") :
+                            new DeadlineExceededException("Bulk deadline exceeded"));
+                }
+                list.add(results.get(i));
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return list;
+        }
+
+        private void sendNext() {
+            while (true) {
+                final int index = nextIndex.getAndIncrement();
+                if (index >= requests.length) {
+                    return;
+                }
+                final Request request = requests[index];
+                if (request == null) {
+                    finish(index, null, null, new RequestBuildException("Null request"));
+                    continue;
+                }
+                if (request.clientReference.get() != MultiHostOkHttpClient.this) {
+                    finish(index, null, null, new RequestBuildException("The request was not created by this client"));
+                    continue;
+                }
+                if (deadline > 0) {
+                    if (System.currentTimeMillis() >= deadline) {
+                        finish(index, null, null, new DeadlineExceededException("Bulk deadline exceeded before sending"));
+                        continue;
+                    }
+                    if (request.stub.deadline <= 0 || request.stub.deadline > deadline) {
+                        request.stub.deadline = deadline;
+                    }
+                }
+                final LoadBalancedHostManager.Host host = pickHost();
+                final AtomicInteger inFlight = host != null ? getInFlight(host.getUrl()) : null;
+                request.assignedHost = host;
+                if (inFlight != null) {
+                    inFlight.incrementAndGet();
                 }
-                private void tryBlock(Exception e){
-                    if (needBlock(e, settings)) {
-                        //网络故障阻断后端
-                        long passiveBlockDuration = request.passiveBlockDuration >= 0 ? request.passiveBlockDuration : settings.passiveBlockDuration;
-                        //反馈异常
-                        host.feedback(false, passiveBlockDuration, settings.recoveryCoefficient);
-                        if (logger.isInfoEnabled() && CheckUtils.isFlagMatch(settings.logConfig, LOG_CONFIG_BLOCK)) {
-                            logger.info(genLogPrefix(settings.tag, request) + "Bad host " + host.getUrl() + ", block for " + passiveBlockDuration + " ms, passive block, recoveryCoefficient " + settings.recoveryCoefficient);
+                //enqueue返回和请求结束(回调)两者中后到的一方负责发送下一个请求: 请求在enqueue中同步结束时(例如没有后端),
+                //由当前循环继续发送, 不在回调中递归调用sendNext
+                final AtomicBoolean handoff = new AtomicBoolean(false);
+                try {
+                    request.enqueue(new BytesCallback() {
+                        @Override
+                        public void onSucceed(byte[] body) {
+                            done(body, null);
                         }
-                    } else {
-                        //反馈健康(反馈健康无需计算阻断时长)
-                        host.feedback(true, 0);
+                        @Override
+                        protected void onErrorBeforeSend(Exception e) {
+                            done(null, e);
+                        }
+                        @Override
+                        protected void onErrorAfterSend(Exception e) {
+                            done(null, e);
+                        }
+                        private void done(byte[] body, Exception e) {
+                            if (inFlight != null) {
+                                inFlight.decrementAndGet();
+                            }
+                            finish(index, usedHost(request, host), body, e);
+                            if (!handoff.compareAndSet(false, true)) {
+                                sendNext();
+                            }
+                        }
+                    });
+                } catch (Exception e) {
+                    //请求已发送过
+                    if (inFlight != null) {
+                        inFlight.decrementAndGet();
                     }
+                    finish(index, host != null ? host.getUrl() : null, null, e);
+                    continue;
                 }
-            });
-        } catch (Exception t) {
-            callback.onErrorBeforeSend(new RequestBuildException("Error while request build ?", t));
+                if (handoff.compareAndSet(false, true)) {
+                    //请求尚未结束, 由回调发送下一个请求
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 健康的后端中, 本批量进行中请求最少的(相同时轮流). 没有健康的后端时, 在全部后端中按同样的规则分配(returnNullIfAllBlocked
+         * 时不分配, 由客户端按常规方式选择)
+         */
+        private LoadBalancedHostManager.Host pickHost() {
+            List<LoadBalancedHostManager.Host> hosts = hostManager.getHealthyHosts();
+            if (hosts.isEmpty()) {
+                if (hostManager.isReturnNullIfAllBlocked()) {
+                    return null;
+                }
+                hosts = hostManager.getHosts();
+                if (hosts.isEmpty()) {
+                    return null;
+                }
+            }
+            int size = hosts.size();
+            int offset = (hostOffset.getAndIncrement() & Integer.MAX_VALUE) % size;
+            LoadBalancedHostManager.Host selected = null;
+            int min = Integer.MAX_VALUE;
+            for (int i = 0 ; i < size ; i++) {
+                LoadBalancedHostManager.Host host = hosts.get((offset + i) % size);
+                int count = getInFlight(host.getUrl()).get();
+                if (count < min) {
+                    selected = host;
+                    min = count;
+                }
+            }
+            return selected;
+        }
+
+        private AtomicInteger getInFlight(String url) {
+            AtomicInteger inFlight = inFlights.get(url);
+            if (inFlight == null) {
+                AtomicInteger newInFlight = new AtomicInteger(0);
+                inFlight = inFlights.putIfAbsent(url, newInFlight);
+                if (inFlight == null) {
+                    inFlight = newInFlight;
+                }
+            }
+            return inFlight;
+        }
+
+        /**
+         * 请求实际使用的后端(分配的后端被移除时, 客户端会重新选择), 未选择后端时为分配的后端
+         */
+        private String usedHost(Request request, LoadBalancedHostManager.Host assignedHost) {
+            String host = request.stub.host;
+            if (host != null) {
+                return host;
+            }
+            return assignedHost != null ? assignedHost.getUrl() : null;
         }
+
+        private void finish(int index, String host, byte[] body, Exception error) {
+            BulkResult result = new BulkResult(index, host, body, error, System.currentTimeMillis() - startTime);
+            if (results.compareAndSet(index, null, result)) {
+                latch.countDown();
+            }
+        }
+
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -923,6 +2022,7 @@ public class MultiHostOkHttpClient {
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     private LoadBalancedHostManager.Host fetchHost() throws NoHostException {
+        markRequestTime();
         LoadBalancedHostManager.Host host = hostManager.nextHost();
         if (host == null){
             throw new NoHostException("No host");
@@ -930,6 +2030,158 @@ public class MultiHostOkHttpClient {
         return host;
     }
 
+    /**
+     * 优先使用批量请求分配的后端, 该后端已被移除时按常规方式选择
+     */
+    private LoadBalancedHostManager.Host fetchHost(Request request) throws NoHostException {
+        LoadBalancedHostManager.Host host = request.assignedHost;
+        if (host != null && hostManager.containsHost(host.getUrl())) {
+            markRequestTime();
+        } else {
+            host = fetchHost();
+        }
+        request.stub.host = host.getUrl();
+        return host;
+    }
+
+    private void markRequestTime() {
+        //记录最近请求时间, 精确到秒即可, 避免每次请求都写
+        long currentTimeMillis = System.currentTimeMillis();
+        if (currentTimeMillis - lastRequestTime >= 1000L) {
+            lastRequestTime = currentTimeMillis;
+        }
+    }
+
+    /**
+     * 累计请求结果(运行状态快照), 并上报给被动异常检测器
+     */
+    private void recordResult(LoadBalancedHostManager.Host host, boolean isOk, long elapsed) {
+        requestCount.incrementAndGet();
+        if (!isOk) {
+            failureCount.incrementAndGet();
+        }
+        LoadBalancedOutlierDetector outlierDetector = this.outlierDetector;
+        if (outlierDetector != null) {
+            outlierDetector.record(host, isOk, elapsed);
+        }
+    }
+
+    /**
+     * 空闲连接数限制, 未设置每个后端的空闲连接数时按后端数量计算, 后端数量变化后的下一次整理即生效
+     */
+    private final HostConnectionTracker.IdleLimits idleLimits = new HostConnectionTracker.IdleLimits() {
+        @Override
+        public int getMaxIdle() {
+            return settings.maxIdleConnections;
+        }
+        @Override
+        public int getMaxIdlePerHost() {
+            return MultiHostOkHttpClient.this.getMaxIdlePerHost(getPoolHostCount());
+        }
+        @Override
+        public int getMinIdlePerHost() {
+            return MultiHostOkHttpClient.this.getMinIdlePerHost();
+        }
+    };
+
+    private int getPoolHostCount() {
+        LoadBalancedHostManager hostManager = this.hostManager;
+        return hostManager != null ? Math.max(hostManager.getHostCount(), 1) : 1;
+    }
+
+    /**
+     * 每个后端的最少保留空闲连接数, 未设置时为1(每个后端保留一个热连接)
+     */
+    private int getMinIdlePerHost() {
+        if (settings.minIdleConnectionsPerHost >= 0) {
+            return settings.minIdleConnectionsPerHost;
+        }
+        return settings.maxIdleConnections > 0 ? 1 : 0;
+    }
+
+    /**
+     * 每个后端的最大空闲连接数, 未设置时为 最大闲置连接数 / 后端数量(向上取整), 且不小于最少保留数
+     */
+    private int getMaxIdlePerHost(int hostCount) {
+        int minIdlePerHost = getMinIdlePerHost();
+        if (settings.maxIdleConnectionsPerHost >= 0) {
+            return Math.max(settings.maxIdleConnectionsPerHost, minIdlePerHost);
+        }
+        return Math.max(minIdlePerHost, (settings.maxIdleConnections + hostCount - 1) / hostCount);
+    }
+
+    /**
+     * 客户端限流, 先获取客户端的许可, 再获取后端的许可(rateLimitPerHost启用时)
+     */
+    private void acquirePermit(LoadBalancedHostManager.Host host, Request request) throws RateLimitException {
+        TokenBucketRateLimiter rateLimiter = this.rateLimiter;
+        if (rateLimiter == null) {
+            return;
+        }
+        //等待时间不超过请求的剩余时间
+        long timeoutMillis = settings.rateLimitTimeout;
+        if (request.stub.deadline > 0) {
+            timeoutMillis = Math.max(0L, Math.min(timeoutMillis, request.stub.deadline - System.currentTimeMillis()));
+        }
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long startNanos = System.nanoTime();
+        try {
+            if (!rateLimiter.acquire(timeoutNanos)) {
+                throw new RateLimitException("Rate limited, limit " + rateLimiter.getPermitsPerSecond() + "/s, timeout " + settings.rateLimitTimeout + "ms");
+            }
+            if (!settings.rateLimitPerHost) {
+                return;
+            }
+            TokenBucketRateLimiter hostRateLimiter = getHostRateLimiter(host, rateLimiter);
+            if (!hostRateLimiter.acquire(Math.max(0, timeoutNanos - (System.nanoTime() - startNanos)))) {
+                //请求不会发送, 归还客户端的许可
+                rateLimiter.refund();
+                throw new RateLimitException("Rate limited by host " + host.getUrl() + ", limit " + hostRateLimiter.getPermitsPerSecond() + "/s, timeout " + settings.rateLimitTimeout + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RateLimitException("Interrupted while waiting for rate limit permit", e);
+        }
+    }
+
+    /**
+     * 后端的限流器, 每个后端的速率 = 客户端速率 / 可用(未阻断)的后端数量, 保证流量在可用的后端间均匀分布.
+     * 可用后端数量变化时调整已有限流器的速率(保留积攒的令牌和预热进度)
+     */
+    private TokenBucketRateLimiter getHostRateLimiter(LoadBalancedHostManager.Host host, TokenBucketRateLimiter rateLimiter) {
+        int hostCount = Math.max(hostManager.getAvailableHostCount(), 1);
+        if (hostCount != hostRateLimitersHostCount) {
+            hostRateLimitersHostCount = hostCount;
+            Iterator<Map.Entry<String, TokenBucketRateLimiter>> iterator = hostRateLimiters.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, TokenBucketRateLimiter> entry = iterator.next();
+                //清理已移除的后端
+                if (!hostManager.containsHost(entry.getKey())) {
+                    iterator.remove();
+                    continue;
+                }
+                entry.getValue().setPermitsPerSecond(rateLimiter.getPermitsPerSecond() / hostCount);
+            }
+        }
+        TokenBucketRateLimiter hostRateLimiter = hostRateLimiters.get(host.getUrl());
+        if (hostRateLimiter == null) {
+            TokenBucketRateLimiter newHostRateLimiter = new TokenBucketRateLimiter(rateLimiter.getPermitsPerSecond() / hostCount, settings.rateLimitWarmup);
+            hostRateLimiter = hostRateLimiters.putIfAbsent(host.getUrl(), newHostRateLimiter);
+            if (hostRateLimiter == null) {
+                hostRateLimiter = newHostRateLimiter;
+            }
+        }
+        return hostRateLimiter;
+    }
+
+    /**
+     * 限流配置变化后重建限流器
+     */
+    private synchronized void resetRateLimiter() {
+        rateLimiter = settings.rateLimit > 0 ? new TokenBucketRateLimiter(settings.rateLimit, settings.rateLimitWarmup) : null;
+        hostRateLimiters.clear();
+    }
+
     private OkHttpClient getOkHttpClient(){
         //客户端创建错误后, 不再重试
         if (clientCreateException != null) {
@@ -976,6 +2228,8 @@ public class MultiHostOkHttpClient {
             bodyLog = ", beanBody:" + request.beanBody;
         } else if (request.customBody != null) {
             bodyLog = ", customBody:" + request.customBody;
+        } else if (request.fileBody != null) {
+            bodyLog = ", fileBody:" + request.fileBody;
         } else {
             bodyLog = ", body: null";
         }
@@ -1013,6 +2267,8 @@ public class MultiHostOkHttpClient {
             }
         } else if (request.customBody != null) {
             logger.info(genLogPrefix(settings.tag, request) + "POST: string-body: multipart data can not be print");
+        } else if (request.fileBody != null) {
+            logger.info(genLogPrefix(settings.tag, request) + "POST: string-body(file):" + request.fileBody);
         } else {
             logger.info(genLogPrefix(settings.tag, request) + "POST: string-body: null");
         }
@@ -1085,14 +2341,50 @@ public class MultiHostOkHttpClient {
         dispatcher.setMaxRequests(settings.maxThreads);
         dispatcher.setMaxRequestsPerHost(settings.maxThreadsPerHost);
 
-        ConnectionPool connectionPool = new ConnectionPool(settings.maxIdleConnections, 5, TimeUnit.MINUTES);
+        //空闲连接数由connectionTracker按后端整理, 连接池容量留足每个后端的份额, 避免连接池按总数清理时挤掉其他后端的连接
+        int hostCount = getPoolHostCount();
+        ConnectionPool connectionPool = new ConnectionPool(Math.max(settings.maxIdleConnections, hostCount * getMaxIdlePerHost(hostCount)), 5, TimeUnit.MINUTES);
 
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
                 .connectTimeout(settings.connectTimeout, TimeUnit.MILLISECONDS)
                 .writeTimeout(settings.writeTimeout, TimeUnit.MILLISECONDS)
                 .readTimeout(settings.readTimeout, TimeUnit.MILLISECONDS)
                 .connectionPool(connectionPool)
-                .dispatcher(dispatcher);
+                .dispatcher(dispatcher)
+                .eventListenerFactory(connectionTracker.newEventListenerFactory(connectionPool, idleLimits));
+
+        //每个后端的最大连接数: 异步请求在PriorityDispatcher排队时已获得许可, 在此交给请求; 同步请求达到上限时在连接超时时间
+        //(不超过请求的剩余时间)内等待
+        builder.addInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                okhttp3.Request request = chain.request();
+                Stub stub = request.tag() instanceof Stub ? (Stub) request.tag() : null;
+                String permitHost = stub != null ? stub.hostPermit.getAndSet(null) : null;
+                int maxConnectionsPerHost = settings.maxConnectionsPerHost;
+                if (permitHost != null) {
+                    connectionTracker.bindConnection(chain.call(), permitHost);
+                } else if (maxConnectionsPerHost > 0) {
+                    long timeout = settings.connectTimeout;
+                    if (stub != null) {
+                        if (stub.connectTimeout > 0) {
+                            timeout = stub.connectTimeout;
+                        }
+                        if (stub.deadline > 0) {
+                            timeout = Math.max(0L, Math.min(timeout, stub.deadline - System.currentTimeMillis()));
+                        }
+                    }
+                    connectionTracker.acquireConnection(chain.call(), request.url(), maxConnectionsPerHost, timeout);
+                }
+                try {
+                    return chain.proceed(request);
+                } catch (RuntimeException | Error e) {
+                    //OkHttp不会因为RuntimeException/Error回调callFailed, 在此归还许可
+                    connectionTracker.callAborted(chain.call());
+                    throw e;
+                }
+            }
+        });
 
         builder.addInterceptor(new Interceptor(){
             @Override
@@ -1114,6 +2406,39 @@ public class MultiHostOkHttpClient {
             }
         });
 
+        //截止时间传给服务端, 网络拦截器在每次实际发送(包括OkHttp内部的重试)时执行, 传递的是当时的剩余时间
+        builder.addNetworkInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                okhttp3.Request request = chain.request();
+                String deadlineHeader = settings.deadlineHeader;
+                if (deadlineHeader != null && request.tag() instanceof Stub) {
+                    long deadline = ((Stub) request.tag()).deadline;
+                    if (deadline > 0) {
+                        request = request.newBuilder()
+                                .header(deadlineHeader, String.valueOf(Math.max(0L, deadline - System.currentTimeMillis())))
+                                .build();
+                    }
+                }
+                return chain.proceed(request);
+            }
+        });
+
+        if (settings.bodyLogEnabled) {
+            //缓冲区容量变化时更换, 老的缓冲区中剩余的日志仍会输出
+            if (bodyLogWriter == null || bodyLogWriter.getCapacity() != settings.bodyLogBufferSize) {
+                bodyLogWriter = new BodyLogInterceptor.Writer(settings.bodyLogBufferSize, bodyLogCounter);
+            }
+            //在压缩拦截器之前, 记录的是压缩前的请求和解压后的响应
+            builder.addInterceptor(new BodyLogInterceptor(settings.tag, settings.bodyLogSampleRate, settings.bodyLogSlowThreshold,
+                    settings.bodyLogFailures, settings.bodyLogMaxLength, settings.encode, bodyLogWriter, bodyLogCounter));
+        }
+
+        if (settings.compressionEnabled) {
+            builder.addInterceptor(new CompressionInterceptor(settings.compressionAlgorithm, settings.compressionMinSize,
+                    settings.compressionBuffered, compressionCounters));
+        }
+
         if (settings.cookieJar != null) {
             builder.cookieJar(settings.cookieJar);
         }
@@ -1147,13 +2472,7 @@ public class MultiHostOkHttpClient {
      * @throws RequestBuildException 构建异常
      */
     protected okhttp3.Request buildPostRequest(String url, Request request, Settings settings) throws RequestBuildException{
-        if (request.urlSuffix == null) {
-            request.urlSuffix = "";
-        }
-        HttpUrl httpUrl = HttpUrl.parse(url + request.urlSuffix);
-        if (httpUrl == null){
-            throw new RequestBuildException("Invalid url:" + url + request.urlSuffix);
-        }
+        HttpUrl httpUrl = parseHttpUrl(url, request);
 
         String encode = request.encode != null ? request.encode : settings.encode;
 
@@ -1174,7 +2493,7 @@ public class MultiHostOkHttpClient {
         if (request.body != null) {
             //bytes
             printPostStringBodyLog(request, null);
-            requestBody = RequestBody.create(MediaType.parse(request.mediaType != null ? request.mediaType : settings.mediaType), request.body);
+            requestBody = RequestBody.create(parseMediaType(request, settings), request.body);
         } else if (request.formBody != null) {
             //form
             printPostStringBodyLog(request, null);
@@ -1201,14 +2520,19 @@ public class MultiHostOkHttpClient {
                 throw new RequestConvertException("Error while convert bean to byte[]", e);
             }
             printPostStringBodyLog(request, requestBodyBytes);
-            requestBody = RequestBody.create(MediaType.parse(request.mediaType != null ? request.mediaType : settings.mediaType), requestBodyBytes);
+            requestBody = RequestBody.create(parseMediaType(request, settings), requestBodyBytes);
         } else if (request.customBody != null) {
             //custom
             printPostStringBodyLog(request, null);
             requestBody = request.customBody;
+        } else if (request.fileBody != null) {
+            //file
+            printPostStringBodyLog(request, null);
+            requestBody = new FileRequestBody(MediaType.parse(request.mediaType != null ? request.mediaType : FILE_MEDIA_TYPE),
+                    request.fileBody, request.progressListener);
         }else {
             //null
-            requestBody = RequestBody.create(MediaType.parse(request.mediaType != null ? request.mediaType : settings.mediaType), new byte[0]);
+            requestBody = RequestBody.create(parseMediaType(request, settings), new byte[0]);
         }
 
         okhttp3.Request.Builder builder = new okhttp3.Request.Builder()
@@ -1216,12 +2540,7 @@ public class MultiHostOkHttpClient {
                 .post(requestBody)
                 .tag(request.stub);
 
-        Map<String, String> headers = settings.headers;
-        if (headers != null){
-            for (Map.Entry<String, String> entry : headers.entrySet()){
-                builder.addHeader(entry.getKey(), entry.getValue());
-            }
-        }
+        addStaticHeaders(builder, request, settings);
 
         if (request.headers != null){
             for (Map.Entry<String, String> entry : request.headers.entrySet()){
@@ -1241,13 +2560,7 @@ public class MultiHostOkHttpClient {
      * @throws RequestBuildException 构建异常
      */
     protected okhttp3.Request buildGetRequest(String url, Request request, Settings settings) throws RequestBuildException{
-        if (request.urlSuffix == null) {
-            request.urlSuffix = "";
-        }
-        HttpUrl httpUrl = HttpUrl.parse(url + request.urlSuffix);
-        if (httpUrl == null){
-            throw new RequestBuildException("Invalid url:" + url + request.urlSuffix);
-        }
+        HttpUrl httpUrl = parseHttpUrl(url, request);
 
         String encode = request.encode != null ? request.encode : settings.encode;
 
@@ -1269,20 +2582,82 @@ public class MultiHostOkHttpClient {
                 .get()
                 .tag(request.stub);
 
+        addStaticHeaders(builder, request, settings);
+
+        if (request.headers != null){
+            for (Map.Entry<String, String> entry : request.headers.entrySet()){
+                builder.addHeader(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * 解析请求URL(不含URL参数), 由Endpoint创建的请求使用端点缓存的HttpUrl
+     */
+    private HttpUrl parseHttpUrl(String url, Request request) throws RequestBuildException {
+        if (request.endpoint != null) {
+            return request.endpoint.getHttpUrl(url);
+        }
+        if (request.urlSuffix == null) {
+            request.urlSuffix = "";
+        }
+        HttpUrl httpUrl = HttpUrl.parse(url + request.urlSuffix);
+        if (httpUrl == null){
+            throw new RequestBuildException("Invalid url:" + url + request.urlSuffix);
+        }
+        return httpUrl;
+    }
+
+    /**
+     * 解析报文体MediaType, 由Endpoint创建的请求(且未在请求中单独设置mediaType)使用端点预先解析的MediaType
+     */
+    private MediaType parseMediaType(Request request, Settings settings) {
+        if (request.mediaType == null && request.endpoint != null) {
+            return request.endpoint.getMediaType(settings);
+        }
+        return MediaType.parse(request.mediaType != null ? request.mediaType : settings.mediaType);
+    }
+
+    /**
+     * 添加客户端配置的请求头, 由Endpoint创建的请求使用端点预先构建的请求头(客户端配置+端点配置)
+     */
+    private void addStaticHeaders(okhttp3.Request.Builder builder, Request request, Settings settings) {
+        if (request.endpoint != null) {
+            builder.headers(request.endpoint.getHeaders(settings));
+            return;
+        }
         Map<String, String> headers = settings.headers;
         if (headers != null){
             for (Map.Entry<String, String> entry : headers.entrySet()){
                 builder.addHeader(entry.getKey(), entry.getValue());
             }
         }
+    }
 
-        if (request.headers != null){
-            for (Map.Entry<String, String> entry : request.headers.entrySet()){
-                builder.addHeader(entry.getKey(), entry.getValue());
-            }
+    /**
+     * 创建OkHttp请求, 请求有截止时间时, 以剩余时间作为整个请求(连接/发送/接收直到响应关闭)的时限
+     */
+    private Call newCall(okhttp3.Request okRequest, Request request) {
+        Call call = getOkHttpClient().newCall(okRequest);
+        if (request.stub.deadline > 0) {
+            call.timeout().timeout(Math.max(1L, request.stub.deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
         }
+        return call;
+    }
 
-        return builder.build();
+    /**
+     * 发送前检查截止时间
+     */
+    private void checkDeadline(Request request) throws DeadlineExceededException {
+        if (isDeadlineExceeded(request)) {
+            throw new DeadlineExceededException("Deadline exceeded before sending, " + (System.currentTimeMillis() - request.stub.deadline) + "ms ago");
+        }
+    }
+
+    private boolean isDeadlineExceeded(Request request) {
+        return request.stub.deadline > 0 && System.currentTimeMillis() >= request.stub.deadline;
     }
 
     /**
@@ -1306,6 +2681,114 @@ public class MultiHostOkHttpClient {
         return settings.rawTag;
     }
 
+    /**
+     * 最近一次发起请求的时间(精确到秒), 未发起过请求时为实例创建时间, 用于判断客户端是否空闲
+     */
+    public long getLastRequestTime(){
+        return lastRequestTime;
+    }
+
+    /**
+     * 获取异步请求的调度统计, Key为优先级, Value为该优先级的排队数/执行数/排队等待时间
+     */
+    public Map<RequestPriority, PriorityLaneStats> getPriorityLaneStats(){
+        return priorityDispatcher.getStats();
+    }
+
+    /**
+     * <p>获取客户端运行状态快照: 后端状态(阻断/恢复期/阻断和恢复次数), 各后端进行中的请求数, 异步请求排队数, OkHttp Dispatcher
+     * 和连接池的占用, 累计请求数/失败数(两次快照相减可得速率). 开销很小, 可以定时获取, 用于健康检查和扩缩容判断.</p>
+     */
+    public ClientSnapshot getSnapshot(){
+        long currentTimeMillis = System.currentTimeMillis();
+        LoadBalancedHostManager hostManager = this.hostManager;
+        List<LoadBalancedHostSnapshot> hosts = hostManager != null ? hostManager.getHostSnapshots() : new ArrayList<LoadBalancedHostSnapshot>(0);
+        Map<String, Integer> inFlightByHost = new HashMap<>(hosts.size() * 2);
+        for (LoadBalancedHostSnapshot host : hosts) {
+            inFlightByHost.put(host.getUrl(), connectionTracker.getInFlight(host.getUrl()));
+        }
+        //客户端尚未创建(还没有发送过请求)时为0, 不触发创建
+        OkHttpClient okHttpClient = this.okHttpClient;
+        int dispatcherRunning = 0;
+        int dispatcherQueued = 0;
+        int connectionCount = 0;
+        int idleConnectionCount = 0;
+        if (okHttpClient != null) {
+            dispatcherRunning = okHttpClient.dispatcher().runningCallsCount();
+            dispatcherQueued = okHttpClient.dispatcher().queuedCallsCount();
+            connectionCount = okHttpClient.connectionPool().connectionCount();
+            idleConnectionCount = okHttpClient.connectionPool().idleConnectionCount();
+        }
+        return new ClientSnapshot(settings.rawTag, currentTimeMillis, hosts, inFlightByHost, priorityDispatcher.getStats(),
+                dispatcherRunning, dispatcherQueued, connectionCount, idleConnectionCount, requestCount.get(), failureCount.get());
+    }
+
+    /**
+     * <p>获取与本客户端共享连接池的OkHttpClient, 供主动探测器使用(见HttpGetLoadBalanceInspector#setSharedClient), 探测复用真实请求的
+     * 连接和TLS会话, 探测建立的连接也可被真实请求复用. SSL/DNS/代理等配置与本客户端相同, 但不包含本客户端的拦截器(连接数限制/
+     * 压缩/报文日志等), 请求只能以同步方式发送(不占用异步调度).</p>
+     *
+     * <p>本客户端的OkHttpClient重新创建(修改配置)后, 返回的实例随之更新.</p>
+     *
+     * <p>注意: 通过返回的实例发送的请求不受每个后端的连接数限制(maxConnectionsPerHost), 探测请使用newInspectCall.</p>
+     *
+     * @param timeout 连接/写入/读取超时ms
+     */
+    public OkHttpClient getInspectOkHttpClient(long timeout){
+        OkHttpClient okHttpClient = getOkHttpClient();
+        InspectClient inspectClient = this.inspectClient;
+        if (inspectClient != null && inspectClient.source == okHttpClient && inspectClient.timeout == timeout) {
+            return inspectClient.client;
+        }
+        OkHttpClient.Builder builder = okHttpClient.newBuilder()
+                .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+                .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+                .readTimeout(timeout, TimeUnit.MILLISECONDS);
+        builder.interceptors().clear();
+        builder.networkInterceptors().clear();
+        inspectClient = new InspectClient(okHttpClient, timeout, builder.build());
+        this.inspectClient = inspectClient;
+        return inspectClient.client;
+    }
+
+    /**
+     * <p>创建与本客户端共享连接池的探测请求(见getInspectOkHttpClient), 供主动探测器使用. 限制了每个后端的连接数(maxConnectionsPerHost)时,
+     * 非阻塞地获取该后端的许可(请求结束/响应关闭时归还), 没有空余许可时返回null, 由探测器使用自己的客户端探测, 不占用真实请求的连接数.</p>
+     *
+     * <p>返回的请求必须立即同步执行(execute), 并关闭响应.</p>
+     *
+     * @param request 探测请求
+     * @param timeout 连接/写入/读取超时ms
+     * @return 探测请求, 后端没有空余的连接数许可时返回null
+     */
+    public Call newInspectCall(okhttp3.Request request, long timeout){
+        Call call = getInspectOkHttpClient(timeout).newCall(request);
+        int maxConnectionsPerHost = settings.maxConnectionsPerHost;
+        if (maxConnectionsPerHost > 0) {
+            String key = HostConnectionTracker.toKey(request.url());
+            if (!connectionTracker.tryAcquireConnection(key, maxConnectionsPerHost)) {
+                return null;
+            }
+            connectionTracker.bindConnection(call, key);
+        }
+        return call;
+    }
+
+    /**
+     * 获取报文日志统计(开启报文日志后有效): 采样数, 输出数, 缓冲区满丢弃数, 截断数
+     */
+    public BodyLogCounter getBodyLogCounter(){
+        return bodyLogCounter;
+    }
+
+    /**
+     * 获取压缩统计(开启压缩后有效), Key为后端(scheme://host:port), Value为该后端的请求/响应压缩前后字节数.
+     * 后端被移除后, 其统计随之清理
+     */
+    public Map<String, CompressionCounter> getCompressionCounters(){
+        return new HashMap<>(compressionCounters);
+    }
+
     @Override
     public String toString() {
         return (hostManager != null ? hostManager.printHostsStatus("Hosts [") + " ] " : "") +
@@ -1322,6 +2805,7 @@ public class MultiHostOkHttpClient {
     public static class Settings {
 
         private long passiveBlockDuration = PASSIVE_BLOCK_DURATION;
+        private long hostDrainTimeout = HOST_DRAIN_TIMEOUT;
         private String mediaType = MEDIA_TYPE;
         private String encode = ENCODE;
         private Map<String, String> headers;
@@ -1331,12 +2815,33 @@ public class MultiHostOkHttpClient {
         private int recoveryCoefficient = 10;
 
         private int maxIdleConnections = 16;
+        private int maxIdleConnectionsPerHost = -1;
+        private int minIdleConnectionsPerHost = -1;
+        private int maxConnectionsPerHost = 0;
         private int maxThreads = 256;
         private int maxThreadsPerHost = 256;
+        private int highPriorityReservedThreads = 0;
+        private int normalPriorityReservedThreads = 0;
+        private int maxQueuedRequests = 10000;
         private long connectTimeout = 3000L;
         private long writeTimeout = 10000L;
         private long readTimeout = 10000L;
         private long maxReadLength = 10L * 1024L * 1024L;
+        private double rateLimit = 0;
+        private long rateLimitWarmup = 0L;
+        private long rateLimitTimeout = 0L;
+        private boolean rateLimitPerHost = false;
+        private boolean compressionEnabled = false;
+        private String compressionAlgorithm = COMPRESSION_ALGORITHM;
+        private long compressionMinSize = COMPRESSION_MIN_SIZE;
+        private boolean compressionBuffered = false;
+        private String deadlineHeader;
+        private boolean bodyLogEnabled = false;
+        private int bodyLogSampleRate = 0;
+        private long bodyLogSlowThreshold = 0L;
+        private boolean bodyLogFailures = true;
+        private int bodyLogMaxLength = BODY_LOG_MAX_LENGTH;
+        private int bodyLogBufferSize = BODY_LOG_BUFFER_SIZE;
         private CookieJar cookieJar;
         private Proxy proxy;
         private Dns dns;
@@ -1356,14 +2861,36 @@ public class MultiHostOkHttpClient {
         @Override
         public String toString() {
             return "passiveBlockDuration=" + passiveBlockDuration +
+                    ", hostDrainTimeout=" + hostDrainTimeout +
                     ", recoveryCoefficient=" + recoveryCoefficient +
                     ", maxIdleConnections=" + maxIdleConnections +
+                    ", maxIdleConnectionsPerHost=" + maxIdleConnectionsPerHost +
+                    ", minIdleConnectionsPerHost=" + minIdleConnectionsPerHost +
+                    ", maxConnectionsPerHost=" + maxConnectionsPerHost +
                     ", maxThreads=" + maxThreads +
                     ", maxThreadsPerHost=" + maxThreadsPerHost +
+                    ", highPriorityReservedThreads=" + highPriorityReservedThreads +
+                    ", normalPriorityReservedThreads=" + normalPriorityReservedThreads +
+                    ", maxQueuedRequests=" + maxQueuedRequests +
                     ", connectTimeout=" + connectTimeout +
                     ", writeTimeout=" + writeTimeout +
                     ", readTimeout=" + readTimeout +
                     ", maxReadLength=" + maxReadLength +
+                    ", rateLimit=" + rateLimit +
+                    ", rateLimitWarmup=" + rateLimitWarmup +
+                    ", rateLimitTimeout=" + rateLimitTimeout +
+                    ", rateLimitPerHost=" + rateLimitPerHost +
+                    ", compressionEnabled=" + compressionEnabled +
+                    ", compressionAlgorithm='" + compressionAlgorithm + '\'' +
+                    ", compressionMinSize=" + compressionMinSize +
+                    ", compressionBuffered=" + compressionBuffered +
+                    ", deadlineHeader=" + deadlineHeader +
+                    ", bodyLogEnabled=" + bodyLogEnabled +
+                    ", bodyLogSampleRate=" + bodyLogSampleRate +
+                    ", bodyLogSlowThreshold=" + bodyLogSlowThreshold +
+                    ", bodyLogFailures=" + bodyLogFailures +
+                    ", bodyLogMaxLength=" + bodyLogMaxLength +
+                    ", bodyLogBufferSize=" + bodyLogBufferSize +
                     ", headers=" + headers +
                     ", mediaType='" + mediaType + '\'' +
                     ", encode='" + encode + '\'' +
@@ -1599,11 +3126,26 @@ public class MultiHostOkHttpClient {
 
         private Request request;
         private Settings settings;
+        private final Class<T> beanType;
+
+        /**
+         * JavaBean的类型由BeanCallback的泛型决定(请求成功时反射获取)
+         */
+        public BeanCallback() {
+            this.beanType = null;
+        }
+
+        /**
+         * @param beanType JavaBean的类型, 无需反射获取泛型类型, 例如: new BeanCallback<Foo>(Foo.class){...}
+         */
+        public BeanCallback(Class<T> beanType) {
+            this.beanType = beanType;
+        }
 
         /**
          * <p>请求成功</p>
          *
-         * <p>JavaBean的类型有BeanCallback的泛型决定</p>
+         * <p>JavaBean的类型由构造参数beanType或BeanCallback的泛型决定</p>
          *
          * @param bean 响应, 可能为null
          */
@@ -1616,6 +3158,11 @@ public class MultiHostOkHttpClient {
             if (dataConverter == null) {
                 throw new ResponseConvertException("No DataConverter set, you must set dataConverter before enqueue a beanBody");
             }
+            //构造时指定了beanType, 无需反射
+            if (beanType != null) {
+                onSucceed(dataConverter.convert(body, beanType));
+                return;
+            }
             //当前类的父类(BeanCallback实现类的父类), 即MultiHostOkHttpClient$BeanCallback
             Type superType = getClass().getGenericSuperclass();
             if (!(superType instanceof ParameterizedType)) {
@@ -1648,6 +3195,23 @@ public class MultiHostOkHttpClient {
 
     }
 
+    /**
+     * 探测用的OkHttpClient, 与创建它的OkHttpClient共享连接池
+     */
+    private static class InspectClient {
+
+        private final OkHttpClient source;
+        private final long timeout;
+        private final OkHttpClient client;
+
+        private InspectClient(OkHttpClient source, long timeout, OkHttpClient client) {
+            this.source = source;
+            this.timeout = timeout;
+            this.client = client;
+        }
+
+    }
+
     /**
      * 持有该对象可以发起请求取消操作(异步)
      */
@@ -1656,6 +3220,22 @@ public class MultiHostOkHttpClient {
         private int connectTimeout = -1;
         private int writeTimeout = -1;
         private int readTimeout = -1;
+        //截止时间(绝对时间ms), 0表示不限
+        private long deadline = 0L;
+        private int requestId = Integer.MAX_VALUE;
+        private boolean stream = false;
+        //实际使用的后端
+        private volatile String host;
+        //异步请求排队时获得的后端连接数许可(后端), 由拦截器交给请求
+        private final AtomicReference<String> hostPermit = new AtomicReference<>();
+
+        int getRequestId() {
+            return requestId;
+        }
+
+        boolean isStream() {
+            return stream;
+        }
 
     }
 
@@ -1668,10 +3248,63 @@ public class MultiHostOkHttpClient {
      * @param hostManager 远端管理器
      */
     public MultiHostOkHttpClient setHostManager(LoadBalancedHostManager hostManager) {
+        LoadBalancedHostManager oldHostManager = this.hostManager;
+        if (oldHostManager != null) {
+            oldHostManager.removeHostRemovedListener(hostRemovedListener);
+        }
+        if (hostManager != null) {
+            hostManager.addHostRemovedListener(hostRemovedListener);
+        }
         this.hostManager = hostManager;
         return this;
     }
 
+    /**
+     * 后端被移除后: 等待发往该后端的请求结束(最多hostDrainTimeout), 然后清理连接池中该后端的连接
+     */
+    private final LoadBalancedHostManager.HostRemovedListener hostRemovedListener = new LoadBalancedHostManager.HostRemovedListener() {
+        @Override
+        public void onHostRemoved(String url, long version) {
+            connectionTracker.drain(url, settings.hostDrainTimeout, settings.tag, new HostConnectionTracker.StillRemovedChecker() {
+                @Override
+                public boolean isStillRemoved(String removedUrl) {
+                    LoadBalancedHostManager hostManager = MultiHostOkHttpClient.this.hostManager;
+                    return hostManager == null || !hostManager.containsHost(removedUrl);
+                }
+            });
+            removeCompressionCounters();
+        }
+    };
+
+    /**
+     * 清理已移除的后端的压缩统计(与现存后端scheme://host:port相同的保留)
+     */
+    private void removeCompressionCounters() {
+        LoadBalancedHostManager hostManager = this.hostManager;
+        if (compressionCounters.isEmpty() || hostManager == null) {
+            return;
+        }
+        Set<String> keys = new HashSet<>();
+        for (String hostUrl : hostManager.getHostsStatus().keySet()) {
+            HttpUrl url = HttpUrl.parse(hostUrl);
+            if (url != null) {
+                keys.add(CompressionInterceptor.counterKey(url));
+            }
+        }
+        compressionCounters.keySet().retainAll(keys);
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置被动异常检测器(可选), 设置后每个请求的结果和耗时会上报给检测器, 由检测器阻断成功率或耗时明显偏离其他远端的后端.
+     * 检测器应与本客户端使用同一个远端管理器.
+     * @param outlierDetector 被动异常检测器, 设置为null停用
+     */
+    public MultiHostOkHttpClient setOutlierDetector(LoadBalancedOutlierDetector outlierDetector) {
+        this.outlierDetector = outlierDetector;
+        return this;
+    }
+
     /**
      * [可运行时修改]
      * <p>[配置]设置被动检测到网络故障时阻断后端的时间</p>
@@ -1689,6 +3322,23 @@ public class MultiHostOkHttpClient {
         return this;
     }
 
+    /**
+     * [可运行时修改]
+     * <p>[配置]设置后端被移除后, 等待发往该后端的请求结束的期限</p>
+     *
+     * <p>后端从远端管理器中移除后立即不再被选中, 客户端等待发往该后端的请求结束(响应体关闭), 然后清理连接池中该后端的连接.
+     * 超过期限仍未结束的请求会被取消. 清理连接需要访问OkHttp内部API, 仅支持OkHttp 3.12.x, 其他版本时不主动清理, 连接在keep-alive超时后关闭.</p>
+     *
+     * @param hostDrainTimeout 等待期限ms, 默认30000
+     */
+    public MultiHostOkHttpClient setHostDrainTimeout(long hostDrainTimeout) {
+        if (hostDrainTimeout < 0) {
+            hostDrainTimeout = 0;
+        }
+        settings.hostDrainTimeout = hostDrainTimeout;
+        return this;
+    }
+
     /**
      * [可运行时修改]
      * 设置MediaType
@@ -1734,7 +3384,8 @@ public class MultiHostOkHttpClient {
 
     /**
      * [可运行时修改]
-     * 最大闲置连接数. 客户端会保持与服务端的连接, 保持数量由此设置决定, 直到闲置超过5分钟. 默认16
+     * 最大闲置连接数. 客户端会保持与服务端的连接, 保持数量由此设置决定, 直到闲置超过5分钟. 默认16.
+     * 超过时从闲置连接最多的后端开始关闭, 每个后端至少保留minIdleConnectionsPerHost个.
      * @param maxIdleConnections 最大闲置连接数, 默认16
      */
     public MultiHostOkHttpClient setMaxIdleConnections(int maxIdleConnections) {
@@ -1750,6 +3401,61 @@ public class MultiHostOkHttpClient {
         return this;
     }
 
+    /**
+     * [可运行时修改]
+     * 每个后端的最大闲置连接数, 避免一个繁忙的后端占满连接池. 默认-1: 按后端数量计算, 即 maxIdleConnections / 后端数量(向上取整),
+     * 且不小于minIdleConnectionsPerHost. 按后端整理空闲连接需要访问OkHttp内部API, 仅支持OkHttp 3.12.x, 其他版本时不生效.
+     * @param maxIdleConnectionsPerHost 每个后端的最大闲置连接数, -1按后端数量计算
+     */
+    public MultiHostOkHttpClient setMaxIdleConnectionsPerHost(int maxIdleConnectionsPerHost) {
+        if (maxIdleConnectionsPerHost < -1) {
+            maxIdleConnectionsPerHost = -1;
+        }
+        try {
+            settingsSpinLock.lock();
+            settings.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 每个后端至少保留的闲置连接数, 闲置连接总数超过maxIdleConnections时, 不会关闭这部分连接(闲置超过5分钟仍会关闭),
+     * 保证后端较多时每个后端都有可复用的连接. 默认-1: maxIdleConnections大于0时为1, 否则为0.
+     * 注意: 后端数量 * minIdleConnectionsPerHost 可能超过maxIdleConnections.
+     * @param minIdleConnectionsPerHost 每个后端至少保留的闲置连接数, -1自动
+     */
+    public MultiHostOkHttpClient setMinIdleConnectionsPerHost(int minIdleConnectionsPerHost) {
+        if (minIdleConnectionsPerHost < -1) {
+            minIdleConnectionsPerHost = -1;
+        }
+        try {
+            settingsSpinLock.lock();
+            settings.minIdleConnectionsPerHost = minIdleConnectionsPerHost;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 每个后端的最大连接数(同步和异步请求均有效), 以发往该后端的进行中的请求数计算(HTTP/1.1一个连接同时只处理一个请求).
+     * 达到上限时, 同步请求在连接超时时间(connectTimeout)内等待, 超时抛出ConnectionLimitException(IOException的子类, 不会阻断后端);
+     * 异步请求在优先级队列中排队(不占用线程和并发数), 有空余许可时放行.
+     * 默认0: 不限制.
+     * @param maxConnectionsPerHost 每个后端的最大连接数, 0不限制
+     */
+    public MultiHostOkHttpClient setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 0) {
+            maxConnectionsPerHost = 0;
+        }
+        settings.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
     /**
      * [可运行时修改]
      * 最大请求线程数(仅异步请求时有效)
@@ -1786,6 +3492,51 @@ public class MultiHostOkHttpClient {
         return this;
     }
 
+    /**
+     * [可运行时修改]
+     * <p>为高优先级(RequestPriority.HIGH)异步请求预留的并发数(仅异步请求时有效)</p>
+     *
+     * <p>异步请求在交给OkHttp前按优先级排队(Request#priority), 总并发数不超过maxThreads, 有空位时优先放行高优先级的请求.
+     * 为高优先级预留的并发数, 普通和低优先级的请求不可占用, 保证批量的低优先级请求不会占满并发数. 预留数过大时, 每个优先级至少保留1个并发数.
+     * 调度统计见getPriorityLaneStats.</p>
+     *
+     * @param highPriorityReservedThreads 为高优先级预留的并发数, 默认0
+     */
+    public MultiHostOkHttpClient setHighPriorityReservedThreads(int highPriorityReservedThreads) {
+        if (highPriorityReservedThreads < 0) {
+            highPriorityReservedThreads = 0;
+        }
+        settings.highPriorityReservedThreads = highPriorityReservedThreads;
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * <p>为普通优先级(RequestPriority.NORMAL)及以上的异步请求预留的并发数, 低优先级的请求不可占用(仅异步请求时有效),
+     * 详见setHighPriorityReservedThreads</p>
+     *
+     * @param normalPriorityReservedThreads 为普通优先级及以上预留的并发数, 默认0
+     */
+    public MultiHostOkHttpClient setNormalPriorityReservedThreads(int normalPriorityReservedThreads) {
+        if (normalPriorityReservedThreads < 0) {
+            normalPriorityReservedThreads = 0;
+        }
+        settings.normalPriorityReservedThreads = normalPriorityReservedThreads;
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * <p>每个优先级最多排队的异步请求数(包括等待后端连接数许可的请求, 仅异步请求时有效), 达到上限时新的异步请求被拒绝,
+     * 回调onErrorBeforeSend(QueueFullException). 被拒绝的数量见getPriorityLaneStats.</p>
+     *
+     * @param maxQueuedRequests 每个优先级最多排队的异步请求数, <=0不限制, 默认10000
+     */
+    public MultiHostOkHttpClient setMaxQueuedRequests(int maxQueuedRequests) {
+        settings.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
     /**
      * [可运行时修改]
      * 设置连接超时ms
@@ -1853,6 +3604,253 @@ public class MultiHostOkHttpClient {
         return this;
     }
 
+    /**
+     * [可运行时修改]
+     * <p>客户端限流(令牌桶), 每秒最多发送的请求数, 小于等于0不限流(默认)</p>
+     *
+     * <p>令牌不足时, 在rateLimitTimeout内等待, 超时抛出RateLimitException(RequestBuildException的子类, 异步请求回调
+     * onErrorBeforeSend). 注意: 异步请求也在调用enqueue的线程中等待.</p>
+     *
+     * @param rateLimit 每秒请求数, 可以是小数, 例如0.5表示每2秒一个请求
+     */
+    public MultiHostOkHttpClient setRateLimit(double rateLimit) {
+        settings.rateLimit = rateLimit > 0 ? rateLimit : 0;
+        resetRateLimiter();
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 客户端限流预热时长, 创建后或空闲超过预热时长后, 速率从1/3开始在预热时长内线性增长到rateLimit, 小于等于0不预热(默认)
+     * @param rateLimitWarmup 预热时长ms
+     */
+    public MultiHostOkHttpClient setRateLimitWarmup(long rateLimitWarmup) {
+        settings.rateLimitWarmup = rateLimitWarmup > 0 ? rateLimitWarmup : 0;
+        resetRateLimiter();
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 客户端限流等待超时时间, 令牌不足时最多等待的时间, 0表示不等待直接失败(默认)
+     * @param rateLimitTimeout 等待超时ms
+     */
+    public MultiHostOkHttpClient setRateLimitTimeout(long rateLimitTimeout) {
+        settings.rateLimitTimeout = rateLimitTimeout > 0 ? rateLimitTimeout : 0;
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 启用后端级别的限流, 每个后端的速率 = rateLimit / 可用(未阻断)的后端数量, 后端增减或阻断/恢复时自动重新分配, 避免流量集中到个别后端. 默认false
+     * @param rateLimitPerHost true启用
+     */
+    public MultiHostOkHttpClient setRateLimitPerHost(boolean rateLimitPerHost) {
+        settings.rateLimitPerHost = rateLimitPerHost;
+        resetRateLimiter();
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * <p>启用/禁用报文压缩, 默认禁用</p>
+     *
+     * <p>启用后, 请求报文体长度达到compressionMinSize时按compressionAlgorithm压缩(设置Content-Encoding), 同时向服务端声明
+     * 支持gzip/deflate响应(Accept-Encoding)并自动解压. 若请求自行设置了Content-Encoding/Accept-Encoding, 则对应的请求/响应
+     * 不做处理. 压缩前后的字节数可通过{@link #getCompressionCounters()}获取. 压缩后的请求默认以分块(chunked)方式流式发送(长度未知),
+     * 服务端不接受分块传输时请开启{@link #setCompressionBuffered(boolean)}. 注意: 需要服务端支持解压请求报文体.</p>
+     *
+     * @param compressionEnabled true启用
+     */
+    public MultiHostOkHttpClient setCompressionEnabled(boolean compressionEnabled) {
+        try {
+            settingsSpinLock.lock();
+            settings.compressionEnabled = compressionEnabled;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 请求报文体压缩算法, 支持gzip/deflate, 默认gzip (开启压缩后有效)
+     * @param compressionAlgorithm gzip/deflate
+     */
+    public MultiHostOkHttpClient setCompressionAlgorithm(String compressionAlgorithm) {
+        if (CheckUtils.isEmptyOrBlank(compressionAlgorithm)) {
+            compressionAlgorithm = COMPRESSION_ALGORITHM;
+        }
+        compressionAlgorithm = compressionAlgorithm.trim().toLowerCase();
+        if (!CompressionInterceptor.ALGORITHM_GZIP.equals(compressionAlgorithm) &&
+                !CompressionInterceptor.ALGORITHM_DEFLATE.equals(compressionAlgorithm)) {
+            throw new IllegalArgumentException("Invalid compressionAlgorithm \"" + compressionAlgorithm + "\", only gzip/deflate supported");
+        }
+        try {
+            settingsSpinLock.lock();
+            settings.compressionAlgorithm = compressionAlgorithm;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 请求报文体压缩阈值, 报文体长度大于等于该值时才压缩, 默认1024 (开启压缩后有效)
+     * @param compressionMinSize 压缩阈值, 单位bytes
+     */
+    public MultiHostOkHttpClient setCompressionMinSize(long compressionMinSize) {
+        if (compressionMinSize < 0) {
+            compressionMinSize = 0;
+        }
+        try {
+            settingsSpinLock.lock();
+            settings.compressionMinSize = compressionMinSize;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * <p>true: 请求报文体先在内存中压缩完, 再以定长(Content-Length)发送, 适用于不接受分块传输(chunked)的服务端. 代价是整个压缩后的
+     * 报文体驻留内存, 且报文体自身的写出逻辑(如FileRequestBody的进度回调)在发送前就执行完毕.
+     * false: 发送时流式压缩, 以分块方式发送(长度未知). 默认false (开启压缩后有效)</p>
+     * @param compressionBuffered true: 缓冲后定长发送
+     */
+    public MultiHostOkHttpClient setCompressionBuffered(boolean compressionBuffered) {
+        try {
+            settingsSpinLock.lock();
+            settings.compressionBuffered = compressionBuffered;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * <p>请求设置了截止时间(Request#deadline/deadlineAt)时, 将剩余时间(单位ms)通过该请求头传给服务端, 服务端可据此放弃调用方
+     * 已经不再等待的处理. 传递剩余时间而不是绝对时间, 避免两端时钟不一致. 默认null不传递.</p>
+     *
+     * @param deadlineHeader 请求头名称, 例如X-Request-Timeout, 为空不传递
+     */
+    public MultiHostOkHttpClient setDeadlineHeader(String deadlineHeader) {
+        settings.deadlineHeader = CheckUtils.isEmptyOrBlank(deadlineHeader) ? null : deadlineHeader.trim();
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * <p>启用/禁用采样的异步报文日志, 默认禁用. 与verboseLog不同, 报文日志不在调用线程中转换字符串, 可以在生产环境开启.</p>
+     *
+     * <p>请求结束(收到响应头或网络异常)后判断是否采样: 每bodyLogSampleRate个请求采样1个, 耗时(收到响应头为止)达到
+     * bodyLogSlowThreshold, 或失败(网络异常/非2XX, bodyLogFailures=true时). 被采样的请求截取请求/响应报文体的前bodyLogMaxLength
+     * 个字节(响应报文体通过peekBody截取, 不影响后续读取, 流式请求不截取响应报文体, 文件报文体不截取), 放入容量为bodyLogBufferSize的
+     * 缓冲区, 由日志线程转换为字符串, 以INFO级别输出到Logger "sviolet.slate.common.x.net.loadbalance.classic.BodyLogInterceptor".
+     * 缓冲区满时日志被丢弃, 不阻塞调用方. 统计见{@link #getBodyLogCounter()}.</p>
+     *
+     * @param bodyLogEnabled true启用
+     */
+    public MultiHostOkHttpClient setBodyLogEnabled(boolean bodyLogEnabled) {
+        try {
+            settingsSpinLock.lock();
+            settings.bodyLogEnabled = bodyLogEnabled;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 报文日志按比例采样, 每N个请求采样1个, 1表示全部采样, 小于等于0不按比例采样, 默认0 (开启报文日志后有效)
+     * @param bodyLogSampleRate N
+     */
+    public MultiHostOkHttpClient setBodyLogSampleRate(int bodyLogSampleRate) {
+        if (bodyLogSampleRate < 0) {
+            bodyLogSampleRate = 0;
+        }
+        try {
+            settingsSpinLock.lock();
+            settings.bodyLogSampleRate = bodyLogSampleRate;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 报文日志慢请求阈值, 耗时(收到响应头为止)达到该值的请求被采样, 小于等于0不按耗时采样, 默认0 (开启报文日志后有效)
+     * @param bodyLogSlowThreshold 慢请求阈值ms
+     */
+    public MultiHostOkHttpClient setBodyLogSlowThreshold(long bodyLogSlowThreshold) {
+        if (bodyLogSlowThreshold < 0) {
+            bodyLogSlowThreshold = 0;
+        }
+        try {
+            settingsSpinLock.lock();
+            settings.bodyLogSlowThreshold = bodyLogSlowThreshold;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * true: 失败的请求(网络异常/非2XX)全部采样, 默认true (开启报文日志后有效)
+     * @param bodyLogFailures true: 失败的请求全部采样
+     */
+    public MultiHostOkHttpClient setBodyLogFailures(boolean bodyLogFailures) {
+        try {
+            settingsSpinLock.lock();
+            settings.bodyLogFailures = bodyLogFailures;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 报文日志截取的报文体最大长度, 超过部分在转换字符串前截断, 默认1024 (开启报文日志后有效)
+     * @param bodyLogMaxLength 最大长度, 单位bytes
+     */
+    public MultiHostOkHttpClient setBodyLogMaxLength(int bodyLogMaxLength) {
+        if (bodyLogMaxLength < 0) {
+            bodyLogMaxLength = 0;
+        }
+        try {
+            settingsSpinLock.lock();
+            settings.bodyLogMaxLength = bodyLogMaxLength;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 报文日志缓冲区容量(条), 缓冲区满时日志被丢弃(计入dropped), 默认1024 (开启报文日志后有效)
+     * @param bodyLogBufferSize 缓冲区容量
+     */
+    public MultiHostOkHttpClient setBodyLogBufferSize(int bodyLogBufferSize) {
+        if (bodyLogBufferSize < 1) {
+            bodyLogBufferSize = 1;
+        }
+        try {
+            settingsSpinLock.lock();
+            settings.bodyLogBufferSize = bodyLogBufferSize;
+        } finally {
+            settingsSpinLock.unlock();
+        }
+        return this;
+    }
+
     /**
      * [可运行时修改]
      * CookieJar
@@ -2162,6 +4160,7 @@ public class MultiHostOkHttpClient {
     /**
      * [可运行时修改]
      * true: INFO级别可打印更多的日志(请求报文/响应码等), 默认false
+     * 注意: 报文在调用线程中同步转换为字符串, 开销较大, 生产环境建议使用采样的异步报文日志(setBodyLogEnabled)
      * @param verboseLog true: INFO级别可打印更多的日志(请求报文/响应码等), 默认false
      */
     public MultiHostOkHttpClient setVerboseLog(boolean verboseLog) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.internal.Internal;
+import okhttp3.internal.Version;
+import okhttp3.internal.connection.RealConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Socket;
+
+/**
+ * <p>访问OkHttp内部API(连接池中的连接状态), HostConnectionTracker清理被移除后端的连接和整理空闲连接时使用.</p>
+ *
+ * <p>OkHttp的内部API没有兼容性保证, 对OkHttp内部API的访问集中在本类中. 仅在OkHttp版本为3.12.x时启用(构建中已固定OkHttp版本),
+ * 其他版本时isSupported返回false, 其余方法不可调用: 被移除后端的连接不主动关闭(不再选中该后端, 等待keep-alive超时),
+ * 也不按后端整理空闲连接(只受连接池maxIdleConnections限制).</p>
+ *
+ * @author S.Violet
+ */
+final class OkHttpInternals {
+
+    private static final Logger logger = LoggerFactory.getLogger(OkHttpInternals.class);
+
+    private static final String SUPPORTED_VERSION_PREFIX = "okhttp/3.12.";
+
+    private static final boolean SUPPORTED = checkSupported();
+
+    private OkHttpInternals() {
+    }
+
+    private static boolean checkSupported() {
+        String version = null;
+        try {
+            version = Version.userAgent();
+            if (version != null && version.startsWith(SUPPORTED_VERSION_PREFIX)) {
+                //确认内部API存在
+                RealConnection.class.getField("noNewStreams");
+                RealConnection.class.getField("allocations");
+                RealConnection.class.getField("idleAtNanos");
+                //Internal.instance在OkHttpClient类初始化时赋值
+                Class.forName(OkHttpClient.class.getName(), true, OkHttpClient.class.getClassLoader());
+                if (Internal.instance != null) {
+                    return true;
+                }
+            }
+        } catch (Throwable ignore) {
+        }
+        if (logger.isWarnEnabled()) {
+            logger.warn("OkHttpInternals | OkHttp version " + version + " is not supported (required " + SUPPORTED_VERSION_PREFIX +
+                    "x), connections of removed hosts will not be evicted actively, idle connections will not be trimmed by host");
+        }
+        return false;
+    }
+
+    /**
+     * @return true: 当前OkHttp版本支持, 可以调用其他方法
+     */
+    static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * 是否为可以跟踪的连接(连接池中的连接)
+     */
+    static boolean isPooledConnection(Connection connection) {
+        return connection instanceof RealConnection;
+    }
+
+    /**
+     * 连接状态由连接池的锁保护(与OkHttp相同), 调用isIdle/getIdleAtNanos/evict前需要持有该锁
+     */
+    static Object lockOf(ConnectionPool connectionPool) {
+        return connectionPool;
+    }
+
+    /**
+     * 连接是否空闲(没有请求使用, 可复用, 未被连接池清理), 需持有连接池锁
+     */
+    static boolean isIdle(Connection connection) {
+        RealConnection realConnection = (RealConnection) connection;
+        //已被连接池清理的连接socket已关闭
+        return realConnection.allocations.isEmpty() && !realConnection.noNewStreams && !realConnection.socket().isClosed();
+    }
+
+    /**
+     * 连接开始空闲的时间(System.nanoTime), 需持有连接池锁
+     */
+    static long getIdleAtNanos(Connection connection) {
+        return ((RealConnection) connection).idleAtNanos;
+    }
+
+    /**
+     * 将连接标记为不可复用, 若连接空闲则移出连接池(需持有连接池锁). 使用中的连接在请求结束后由连接池移除.
+     * @return 被移出连接池的连接的socket(由调用者在锁外关闭), 连接未被移出时返回null
+     */
+    static Socket evict(ConnectionPool connectionPool, Connection connection) {
+        RealConnection realConnection = (RealConnection) connection;
+        realConnection.noNewStreams = true;
+        if (realConnection.allocations.isEmpty() && Internal.instance.connectionBecameIdle(connectionPool, realConnection)) {
+            return realConnection.socket();
+        }
+        return null;
+    }
+
+}
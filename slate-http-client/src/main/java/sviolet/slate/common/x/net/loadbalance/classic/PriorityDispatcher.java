@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * <p>按优先级调度异步请求(MultiHostOkHttpClient内部使用)</p>
+ *
+ * <p>OkHttp的Dispatcher只有一个先进先出队列, 批量的低优先级请求会拖慢关键请求. 本调度器在请求交给OkHttp前按优先级排队:</p>
+ *
+ * <p>1.总并发数不超过maxThreads, 有空位时优先放行高优先级的请求.<br>
+ * 2.为高优先级预留highReserved个并发数, 普通和低优先级不可占用; 为普通优先级(及以上)预留normalReserved个并发数, 低优先级不可占用.
+ * 预留数过大时, 每个优先级至少保留1个并发数.<br>
+ * 3.请求在OkHttp回调结束后释放并发数.<br>
+ * 4.指定了后端(host)的请求, 放行前先获取该后端的连接数许可(HostPermits, 非阻塞), 后端没有空余许可时转入该后端的等待队列(不占用并发数),
+ * 同优先级中后面发往其他后端的请求可以先放行. 许可归还时调用hostPermitReleased, 只重试该后端的等待队列.<br>
+ * 5.每个优先级的排队数(包括等待后端许可的请求)达到maxQueued时拒绝新请求(submit返回false).<br>
+ * 6.请求有截止时间时, 排队到截止时间仍未放行的请求移出队列(由DeadlineTimer触发), 执行expiredTask.<br>
+ * 7.统计每个优先级的排队数/执行数/拒绝数/过期数/排队等待时间.</p>
+ *
+ * <p>注意: OkHttp的maxThreadsPerHost限制仍然在OkHttp内部生效.</p>
+ *
+ * @author S.Violet
+ */
+class PriorityDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PriorityDispatcher.class);
+
+    private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+    //过期的请求超过该数量(且超过排队数)时整理队列
+    private static final int GARBAGE_THRESHOLD = 64;
+
+    private final Lane[] lanes = new Lane[PRIORITIES.length];
+    private final HostPermits hostPermits;
+    private int totalRunning = 0;
+    //后端 -> 因许可不足等待的请求
+    private final Map<String, HostWaiters> waitingHosts = new HashMap<>();
+    //归还过许可的后端(有等待的请求), 放行时优先重试
+    private final Set<String> releasedHosts = new LinkedHashSet<>();
+    //有请求在等待后端许可, 获取许可前置为true(与许可归还时的检查配合, 避免漏掉唤醒)
+    private volatile boolean hasWaiters = false;
+    //当前线程正在执行放行的请求时, 新放行的请求加入该队列, 由外层循环执行(避免请求同步结束时递归调用)
+    private final ThreadLocal<Deque<Runnable>> drainingQueue = new ThreadLocal<>();
+
+    PriorityDispatcher() {
+        this(null);
+    }
+
+    /**
+     * @param hostPermits 后端连接数许可, 为null时不按后端限制
+     */
+    PriorityDispatcher(HostPermits hostPermits) {
+        this.hostPermits = hostPermits;
+        for (int i = 0 ; i < lanes.length ; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * 提交请求, 有空位时立即在当前线程执行, 否则排队
+     * @param priority 优先级
+     * @param task 请求任务(非阻塞), 任务结束后(包括异常)必须调用finished
+     * @param maxQueued 该优先级的最大排队数, <=0不限制
+     * @return false: 排队数达到上限, 请求被拒绝(任务不会执行, 也无需调用finished)
+     */
+    boolean submit(RequestPriority priority, Runnable task, int maxQueued, int maxRequests, int highReserved, int normalReserved) {
+        return submit(priority, null, task, maxQueued, maxRequests, highReserved, normalReserved);
+    }
+
+    /**
+     * 提交请求, 有空位且后端有空余许可时立即在当前线程执行, 否则排队
+     * @param priority 优先级
+     * @param host 后端, 不为null时放行前获取该后端的连接数许可(由任务负责归还), 为null时不按后端限制
+     * @param task 请求任务(非阻塞), 任务结束后(包括异常)必须调用finished
+     * @param maxQueued 该优先级的最大排队数, <=0不限制
+     * @return false: 排队数达到上限, 请求被拒绝(任务不会执行, 也无需调用finished)
+     */
+    boolean submit(RequestPriority priority, String host, Runnable task, int maxQueued, int maxRequests, int highReserved, int normalReserved) {
+        return submit(priority, host, task, 0L, null, maxQueued, maxRequests, highReserved, normalReserved);
+    }
+
+    /**
+     * 提交请求, 有空位且后端有空余许可时立即在当前线程执行, 否则排队, 到截止时间仍未放行时移出队列并执行expiredTask
+     * @param priority 优先级
+     * @param host 后端, 不为null时放行前获取该后端的连接数许可(由任务负责归还), 为null时不按后端限制
+     * @param task 请求任务(非阻塞), 任务结束后(包括异常)必须调用finished
+     * @param deadline 截止时间(System.currentTimeMillis()), <=0不限
+     * @param expiredTask 到截止时间仍在排队时执行(在定时线程中执行, 必须非常轻量, 无需调用finished), 可为null
+     * @param maxQueued 该优先级的最大排队数, <=0不限制
+     * @return false: 排队数达到上限, 请求被拒绝(任务不会执行, 也无需调用finished)
+     */
+    boolean submit(RequestPriority priority, String host, Runnable task, long deadline, Runnable expiredTask,
+                   int maxQueued, int maxRequests, int highReserved, int normalReserved) {
+        List<Runnable> ready;
+        synchronized (this) {
+            Lane lane = lanes[priority.ordinal()];
+            if (maxQueued > 0 && lane.queued >= maxQueued) {
+                lane.rejected++;
+                return false;
+            }
+            Task newTask = new Task(task, priority.ordinal(), host, System.currentTimeMillis(), expiredTask);
+            lane.queue.offer(newTask);
+            lane.queued++;
+            ready = promote(maxRequests, highReserved, normalReserved);
+            //未能立即放行, 到截止时间移出队列
+            if (deadline > 0 && !newTask.admitted) {
+                newTask.expiry = DeadlineTimer.schedule(new Expiry(newTask), deadline);
+            }
+        }
+        run(ready);
+        return true;
+    }
+
+    /**
+     * 后端连接数许可被归还, 放行因该后端许可不足等待的请求
+     * @param host 后端
+     */
+    void hostPermitReleased(String host, int maxRequests, int highReserved, int normalReserved) {
+        if (!hasWaiters) {
+            return;
+        }
+        List<Runnable> ready;
+        synchronized (this) {
+            if (!waitingHosts.containsKey(host)) {
+                return;
+            }
+            releasedHosts.add(host);
+            ready = promote(maxRequests, highReserved, normalReserved);
+        }
+        run(ready);
+    }
+
+    /**
+     * 请求结束, 释放并发数, 放行排队中的请求
+     */
+    void finished(RequestPriority priority, int maxRequests, int highReserved, int normalReserved) {
+        List<Runnable> ready;
+        synchronized (this) {
+            lanes[priority.ordinal()].running--;
+            totalRunning--;
+            ready = promote(maxRequests, highReserved, normalReserved);
+        }
+        run(ready);
+    }
+
+    /**
+     * 排队中的请求到截止时间, 移出队列(从队列中的移除延迟到放行或整理时进行)
+     */
+    private void expire(Task task) {
+        synchronized (this) {
+            if (task.admitted || task.expired) {
+                return;
+            }
+            task.expired = true;
+            Lane lane = lanes[task.lane];
+            lane.queued--;
+            lane.expired++;
+            lane.garbage++;
+            if (task.waiting) {
+                HostWaiters waiters = waitingHosts.get(task.host);
+                if (waiters != null && --waiters.size <= 0) {
+                    waitingHosts.remove(task.host);
+                    releasedHosts.remove(task.host);
+                }
+            }
+            //过期的请求比排队的请求多时, 整理一次(均摊开销), 避免过期的请求一直占用队列
+            if (lane.garbage > GARBAGE_THRESHOLD && lane.garbage > lane.queued) {
+                purge(task.lane);
+            }
+        }
+        if (task.expiredTask != null) {
+            try {
+                task.expiredTask.run();
+            } catch (Throwable t) {
+                logger.error("PriorityDispatcher | Un-captured error while expiring request", t);
+            }
+        }
+    }
+
+    /**
+     * 从该优先级的队列中移除过期的请求
+     */
+    private void purge(int laneIndex) {
+        Lane lane = lanes[laneIndex];
+        removeExpired(lane.queue);
+        for (HostWaiters waiters : waitingHosts.values()) {
+            removeExpired(waiters.queues[laneIndex]);
+        }
+        lane.garbage = 0;
+    }
+
+    private static void removeExpired(Queue<Task> queue) {
+        Iterator<Task> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expired) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 各优先级的统计
+     */
+    synchronized Map<RequestPriority, PriorityLaneStats> getStats() {
+        Map<RequestPriority, PriorityLaneStats> stats = new EnumMap<>(RequestPriority.class);
+        for (RequestPriority priority : PRIORITIES) {
+            Lane lane = lanes[priority.ordinal()];
+            stats.put(priority, new PriorityLaneStats(priority, lane.queued, lane.running, lane.admitted, lane.rejected, lane.expired, lane.totalWaitMillis, lane.maxWaitMillis));
+        }
+        return stats;
+    }
+
+    /**
+     * 放行请求. 每个优先级先重试归还过许可的后端的等待队列, 再处理新排队的请求(获取许可失败的转入后端等待队列),
+     * 开销与归还许可的后端数及放行数相关, 与等待中的请求总数无关.
+     */
+    private List<Runnable> promote(int maxRequests, int highReserved, int normalReserved) {
+        Admission admission = new Admission();
+        int reserved = 0;
+        for (int i = 0 ; i < lanes.length ; i++) {
+            Lane lane = lanes[i];
+            //该优先级可用的并发数 = 总数 - 为更高优先级预留的数量
+            int limit = Math.max(1, maxRequests - reserved);
+            //归还过许可的后端
+            Iterator<String> iterator = releasedHosts.iterator();
+            while (totalRunning < limit && iterator.hasNext()) {
+                String host = iterator.next();
+                HostWaiters waiters = waitingHosts.get(host);
+                if (waiters == null) {
+                    iterator.remove();
+                    continue;
+                }
+                Queue<Task> queue = waiters.queues[i];
+                Task head;
+                while (totalRunning < limit && (head = queue.peek()) != null) {
+                    if (head.expired) {
+                        queue.poll();
+                        lane.garbage--;
+                        continue;
+                    }
+                    if (!tryAcquire(host)) {
+                        //许可又用完了, 等下次归还
+                        iterator.remove();
+                        break;
+                    }
+                    queue.poll();
+                    waiters.size--;
+                    admission.admit(lane, head);
+                }
+                if (waiters.size <= 0) {
+                    waitingHosts.remove(host);
+                    iterator.remove();
+                }
+            }
+            //新排队的请求
+            Task task;
+            while (totalRunning < limit && (task = lane.queue.poll()) != null) {
+                if (task.expired) {
+                    lane.garbage--;
+                    continue;
+                }
+                if (task.host != null && hostPermits != null) {
+                    HostWaiters waiters = waitingHosts.get(task.host);
+                    //该后端已有请求在等待许可(且本轮未归还许可), 排在后面, 保持先后顺序
+                    if (waiters != null && !releasedHosts.contains(task.host)) {
+                        waiters.add(task);
+                        continue;
+                    }
+                    if (!tryAcquire(task.host)) {
+                        if (waiters == null) {
+                            waiters = new HostWaiters();
+                            waitingHosts.put(task.host, waiters);
+                        }
+                        waiters.add(task);
+                        releasedHosts.remove(task.host);
+                        continue;
+                    }
+                }
+                admission.admit(lane, task);
+            }
+            if (PRIORITIES[i] == RequestPriority.HIGH) {
+                reserved += Math.max(0, highReserved);
+            } else if (PRIORITIES[i] == RequestPriority.NORMAL) {
+                reserved += Math.max(0, normalReserved);
+            }
+        }
+        if (hasWaiters && waitingHosts.isEmpty()) {
+            hasWaiters = false;
+        }
+        return admission.ready;
+    }
+
+    private boolean tryAcquire(String host) {
+        //先标记再获取许可: 获取失败后归还许可的线程一定能看到标记, 进而调用hostPermitReleased
+        if (!hasWaiters) {
+            hasWaiters = true;
+        }
+        return hostPermits.tryAcquire(host);
+    }
+
+    private void run(List<Runnable> ready) {
+        if (ready == null) {
+            return;
+        }
+        //请求在执行中同步结束(截止时间已过/发送前异常)时会调用finished并放行下一个请求, 交给外层循环执行, 不递归
+        Deque<Runnable> queue = drainingQueue.get();
+        if (queue != null) {
+            queue.addAll(ready);
+            return;
+        }
+        queue = new ArrayDeque<>(ready);
+        drainingQueue.set(queue);
+        try {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.error("PriorityDispatcher | Un-captured error while starting request", t);
+                }
+            }
+        } finally {
+            drainingQueue.remove();
+        }
+    }
+
+    /**
+     * 一轮放行的结果
+     */
+    private final class Admission {
+
+        private List<Runnable> ready;
+        private long currentTimeMillis = 0L;
+
+        private void admit(Lane lane, Task task) {
+            if (currentTimeMillis == 0L) {
+                currentTimeMillis = System.currentTimeMillis();
+            }
+            long wait = Math.max(0L, currentTimeMillis - task.enqueueTime);
+            task.admitted = true;
+            task.waiting = false;
+            if (task.expiry != null) {
+                task.expiry.cancel(false);
+                task.expiry = null;
+            }
+            lane.queued--;
+            lane.running++;
+            lane.admitted++;
+            lane.totalWaitMillis += wait;
+            if (wait > lane.maxWaitMillis) {
+                lane.maxWaitMillis = wait;
+            }
+            totalRunning++;
+            if (ready == null) {
+                ready = new ArrayList<>(4);
+            }
+            ready.add(task.task);
+        }
+
+    }
+
+    private static final class Lane {
+
+        //新排队的请求(未尝试获取后端许可)
+        private final Queue<Task> queue = new ArrayDeque<>();
+        //排队数(包括等待后端许可的请求)
+        private int queued = 0;
+        private int running = 0;
+        private long admitted = 0L;
+        private long rejected = 0L;
+        private long expired = 0L;
+        //已过期但还在队列中(包括后端等待队列)的请求数
+        private int garbage = 0;
+        private long totalWaitMillis = 0L;
+        private long maxWaitMillis = 0L;
+
+    }
+
+    private static final class Task {
+
+        private final Runnable task;
+        private final int lane;
+        private final String host;
+        private final long enqueueTime;
+        private final Runnable expiredTask;
+        //以下状态由调度器锁保护
+        private boolean admitted = false;
+        private boolean expired = false;
+        //在后端等待队列中
+        private boolean waiting = false;
+        private ScheduledFuture<?> expiry;
+
+        private Task(Runnable task, int lane, String host, long enqueueTime, Runnable expiredTask) {
+            this.task = task;
+            this.lane = lane;
+            this.host = host;
+            this.enqueueTime = enqueueTime;
+            this.expiredTask = expiredTask;
+        }
+
+    }
+
+    private final class Expiry implements Runnable {
+
+        private final Task task;
+
+        private Expiry(Task task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            expire(task);
+        }
+
+    }
+
+    /**
+     * 因许可不足等待的请求(单个后端), 按优先级分队列
+     */
+    private static final class HostWaiters {
+
+        @SuppressWarnings("unchecked")
+        private final Queue<Task>[] queues = new Queue[PRIORITIES.length];
+        private int size = 0;
+
+        private HostWaiters() {
+            for (int i = 0 ; i < queues.length ; i++) {
+                queues[i] = new ArrayDeque<>();
+            }
+        }
+
+        private void add(Task task) {
+            task.waiting = true;
+            queues[task.lane].offer(task);
+            size++;
+        }
+
+    }
+
+    /**
+     * 后端连接数许可
+     */
+    interface HostPermits {
+
+        /**
+         * 非阻塞地获取后端的连接数许可(在调度器锁内调用, 不可阻塞, 不可回调调度器)
+         * @param host 后端
+         * @return true: 获得许可
+         */
+        boolean tryAcquire(String host);
+
+    }
+
+}
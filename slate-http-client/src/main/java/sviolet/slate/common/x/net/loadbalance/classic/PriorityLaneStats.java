@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+/**
+ * <p>异步请求调度统计(单个优先级), 由MultiHostOkHttpClient#getPriorityLaneStats获取</p>
+ *
+ * @author S.Violet
+ */
+public class PriorityLaneStats {
+
+    private final RequestPriority priority;
+    private final int queued;
+    private final int running;
+    private final long admitted;
+    private final long rejected;
+    private final long expired;
+    private final long totalWaitMillis;
+    private final long maxWaitMillis;
+
+    PriorityLaneStats(RequestPriority priority, int queued, int running, long admitted, long rejected, long expired, long totalWaitMillis, long maxWaitMillis) {
+        this.priority = priority;
+        this.queued = queued;
+        this.running = running;
+        this.admitted = admitted;
+        this.rejected = rejected;
+        this.expired = expired;
+        this.totalWaitMillis = totalWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public RequestPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * 当前排队中的请求数(包括等待后端连接数许可的请求)
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * 当前执行中的请求数
+     */
+    public int getRunning() {
+        return running;
+    }
+
+    /**
+     * 累计放行的请求数
+     */
+    public long getAdmitted() {
+        return admitted;
+    }
+
+    /**
+     * 累计因排队数达到上限(maxQueuedRequests)被拒绝的请求数
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * 累计排队到截止时间仍未放行的请求数(Request#deadline/deadlineAt)
+     */
+    public long getExpired() {
+        return expired;
+    }
+
+    /**
+     * 累计排队等待时间ms
+     */
+    public long getTotalWaitMillis() {
+        return totalWaitMillis;
+    }
+
+    /**
+     * 最大排队等待时间ms
+     */
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * 平均排队等待时间ms
+     */
+    public double getAverageWaitMillis() {
+        return admitted > 0 ? (double) totalWaitMillis / admitted : 0d;
+    }
+
+    @Override
+    public String toString() {
+        return priority + "{" +
+                "queued=" + queued +
+                ", running=" + running +
+                ", admitted=" + admitted +
+                ", rejected=" + rejected +
+                ", expired=" + expired +
+                ", avgWait=" + String.format("%.2f", getAverageWaitMillis()) +
+                ", maxWait=" + maxWaitMillis +
+                '}';
+    }
+
+}
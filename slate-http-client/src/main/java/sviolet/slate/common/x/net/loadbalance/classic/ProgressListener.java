@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+/**
+ * 传输进度监听器(文件上传/下载), 在发送/接收数据的线程中回调, 请勿执行耗时操作
+ *
+ * @author S.Violet
+ */
+public interface ProgressListener {
+
+    /**
+     * @param transferred 已传输的字节数(断点续传时包含已存在的部分)
+     * @param total 总字节数, 未知时为-1
+     */
+    void onProgress(long transferred, long total);
+
+}
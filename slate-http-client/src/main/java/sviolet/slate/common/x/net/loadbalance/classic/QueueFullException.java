@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+/**
+ * 异步请求排队数达到上限(maxQueuedRequests), 请求被拒绝(网络请求发送前的异常, 准备阶段异常)
+ *
+ * @author S.Violet
+ */
+public class QueueFullException extends RequestBuildException {
+
+    private static final long serialVersionUID = 6021457812259406611L;
+
+    public QueueFullException(String message) {
+        super(message);
+    }
+
+}
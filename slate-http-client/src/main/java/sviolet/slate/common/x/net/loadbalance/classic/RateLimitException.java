@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+/**
+ * 请求被客户端限流(网络请求发送前的异常, 准备阶段异常), 在rateLimitTimeout内未获得许可
+ *
+ * @author S.Violet
+ */
+public class RateLimitException extends RequestBuildException {
+
+    private static final long serialVersionUID = 3349620418937528514L;
+
+    public RateLimitException(String message) {
+        super(message);
+    }
+
+    public RateLimitException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+/**
+ * <p>异步请求的优先级, 客户端按优先级从高到低调度排队中的请求(同步请求使用调用线程, 不参与调度)</p>
+ *
+ * @author S.Violet
+ */
+public enum RequestPriority {
+
+    /**
+     * 高优先级, 例如面向用户的关键请求, 可使用全部并发数(包括为高优先级预留的部分)
+     */
+    HIGH,
+
+    /**
+     * 普通优先级(默认), 不能占用为高优先级预留的并发数
+     */
+    NORMAL,
+
+    /**
+     * 低优先级, 例如批量任务, 不能占用为高/普通优先级预留的并发数
+     */
+    LOW
+
+}
@@ -24,7 +24,9 @@ import org.springframework.beans.factory.InitializingBean;
 import sviolet.slate.common.x.net.loadbalance.LoadBalanceInspector;
 import sviolet.slate.common.x.net.loadbalance.LoadBalancedHostManager;
 import sviolet.slate.common.x.net.loadbalance.LoadBalancedInspectManager;
+import sviolet.slate.common.x.net.loadbalance.LoadBalancedOutlierDetector;
 import sviolet.slate.common.x.net.loadbalance.inspector.HttpGetLoadBalanceInspector;
+import sviolet.slate.common.x.net.loadbalance.inspector.NioTelnetLoadBalanceInspector;
 import sviolet.slate.common.x.net.loadbalance.inspector.TelnetLoadBalanceInspector;
 import sviolet.thistle.util.common.CloseableUtils;
 
@@ -82,9 +84,16 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
 
     private LoadBalancedHostManager hostManager = new LoadBalancedHostManager();
     private LoadBalancedInspectManager inspectManager = new LoadBalancedInspectManager(false).setHostManager(hostManager);
+    private LoadBalancedOutlierDetector outlierDetector = new LoadBalancedOutlierDetector(false).setHostManager(hostManager).setEnabled(false);
+
+    private volatile HttpGetLoadBalanceInspector httpGetInspector;
+    private volatile boolean httpGetInspectorSharedPool = false;
+    private volatile String httpGetInspectorExpectedCodes;
+    private volatile String httpGetInspectorExpectedBody;
 
     public SimpleOkHttpClient() {
         super.setHostManager(hostManager);
+        super.setOutlierDetector(outlierDetector);
     }
 
     @Override
@@ -99,11 +108,13 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
      */
     public void start() {
         inspectManager.start();
+        outlierDetector.start();
     }
 
     @Override
     public void close() {
         CloseableUtils.closeQuiet(inspectManager);
+        CloseableUtils.closeQuiet(outlierDetector);
     }
 
     @Override
@@ -113,7 +124,8 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
 
     @Override
     public String toString() {
-        return super.toString() + (inspectManager != null ? " Inspect [ " + inspectManager + " ]" : "");
+        return super.toString() + (inspectManager != null ? " Inspect [ " + inspectManager + " ]" : "") +
+                (outlierDetector != null ? " OutlierDetect [ " + outlierDetector + " ]" : "");
     }
 
     /**
@@ -125,6 +137,13 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
         return hostManager.printHostsStatus(prefix);
     }
 
+    /**
+     * @return 当前远端列表的版本号, 每次设置远端列表后递增
+     */
+    public long getHostsVersion() {
+        return hostManager.getVersion();
+    }
+
     // Settings ///////////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -137,8 +156,18 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
     }
 
     /**
-     * [线程安全/异步生效/可运行时修改]
-     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端(但不是同步生效)
+     * @deprecated 禁用该方法, 请使用setOutlierDetectionEnabled等方法配置内置的被动异常检测器
+     */
+    @Override
+    @Deprecated
+    public MultiHostOkHttpClient setOutlierDetector(LoadBalancedOutlierDetector outlierDetector) {
+        throw new IllegalStateException("setOutlierDetector method can not invoke in SimpleOkHttpClient");
+    }
+
+    /**
+     * [线程安全/同步生效/可运行时修改]
+     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端. 被移除的后端立即不再被选中, 发往它的请求结束后(最多等待hostDrainTimeout)
+     * 清理它的连接
      *
      * @param hosts 远端列表, 格式:"http://127.0.0.1:8081/,http://127.0.0.1:8082/"
      */
@@ -148,8 +177,9 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
     }
 
     /**
-     * [线程安全/异步生效/可运行时修改]
-     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端(但不是同步生效)
+     * [线程安全/同步生效/可运行时修改]
+     * 设置/刷新远端列表, 该方法可以反复调用设置新的后端. 被移除的后端立即不再被选中, 发往它的请求结束后(最多等待hostDrainTimeout)
+     * 清理它的连接
      *
      * @param hosts 远端列表
      */
@@ -181,17 +211,70 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
     /**
      * [可运行时修改]
      * 将主动探测器从TELNET型修改为HTTP-GET型
-     * @param urlSuffix 探测页面URL(例如:http://127.0.0.1:8080/health, 则在此处设置/health), 设置为+telnet+则使用默认的TELNET型
+     * @param urlSuffix 探测页面URL(例如:http://127.0.0.1:8080/health, 则在此处设置/health), 设置为+telnet+则使用默认的TELNET型,
+     *                  设置为+nio-telnet+则使用非阻塞的TELNET型(适用于远端数量很多的场合)
      */
     public SimpleOkHttpClient setHttpGetInspector(String urlSuffix) {
         if ("+telnet+".equals(urlSuffix)) {
+            httpGetInspector = null;
             inspectManager.setInspector(new TelnetLoadBalanceInspector());
+        } else if ("+nio-telnet+".equals(urlSuffix)) {
+            httpGetInspector = null;
+            inspectManager.setInspector(new NioTelnetLoadBalanceInspector());
         } else {
-            inspectManager.setInspector(new HttpGetLoadBalanceInspector(urlSuffix, inspectManager.getInspectTimeout()));
+            HttpGetLoadBalanceInspector inspector = new HttpGetLoadBalanceInspector(urlSuffix, inspectManager.getInspectTimeout());
+            configureHttpGetInspector(inspector);
+            httpGetInspector = inspector;
+            inspectManager.setInspector(inspector);
         }
         return this;
     }
 
+    /**
+     * [可运行时修改]
+     * true: HTTP-GET型主动探测器通过本客户端的连接池发送探测请求(同一时间只占用一个探测名额), 复用真实请求的连接和TLS会话, 默认false.
+     * 仅在setHttpGetInspector设置为HTTP-GET型时有效.
+     * @param sharedPool true: 共享本客户端的连接池
+     */
+    public SimpleOkHttpClient setHttpGetInspectorSharedPool(boolean sharedPool) {
+        this.httpGetInspectorSharedPool = sharedPool;
+        configureHttpGetInspector(httpGetInspector);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * HTTP-GET型主动探测器视为正常的响应码, 逗号分隔, 默认200. 例如: 200,204,304.
+     * 仅在setHttpGetInspector设置为HTTP-GET型时有效.
+     * @param codes 响应码, 逗号分隔
+     */
+    public SimpleOkHttpClient setHttpGetInspectorExpectedCodes(String codes) {
+        this.httpGetInspectorExpectedCodes = codes;
+        configureHttpGetInspector(httpGetInspector);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * HTTP-GET型主动探测器要求响应报文包含的内容, 例如: UP. 默认不判断报文.
+     * 仅在setHttpGetInspector设置为HTTP-GET型时有效.
+     * @param text 响应报文必须包含的内容
+     */
+    public SimpleOkHttpClient setHttpGetInspectorExpectedBody(String text) {
+        this.httpGetInspectorExpectedBody = text;
+        configureHttpGetInspector(httpGetInspector);
+        return this;
+    }
+
+    private void configureHttpGetInspector(HttpGetLoadBalanceInspector inspector) {
+        if (inspector == null) {
+            return;
+        }
+        inspector.setSharedClient(httpGetInspectorSharedPool ? this : null);
+        inspector.setExpectedCodes(httpGetInspectorExpectedCodes);
+        inspector.setExpectedBodyContains(httpGetInspectorExpectedBody);
+    }
+
     /**
      * [可运行时修改]
      * 设置自定义的主动探测器, 这个方法与setHttpGetInspector方法只能选择一个设置
@@ -201,6 +284,7 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
         if (inspector == null) {
             inspector = new TelnetLoadBalanceInspector();
         }
+        httpGetInspector = null;
         inspectManager.setInspector(inspector);
         return this;
     }
@@ -215,6 +299,59 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
         return this;
     }
 
+    /**
+     * [线程安全/异步生效/可运行时修改]
+     * true: 跳过近期有正常流量的远端, 若远端在一个探测间隔内被真实请求反馈为健康, 则跳过本轮对它的探测, 默认false.
+     * 远端数量很多时可以减少探测量. 注意: 跳过期间只依赖真实请求发现故障, 若探测器检查的内容与真实请求不同(例如HTTP-GET型探测器检查专门的健康接口),
+     * 不要开启.
+     * @param skipIfRecentlySucceed true: 跳过近期有正常流量的远端, 默认false
+     */
+    public SimpleOkHttpClient setInspectSkipIfRecentlySucceed(boolean skipIfRecentlySucceed) {
+        inspectManager.setSkipIfRecentlySucceed(skipIfRecentlySucceed);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * true: 启用被动异常检测, 根据真实请求的成功率和耗时, 阻断明显偏离其他后端的后端, 默认false.
+     * 启用后, 主动探测间隔可以适当调大.
+     * @param enabled true: 启用被动异常检测
+     */
+    public SimpleOkHttpClient setOutlierDetectionEnabled(boolean enabled) {
+        outlierDetector.setEnabled(enabled);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置被动异常检测周期
+     * @param detectInterval 检测周期ms, 默认10000
+     */
+    public SimpleOkHttpClient setOutlierDetectionInterval(long detectInterval) {
+        outlierDetector.setDetectInterval(detectInterval);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置被动异常检测的基础阻断时长, 实际阻断时长 = 基础阻断时长 * 连续判定异常的次数
+     * @param baseEjectionTime 基础阻断时长ms, 默认30000
+     */
+    public SimpleOkHttpClient setOutlierBaseEjectionTime(long baseEjectionTime) {
+        outlierDetector.setBaseEjectionTime(baseEjectionTime);
+        return this;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置被动异常检测的最大阻断比例, 处于阻断期的后端达到该比例后不再阻断新的后端
+     * @param maxEjectionPercent 最大阻断比例(0-100), 默认50
+     */
+    public SimpleOkHttpClient setOutlierMaxEjectionPercent(int maxEjectionPercent) {
+        outlierDetector.setMaxEjectionPercent(maxEjectionPercent);
+        return this;
+    }
+
     /**
      * [线程安全/异步生效/可运行时修改]
      * true: INFO级别可打印更多的日志(请求报文/响应码等), 默认false
@@ -236,6 +373,7 @@ public class SimpleOkHttpClient extends MultiHostOkHttpClient implements Closeab
         super.setTag(tag);
         hostManager.setTag(tag);
         inspectManager.setTag(tag);
+        outlierDetector.setTag(tag);
         return this;
     }
 
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+/**
+ * <p>流式响应消费者, 用于MultiHostOkHttpClient.Request#sendForLines / sendForEvents</p>
+ *
+ * <p>事件在发起请求的线程中逐个回调, 处理完一个事件后才会读取下一个事件, 消费慢时不会预读积压数据(由TCP流控反压到服务端).</p>
+ *
+ * @author S.Violet
+ */
+public abstract class StreamConsumer {
+
+    /**
+     * 收到一个事件
+     * @param event 事件
+     * @return true: 继续读取, false: 停止读取并关闭连接(sendForLines/sendForEvents正常返回)
+     */
+    public abstract boolean onEvent(StreamEvent event);
+
+    /**
+     * 连接中断(网络异常/空闲超时), 即将切换后端重连时回调, 默认不处理
+     * @param attempt 连续重连次数(从1开始, 收到数据后重新计数)
+     * @param cause 中断原因, 空闲超时为SocketTimeoutException
+     */
+    public void onReconnect(int attempt, Throwable cause) {
+        //do nothing
+    }
+
+}
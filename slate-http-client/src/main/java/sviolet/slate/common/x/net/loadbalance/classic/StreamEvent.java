@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+/**
+ * <p>流式响应的事件</p>
+ *
+ * <p>按行读取(sendForLines)时, 每行一个事件, 只有data有值. 按SSE读取(sendForEvents)时, 对应一个server-sent-event,
+ * 多行data以换行符拼接.</p>
+ *
+ * @author S.Violet
+ */
+public class StreamEvent {
+
+    private final String id;
+    private final String event;
+    private final String data;
+
+    StreamEvent(String id, String event, String data) {
+        this.id = id;
+        this.event = event;
+        this.data = data;
+    }
+
+    /**
+     * @return SSE事件ID(id字段, 未设置时为最近一次设置的ID), 按行读取时为null
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return SSE事件类型(event字段), 未设置或按行读取时为null
+     */
+    public String getEvent() {
+        return event;
+    }
+
+    /**
+     * @return 数据(SSE的data字段 / 一行数据)
+     */
+    public String getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamEvent{" +
+                "id='" + id + '\'' +
+                ", event='" + event + '\'' +
+                ", data='" + data + '\'' +
+                '}';
+    }
+
+}
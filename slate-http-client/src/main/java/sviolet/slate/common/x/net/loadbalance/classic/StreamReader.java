@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * 流式响应读取器, 按行或按SSE(text/event-stream)格式解析, 每次只读取一个事件所需的数据.
+ * 单行(SSE为单个事件的data)长度超过maxLength时抛出ResponseConvertException, 避免服务端不发送换行符时无限缓存.
+ *
+ * @author S.Violet
+ */
+class StreamReader {
+
+    private final BufferedSource source;
+    private final Charset charset;
+    private final boolean sse;
+    //单行(字节)/单个事件data(字符)的最大长度, 小于等于0不限制
+    private final long maxLength;
+
+    //SSE: 最近一次的事件ID(跨事件保持), 重连时作为Last-Event-ID
+    private String lastEventId;
+    //SSE: 服务端指定的重连间隔, 未指定为-1
+    private long retry = -1;
+
+    StreamReader(BufferedSource source, Charset charset, boolean sse, String lastEventId, long maxLength) {
+        this.source = source;
+        this.charset = charset;
+        this.sse = sse;
+        this.lastEventId = lastEventId;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return 下一个事件, 流结束返回null
+     */
+    StreamEvent next() throws IOException {
+        if (!sse) {
+            String line = readLine();
+            return line != null ? new StreamEvent(null, null, line) : null;
+        }
+        String event = null;
+        StringBuilder data = null;
+        String line;
+        while ((line = readLine()) != null) {
+            if (line.isEmpty()) {
+                //空行: 派发事件, 没有data的事件忽略
+                if (data != null) {
+                    return new StreamEvent(lastEventId, event, data.toString());
+                }
+                event = null;
+                continue;
+            }
+            if (line.charAt(0) == ':') {
+                //注释
+                continue;
+            }
+            String field;
+            String value;
+            int index = line.indexOf(':');
+            if (index < 0) {
+                field = line;
+                value = "";
+            } else {
+                field = line.substring(0, index);
+                value = index + 1 < line.length() && line.charAt(index + 1) == ' ' ? line.substring(index + 2) : line.substring(index + 1);
+            }
+            switch (field) {
+                case "data":
+                    if (data == null) {
+                        data = new StringBuilder(value);
+                    } else {
+                        //每行都受长度限制, 但多行data累积也需要限制
+                        if (maxLength > 0 && data.length() + 1 + value.length() > maxLength) {
+                            throw new ResponseConvertException("Stream event data is out of limit, limit:" + maxLength);
+                        }
+                        data.append('\n').append(value);
+                    }
+                    break;
+                case "event":
+                    event = value;
+                    break;
+                case "id":
+                    if (value.indexOf('\u0000') < 0) {
+                        lastEventId = value;
+                    }
+                    break;
+                case "retry":
+                    try {
+                        retry = Long.parseLong(value);
+                    } catch (NumberFormatException ignore) {
+                    }
+                    break;
+                default:
+                    //未知字段忽略
+                    break;
+            }
+        }
+        //流结束, 未完成的事件丢弃
+        return null;
+    }
+
+    String getLastEventId() {
+        return lastEventId;
+    }
+
+    long getRetry() {
+        return retry;
+    }
+
+    private String readLine() throws IOException {
+        //只在maxLength(+1个\r)范围内查找换行符, 不会缓存超过限制的数据
+        long limit = maxLength > 0 ? maxLength + 1 : Long.MAX_VALUE;
+        long index = source.indexOf((byte) '\n', 0, limit);
+        String line;
+        if (index < 0) {
+            if (limit != Long.MAX_VALUE && source.request(limit)) {
+                throw new ResponseConvertException("Stream line is out of limit, limit:" + maxLength);
+            }
+            if (source.exhausted()) {
+                return null;
+            }
+            //最后一行没有换行符
+            line = source.readString(charset);
+        } else {
+            line = source.readString(index, charset);
+            source.skip(1);
+        }
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        return line;
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>令牌桶限流器(MultiHostOkHttpClient内部使用)</p>
+ *
+ * <p>1.令牌按速率匀速生成, 最多积攒1秒的令牌(允许1秒内的突发).</p>
+ * <p>2.预热: 创建后, 或空闲超过预热时长后, 速率从1/3开始在预热时长内线性增长到设定值, 避免冷启动时突发流量压垮下游.</p>
+ * <p>3.令牌不足时, 若预计等待时间不超过超时时间, 则预占令牌并等待, 否则立即失败(不占用令牌).</p>
+ * <p>4.获得的令牌未被使用时(如后端限流失败), 可以归还(refund). 速率可在运行时调整(不重新预热).</p>
+ *
+ * @author S.Violet
+ */
+class TokenBucketRateLimiter {
+
+    //冷启动时速率为设定值的1/COLD_FACTOR
+    private static final double COLD_FACTOR = 3.0;
+
+    private volatile double permitsPerSecond;
+    private final long warmupNanos;
+
+    private double storedPermits = 1.0;
+    private long lastRefillNanos;
+    private long lastAcquireNanos;
+    private long warmupStartNanos;
+
+    /**
+     * @param permitsPerSecond 每秒许可数, 大于0
+     * @param warmupMillis 预热时长, 小于等于0不预热
+     */
+    TokenBucketRateLimiter(double permitsPerSecond, long warmupMillis) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must > 0");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.warmupNanos = warmupMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(warmupMillis) : 0;
+        long now = System.nanoTime();
+        this.lastRefillNanos = now;
+        this.lastAcquireNanos = now;
+        this.warmupStartNanos = now;
+    }
+
+    /**
+     * 获取一个许可, 需要等待时阻塞当前线程
+     * @param timeoutNanos 最大等待时间, 0表示不等待
+     * @return true: 获得许可, false: 超时时间内无法获得许可
+     */
+    boolean acquire(long timeoutNanos) throws InterruptedException {
+        long waitNanos = reserve(timeoutNanos);
+        if (waitNanos < 0) {
+            return false;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * 预占一个许可
+     * @param timeoutNanos 最大等待时间
+     * @return 需要等待的时间(ns), -1表示超时时间内无法获得许可(未预占)
+     */
+    private synchronized long reserve(long timeoutNanos) {
+        long now = System.nanoTime();
+        //空闲超过预热时长, 重新预热
+        if (warmupNanos > 0 && now - lastAcquireNanos > warmupNanos) {
+            warmupStartNanos = now;
+        }
+        double rate = currentRate(now);
+        refill(now, rate);
+        long waitNanos = 0;
+        if (storedPermits < 1.0) {
+            waitNanos = (long) ((1.0 - storedPermits) * 1000000000.0 / rate);
+            if (waitNanos > timeoutNanos) {
+                return -1;
+            }
+        }
+        //预占(令牌可以为负数, 即透支后续的令牌)
+        storedPermits -= 1.0;
+        lastAcquireNanos = now;
+        return waitNanos;
+    }
+
+    /**
+     * 归还一个获得后未使用的许可
+     */
+    synchronized void refund() {
+        long now = System.nanoTime();
+        refill(now, currentRate(now));
+        storedPermits = Math.min(Math.max(currentRate(now), 1.0), storedPermits + 1.0);
+    }
+
+    /**
+     * 调整速率, 已积攒的令牌保留(不超过新速率1秒的量), 不重新预热
+     * @param permitsPerSecond 每秒许可数, 大于0
+     */
+    synchronized void setPermitsPerSecond(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must > 0");
+        }
+        //按原速率补充到当前时间
+        long now = System.nanoTime();
+        refill(now, currentRate(now));
+        this.permitsPerSecond = permitsPerSecond;
+        storedPermits = Math.min(Math.max(currentRate(now), 1.0), storedPermits);
+    }
+
+    private void refill(long now, double rate) {
+        //补充令牌, 最多积攒1秒
+        if (now > lastRefillNanos) {
+            storedPermits = Math.min(Math.max(rate, 1.0), storedPermits + (now - lastRefillNanos) * rate / 1000000000.0);
+            lastRefillNanos = now;
+        }
+    }
+
+    private double currentRate(long now) {
+        if (warmupNanos <= 0) {
+            return permitsPerSecond;
+        }
+        long elapsed = now - warmupStartNanos;
+        if (elapsed >= warmupNanos) {
+            return permitsPerSecond;
+        }
+        double coldRate = permitsPerSecond / COLD_FACTOR;
+        return coldRate + (permitsPerSecond - coldRate) * elapsed / warmupNanos;
+    }
+
+    double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenBucketRateLimiter{" +
+                "permitsPerSecond=" + permitsPerSecond +
+                ", warmupNanos=" + warmupNanos +
+                '}';
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.inspector;
+
+import sviolet.slate.common.x.net.loadbalance.LoadBalanceInspector;
+
+/**
+ * 负载均衡--网络状态探测器--异步版.
+ * 如果主动探测器能够不占用调用线程完成探测(例如NIO), 可以实现该接口. 探测管理器只配置了一个探测器, 且该探测器实现了本接口时,
+ * 探测管理器会调用inspectAsync方法发起探测, 不再占用探测线程池. 同步的inspect方法仍需实现, 用于与其他探测器组合使用的场合.
+ *
+ * @author S.Violet
+ */
+public interface AsyncLoadBalanceInspector extends LoadBalanceInspector {
+
+    /**
+     * <p>发起异步探测, 该方法必须立即返回, 探测结果通过callback回调</p>
+     *
+     * <p>注意:callback必须在timeout时间内回调, 且只能回调一次. 回调可能发生在探测器内部的线程中.</p>
+     *
+     * @param url 远端url
+     * @param timeout 限定的探测时间(ms)
+     * @param callback 结果回调
+     */
+    void inspectAsync(String url, long timeout, boolean verboseLog, Callback callback);
+
+    /**
+     * 异步探测结果回调
+     */
+    interface Callback {
+
+        /**
+         * @param ok true:网络正常 false:网络异常
+         */
+        void onResult(boolean ok);
+
+    }
+
+}
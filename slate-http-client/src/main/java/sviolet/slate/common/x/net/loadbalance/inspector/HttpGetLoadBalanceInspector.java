@@ -19,19 +19,32 @@
 
 package sviolet.slate.common.x.net.loadbalance.inspector;
 
+import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import sviolet.slate.common.x.net.loadbalance.classic.MultiHostOkHttpClient;
 import sviolet.thistle.util.common.CloseableUtils;
+import sviolet.thistle.util.judge.CheckUtils;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
- * 负载均衡--HTTP GET方式探测网络状况
+ * <p>负载均衡--HTTP GET方式探测网络状况</p>
+ *
+ * <p>响应码在expectedCodes中(默认200), 且响应报文满足bodyPredicate(若设置)时视为正常.</p>
+ *
+ * <p>设置sharedClient后, 探测通过该客户端的连接池发送(复用真实请求的连接和TLS会话), 同一时间只占用一个探测名额(低优先级,
+ * 不与真实请求争抢连接), 名额被占用时改用探测器自己的OkHttpClient. 该客户端限制了每个后端的连接数(maxConnectionsPerHost)时,
+ * 探测同样占用该后端的连接数许可, 没有空余许可时也改用探测器自己的OkHttpClient.</p>
  *
  * @author S.Violet
  */
@@ -39,11 +52,18 @@ public class HttpGetLoadBalanceInspector implements FixedTimeoutLoadBalanceInspe
 
     private static final int HTTP_SUCCESS = 200;
     private static final long DEFAULT_TIMEOUT = 2000L;
+    private static final long MAX_BODY_LENGTH = 64L * 1024L;
 
     private Logger logger = LoggerFactory.getLogger(getClass());
 
     private volatile OkHttpClient client;
+    private volatile long clientTimeout;
     private String urlSuffix;
+    private volatile Set<Integer> expectedCodes = Collections.singleton(HTTP_SUCCESS);
+    private volatile BodyPredicate bodyPredicate;
+
+    private volatile MultiHostOkHttpClient sharedClient;
+    private final Semaphore sharedSlot = new Semaphore(1);
 
     private volatile boolean closed = false;
 
@@ -82,11 +102,25 @@ public class HttpGetLoadBalanceInspector implements FixedTimeoutLoadBalanceInspe
             return false;
         }
         //GET请求
+        boolean slotAcquired = false;
         try {
-            response = client.newCall(request).execute();
-            if (response.code() == HTTP_SUCCESS){
+            Call call = null;
+            MultiHostOkHttpClient sharedClient = this.sharedClient;
+            if (sharedClient != null && sharedSlot.tryAcquire()) {
+                slotAcquired = true;
+                //后端的连接数达到上限(maxConnectionsPerHost)时, 使用自己的客户端
+                call = sharedClient.newInspectCall(request, clientTimeout);
+            }
+            if (call == null) {
+                call = client.newCall(request);
+            }
+            response = call.execute();
+            if (isExpected(response)){
                 return true;
             }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Inspect: unexpected response, url " + url + urlSuffix + ", code " + response.code());
+            }
         } catch (Throwable t) {
             if (logger.isTraceEnabled()){
                 logger.trace("Inspect: error, url " + url + urlSuffix, t);
@@ -95,6 +129,9 @@ public class HttpGetLoadBalanceInspector implements FixedTimeoutLoadBalanceInspe
             }
         } finally {
             CloseableUtils.closeQuiet(response);
+            if (slotAcquired) {
+                sharedSlot.release();
+            }
         }
         if (closed) {
             //被销毁的探测器始终返回探测成功
@@ -103,6 +140,18 @@ public class HttpGetLoadBalanceInspector implements FixedTimeoutLoadBalanceInspe
         return false;
     }
 
+    private boolean isExpected(Response response) throws IOException {
+        if (!expectedCodes.contains(response.code())) {
+            return false;
+        }
+        BodyPredicate bodyPredicate = this.bodyPredicate;
+        if (bodyPredicate == null) {
+            return true;
+        }
+        //304等响应没有报文体, 视为空字符串
+        return bodyPredicate.test(response.body() != null ? response.peekBody(MAX_BODY_LENGTH).string() : "");
+    }
+
     @Override
     public void close() throws IOException {
         closed = true;
@@ -130,6 +179,7 @@ public class HttpGetLoadBalanceInspector implements FixedTimeoutLoadBalanceInspe
             throw new IllegalArgumentException("timeout must > 1 (usually > 1000)");
         }
         OkHttpClient previous = client;
+        clientTimeout = timeout;
         client = new OkHttpClient.Builder()
                 .connectTimeout(timeout, TimeUnit.MILLISECONDS)
                 .readTimeout(timeout, TimeUnit.MILLISECONDS)
@@ -147,10 +197,88 @@ public class HttpGetLoadBalanceInspector implements FixedTimeoutLoadBalanceInspe
         this.urlSuffix = urlSuffix;
     }
 
+    /**
+     * [可运行时修改]
+     * 设置视为正常的响应码, 默认200
+     * @param codes 响应码, 逗号分隔, 例如: 200,204,304
+     */
+    public void setExpectedCodes(String codes) {
+        if (CheckUtils.isEmptyOrBlank(codes)) {
+            expectedCodes = Collections.singleton(HTTP_SUCCESS);
+            return;
+        }
+        try {
+            Set<Integer> newSet = new HashSet<>(8);
+            for (String code : codes.split(",")) {
+                newSet.add(Integer.parseInt(code.trim()));
+            }
+            expectedCodes = newSet;
+        } catch (Throwable t) {
+            throw new IllegalArgumentException("Invalid expectedCodes " + codes, t);
+        }
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置响应报文判断, 响应码符合后, 再判断响应报文(最多读取64K), 返回false视为异常. 默认不判断报文.
+     * @param bodyPredicate 响应报文判断, 设置为null不判断
+     */
+    public void setBodyPredicate(BodyPredicate bodyPredicate) {
+        this.bodyPredicate = bodyPredicate;
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置响应报文必须包含的内容(setBodyPredicate的简便方式), 例如: "UP"
+     * @param text 响应报文必须包含的内容, 设置为null或空不判断
+     */
+    public void setExpectedBodyContains(final String text) {
+        if (CheckUtils.isEmpty(text)) {
+            this.bodyPredicate = null;
+            return;
+        }
+        this.bodyPredicate = new BodyPredicate() {
+            @Override
+            public boolean test(String body) {
+                return body.contains(text);
+            }
+            @Override
+            public String toString() {
+                return "contains(" + text + ")";
+            }
+        };
+    }
+
+    /**
+     * [可运行时修改]
+     * 设置共享连接池的客户端(通常是拥有本探测器的客户端), 探测通过该客户端的连接池发送, 复用真实请求的连接和TLS会话.
+     * 同一时间只有一个探测使用该连接池, 其余的探测使用探测器自己的OkHttpClient.
+     * @param sharedClient 共享连接池的客户端, 设置为null不共享
+     */
+    public void setSharedClient(MultiHostOkHttpClient sharedClient) {
+        this.sharedClient = sharedClient;
+    }
+
     @Override
     public String toString() {
         return "HttpGetLoadBalanceInspector{" +
-                "urlSuffix=" + urlSuffix + '}';
+                "urlSuffix=" + urlSuffix +
+                ", expectedCodes=" + expectedCodes +
+                ", bodyPredicate=" + bodyPredicate +
+                ", sharedClient=" + (sharedClient != null) + '}';
+    }
+
+    /**
+     * 响应报文判断
+     */
+    public interface BodyPredicate {
+
+        /**
+         * @param body 响应报文(最多64K)
+         * @return true:正常 false:异常
+         */
+        boolean test(String body);
+
     }
 
 }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.inspector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>负载均衡--非阻塞TELNET方式探测网络状况</p>
+ *
+ * <p>与TelnetLoadBalanceInspector相同, 以能否建立TCP连接判断远端是否正常, 区别在于: 所有探测都由一个进程级共享的Selector线程
+ * 以非阻塞connect方式并发进行, 每个探测有各自的截止时间, 不占用探测线程池. 适用于远端数量很多(数百个)的场合.</p>
+ *
+ * <p>注意: 域名解析在Selector线程中进行, 建议远端使用IP或本地可快速解析的域名.</p>
+ *
+ * @author S.Violet
+ */
+public class NioTelnetLoadBalanceInspector implements AsyncLoadBalanceInspector {
+
+    private static final String HTTPS_SCHEME = "https";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Override
+    public boolean inspect(String url, long timeout, boolean verboseLog) {
+        final AtomicBoolean result = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(1);
+        inspectAsync(url, timeout, verboseLog, new Callback() {
+            @Override
+            public void onResult(boolean ok) {
+                result.set(ok);
+                latch.countDown();
+            }
+        });
+        try {
+            //Selector线程会在截止时间到达时回调, 这里多等一会儿
+            if (!latch.await(timeout + 100L, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        return result.get();
+    }
+
+    @Override
+    public void inspectAsync(String url, long timeout, boolean verboseLog, Callback callback) {
+        String hostname;
+        int port;
+        try {
+            //解析url
+            URI uri = URI.create(url);
+            hostname = uri.getHost();
+            //处理端口
+            port = uri.getPort();
+            if (port < 0){
+                if (HTTPS_SCHEME.equals(uri.getScheme())){
+                    port = 443;
+                } else {
+                    port = 80;
+                }
+            }
+        } catch (Exception e) {
+            if (logger.isErrorEnabled()){
+                logger.error("Inspect: invalid url " + url, e);
+            }
+            callback.onResult(false);
+            return;
+        }
+        SelectorLoop.INSTANCE.submit(new Probe(hostname, port, System.currentTimeMillis() + timeout, callback, verboseLog ? logger : null));
+    }
+
+    @Override
+    public String toString() {
+        return "NioTelnetLoadBalanceInspector{}";
+    }
+
+    /**
+     * 单个远端的探测
+     */
+    private static class Probe {
+
+        private final String hostname;
+        private final int port;
+        private final long deadline;
+        private final Callback callback;
+        private final Logger verboseLogger;
+
+        private SocketChannel channel;
+        private SelectionKey key;
+
+        private Probe(String hostname, int port, long deadline, Callback callback, Logger verboseLogger) {
+            this.hostname = hostname;
+            this.port = port;
+            this.deadline = deadline;
+            this.callback = callback;
+            this.verboseLogger = verboseLogger;
+        }
+
+    }
+
+    /**
+     * 进程级共享的Selector线程(懒加载)
+     */
+    private static class SelectorLoop implements Runnable {
+
+        private static final SelectorLoop INSTANCE = new SelectorLoop();
+
+        private final Logger logger = LoggerFactory.getLogger(NioTelnetLoadBalanceInspector.class);
+
+        private final Queue<Probe> pendingProbes = new ConcurrentLinkedQueue<>();
+        //仅在Selector线程中访问
+        private final Set<Probe> activeProbes = new HashSet<>();
+        private final Selector selector;
+
+        private SelectorLoop() {
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("NioTelnetLoadBalanceInspector: Can not open selector", e);
+            }
+            Thread thread = new Thread(this, "Slate-LBInspect-NIO");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void submit(Probe probe) {
+            pendingProbes.offer(probe);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    select();
+                } catch (Throwable t) {
+                    if (logger.isErrorEnabled()) {
+                        logger.error("Inspect: Un-captured error in NIO selector loop", t);
+                    }
+                }
+            }
+        }
+
+        private void select() throws IOException {
+            //等待到最近的截止时间
+            long timeout = 0L;
+            long currentTimeMillis = System.currentTimeMillis();
+            for (Probe probe : activeProbes) {
+                long remain = Math.max(1L, probe.deadline - currentTimeMillis);
+                timeout = timeout == 0L ? remain : Math.min(timeout, remain);
+            }
+            if (pendingProbes.isEmpty()) {
+                selector.select(timeout);
+            } else {
+                selector.selectNow();
+            }
+
+            //处理连接结果
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                Probe probe = (Probe) key.attachment();
+                boolean ok;
+                try {
+                    ok = key.isValid() && key.isConnectable() && probe.channel.finishConnect();
+                } catch (IOException e) {
+                    if (probe.verboseLogger != null && probe.verboseLogger.isDebugEnabled()) {
+                        probe.verboseLogger.debug("Inspect: connect failed " + probe.hostname + ":" + probe.port + ", " + e.getMessage());
+                    }
+                    ok = false;
+                }
+                finish(probe, ok);
+            }
+
+            //发起新的连接
+            Probe probe;
+            while ((probe = pendingProbes.poll()) != null) {
+                start(probe);
+            }
+
+            //处理超时
+            currentTimeMillis = System.currentTimeMillis();
+            List<Probe> timeoutProbes = null;
+            for (Probe activeProbe : activeProbes) {
+                if (currentTimeMillis >= activeProbe.deadline) {
+                    if (timeoutProbes == null) {
+                        timeoutProbes = new ArrayList<>();
+                    }
+                    timeoutProbes.add(activeProbe);
+                }
+            }
+            if (timeoutProbes != null) {
+                for (Probe timeoutProbe : timeoutProbes) {
+                    if (timeoutProbe.verboseLogger != null && timeoutProbe.verboseLogger.isDebugEnabled()) {
+                        timeoutProbe.verboseLogger.debug("Inspect: connect timeout " + timeoutProbe.hostname + ":" + timeoutProbe.port);
+                    }
+                    finish(timeoutProbe, false);
+                }
+            }
+        }
+
+        private void start(Probe probe) {
+            activeProbes.add(probe);
+            try {
+                InetSocketAddress address = new InetSocketAddress(probe.hostname, probe.port);
+                if (address.isUnresolved()) {
+                    if (probe.verboseLogger != null && probe.verboseLogger.isDebugEnabled()) {
+                        probe.verboseLogger.debug("Inspect: unresolved host " + probe.hostname);
+                    }
+                    finish(probe, false);
+                    return;
+                }
+                probe.channel = SocketChannel.open();
+                probe.channel.configureBlocking(false);
+                if (probe.channel.connect(address)) {
+                    finish(probe, true);
+                    return;
+                }
+                probe.key = probe.channel.register(selector, SelectionKey.OP_CONNECT, probe);
+            } catch (Throwable t) {
+                if (probe.verboseLogger != null && probe.verboseLogger.isDebugEnabled()) {
+                    probe.verboseLogger.debug("Inspect: connect failed " + probe.hostname + ":" + probe.port + ", " + t.getMessage());
+                }
+                finish(probe, false);
+            }
+        }
+
+        private void finish(Probe probe, boolean ok) {
+            if (!activeProbes.remove(probe)) {
+                return;
+            }
+            if (probe.key != null) {
+                probe.key.cancel();
+            }
+            if (probe.channel != null) {
+                try {
+                    probe.channel.close();
+                } catch (Throwable ignore) {
+                }
+            }
+            try {
+                probe.callback.onResult(ok);
+            } catch (Throwable t) {
+                if (logger.isErrorEnabled()) {
+                    logger.error("Inspect: Un-captured error in callback", t);
+                }
+            }
+        }
+
+    }
+
+}
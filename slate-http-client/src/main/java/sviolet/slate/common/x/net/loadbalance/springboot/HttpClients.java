@@ -19,6 +19,7 @@
 
 package sviolet.slate.common.x.net.loadbalance.springboot;
 
+import sviolet.slate.common.x.net.loadbalance.classic.ClientSnapshot;
 import sviolet.slate.common.x.net.loadbalance.classic.SimpleOkHttpClient;
 
 import java.util.HashMap;
@@ -35,12 +36,25 @@ public interface HttpClients {
     String DATA_CONVERTER_NAME = "slate.httpclient.dataConverter";
 
     /**
-     * 获取Http请求客户端
+     * 获取Http请求客户端, 客户端在第一次获取时创建(懒加载). 通过该方法获取(包括@HttpClient注入)的客户端可能被长期持有,
+     * 因此不会因空闲(client-idle-timeout)被移除: 一旦通过该方法获取过, 该客户端就一直保留到容器关闭(即使之后只被接口代理使用).
+     * 空闲移除只对接口代理(getTransient)使用的客户端有效.
      * @param tag tag(标识)
      * @return SimpleOkHttpClient, 若不存在则返回空
      */
     SimpleOkHttpClient get(String tag);
 
+    /**
+     * 获取Http请求客户端, 仅用于本次请求, 调用方不可持有返回的实例(每次请求前重新获取). 客户端空闲(client-idle-timeout)
+     * 时可能被关闭并移除, 再次获取时重新创建. 适用于接口代理等每次调用时获取客户端的场景.
+     * 默认实现等同于get(不支持空闲移除).
+     * @param tag tag(标识)
+     * @return SimpleOkHttpClient, 若不存在则返回空
+     */
+    default SimpleOkHttpClient getTransient(String tag) {
+        return get(tag);
+    }
+
     /**
      * @return 返回集合中的客户端数量
      */
@@ -51,6 +65,15 @@ public interface HttpClients {
      */
     Set<String> tags();
 
+    /**
+     * 获取所有已创建的客户端的运行状态快照(尚未创建的客户端不包含在内, 不会触发创建), 详见MultiHostOkHttpClient#getSnapshot.
+     * 默认实现返回空.
+     * @return tag -> 运行状态快照
+     */
+    default Map<String, ClientSnapshot> snapshots() {
+        return new HashMap<>();
+    }
+
     /**
      * <p>[高级] 运行时修改客户端配置, 动态添加客户端</p>
      *
@@ -64,16 +64,65 @@ public class HttpClientSettings {
     /**
      * [可运行时修改]
      * 将主动探测器从默认的TELNET型修改为HTTP-GET型
-     * urlSuffix 探测页面URL(例如:http://127.0.0.1:8080/health, 则在此处设置/health), 设置为+telnet+则使用默认的TELNET型
+     * urlSuffix 探测页面URL(例如:http://127.0.0.1:8080/health, 则在此处设置/health), 设置为+telnet+则使用默认的TELNET型, 设置为+nio-telnet+则使用非阻塞的TELNET型(适用于远端数量很多的场合)
      */
     private String httpGetInspectorUrlSuffix = "+telnet+";
 
+    /**
+     * [可运行时修改]
+     * true: HTTP-GET型主动探测器通过本客户端的连接池发送探测请求(同一时间只占用一个探测名额), 复用真实请求的连接和TLS会话, 默认false
+     */
+    private boolean httpGetInspectorSharedPool = false;
+
+    /**
+     * [可运行时修改]
+     * HTTP-GET型主动探测器视为正常的响应码, 逗号分隔, 默认200. 例如: 200,204,304
+     */
+    private String httpGetInspectorExpectedCodes;
+
+    /**
+     * [可运行时修改]
+     * HTTP-GET型主动探测器要求响应报文包含的内容, 例如: UP. 默认不判断报文
+     */
+    private String httpGetInspectorExpectedBody;
+
     /**
      * [可运行时修改]
      * true: 主动探测器打印更多的日志, 默认false
      */
     private boolean inspectorVerboseLog = false;
 
+    /**
+     * [可运行时修改]
+     * true: 跳过近期有正常流量的远端(一个探测间隔内被真实请求反馈为健康), 减少探测量, 默认false.
+     * 探测器检查的内容与真实请求不同(例如检查专门的健康接口)时不要开启
+     */
+    private boolean inspectSkipIfRecentlySucceed = false;
+
+    /**
+     * [可运行时修改]
+     * true: 启用被动异常检测, 根据真实请求的成功率和耗时, 阻断明显偏离其他后端的后端, 默认false
+     */
+    private boolean outlierDetectionEnabled = false;
+
+    /**
+     * [可运行时修改]
+     * 被动异常检测周期, 单位ms, 默认10000
+     */
+    private long outlierDetectionInterval = 10000L;
+
+    /**
+     * [可运行时修改]
+     * 被动异常检测的基础阻断时长, 单位ms, 实际阻断时长 = 基础阻断时长 * 连续判定异常的次数, 默认30000
+     */
+    private long outlierBaseEjectionTime = 30000L;
+
+    /**
+     * [可运行时修改]
+     * 被动异常检测的最大阻断比例(0-100), 处于阻断期的后端达到该比例后不再阻断新的后端, 默认50
+     */
+    private int outlierMaxEjectionPercent = 50;
+
     /**
      * [可运行时修改]
      * <p>设置被动检测到网络故障时阻断后端的时间, 单位ms</p>
@@ -83,6 +132,12 @@ public class HttpClientSettings {
      */
     private long passiveBlockDuration = 30000L;
 
+    /**
+     * [可运行时修改]
+     * 后端被移除后, 等待发往该后端的请求结束的期限, 单位ms, 超过期限仍未结束的请求会被取消, 然后清理该后端的连接, 默认30000
+     */
+    private long hostDrainTimeout = 30000L;
+
     /**
      * [可运行时修改]
      * 设置MediaType
@@ -113,6 +168,28 @@ public class HttpClientSettings {
      */
     private int maxIdleConnections = 16;
 
+    /**
+     * [可运行时修改]
+     * 每个后端的最大闲置连接数, 避免一个繁忙的后端占满连接池. 默认-1: 按后端数量计算, 即 maxIdleConnections / 后端数量(向上取整),
+     * 且不小于minIdleConnectionsPerHost
+     */
+    private int maxIdleConnectionsPerHost = -1;
+
+    /**
+     * [可运行时修改]
+     * 每个后端至少保留的闲置连接数, 闲置连接总数超过maxIdleConnections时, 不会关闭这部分连接(闲置超过5分钟仍会关闭).
+     * 默认-1: maxIdleConnections大于0时为1, 否则为0
+     */
+    private int minIdleConnectionsPerHost = -1;
+
+    /**
+     * [可运行时修改]
+     * 每个后端的最大连接数(同步和异步请求均有效), 达到上限时, 同步请求在连接超时时间内等待, 超时抛出ConnectionLimitException,
+     * 异步请求排队等待(不占用线程).
+     * 默认0: 不限制
+     */
+    private int maxConnectionsPerHost = 0;
+
     /**
      * [可运行时修改]
      * 最大请求线程数(仅异步请求时有效)
@@ -125,6 +202,24 @@ public class HttpClientSettings {
      */
     private int maxThreadsPerHost = 256;
 
+    /**
+     * [可运行时修改]
+     * 为高优先级异步请求预留的并发数, 普通和低优先级的请求不可占用(仅异步请求时有效)
+     */
+    private int highPriorityReservedThreads = 0;
+
+    /**
+     * [可运行时修改]
+     * 为普通优先级及以上的异步请求预留的并发数, 低优先级的请求不可占用(仅异步请求时有效)
+     */
+    private int normalPriorityReservedThreads = 0;
+
+    /**
+     * [可运行时修改]
+     * 每个优先级最多排队的异步请求数(包括等待后端连接数许可的请求), 达到上限时新的异步请求被拒绝(QueueFullException), <=0不限制(仅异步请求时有效)
+     */
+    private int maxQueuedRequests = 10000;
+
     /**
      * [可运行时修改]
      * 设置连接超时ms
@@ -149,6 +244,97 @@ public class HttpClientSettings {
      */
     private long maxReadLength = 10L * 1024L * 1024L;
 
+    /**
+     * [可运行时修改]
+     * 客户端限流(令牌桶), 每秒最多发送的请求数(可以是小数), 小于等于0不限流, 默认0
+     */
+    private double rateLimit = 0;
+
+    /**
+     * [可运行时修改]
+     * 客户端限流预热时长ms, 速率从1/3开始在预热时长内线性增长到rateLimit, 小于等于0不预热, 默认0
+     */
+    private long rateLimitWarmup = 0L;
+
+    /**
+     * [可运行时修改]
+     * 客户端限流等待超时时间ms, 令牌不足时最多等待的时间, 0表示不等待直接失败, 默认0
+     */
+    private long rateLimitTimeout = 0L;
+
+    /**
+     * [可运行时修改]
+     * 启用后端级别的限流, 每个后端的速率 = rateLimit / 可用(未阻断)的后端数量, 默认false
+     */
+    private boolean rateLimitPerHost = false;
+
+    /**
+     * [可运行时修改]
+     * 启用报文压缩: 请求报文体达到阈值时压缩, 并协商/自动解压gzip/deflate响应, 默认false. 需要服务端支持解压请求报文体.
+     */
+    private boolean compressionEnabled = false;
+
+    /**
+     * [可运行时修改]
+     * 请求报文体压缩算法, 支持gzip/deflate, 默认gzip
+     */
+    private String compressionAlgorithm = "gzip";
+
+    /**
+     * [可运行时修改]
+     * 请求报文体压缩阈值, 报文体长度大于等于该值时才压缩, 默认1024, 单位bytes
+     */
+    private long compressionMinSize = 1024L;
+
+    /**
+     * [可运行时修改]
+     * true: 请求报文体先在内存中压缩完, 再以定长(Content-Length)发送, 适用于不接受分块传输的服务端, 整个压缩后的报文体驻留内存.
+     * false: 发送时流式压缩, 以分块(chunked)方式发送. 默认false
+     */
+    private boolean compressionBuffered = false;
+
+    /**
+     * [可运行时修改]
+     * 请求设置了截止时间(Request#deadline)时, 将剩余时间(ms)通过该请求头传给服务端, 默认不传递
+     */
+    private String deadlineHeader;
+
+    /**
+     * [可运行时修改]
+     * 启用采样的异步报文日志(不在调用线程中转换字符串, 可在生产环境开启), 默认false
+     */
+    private boolean bodyLogEnabled = false;
+
+    /**
+     * [可运行时修改]
+     * 报文日志按比例采样, 每N个请求采样1个, 小于等于0不按比例采样, 默认0
+     */
+    private int bodyLogSampleRate = 0;
+
+    /**
+     * [可运行时修改]
+     * 报文日志慢请求阈值ms, 耗时达到该值的请求被采样, 小于等于0不按耗时采样, 默认0
+     */
+    private long bodyLogSlowThreshold = 0L;
+
+    /**
+     * [可运行时修改]
+     * true: 报文日志采样全部失败的请求(网络异常/非2XX), 默认true
+     */
+    private boolean bodyLogFailures = true;
+
+    /**
+     * [可运行时修改]
+     * 报文日志截取的报文体最大长度, 单位bytes, 默认1024
+     */
+    private int bodyLogMaxLength = 1024;
+
+    /**
+     * [可运行时修改]
+     * 报文日志缓冲区容量(条), 缓冲区满时丢弃, 默认1024
+     */
+    private int bodyLogBufferSize = 1024;
+
     /**
      * [可运行时修改]
      * 当HTTP返回码为指定返回码时, 阻断后端
@@ -262,6 +448,30 @@ public class HttpClientSettings {
         this.httpGetInspectorUrlSuffix = httpGetInspectorUrlSuffix;
     }
 
+    public boolean isHttpGetInspectorSharedPool() {
+        return httpGetInspectorSharedPool;
+    }
+
+    public void setHttpGetInspectorSharedPool(boolean httpGetInspectorSharedPool) {
+        this.httpGetInspectorSharedPool = httpGetInspectorSharedPool;
+    }
+
+    public String getHttpGetInspectorExpectedCodes() {
+        return httpGetInspectorExpectedCodes;
+    }
+
+    public void setHttpGetInspectorExpectedCodes(String httpGetInspectorExpectedCodes) {
+        this.httpGetInspectorExpectedCodes = httpGetInspectorExpectedCodes;
+    }
+
+    public String getHttpGetInspectorExpectedBody() {
+        return httpGetInspectorExpectedBody;
+    }
+
+    public void setHttpGetInspectorExpectedBody(String httpGetInspectorExpectedBody) {
+        this.httpGetInspectorExpectedBody = httpGetInspectorExpectedBody;
+    }
+
     public boolean isInspectorVerboseLog() {
         return inspectorVerboseLog;
     }
@@ -270,6 +480,54 @@ public class HttpClientSettings {
         this.inspectorVerboseLog = inspectorVerboseLog;
     }
 
+    public boolean isInspectSkipIfRecentlySucceed() {
+        return inspectSkipIfRecentlySucceed;
+    }
+
+    public void setInspectSkipIfRecentlySucceed(boolean inspectSkipIfRecentlySucceed) {
+        this.inspectSkipIfRecentlySucceed = inspectSkipIfRecentlySucceed;
+    }
+
+    public boolean isOutlierDetectionEnabled() {
+        return outlierDetectionEnabled;
+    }
+
+    public void setOutlierDetectionEnabled(boolean outlierDetectionEnabled) {
+        this.outlierDetectionEnabled = outlierDetectionEnabled;
+    }
+
+    public long getOutlierDetectionInterval() {
+        return outlierDetectionInterval;
+    }
+
+    public void setOutlierDetectionInterval(long outlierDetectionInterval) {
+        this.outlierDetectionInterval = outlierDetectionInterval;
+    }
+
+    public long getOutlierBaseEjectionTime() {
+        return outlierBaseEjectionTime;
+    }
+
+    public void setOutlierBaseEjectionTime(long outlierBaseEjectionTime) {
+        this.outlierBaseEjectionTime = outlierBaseEjectionTime;
+    }
+
+    public int getOutlierMaxEjectionPercent() {
+        return outlierMaxEjectionPercent;
+    }
+
+    public void setOutlierMaxEjectionPercent(int outlierMaxEjectionPercent) {
+        this.outlierMaxEjectionPercent = outlierMaxEjectionPercent;
+    }
+
+    public long getHostDrainTimeout() {
+        return hostDrainTimeout;
+    }
+
+    public void setHostDrainTimeout(long hostDrainTimeout) {
+        this.hostDrainTimeout = hostDrainTimeout;
+    }
+
     public long getPassiveBlockDuration() {
         return passiveBlockDuration;
     }
@@ -318,6 +576,30 @@ public class HttpClientSettings {
         this.maxIdleConnections = maxIdleConnections;
     }
 
+    public int getMaxIdleConnectionsPerHost() {
+        return maxIdleConnectionsPerHost;
+    }
+
+    public void setMaxIdleConnectionsPerHost(int maxIdleConnectionsPerHost) {
+        this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+    }
+
+    public int getMinIdleConnectionsPerHost() {
+        return minIdleConnectionsPerHost;
+    }
+
+    public void setMinIdleConnectionsPerHost(int minIdleConnectionsPerHost) {
+        this.minIdleConnectionsPerHost = minIdleConnectionsPerHost;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
     public int getMaxThreads() {
         return maxThreads;
     }
@@ -334,6 +616,30 @@ public class HttpClientSettings {
         this.maxThreadsPerHost = maxThreadsPerHost;
     }
 
+    public int getHighPriorityReservedThreads() {
+        return highPriorityReservedThreads;
+    }
+
+    public void setHighPriorityReservedThreads(int highPriorityReservedThreads) {
+        this.highPriorityReservedThreads = highPriorityReservedThreads;
+    }
+
+    public int getNormalPriorityReservedThreads() {
+        return normalPriorityReservedThreads;
+    }
+
+    public void setNormalPriorityReservedThreads(int normalPriorityReservedThreads) {
+        this.normalPriorityReservedThreads = normalPriorityReservedThreads;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
     public long getConnectTimeout() {
         return connectTimeout;
     }
@@ -366,6 +672,126 @@ public class HttpClientSettings {
         this.maxReadLength = maxReadLength;
     }
 
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    public long getRateLimitWarmup() {
+        return rateLimitWarmup;
+    }
+
+    public void setRateLimitWarmup(long rateLimitWarmup) {
+        this.rateLimitWarmup = rateLimitWarmup;
+    }
+
+    public long getRateLimitTimeout() {
+        return rateLimitTimeout;
+    }
+
+    public void setRateLimitTimeout(long rateLimitTimeout) {
+        this.rateLimitTimeout = rateLimitTimeout;
+    }
+
+    public boolean isRateLimitPerHost() {
+        return rateLimitPerHost;
+    }
+
+    public void setRateLimitPerHost(boolean rateLimitPerHost) {
+        this.rateLimitPerHost = rateLimitPerHost;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public String getCompressionAlgorithm() {
+        return compressionAlgorithm;
+    }
+
+    public void setCompressionAlgorithm(String compressionAlgorithm) {
+        this.compressionAlgorithm = compressionAlgorithm;
+    }
+
+    public long getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public void setCompressionMinSize(long compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    public boolean isCompressionBuffered() {
+        return compressionBuffered;
+    }
+
+    public void setCompressionBuffered(boolean compressionBuffered) {
+        this.compressionBuffered = compressionBuffered;
+    }
+
+    public String getDeadlineHeader() {
+        return deadlineHeader;
+    }
+
+    public void setDeadlineHeader(String deadlineHeader) {
+        this.deadlineHeader = deadlineHeader;
+    }
+
+    public boolean isBodyLogEnabled() {
+        return bodyLogEnabled;
+    }
+
+    public void setBodyLogEnabled(boolean bodyLogEnabled) {
+        this.bodyLogEnabled = bodyLogEnabled;
+    }
+
+    public int getBodyLogSampleRate() {
+        return bodyLogSampleRate;
+    }
+
+    public void setBodyLogSampleRate(int bodyLogSampleRate) {
+        this.bodyLogSampleRate = bodyLogSampleRate;
+    }
+
+    public long getBodyLogSlowThreshold() {
+        return bodyLogSlowThreshold;
+    }
+
+    public void setBodyLogSlowThreshold(long bodyLogSlowThreshold) {
+        this.bodyLogSlowThreshold = bodyLogSlowThreshold;
+    }
+
+    public boolean isBodyLogFailures() {
+        return bodyLogFailures;
+    }
+
+    public void setBodyLogFailures(boolean bodyLogFailures) {
+        this.bodyLogFailures = bodyLogFailures;
+    }
+
+    public int getBodyLogMaxLength() {
+        return bodyLogMaxLength;
+    }
+
+    public void setBodyLogMaxLength(int bodyLogMaxLength) {
+        this.bodyLogMaxLength = bodyLogMaxLength;
+    }
+
+    public int getBodyLogBufferSize() {
+        return bodyLogBufferSize;
+    }
+
+    public void setBodyLogBufferSize(int bodyLogBufferSize) {
+        this.bodyLogBufferSize = bodyLogBufferSize;
+    }
+
     public String getHttpCodeNeedBlock() {
         return httpCodeNeedBlock;
     }
@@ -438,19 +864,49 @@ public class HttpClientSettings {
                 ", initiativeInspectInterval=" + initiativeInspectInterval +
                 ", returnNullIfAllBlocked=" + returnNullIfAllBlocked +
                 ", httpGetInspectorUrlSuffix='" + httpGetInspectorUrlSuffix + '\'' +
+                ", httpGetInspectorSharedPool=" + httpGetInspectorSharedPool +
+                ", httpGetInspectorExpectedCodes='" + httpGetInspectorExpectedCodes + '\'' +
+                ", httpGetInspectorExpectedBody='" + httpGetInspectorExpectedBody + '\'' +
                 ", inspectorVerboseLog=" + inspectorVerboseLog +
+                ", inspectSkipIfRecentlySucceed=" + inspectSkipIfRecentlySucceed +
+                ", outlierDetectionEnabled=" + outlierDetectionEnabled +
+                ", outlierDetectionInterval=" + outlierDetectionInterval +
+                ", outlierBaseEjectionTime=" + outlierBaseEjectionTime +
+                ", outlierMaxEjectionPercent=" + outlierMaxEjectionPercent +
                 ", passiveBlockDuration=" + passiveBlockDuration +
+                ", hostDrainTimeout=" + hostDrainTimeout +
                 ", mediaType='" + mediaType + '\'' +
                 ", encode='" + encode + '\'' +
                 ", headers='" + headers + '\'' +
                 ", recoveryCoefficient=" + recoveryCoefficient +
                 ", maxIdleConnections=" + maxIdleConnections +
+                ", maxIdleConnectionsPerHost=" + maxIdleConnectionsPerHost +
+                ", minIdleConnectionsPerHost=" + minIdleConnectionsPerHost +
+                ", maxConnectionsPerHost=" + maxConnectionsPerHost +
                 ", maxThreads=" + maxThreads +
                 ", maxThreadsPerHost=" + maxThreadsPerHost +
+                ", highPriorityReservedThreads=" + highPriorityReservedThreads +
+                ", normalPriorityReservedThreads=" + normalPriorityReservedThreads +
+                ", maxQueuedRequests=" + maxQueuedRequests +
                 ", connectTimeout=" + connectTimeout +
                 ", writeTimeout=" + writeTimeout +
                 ", readTimeout=" + readTimeout +
                 ", maxReadLength=" + maxReadLength +
+                ", rateLimit=" + rateLimit +
+                ", rateLimitWarmup=" + rateLimitWarmup +
+                ", rateLimitTimeout=" + rateLimitTimeout +
+                ", rateLimitPerHost=" + rateLimitPerHost +
+                ", compressionEnabled=" + compressionEnabled +
+                ", compressionAlgorithm='" + compressionAlgorithm + '\'' +
+                ", compressionMinSize=" + compressionMinSize +
+                ", compressionBuffered=" + compressionBuffered +
+                ", deadlineHeader='" + deadlineHeader + '\'' +
+                ", bodyLogEnabled=" + bodyLogEnabled +
+                ", bodyLogSampleRate=" + bodyLogSampleRate +
+                ", bodyLogSlowThreshold=" + bodyLogSlowThreshold +
+                ", bodyLogFailures=" + bodyLogFailures +
+                ", bodyLogMaxLength=" + bodyLogMaxLength +
+                ", bodyLogBufferSize=" + bodyLogBufferSize +
                 ", httpCodeNeedBlock='" + httpCodeNeedBlock + '\'' +
                 ", verboseLog=" + verboseLog +
                 ", txTimerEnabled=" + txTimerEnabled +
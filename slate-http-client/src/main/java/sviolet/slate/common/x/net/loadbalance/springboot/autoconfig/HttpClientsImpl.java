@@ -23,10 +23,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import sviolet.slate.common.x.net.loadbalance.classic.ClientSnapshot;
 import sviolet.slate.common.x.net.loadbalance.classic.DataConverter;
 import sviolet.slate.common.x.net.loadbalance.classic.SimpleOkHttpClient;
 import sviolet.slate.common.x.net.loadbalance.classic.SslUtils;
 import sviolet.slate.common.x.net.loadbalance.springboot.HttpClients;
+import sviolet.thistle.compat.concurrent.CompatThreadFactoryBuilder;
 import sviolet.thistle.entity.function.ThrowableBiConsumer;
 import sviolet.thistle.util.concurrent.ThreadPoolExecutorUtils;
 import sviolet.thistle.util.conversion.SimpleKeyValueEncoder;
@@ -36,12 +38,15 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.security.cert.CertificateException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.*;
 
 /**
- * 维护SpringBoot自动配置的SimpleOkHttpClient实例
+ * <p>维护SpringBoot自动配置的SimpleOkHttpClient实例</p>
+ *
+ * <p>默认情况下, 客户端在第一次被获取(get)时才创建(懒加载), 没被用到的客户端不占用连接池/线程等资源. 开启空闲移除(clientIdleTimeout)后,
+ * 长时间没有发起请求的客户端会被关闭并移除, 再次获取时按配置重新创建. 通过get获取(包括@HttpClient注入)的客户端可能被长期持有,
+ * 不会被移除, 只有通过getTransient获取(接口代理每次调用时获取)的客户端才会被移除. 即空闲移除只对接口代理有效, 客户端一旦通过get获取过,
+ * 就一直保留到容器关闭. 运行时的覆盖配置(settingsOverride)会被保留, 在客户端创建时生效.</p>
  *
  * @author S.Violet
  */
@@ -49,31 +54,47 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
 
     public static final String SETTING_PREFIX = "slate.httpclients.";
     private static final int ARRAY_MAX_SIZE = 1024;
+    private static final long IDLE_CHECK_INTERVAL_MAX = 60000L;
+    private static final long IDLE_CHECK_INTERVAL_MIN = 1000L;
 
     private static final Logger logger = LoggerFactory.getLogger(HttpClientsImpl.class);
 
     private final DataConverter dataConverter;
     private boolean noticeLogEnabled = true;
+    private boolean lazyInitEnabled = true;
+    private long clientIdleTimeout = 0L;
 
+    // 所有客户端的配置(包括尚未创建的)
+    private final Map<String, HttpClientSettings> clientSettings = new ConcurrentHashMap<>(16);
+    // 已创建的客户端
     private final Map<String, HttpClient> clients = new ConcurrentHashMap<>(16);
+    // 客户端创建/移除/更新配置时加锁
+    private final Object clientLock = new Object();
+    private volatile boolean closed = false;
 
     private final Map<String, Updater> clientUpdaters = new HashMap<>(32);
 
     private final LinkedBlockingQueue<OverrideSettings> unsolvedSettings = new LinkedBlockingQueue<>();
     private final ExecutorService updateExecutor = ThreadPoolExecutorUtils.createLazy(60, "Slate-HttpClients-update-%d");
+    private ScheduledExecutorService idleCheckExecutor;
 
     HttpClientsImpl(SlatePropertiesForHttpClient slatePropertiesForHttpClient, DataConverter dataConverter) {
         this.dataConverter = dataConverter;
 
         if (slatePropertiesForHttpClient.getHttpclient() != null) {
             noticeLogEnabled = slatePropertiesForHttpClient.getHttpclient().isNoticeLogEnabled();
+            lazyInitEnabled = slatePropertiesForHttpClient.getHttpclient().isLazyInitEnabled();
+            clientIdleTimeout = slatePropertiesForHttpClient.getHttpclient().getClientIdleTimeout();
         }
 
         // Init client updaters
         initClientUpdaters();
 
-        // Create clients at startup
-        createClientsAtStartup(slatePropertiesForHttpClient);
+        // Register clients at startup
+        registerClientsAtStartup(slatePropertiesForHttpClient);
+
+        // Idle check
+        startIdleCheck();
     }
 
     /**
@@ -94,12 +115,41 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
     }
 
     /**
-     * 获取客户端
+     * 获取客户端, 若客户端尚未创建(或因空闲被移除), 则创建之. 返回的客户端可能被调用方长期持有, 不再因空闲被移除.
      * @param key 客户端名称
      */
     @Override
     public SimpleOkHttpClient get(String key) {
-        SimpleOkHttpClient client = clients.get(key);
+        HttpClient client = getClient(key);
+        if (client != null && !client.isRetained()) {
+            // 与空闲检查互斥, 保证返回的实例不会被移除
+            synchronized (clientLock) {
+                client = getClient(key);
+                if (client != null) {
+                    client.setRetained(true);
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * 获取客户端, 仅用于本次请求(调用方不可持有), 若客户端尚未创建(或因空闲被移除), 则创建之
+     * @param key 客户端名称
+     */
+    @Override
+    public SimpleOkHttpClient getTransient(String key) {
+        return getClient(key);
+    }
+
+    private HttpClient getClient(String key) {
+        HttpClient client = key != null ? clients.get(key) : null;
+        if (client != null) {
+            return client;
+        }
+        if (key != null && clientSettings.containsKey(key)) {
+            client = getOrCreateClient(key);
+        }
         if (client == null && logger.isWarnEnabled() && noticeLogEnabled) {
             logger.warn("HttpClients | No HttpClient named " + key + ", return null");
         }
@@ -107,19 +157,31 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
     }
 
     /**
-     * 客户端数量
+     * 客户端数量(包括尚未创建的)
      */
     @Override
     public int size() {
-        return clients.size();
+        return clientSettings.size();
     }
 
     /**
-     * 所有客户端名称
+     * 所有客户端名称(包括尚未创建的)
      */
     @Override
     public Set<String> tags() {
-        return clients.keySet();
+        return clientSettings.keySet();
+    }
+
+    /**
+     * 所有已创建的客户端的运行状态快照
+     */
+    @Override
+    public Map<String, ClientSnapshot> snapshots() {
+        Map<String, ClientSnapshot> snapshots = new HashMap<>(clients.size() * 2);
+        for (Map.Entry<String, HttpClient> entry : clients.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().getSnapshot());
+        }
+        return snapshots;
     }
 
     /**
@@ -127,9 +189,12 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
      */
     @Override
     public void close() throws IOException {
-        Map<String, HttpClient>  clients = this.clients;
-        for (Map.Entry<String, HttpClient> entry : clients.entrySet()) {
-            entry.getValue().close();
+        synchronized (clientLock) {
+            closed = true;
+            stopIdleCheck();
+            for (Map.Entry<String, HttpClient> entry : clients.entrySet()) {
+                entry.getValue().close();
+            }
         }
     }
 
@@ -138,9 +203,12 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
      */
     @Override
     public void destroy() throws Exception {
-        Map<String, HttpClient>  clients = this.clients;
-        for (Map.Entry<String, HttpClient> entry : clients.entrySet()) {
-            entry.getValue().destroy();
+        synchronized (clientLock) {
+            closed = true;
+            stopIdleCheck();
+            for (Map.Entry<String, HttpClient> entry : clients.entrySet()) {
+                entry.getValue().destroy();
+            }
         }
     }
 
@@ -149,27 +217,29 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
      */
     @Override
     public void afterPropertiesSet() throws Exception {
-        Map<String, HttpClient>  clients = this.clients;
-        for (Map.Entry<String, HttpClient> entry : clients.entrySet()) {
-            entry.getValue().afterPropertiesSet();
+        synchronized (clientLock) {
+            for (Map.Entry<String, HttpClient> entry : clients.entrySet()) {
+                entry.getValue().afterPropertiesSet();
+            }
         }
     }
 
     // Create /////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
-     * 启动时第一次创建客户端示例
+     * 启动时登记客户端配置, 若未开启懒加载, 则同时创建客户端
      */
-    private void createClientsAtStartup(SlatePropertiesForHttpClient slatePropertiesForHttpClient) {
+    private void registerClientsAtStartup(SlatePropertiesForHttpClient slatePropertiesForHttpClient) {
         if (noticeLogEnabled) {
-            logger.info("HttpClients | Enabled");
+            logger.info("HttpClients | Enabled" + (lazyInitEnabled ? ", lazy init" : "") +
+                    (clientIdleTimeout > 0 ? ", idle clients will be removed after " + clientIdleTimeout + " ms" : ""));
         }
 
         if (slatePropertiesForHttpClient.getHttpclients() == null) {
             return;
         }
 
-        //create client
+        //register client
         for (Map.Entry<String, HttpClientSettings> entry : slatePropertiesForHttpClient.getHttpclients().entrySet()) {
 
             String tag = entry.getKey();
@@ -180,6 +250,15 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
                 continue;
             }
 
+            clientSettings.put(tag, settings);
+
+            if (lazyInitEnabled) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("HttpClients | Client " + tag + "> Registered (lazy init) with settings: " + settings);
+                }
+                continue;
+            }
+
             if (logger.isDebugEnabled()) {
                 logger.debug("HttpClients | Client " + tag + "> Creating with settings: " + settings);
             }
@@ -194,6 +273,46 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
         }
     }
 
+    /**
+     * 懒加载创建客户端, 并应用之前收到的覆盖配置
+     */
+    private HttpClient getOrCreateClient(String tag) {
+        synchronized (clientLock) {
+            HttpClient client = clients.get(tag);
+            if (client != null) {
+                return client;
+            }
+            HttpClientSettings settings = clientSettings.get(tag);
+            if (settings == null) {
+                return null;
+            }
+            if (closed) {
+                logger.warn("HttpClients | Client " + tag + "> Can not be created, HttpClients has been closed");
+                return null;
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("HttpClients | Client " + tag + "> Creating with settings: " + settings);
+            }
+
+            client = createClient(tag, settings);
+
+            // Apply override settings
+            for (Updater updater : new HashSet<>(clientUpdaters.values())) {
+                updater.applySettings(tag, client);
+            }
+            client.setUpdated(false);
+
+            client.start();
+            clients.put(tag, client);
+
+            if (logger.isInfoEnabled()) {
+                logger.info("HttpClients | Client " + tag + "> Created: " + client);
+            }
+            return client;
+        }
+    }
+
     /**
      * 创建一个客户端
      */
@@ -243,20 +362,50 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
                 .setInitiativeInspectInterval(settings.getInitiativeInspectInterval())
                 .setReturnNullIfAllBlocked(settings.isReturnNullIfAllBlocked())
                 .setHttpGetInspector(settings.getHttpGetInspectorUrlSuffix())
+                .setHttpGetInspectorSharedPool(settings.isHttpGetInspectorSharedPool())
+                .setHttpGetInspectorExpectedCodes(settings.getHttpGetInspectorExpectedCodes())
+                .setHttpGetInspectorExpectedBody(settings.getHttpGetInspectorExpectedBody())
                 .setInspectorVerboseLog(settings.isInspectorVerboseLog())
+                .setInspectSkipIfRecentlySucceed(settings.isInspectSkipIfRecentlySucceed())
+                .setOutlierDetectionEnabled(settings.isOutlierDetectionEnabled())
+                .setOutlierDetectionInterval(settings.getOutlierDetectionInterval())
+                .setOutlierBaseEjectionTime(settings.getOutlierBaseEjectionTime())
+                .setOutlierMaxEjectionPercent(settings.getOutlierMaxEjectionPercent())
                 .setPassiveBlockDuration(settings.getPassiveBlockDuration())
+                .setHostDrainTimeout(settings.getHostDrainTimeout())
                 .setMediaType(settings.getMediaType())
                 .setEncode(settings.getEncode())
                 .setHeaders(headers)
                 .setDataConverter(dataConverter)
                 .setRecoveryCoefficient(settings.getRecoveryCoefficient())
                 .setMaxIdleConnections(settings.getMaxIdleConnections())
+                .setMaxIdleConnectionsPerHost(settings.getMaxIdleConnectionsPerHost())
+                .setMinIdleConnectionsPerHost(settings.getMinIdleConnectionsPerHost())
+                .setMaxConnectionsPerHost(settings.getMaxConnectionsPerHost())
                 .setMaxThreads(settings.getMaxThreads())
                 .setMaxThreadsPerHost(settings.getMaxThreadsPerHost())
+                .setHighPriorityReservedThreads(settings.getHighPriorityReservedThreads())
+                .setNormalPriorityReservedThreads(settings.getNormalPriorityReservedThreads())
+                .setMaxQueuedRequests(settings.getMaxQueuedRequests())
                 .setConnectTimeout(settings.getConnectTimeout())
                 .setWriteTimeout(settings.getWriteTimeout())
                 .setReadTimeout(settings.getReadTimeout())
                 .setMaxReadLength(settings.getMaxReadLength())
+                .setRateLimit(settings.getRateLimit())
+                .setRateLimitWarmup(settings.getRateLimitWarmup())
+                .setRateLimitTimeout(settings.getRateLimitTimeout())
+                .setRateLimitPerHost(settings.isRateLimitPerHost())
+                .setCompressionEnabled(settings.isCompressionEnabled())
+                .setCompressionAlgorithm(settings.getCompressionAlgorithm())
+                .setCompressionMinSize(settings.getCompressionMinSize())
+                .setCompressionBuffered(settings.isCompressionBuffered())
+                .setDeadlineHeader(settings.getDeadlineHeader())
+                .setBodyLogEnabled(settings.isBodyLogEnabled())
+                .setBodyLogSampleRate(settings.getBodyLogSampleRate())
+                .setBodyLogSlowThreshold(settings.getBodyLogSlowThreshold())
+                .setBodyLogFailures(settings.isBodyLogFailures())
+                .setBodyLogMaxLength(settings.getBodyLogMaxLength())
+                .setBodyLogBufferSize(settings.getBodyLogBufferSize())
                 .setHttpCodeNeedBlock(settings.getHttpCodeNeedBlock())
                 .setVerboseLog(settings.isVerboseLog())
                 .setTxTimerEnabled(settings.isTxTimerEnabled())
@@ -267,10 +416,20 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
 
         // 是否被更新的标记
         private boolean updated = false;
+        // 是否已交给调用方持有(get/@HttpClient注入), 持有的客户端不会因空闲被移除
+        private volatile boolean retained = false;
 
         private HttpClient() {
         }
 
+        private boolean isRetained() {
+            return retained;
+        }
+
+        private void setRetained(boolean retained) {
+            this.retained = retained;
+        }
+
         private boolean isUpdated() {
             return updated;
         }
@@ -280,6 +439,64 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
         }
     }
 
+    // Idle ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * 开启空闲客户端移除
+     */
+    private void startIdleCheck() {
+        if (clientIdleTimeout <= 0) {
+            return;
+        }
+        long interval = Math.max(IDLE_CHECK_INTERVAL_MIN, Math.min(IDLE_CHECK_INTERVAL_MAX, clientIdleTimeout / 2));
+        idleCheckExecutor = new ScheduledThreadPoolExecutor(1,
+                new CompatThreadFactoryBuilder().setNameFormat("Slate-HttpClients-idle-%d").setDaemon(true).build());
+        idleCheckExecutor.scheduleWithFixedDelay(idleCheckTask, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopIdleCheck() {
+        if (idleCheckExecutor != null) {
+            idleCheckExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 关闭并移除空闲的客户端, 下次获取时重新创建. 已交给调用方持有的客户端(get/@HttpClient注入)不移除
+     */
+    private final Runnable idleCheckTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                long currentTimeMillis = System.currentTimeMillis();
+                synchronized (clientLock) {
+                    if (closed) {
+                        return;
+                    }
+                    Iterator<Map.Entry<String, HttpClient>> iterator = clients.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<String, HttpClient> entry = iterator.next();
+                        HttpClient client = entry.getValue();
+                        if (client.isRetained()) {
+                            continue;
+                        }
+                        long idleTime = currentTimeMillis - client.getLastRequestTime();
+                        if (idleTime < clientIdleTimeout) {
+                            continue;
+                        }
+                        iterator.remove();
+                        client.close();
+                        if (logger.isInfoEnabled() && noticeLogEnabled) {
+                            logger.info("HttpClients | Client " + entry.getKey() + "> Idle for " + idleTime +
+                                    " ms, closed and removed, it will be recreated when needed");
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                logger.error("HttpClients | Error while removing idle clients", t);
+            }
+        }
+    };
+
     // Update /////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -309,6 +526,12 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
      * 更新配置
      */
     private void update(OverrideSettings settings) {
+        synchronized (clientLock) {
+            update0(settings);
+        }
+    }
+
+    private void update0(OverrideSettings settings) {
         Set<String> propertiesKeys = settings.getKeys();
         // check keys
         if (propertiesKeys == null || propertiesKeys.isEmpty()) {
@@ -361,22 +584,11 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             // Get value
             String value = settings.getValue(propertiesKey);
 
-            // Get client
-            HttpClient client = clients.get(tag);
-
             //Check if new
-            if (client == null) {
-                try {
-                    client = createClient(tag, new HttpClientSettings());
-                    client.start();
-                    clients.put(tag, client);
-                    logger.info("HttpClients SettingsUpdate | " + tag +
-                            "> Create new HttpClient with default properties, because no HttpClient named " + tag + " before");
-                } catch (Exception e) {
-                    logger.warn("HttpClients SettingsUpdate | Error while creating new HttpClient named " + tag +
-                            ", skip properties key " + propertiesKey, e);
-                    continue;
-                }
+            if (!clientSettings.containsKey(tag)) {
+                clientSettings.put(tag, new HttpClientSettings());
+                logger.info("HttpClients SettingsUpdate | " + tag +
+                        "> Register new HttpClient with default properties, because no HttpClient named " + tag + " before");
             }
 
             // Find updater
@@ -391,8 +603,8 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             updater.updateSetting(tag, key, index, value);
         }
 
-        // Apply setting changes
-        for (Updater updater : clientUpdaters.values()) {
+        // Apply setting changes (to created clients, the others will be applied on creation)
+        for (Updater updater : new HashSet<>(clientUpdaters.values())) {
             updater.applySettings(clients);
         }
 
@@ -460,6 +672,30 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             }
         });
 
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("httpGetInspectorSharedPool", "http-get-inspector-shared-pool")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setHttpGetInspectorSharedPool(Boolean.parseBoolean(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("httpGetInspectorExpectedCodes", "http-get-inspector-expected-codes")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setHttpGetInspectorExpectedCodes(value);
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("httpGetInspectorExpectedBody", "http-get-inspector-expected-body")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setHttpGetInspectorExpectedBody(value);
+            }
+        });
+
         installUpdater(new SingleValueUpdater(
                 Arrays.asList("inspectorVerboseLog", "inspector-verbose-log")) {
             @Override
@@ -468,6 +704,46 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             }
         });
 
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("inspectSkipIfRecentlySucceed", "inspect-skip-if-recently-succeed")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setInspectSkipIfRecentlySucceed(Boolean.parseBoolean(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("outlierDetectionEnabled", "outlier-detection-enabled")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setOutlierDetectionEnabled(Boolean.parseBoolean(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("outlierDetectionInterval", "outlier-detection-interval")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setOutlierDetectionInterval(Long.parseLong(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("outlierBaseEjectionTime", "outlier-base-ejection-time")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setOutlierBaseEjectionTime(Long.parseLong(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("outlierMaxEjectionPercent", "outlier-max-ejection-percent")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setOutlierMaxEjectionPercent(Integer.parseInt(value));
+            }
+        });
+
         installUpdater(new SingleValueUpdater(
                 Arrays.asList("passiveBlockDuration", "passive-block-duration")) {
             @Override
@@ -476,6 +752,14 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             }
         });
 
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("hostDrainTimeout", "host-drain-timeout")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setHostDrainTimeout(Long.parseLong(value));
+            }
+        });
+
         installUpdater(new SingleValueUpdater(
                 Arrays.asList("mediaType", "media-type")) {
             @Override
@@ -508,6 +792,30 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             }
         });
 
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("maxIdleConnectionsPerHost", "max-idle-connections-per-host")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setMaxIdleConnectionsPerHost(Integer.parseInt(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("minIdleConnectionsPerHost", "min-idle-connections-per-host")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setMinIdleConnectionsPerHost(Integer.parseInt(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("maxConnectionsPerHost", "max-connections-per-host")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setMaxConnectionsPerHost(Integer.parseInt(value));
+            }
+        });
+
         installUpdater(new SingleValueUpdater(
                 Arrays.asList("maxThreads", "max-threads")) {
             @Override
@@ -524,6 +832,30 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             }
         });
 
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("highPriorityReservedThreads", "high-priority-reserved-threads")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setHighPriorityReservedThreads(Integer.parseInt(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("normalPriorityReservedThreads", "normal-priority-reserved-threads")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setNormalPriorityReservedThreads(Integer.parseInt(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("maxQueuedRequests", "max-queued-requests")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setMaxQueuedRequests(Integer.parseInt(value));
+            }
+        });
+
         installUpdater(new SingleValueUpdater(
                 Arrays.asList("connectTimeout", "connect-timeout")) {
             @Override
@@ -556,6 +888,126 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             }
         });
 
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("rateLimit", "rate-limit")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setRateLimit(Double.parseDouble(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("rateLimitWarmup", "rate-limit-warmup")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setRateLimitWarmup(Long.parseLong(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("rateLimitTimeout", "rate-limit-timeout")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setRateLimitTimeout(Long.parseLong(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("rateLimitPerHost", "rate-limit-per-host")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setRateLimitPerHost(Boolean.parseBoolean(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("compressionEnabled", "compression-enabled")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setCompressionEnabled(Boolean.parseBoolean(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("compressionAlgorithm", "compression-algorithm")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setCompressionAlgorithm(value);
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("compressionMinSize", "compression-min-size")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setCompressionMinSize(Long.parseLong(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("compressionBuffered", "compression-buffered")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setCompressionBuffered(Boolean.parseBoolean(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("deadlineHeader", "deadline-header")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setDeadlineHeader(value);
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("bodyLogEnabled", "body-log-enabled")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setBodyLogEnabled(Boolean.parseBoolean(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("bodyLogSampleRate", "body-log-sample-rate")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setBodyLogSampleRate(Integer.parseInt(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("bodyLogSlowThreshold", "body-log-slow-threshold")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setBodyLogSlowThreshold(Long.parseLong(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("bodyLogFailures", "body-log-failures")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setBodyLogFailures(Boolean.parseBoolean(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("bodyLogMaxLength", "body-log-max-length")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setBodyLogMaxLength(Integer.parseInt(value));
+            }
+        });
+
+        installUpdater(new SingleValueUpdater(
+                Arrays.asList("bodyLogBufferSize", "body-log-buffer-size")) {
+            @Override
+            public void applySetting(HttpClient client, String value) throws Exception {
+                client.setBodyLogBufferSize(Integer.parseInt(value));
+            }
+        });
+
         installUpdater(new SingleValueUpdater(
                 Arrays.asList("httpCodeNeedBlock", "http-code-need-block")) {
             @Override
@@ -634,8 +1086,16 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
 
         void updateSetting(String tag, String key, int index, String value);
 
+        /**
+         * 将变化的配置应用到已创建的客户端
+         */
         void applySettings(Map<String, HttpClient> clients);
 
+        /**
+         * 将之前收到的配置应用到新创建的客户端
+         */
+        void applySettings(String tag, HttpClient client);
+
         Collection<String> getKeys();
 
     }
@@ -686,29 +1146,40 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             for (String tag : tagToBeUpdated) {
                 HttpClient client = clients.get(tag);
                 if (client == null) {
-                    // impossible
+                    // not created yet
                     continue;
                 }
-                String value = values.get(tag);
-                logger.info("HttpClients SettingsUpdate | Update setting '" + settingName + "' of client '" + tag + "' to '" + value + "'");
-                try {
-                    client.setUpdated(true);
-                    applySetting(client, value);
-                } catch (NumberFormatException e) {
+                apply(tag, client);
+            }
+            tagToBeUpdated.clear();
+        }
+
+        @Override
+        public final void applySettings(String tag, HttpClient client) {
+            if (values.containsKey(tag)) {
+                apply(tag, client);
+            }
+        }
+
+        private void apply(String tag, HttpClient client) {
+            String value = values.get(tag);
+            logger.info("HttpClients SettingsUpdate | Update setting '" + settingName + "' of client '" + tag + "' to '" + value + "'");
+            try {
+                client.setUpdated(true);
+                applySetting(client, value);
+            } catch (NumberFormatException e) {
+                logger.error("HttpClients SettingsUpdate | Error while updating setting '" + settingName +
+                        "' of client '" + tag + "' to '" + value + "', number format failed", e);
+            } catch (Throwable t) {
+                if (t instanceof SimpleKeyValueEncoder.DecodeException) {
                     logger.error("HttpClients SettingsUpdate | Error while updating setting '" + settingName +
-                            "' of client '" + tag + "' to '" + value + "', number format failed", e);
-                } catch (Throwable t) {
-                    if (t instanceof SimpleKeyValueEncoder.DecodeException) {
-                        logger.error("HttpClients SettingsUpdate | Error while updating setting '" + settingName +
-                                "' of client '" + tag + "' to '" + value +
-                                "', illegal key-value format, see github.com/shepherdviolet/thistle/blob/master/docs/kvencoder/guide.md", t);
-                    } else {
-                        logger.error("HttpClients SettingsUpdate | Error while updating setting '" + settingName +
-                                "' of client '" + tag + "' to '" + value + "'", t);
-                    }
+                            "' of client '" + tag + "' to '" + value +
+                            "', illegal key-value format, see github.com/shepherdviolet/thistle/blob/master/docs/kvencoder/guide.md", t);
+                } else {
+                    logger.error("HttpClients SettingsUpdate | Error while updating setting '" + settingName +
+                            "' of client '" + tag + "' to '" + value + "'", t);
                 }
             }
-            tagToBeUpdated.clear();
         }
 
         @Override
@@ -774,31 +1245,42 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             for (String tag : tagToBeUpdated) {
                 HttpClient client = clients.get(tag);
                 if (client == null) {
-                    // impossible
+                    // not created yet
                     continue;
                 }
-                String value;
-                if (!CheckUtils.isEmptyOrBlank((value = values1.get(tag)))) {
-                    // Apply setting 1
-                    apply0(client, tag, value, settingName1, this::applySetting1);
-                } else if (!CheckUtils.isEmptyOrBlank((value = values2.get(tag)))) {
-                    // Apply setting 2
-                    apply0(client, tag, value, settingName2, this::applySetting2);
-                } else {
-                    // Reset to default
-                    logger.info("HttpClients SettingsUpdate | Update setting '" + settingName1 + "' of client '" + tag + "' to default");
-                    try {
-                        client.setUpdated(true);
-                        applyReset(client);
-                    } catch (Throwable t) {
-                        logger.error("HttpClients SettingsUpdate | Error while updating setting '" + settingName1 +
-                                "' of client '" + tag + "' to default", t);
-                    }
-                }
+                apply(tag, client);
             }
             tagToBeUpdated.clear();
         }
 
+        @Override
+        public final void applySettings(String tag, HttpClient client) {
+            if (values1.containsKey(tag) || values2.containsKey(tag)) {
+                apply(tag, client);
+            }
+        }
+
+        private void apply(String tag, HttpClient client) {
+            String value;
+            if (!CheckUtils.isEmptyOrBlank((value = values1.get(tag)))) {
+                // Apply setting 1
+                apply0(client, tag, value, settingName1, this::applySetting1);
+            } else if (!CheckUtils.isEmptyOrBlank((value = values2.get(tag)))) {
+                // Apply setting 2
+                apply0(client, tag, value, settingName2, this::applySetting2);
+            } else {
+                // Reset to default
+                logger.info("HttpClients SettingsUpdate | Update setting '" + settingName1 + "' of client '" + tag + "' to default");
+                try {
+                    client.setUpdated(true);
+                    applyReset(client);
+                } catch (Throwable t) {
+                    logger.error("HttpClients SettingsUpdate | Error while updating setting '" + settingName1 +
+                            "' of client '" + tag + "' to default", t);
+                }
+            }
+        }
+
         private void apply0(HttpClient client, String tag, String value, String settingName, ThrowableBiConsumer<HttpClient, String> applyMethod) {
             logger.info("HttpClients SettingsUpdate | Update setting '" + settingName + "' of client '" + tag + "' to '" + value + "'");
             try {
@@ -912,65 +1394,75 @@ class HttpClientsImpl implements HttpClients, Closeable, InitializingBean, Dispo
             for (String tag : tagToBeUpdated) {
                 HttpClient client = clients.get(tag);
                 if (client == null) {
-                    // impossible
+                    // not created yet
                     continue;
                 }
-                String value = singleValues.get(tag);
-                Map<Integer, String> arrayValue;
+                apply(tag, client, newArrayValues.get(tag));
+            }
+            oldArrayValues.putAll(newArrayValues);
+            newArrayValues.clear();
+            tagToBeUpdated.clear();
+        }
+
+        @Override
+        public final void applySettings(String tag, HttpClient client) {
+            if (singleValues.containsKey(tag) || oldArrayValues.containsKey(tag)) {
+                apply(tag, client, oldArrayValues.get(tag));
+            }
+        }
+
+        private void apply(String tag, HttpClient client, Map<Integer, String> arrayValue) {
+            String value = singleValues.get(tag);
+            // Apply single value if it's not empty
+            if (!CheckUtils.isEmptyOrBlank(value)) {
                 // Apply single value if it's not empty
-                if (!CheckUtils.isEmptyOrBlank(value)) {
-                    // Apply single value if it's not empty
-                    logger.info("HttpClients SettingsUpdate | Update setting '" + singleSettingName + "' of client " + tag + " to '" + value + "'");
-                    try {
-                        client.setUpdated(true);
-                        applySingleSetting(client, value);
-                    } catch (NumberFormatException e) {
+                logger.info("HttpClients SettingsUpdate | Update setting '" + singleSettingName + "' of client " + tag + " to '" + value + "'");
+                try {
+                    client.setUpdated(true);
+                    applySingleSetting(client, value);
+                } catch (NumberFormatException e) {
+                    logger.error("HttpClients SettingsUpdate | Error while updating setting '" + singleSettingName +
+                            "' of client '" + tag + "' to '" + value + "', number format failed", e);
+                } catch (Throwable t) {
+                    if (t instanceof SimpleKeyValueEncoder.DecodeException) {
                         logger.error("HttpClients SettingsUpdate | Error while updating setting '" + singleSettingName +
-                                "' of client '" + tag + "' to '" + value + "', number format failed", e);
-                    } catch (Throwable t) {
-                        if (t instanceof SimpleKeyValueEncoder.DecodeException) {
-                            logger.error("HttpClients SettingsUpdate | Error while updating setting '" + singleSettingName +
-                                    "' of client '" + tag + "' to '" + value +
-                                    "', illegal key-value format, see github.com/shepherdviolet/thistle/blob/master/docs/kvencoder/guide.md", t);
-                        } else {
-                            logger.error("HttpClients SettingsUpdate | Error while updating setting '" + singleSettingName +
-                                    "' of client '" + tag + "' to '" + value + "'", t);
-                        }
+                                "' of client '" + tag + "' to '" + value +
+                                "', illegal key-value format, see github.com/shepherdviolet/thistle/blob/master/docs/kvencoder/guide.md", t);
+                    } else {
+                        logger.error("HttpClients SettingsUpdate | Error while updating setting '" + singleSettingName +
+                                "' of client '" + tag + "' to '" + value + "'", t);
                     }
-                } else if ((arrayValue = newArrayValues.get(tag)) != null) {
-                    // Apply array value
-                    logger.info("HttpClients SettingsUpdate | Update setting '" + arraySettingName + "' of client '" + tag + "' to '" + arrayValue + "'");
-                    try {
-                        client.setUpdated(true);
-                        applyArraySetting(client, arrayValue.values().toArray(new String[0]));
-                    } catch (NumberFormatException e) {
+                }
+            } else if (arrayValue != null) {
+                // Apply array value
+                logger.info("HttpClients SettingsUpdate | Update setting '" + arraySettingName + "' of client '" + tag + "' to '" + arrayValue + "'");
+                try {
+                    client.setUpdated(true);
+                    applyArraySetting(client, arrayValue.values().toArray(new String[0]));
+                } catch (NumberFormatException e) {
+                    logger.error("HttpClients SettingsUpdate | Error while updating setting '" + arraySettingName +
+                            "' of client '" + tag + "' to '" + value + "', number format failed", e);
+                } catch (Throwable t) {
+                    if (t instanceof SimpleKeyValueEncoder.DecodeException) {
                         logger.error("HttpClients SettingsUpdate | Error while updating setting '" + arraySettingName +
-                                "' of client '" + tag + "' to '" + value + "', number format failed", e);
-                    } catch (Throwable t) {
-                        if (t instanceof SimpleKeyValueEncoder.DecodeException) {
-                            logger.error("HttpClients SettingsUpdate | Error while updating setting '" + arraySettingName +
-                                    "' of client '" + tag + "' to '" + value +
-                                    "', illegal key-value format, see github.com/shepherdviolet/thistle/blob/master/docs/kvencoder/guide.md", t);
-                        } else {
-                            logger.error("HttpClients SettingsUpdate | Error while updating setting '" + arraySettingName +
-                                    "' of client '" + tag + "' to '" + value + "'", t);
-                        }
-                    }
-                } else {
-                    // Reset to default
-                    logger.info("HttpClients SettingsUpdate | Update setting '" + arraySettingName + "' of client '" + tag + "' to default");
-                    try {
-                        client.setUpdated(true);
-                        applyReset(client);
-                    } catch (Throwable t) {
+                                "' of client '" + tag + "' to '" + value +
+                                "', illegal key-value format, see github.com/shepherdviolet/thistle/blob/master/docs/kvencoder/guide.md", t);
+                    } else {
                         logger.error("HttpClients SettingsUpdate | Error while updating setting '" + arraySettingName +
-                                "' of client '" + tag + "' to default", t);
+                                "' of client '" + tag + "' to '" + value + "'", t);
                     }
                 }
+            } else {
+                // Reset to default
+                logger.info("HttpClients SettingsUpdate | Update setting '" + arraySettingName + "' of client '" + tag + "' to default");
+                try {
+                    client.setUpdated(true);
+                    applyReset(client);
+                } catch (Throwable t) {
+                    logger.error("HttpClients SettingsUpdate | Error while updating setting '" + arraySettingName +
+                            "' of client '" + tag + "' to default", t);
+                }
             }
-            oldArrayValues.putAll(newArrayValues);
-            newArrayValues.clear();
-            tagToBeUpdated.clear();
         }
 
         @Override
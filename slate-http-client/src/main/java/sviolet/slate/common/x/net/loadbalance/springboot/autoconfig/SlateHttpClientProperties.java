@@ -48,6 +48,17 @@ public class SlateHttpClientProperties {
      */
     private boolean noticeLogEnabled = true;
 
+    /**
+     * true: 客户端在第一次被获取(HttpClients#get)时才创建, false: 启动时创建所有客户端, 默认true
+     */
+    private boolean lazyInitEnabled = true;
+
+    /**
+     * 客户端空闲(没有发起请求)超过该时间后被关闭并移除, 再次获取时重新创建, 单位ms, 默认0(不移除).
+     * 只移除通过接口代理使用的客户端, 通过HttpClients#get获取或@HttpClient注入的客户端实例不会被移除(一旦这样获取过, 该客户端一直保留到容器关闭).
+     */
+    private long clientIdleTimeout = 0L;
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -79,4 +90,20 @@ public class SlateHttpClientProperties {
     public void setNoticeLogEnabled(boolean noticeLogEnabled) {
         this.noticeLogEnabled = noticeLogEnabled;
     }
+
+    public boolean isLazyInitEnabled() {
+        return lazyInitEnabled;
+    }
+
+    public void setLazyInitEnabled(boolean lazyInitEnabled) {
+        this.lazyInitEnabled = lazyInitEnabled;
+    }
+
+    public long getClientIdleTimeout() {
+        return clientIdleTimeout;
+    }
+
+    public void setClientIdleTimeout(long clientIdleTimeout) {
+        this.clientIdleTimeout = clientIdleTimeout;
+    }
 }
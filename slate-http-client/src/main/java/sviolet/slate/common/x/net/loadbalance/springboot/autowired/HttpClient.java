@@ -24,9 +24,13 @@ import java.lang.annotation.*;
 /**
  * <p>HttpClient注入专用注解</p>
  *
+ * <p>1.注入客户端: 声明在SimpleOkHttpClient类型的成员变量或方法上</p>
+ * <p>2.注入声明式客户端: 声明在接口类型的成员变量或方法上, 注入接口的代理(详见HttpInterfaces)</p>
+ * <p>3.声明接口对应的客户端: 声明在接口类上, 配合@EnableInterfaceInstantiation使用(详见HttpInterfaceInstantiator)</p>
+ *
  * @author S.Violet
  */
-@Target({ElementType.FIELD, ElementType.METHOD})
+@Target({ElementType.FIELD, ElementType.METHOD, ElementType.TYPE})
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
 public @interface HttpClient {
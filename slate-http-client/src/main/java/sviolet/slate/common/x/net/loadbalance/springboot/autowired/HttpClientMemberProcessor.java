@@ -22,20 +22,27 @@ package sviolet.slate.common.x.net.loadbalance.springboot.autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.util.ReflectionUtils;
 import sviolet.slate.common.x.bean.mbrproc.MemberProcessor;
+import sviolet.slate.common.x.net.loadbalance.classic.MultiHostOkHttpClient;
 import sviolet.slate.common.x.net.loadbalance.classic.SimpleOkHttpClient;
 import sviolet.slate.common.x.net.loadbalance.springboot.HttpClients;
+import sviolet.slate.common.x.net.loadbalance.springboot.interfaceinst.HttpGet;
+import sviolet.slate.common.x.net.loadbalance.springboot.interfaceinst.HttpInterfaces;
+import sviolet.slate.common.x.net.loadbalance.springboot.interfaceinst.HttpPost;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * <p>实现用@HttpClient注解注入客户端</p>
+ * <p>实现用@HttpClient注解注入客户端, 或注入声明式客户端(接口代理, 详见HttpInterfaces)</p>
  *
  * @author S.Violet
  */
 public class HttpClientMemberProcessor implements MemberProcessor<HttpClient> {
 
     private volatile HttpClients httpClients;
+    private final Map<String, Object> httpInterfaces = new ConcurrentHashMap<>();
 
     @Override
     public Class<HttpClient> acceptAnnotationType() {
@@ -44,9 +51,17 @@ public class HttpClientMemberProcessor implements MemberProcessor<HttpClient> {
 
     @Override
     public void visitField(Object bean, String beanName, Field field, HttpClient annotation, ApplicationContext applicationContext) {
+        if (isHttpInterface(field.getType())) {
+            Object httpInterface = getHttpInterface(applicationContext, annotation, bean, field.getType());
+            if (httpInterface != null) {
+                ReflectionUtils.makeAccessible(field);
+                ReflectionUtils.setField(field, bean, httpInterface);
+            }
+            return;
+        }
         if (!SimpleOkHttpClient.class.isAssignableFrom(field.getType())) {
             throw new IllegalHttpClientAnnotationException("Illegal usage of @HttpClient in " + bean.getClass().getName() + " (field " + field.getName() + ")" +
-                    ", this annotation can only be used on field of SimpleOkHttpClient, e.g. @HttpClient(\"tagname\") SimpleOkHttpClient client;");
+                    ", this annotation can only be used on field of SimpleOkHttpClient or http interface (annotated by @HttpClient or declares @HttpPost/@HttpGet methods), e.g. @HttpClient(\"tagname\") SimpleOkHttpClient client;");
         }
         SimpleOkHttpClient client = getHttpClient(applicationContext, annotation, bean);
         if (client != null) {
@@ -63,9 +78,17 @@ public class HttpClientMemberProcessor implements MemberProcessor<HttpClient> {
                     ", this annotation can only be used on method with one parameter, but you have " + parameterTypes.length +
                     " parameters, e.g. @HttpClient(\"tagname\") public void setClient(SimpleOkHttpClient client){...}");
         }
+        if (isHttpInterface(parameterTypes[0])) {
+            Object httpInterface = getHttpInterface(applicationContext, annotation, bean, parameterTypes[0]);
+            if (httpInterface != null) {
+                ReflectionUtils.makeAccessible(method);
+                ReflectionUtils.invokeMethod(method, bean, httpInterface);
+            }
+            return;
+        }
         if (!SimpleOkHttpClient.class.isAssignableFrom(parameterTypes[0])) {
             throw new IllegalHttpClientAnnotationException("Illegal usage of @HttpClient in " + bean.getClass().getName() + " (method " + method.getName() + ")" +
-                    ", this annotation can only be used on method with one SimpleOkHttpClient parameter, but your parameter type is " + parameterTypes[0].getName() +
+                    ", this annotation can only be used on method with one SimpleOkHttpClient (or http interface) parameter, but your parameter type is " + parameterTypes[0].getName() +
                     ", e.g. @HttpClient(\"tagname\") public void setClient(SimpleOkHttpClient client){...}");
         }
         SimpleOkHttpClient client = getHttpClient(applicationContext, annotation, bean);
@@ -76,6 +99,51 @@ public class HttpClientMemberProcessor implements MemberProcessor<HttpClient> {
     }
 
     private SimpleOkHttpClient getHttpClient(ApplicationContext applicationContext, HttpClient annotation, Object bean) {
+        SimpleOkHttpClient client = getHttpClients(applicationContext).get(annotation.value());
+        if (client == null && annotation.required()) {
+            throw new NoSuchHttpClientDefinitionException("No HttpClient named '" + annotation.value() + "', required by " + bean.getClass().getName());
+        }
+        return client;
+    }
+
+    /**
+     * 声明式客户端的代理, 每次请求时从HttpClients按tag获取客户端(不会在注入时创建客户端), 同一个接口和tag共用一个代理
+     */
+    private Object getHttpInterface(ApplicationContext applicationContext, HttpClient annotation, Object bean, Class<?> interfaceType) {
+        final HttpClients httpClients = getHttpClients(applicationContext);
+        final String tag = annotation.value();
+        if (!httpClients.tags().contains(tag)) {
+            if (annotation.required()) {
+                throw new NoSuchHttpClientDefinitionException("No HttpClient named '" + tag + "', required by " + bean.getClass().getName());
+            }
+            return null;
+        }
+        String key = interfaceType.getName() + "#" + tag;
+        Object httpInterface = httpInterfaces.get(key);
+        if (httpInterface == null) {
+            httpInterface = HttpInterfaces.newInstance(interfaceType, new HttpInterfaces.ClientProvider() {
+                @Override
+                public MultiHostOkHttpClient getClient() {
+                    MultiHostOkHttpClient client = httpClients.getTransient(tag);
+                    if (client == null) {
+                        throw new NoSuchHttpClientDefinitionException("No HttpClient named '" + tag + "'");
+                    }
+                    return client;
+                }
+                @Override
+                public String toString() {
+                    return tag;
+                }
+            });
+            Object previous = httpInterfaces.putIfAbsent(key, httpInterface);
+            if (previous != null) {
+                httpInterface = previous;
+            }
+        }
+        return httpInterface;
+    }
+
+    private HttpClients getHttpClients(ApplicationContext applicationContext) {
         if (httpClients == null) {
             synchronized (this) {
                 if (httpClients == null) {
@@ -83,11 +151,25 @@ public class HttpClientMemberProcessor implements MemberProcessor<HttpClient> {
                 }
             }
         }
-        SimpleOkHttpClient client = httpClients.get(annotation.value());
-        if (client == null && annotation.required()) {
-            throw new NoSuchHttpClientDefinitionException("No HttpClient named '" + annotation.value() + "', required by " + bean.getClass().getName());
+        return httpClients;
+    }
+
+    /**
+     * 声明式客户端接口: 接口上声明了@HttpClient, 或至少有一个方法声明了@HttpPost/@HttpGet. 其他类型仍按SimpleOkHttpClient检查
+     */
+    private static boolean isHttpInterface(Class<?> type) {
+        if (!type.isInterface()) {
+            return false;
         }
-        return client;
+        if (type.isAnnotationPresent(HttpClient.class)) {
+            return true;
+        }
+        for (Method method : type.getMethods()) {
+            if (method.isAnnotationPresent(HttpPost.class) || method.isAnnotationPresent(HttpGet.class)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 }
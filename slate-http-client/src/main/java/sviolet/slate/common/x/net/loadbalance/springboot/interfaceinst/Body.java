@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.springboot.interfaceinst;
+
+import java.lang.annotation.*;
+
+/**
+ * <p>声明式客户端: 参数作为报文体(仅POST), 每个方法最多一个.</p>
+ *
+ * <p>参数类型为byte[]时原样发送, 为okhttp3.RequestBody时作为自定义报文体, 其他类型由DataConverter转换.</p>
+ *
+ * @author S.Violet
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Body {
+
+}
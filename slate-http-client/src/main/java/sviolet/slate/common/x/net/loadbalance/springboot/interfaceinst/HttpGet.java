@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.springboot.interfaceinst;
+
+import sviolet.slate.common.x.net.loadbalance.classic.DataConverter;
+
+import java.lang.annotation.*;
+
+/**
+ * <p>声明式客户端: 方法对应一个GET请求</p>
+ *
+ * @author S.Violet
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HttpGet {
+
+    /**
+     * 请求的url后缀, 不含协议/域名/端口, 例如/user/get.json
+     */
+    String value();
+
+    /**
+     * 静态HTTP请求头, 格式为"key: value"
+     */
+    String[] headers() default {};
+
+    /**
+     * 字符编码, 默认使用客户端配置(返回类型为String时, 用于解码响应, 未配置时为utf-8)
+     */
+    String encode() default "";
+
+    /**
+     * 数据转换器(需要无参构造器), 默认使用客户端配置
+     */
+    Class<? extends DataConverter> dataConverter() default DataConverter.class;
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.springboot.interfaceinst;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import sviolet.slate.common.x.net.loadbalance.classic.MultiHostOkHttpClient;
+import sviolet.slate.common.x.net.loadbalance.springboot.HttpClients;
+import sviolet.slate.common.x.net.loadbalance.springboot.autowired.HttpClient;
+import sviolet.slate.common.x.net.loadbalance.springboot.autowired.NoSuchHttpClientDefinitionException;
+import sviolet.slate.common.x.proxy.interfaceinst.ContextAwaredInterfaceInstantiator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>声明式客户端: 配合@EnableInterfaceInstantiation, 将声明了@HttpClient("tag")的接口实例化为代理(详见HttpInterfaces)</p>
+ *
+ * <pre>
+ *      <code>@Configuration</code>
+ *      <code>@EnableInterfaceInstantiation(basePackages = "template.api",
+ *          interfaceInstantiator = HttpInterfaceInstantiator.class, annotationClass = HttpClient.class)</code>
+ *      public class HttpInterfaceConfiguration {
+ *      }
+ *
+ *      <code>@HttpClient("user-service")</code>
+ *      public interface UserApi {
+ *          <code>@HttpPost("/user/get")</code>
+ *          UserResponse getUser(<code>@Body</code> UserRequest request) throws Exception;
+ *      }
+ *
+ *      <code>@Autowired</code>
+ *      private UserApi userApi;
+ * </pre>
+ *
+ * <p>每次请求时从HttpClients按tag获取客户端, 因此兼容客户端懒加载和空闲移除. 接口方法在代理初始化时解析, 配置错误在启动时抛出.</p>
+ *
+ * @author S.Violet
+ */
+public class HttpInterfaceInstantiator extends ContextAwaredInterfaceInstantiator {
+
+    private final Map<Class<?>, InvocationHandler> handlers = new ConcurrentHashMap<>();
+    private volatile ApplicationContext applicationContext;
+    private volatile HttpClients httpClients;
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    protected void onInitialized(Class<?> interfaceType, Object proxy) {
+        getHandler(interfaceType);
+    }
+
+    @Override
+    protected Object onMethodInvoke(Class<?> interfaceType, Object proxy, Method method, Object[] args) throws Throwable {
+        return getHandler(interfaceType).invoke(proxy, method, args);
+    }
+
+    private InvocationHandler getHandler(Class<?> interfaceType) {
+        InvocationHandler handler = handlers.get(interfaceType);
+        if (handler == null) {
+            HttpClient annotation = interfaceType.getAnnotation(HttpClient.class);
+            if (annotation == null) {
+                throw new IllegalArgumentException("HttpInterfaces | Interface " + interfaceType.getName() +
+                        " should be annotated by @HttpClient(\"tag\")");
+            }
+            handler = HttpInterfaces.newInvocationHandler(interfaceType, new SpringClientProvider(annotation.value()));
+            InvocationHandler previous = handlers.putIfAbsent(interfaceType, handler);
+            if (previous != null) {
+                handler = previous;
+            }
+        }
+        return handler;
+    }
+
+    private HttpClients getHttpClients(String tag) {
+        HttpClients httpClients = this.httpClients;
+        if (httpClients == null) {
+            ApplicationContext applicationContext = this.applicationContext;
+            if (applicationContext == null) {
+                throw new IllegalStateException("HttpInterfaces | ApplicationContext not ready, can not get HttpClient " + tag);
+            }
+            this.httpClients = httpClients = applicationContext.getBean(HttpClients.HTTP_CLIENTS_NAME, HttpClients.class);
+        }
+        return httpClients;
+    }
+
+    /**
+     * 从Spring上下文中获取HttpClients, 按tag获取客户端
+     */
+    private final class SpringClientProvider implements HttpInterfaces.ClientProvider {
+
+        private final String tag;
+
+        private SpringClientProvider(String tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public MultiHostOkHttpClient getClient() {
+            MultiHostOkHttpClient client = getHttpClients(tag).getTransient(tag);
+            if (client == null) {
+                throw new NoSuchHttpClientDefinitionException("HttpInterfaces | No HttpClient named '" + tag + "'");
+            }
+            return client;
+        }
+
+        @Override
+        public String toString() {
+            return tag;
+        }
+
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.springboot.interfaceinst;
+import okhttp3.RequestBody;
+import sviolet.slate.common.x.net.loadbalance.classic.DataConverter;
+import sviolet.slate.common.x.net.loadbalance.classic.MultiHostOkHttpClient;
+
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>声明式客户端: 预先解析的方法元数据(HttpInterfaces内部使用)</p>
+ *
+ * <p>请求方式/URL后缀/静态请求头/报文体和返回类型/数据转换器均在代理创建时解析完毕, 并用于构建可复用的Endpoint,
+ * 调用时只需按参数类型绑定参数, 不再进行反射.</p>
+ *
+ * @author S.Violet
+ */
+final class HttpInterfaceMethod {
+
+    private static final String DEFAULT_ENCODE = "utf-8";
+
+    private static final int PARAM_URL_PARAM = 0;
+    private static final int PARAM_HEADER = 1;
+    private static final int PARAM_BODY_BYTES = 2;
+    private static final int PARAM_BODY_CUSTOM = 3;
+    private static final int PARAM_BODY_BEAN = 4;
+
+    private static final int RETURN_VOID = 0;
+    private static final int RETURN_BEAN = 1;
+    private static final int RETURN_BYTES = 2;
+    private static final int RETURN_STRING = 3;
+    private static final int RETURN_INPUT_STREAM = 4;
+    private static final int RETURN_RESPONSE_PACKAGE = 5;
+
+    private final String name;
+    private final boolean isPost;
+    private final String urlSuffix;
+    private final Map<String, String> headers;
+    private final String mediaType;
+    private final String encode;
+    private final Charset charset;
+    private final DataConverter dataConverter;
+    private final Class<?> beanType;
+    private final int returnKind;
+    private final int[] paramKinds;
+    private final String[] paramNames;
+
+    //客户端 -> 端点, 客户端被重建时(例如HttpClients空闲移除后重新创建)重新构建端点
+    private volatile EndpointHolder endpointHolder;
+
+    HttpInterfaceMethod(Class<?> interfaceType, Method method) {
+        this.name = interfaceType.getName() + "#" + method.getName();
+
+        //请求方式
+        HttpPost httpPost = method.getAnnotation(HttpPost.class);
+        HttpGet httpGet = method.getAnnotation(HttpGet.class);
+        String[] headerArray;
+        Class<? extends DataConverter> dataConverterType;
+        if (httpPost != null && httpGet == null) {
+            isPost = true;
+            urlSuffix = httpPost.value();
+            headerArray = httpPost.headers();
+            mediaType = emptyToNull(httpPost.mediaType());
+            encode = emptyToNull(httpPost.encode());
+            dataConverterType = httpPost.dataConverter();
+        } else if (httpGet != null && httpPost == null) {
+            isPost = false;
+            urlSuffix = httpGet.value();
+            headerArray = httpGet.headers();
+            mediaType = null;
+            encode = emptyToNull(httpGet.encode());
+            dataConverterType = httpGet.dataConverter();
+        } else {
+            throw new IllegalArgumentException("HttpInterfaces | Method " + name + " should be annotated by one of @HttpPost or @HttpGet");
+        }
+        charset = Charset.forName(encode != null ? encode : DEFAULT_ENCODE);
+
+        //静态请求头
+        if (headerArray.length > 0) {
+            headers = new HashMap<>(headerArray.length << 1);
+            for (String header : headerArray) {
+                int index = header.indexOf(':');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("HttpInterfaces | Illegal header '" + header + "' of method " + name + ", the correct format is 'key: value'");
+                }
+                headers.put(header.substring(0, index).trim(), header.substring(index + 1).trim());
+            }
+        } else {
+            headers = null;
+        }
+
+        //数据转换器
+        if (dataConverterType != DataConverter.class) {
+            try {
+                dataConverter = dataConverterType.newInstance();
+            } catch (Exception e) {
+                throw new IllegalArgumentException("HttpInterfaces | Can not create DataConverter " + dataConverterType.getName() +
+                        " of method " + name + ", a public no-arg constructor is required", e);
+            }
+        } else {
+            dataConverter = null;
+        }
+
+        //返回类型
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class || returnType == Void.class) {
+            returnKind = RETURN_VOID;
+            beanType = null;
+        } else if (returnType == byte[].class) {
+            returnKind = RETURN_BYTES;
+            beanType = null;
+        } else if (returnType == String.class) {
+            returnKind = RETURN_STRING;
+            beanType = null;
+        } else if (returnType == InputStream.class) {
+            returnKind = RETURN_INPUT_STREAM;
+            beanType = null;
+        } else if (returnType == MultiHostOkHttpClient.ResponsePackage.class) {
+            returnKind = RETURN_RESPONSE_PACKAGE;
+            beanType = null;
+        } else if (returnType.isPrimitive()) {
+            throw new IllegalArgumentException("HttpInterfaces | Primitive return type " + returnType.getName() + " of method " + name + " is not supported");
+        } else {
+            returnKind = RETURN_BEAN;
+            beanType = returnType;
+        }
+
+        //参数
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        paramKinds = new int[parameterTypes.length];
+        paramNames = new String[parameterTypes.length];
+        boolean hasBody = false;
+        for (int i = 0 ; i < parameterTypes.length ; i++) {
+            int kind = -1;
+            for (Annotation annotation : parameterAnnotations[i]) {
+                if (annotation instanceof UrlParam) {
+                    kind = PARAM_URL_PARAM;
+                    paramNames[i] = ((UrlParam) annotation).value();
+                } else if (annotation instanceof Header) {
+                    kind = PARAM_HEADER;
+                    paramNames[i] = ((Header) annotation).value();
+                } else if (annotation instanceof Body) {
+                    if (!isPost) {
+                        throw new IllegalArgumentException("HttpInterfaces | @Body is not allowed in GET method " + name);
+                    }
+                    if (hasBody) {
+                        throw new IllegalArgumentException("HttpInterfaces | More than one @Body in method " + name);
+                    }
+                    hasBody = true;
+                    if (parameterTypes[i] == byte[].class) {
+                        kind = PARAM_BODY_BYTES;
+                    } else if (RequestBody.class.isAssignableFrom(parameterTypes[i])) {
+                        kind = PARAM_BODY_CUSTOM;
+                    } else {
+                        kind = PARAM_BODY_BEAN;
+                    }
+                }
+            }
+            if (kind < 0) {
+                throw new IllegalArgumentException("HttpInterfaces | Parameter " + i + " of method " + name +
+                        " should be annotated by one of @UrlParam, @Header or @Body");
+            }
+            paramKinds[i] = kind;
+        }
+    }
+
+    /**
+     * 绑定参数并发送请求
+     */
+    Object invoke(MultiHostOkHttpClient client, Object[] args) throws Exception {
+        MultiHostOkHttpClient.Request request = getEndpoint(client).request();
+        for (int i = 0 ; i < paramKinds.length ; i++) {
+            Object arg = args[i];
+            switch (paramKinds[i]) {
+                case PARAM_URL_PARAM:
+                    request.urlParam(paramNames[i], arg);
+                    break;
+                case PARAM_HEADER:
+                    if (arg != null) {
+                        request.httpHeader(paramNames[i], String.valueOf(arg));
+                    }
+                    break;
+                case PARAM_BODY_BYTES:
+                    request.body((byte[]) arg);
+                    break;
+                case PARAM_BODY_CUSTOM:
+                    request.customBody((RequestBody) arg);
+                    break;
+                case PARAM_BODY_BEAN:
+                    request.beanBody(arg);
+                    break;
+                default:
+                    break;
+            }
+        }
+        switch (returnKind) {
+            case RETURN_BEAN:
+                return request.sendForBean(beanType);
+            case RETURN_BYTES:
+                return request.sendForBytes();
+            case RETURN_STRING:
+                byte[] bytes = request.sendForBytes();
+                return bytes != null ? new String(bytes, charset) : null;
+            case RETURN_INPUT_STREAM:
+                return request.sendForInputStream();
+            case RETURN_RESPONSE_PACKAGE:
+                return request.send();
+            case RETURN_VOID:
+            default:
+                MultiHostOkHttpClient.ResponsePackage responsePackage = request.send();
+                if (responsePackage != null) {
+                    responsePackage.close();
+                }
+                return null;
+        }
+    }
+
+    private MultiHostOkHttpClient.Endpoint getEndpoint(MultiHostOkHttpClient client) {
+        EndpointHolder holder = endpointHolder;
+        if (holder != null && holder.clientReference.get() == client) {
+            return holder.endpoint;
+        }
+        MultiHostOkHttpClient.Endpoint endpoint = client.endpoint(urlSuffix)
+                .httpHeaders(headers)
+                .mediaType(mediaType)
+                .encode(encode)
+                .dataConverter(dataConverter);
+        if (!isPost) {
+            endpoint.get();
+        }
+        endpointHolder = new EndpointHolder(client, endpoint);
+        return endpoint;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return name + (isPost ? " POST " : " GET ") + urlSuffix;
+    }
+
+    private static final class EndpointHolder {
+
+        //不持有客户端, 避免被移除的客户端无法回收
+        private final WeakReference<MultiHostOkHttpClient> clientReference;
+        private final MultiHostOkHttpClient.Endpoint endpoint;
+
+        private EndpointHolder(MultiHostOkHttpClient client, MultiHostOkHttpClient.Endpoint endpoint) {
+            this.clientReference = new WeakReference<>(client);
+            this.endpoint = endpoint;
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.springboot.interfaceinst;
+import sviolet.slate.common.x.net.loadbalance.classic.MultiHostOkHttpClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>声明式客户端: 将声明了@HttpPost/@HttpGet的接口实例化为代理, 代理方法通过MultiHostOkHttpClient发送请求</p>
+ *
+ * <pre>{@code
+ *      public interface UserApi {
+ *          @HttpPost(value = "/user/get", headers = "Accept: application/json")
+ *          UserResponse getUser(@Body UserRequest request, @Header("traceId") String traceId) throws Exception;
+ *          @HttpGet("/user/name")
+ *          String getName(@UrlParam("id") String id) throws Exception;
+ *      }
+ *
+ *      UserApi userApi = HttpInterfaces.newInstance(UserApi.class, client);
+ * }</pre>
+ *
+ * <p>所有方法的元数据(请求方式/URL后缀/请求头/报文体和返回类型/数据转换器)在代理创建时一次性解析, 配置错误会在创建时抛出异常.
+ * 调用时只需绑定参数, 不再进行反射. 接口方法建议声明throws Exception, 否则请求异常会被包装为UndeclaredThrowableException.</p>
+ *
+ * <p>支持的返回类型: void / byte[] / String / InputStream(用完必须关闭) / ResponsePackage(用完必须关闭) / JavaBean(由DataConverter转换,
+ * 泛型会被擦除).</p>
+ *
+ * <p>SpringBoot中可以用@HttpClient注解注入(见HttpClientMemberProcessor), 或者用@EnableInterfaceInstantiation扫描实例化
+ * (见HttpInterfaceInstantiator).</p>
+ *
+ * @author S.Violet
+ */
+public final class HttpInterfaces {
+
+    private HttpInterfaces() {
+    }
+
+    /**
+     * 创建代理, 请求由指定的客户端发送
+     * @param interfaceType 接口类型
+     * @param client 客户端
+     */
+    public static <T> T newInstance(Class<T> interfaceType, final MultiHostOkHttpClient client) {
+        if (client == null) {
+            throw new IllegalArgumentException("HttpInterfaces | client is null");
+        }
+        return newInstance(interfaceType, new ClientProvider() {
+            @Override
+            public MultiHostOkHttpClient getClient() {
+                return client;
+            }
+            @Override
+            public String toString() {
+                return String.valueOf(client.getTag());
+            }
+        });
+    }
+
+    /**
+     * 创建代理, 每次请求时从clientProvider获取客户端(例如从HttpClients按tag获取, 客户端被重建后自动切换)
+     * @param interfaceType 接口类型
+     * @param clientProvider 客户端提供者
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T newInstance(Class<T> interfaceType, ClientProvider clientProvider) {
+        InvocationHandler invocationHandler = newInvocationHandler(interfaceType, clientProvider);
+        ClassLoader classLoader = interfaceType.getClassLoader() != null ? interfaceType.getClassLoader() : Thread.currentThread().getContextClassLoader();
+        return (T) Proxy.newProxyInstance(classLoader, new Class<?>[]{interfaceType}, invocationHandler);
+    }
+
+    /**
+     * 创建代理的调用处理器(解析接口方法), 供其他方式创建的代理使用(见HttpInterfaceInstantiator)
+     * @param interfaceType 接口类型
+     * @param clientProvider 客户端提供者
+     */
+    static InvocationHandler newInvocationHandler(Class<?> interfaceType, ClientProvider clientProvider) {
+        if (interfaceType == null || !interfaceType.isInterface()) {
+            throw new IllegalArgumentException("HttpInterfaces | " + interfaceType + " is not an interface");
+        }
+        if (clientProvider == null) {
+            throw new IllegalArgumentException("HttpInterfaces | clientProvider is null");
+        }
+        return new InvokeHandler(interfaceType, clientProvider);
+    }
+
+    /**
+     * 客户端提供者
+     */
+    public interface ClientProvider {
+
+        /**
+         * @return 发送请求的客户端, 不可为空
+         */
+        MultiHostOkHttpClient getClient();
+
+    }
+
+    private static final class InvokeHandler implements InvocationHandler {
+
+        private final Class<?> interfaceType;
+        private final ClientProvider clientProvider;
+        //创建后只读
+        private final Map<Method, HttpInterfaceMethod> methods;
+
+        private InvokeHandler(Class<?> interfaceType, ClientProvider clientProvider) {
+            this.interfaceType = interfaceType;
+            this.clientProvider = clientProvider;
+            Method[] declaredMethods = interfaceType.getMethods();
+            Map<Method, HttpInterfaceMethod> methods = new HashMap<>(declaredMethods.length << 1);
+            for (Method method : declaredMethods) {
+                if (Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                if (!Modifier.isAbstract(method.getModifiers())) {
+                    throw new IllegalArgumentException("HttpInterfaces | Default method " + interfaceType.getName() + "#" +
+                            method.getName() + " is not supported");
+                }
+                methods.put(method, new HttpInterfaceMethod(interfaceType, method));
+            }
+            this.methods = methods;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            HttpInterfaceMethod interfaceMethod = methods.get(method);
+            if (interfaceMethod != null) {
+                MultiHostOkHttpClient client = clientProvider.getClient();
+                if (client == null) {
+                    throw new IllegalStateException("HttpInterfaces | No client provided for " + interfaceMethod + ", provider: " + clientProvider);
+                }
+                return interfaceMethod.invoke(client, args != null ? args : new Object[0]);
+            }
+            //Object的方法
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "HttpInterface{" + interfaceType.getName() + ", client=" + clientProvider + "}";
+                    default:
+                        break;
+                }
+            }
+            throw new UnsupportedOperationException("HttpInterfaces | Method " + method + " is not supported by " + interfaceType.getName());
+        }
+
+    }
+
+}
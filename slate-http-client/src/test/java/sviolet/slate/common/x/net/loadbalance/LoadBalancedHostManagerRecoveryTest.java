@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class LoadBalancedHostManagerRecoveryTest {
+
+    @Test
+    public void healthyHostsAfterRecovery() throws InterruptedException {
+        LoadBalancedHostManager manager = new LoadBalancedHostManager();
+        manager.setHostList(Arrays.asList("http://127.0.0.1:8001", "http://127.0.0.1:8002"));
+        LoadBalancedHostManager.Host host = manager.getHealthyHosts().get(0);
+        Assert.assertEquals(2, manager.getHealthyHosts().size());
+
+        //阻断50ms, 恢复期500ms
+        host.feedback(false, 50L, 10);
+        Assert.assertEquals(1, manager.getHealthyHosts().size());
+        Assert.assertEquals(1, manager.getAvailableHostCount());
+        Thread.sleep(80L);
+
+        //阻断期已过, 尚未反馈健康, 仍处于恢复期(可被选择)
+        Assert.assertEquals(1, manager.getHealthyHosts().size());
+        Assert.assertEquals(2, manager.getAvailableHostCount());
+        Assert.assertTrue(host.snapshot(System.currentTimeMillis()).isRecovering());
+
+        //恢复期内反馈健康, 视为已恢复
+        host.feedback(true, 50L, 10);
+        Assert.assertEquals(2, manager.getHealthyHosts().size());
+        Assert.assertTrue(manager.getHealthyHosts().contains(host));
+        Assert.assertFalse(host.snapshot(System.currentTimeMillis()).isRecovering());
+        Assert.assertFalse(host.snapshot(System.currentTimeMillis()).isBlocked());
+
+        //再次阻断, 重新进入恢复期
+        host.feedback(false, 50L, 10);
+        Assert.assertEquals(1, manager.getHealthyHosts().size());
+    }
+
+}
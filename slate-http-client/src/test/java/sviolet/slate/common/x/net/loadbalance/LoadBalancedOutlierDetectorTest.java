@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+
+package sviolet.slate.common.x.net.loadbalance;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LoadBalancedOutlierDetectorTest {
+
+    @Test
+    public void inspectRttEwma() {
+        LoadBalancedHostManager manager = new LoadBalancedHostManager();
+        manager.setHostList(Collections.singletonList("http://127.0.0.1:8001"));
+        LoadBalancedHostManager.Host host = manager.getHostArray()[0];
+        Assert.assertEquals(-1L, host.getInspectRtt());
+        host.recordInspectRtt(10_000_000L);
+        Assert.assertEquals(10_000L, host.getInspectRtt());
+        host.recordInspectRtt(20_000_000L);
+        Assert.assertEquals(13_000L, host.getInspectRtt());
+    }
+
+    /**
+     * 请求量不足时, 探测往返耗时明显偏高的远端也会被阻断
+     */
+    @Test
+    public void ejectByInspectRtt() throws InterruptedException {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            urls.add("http://127.0.0.1:" + (8001 + i));
+        }
+        LoadBalancedHostManager manager = new LoadBalancedHostManager();
+        manager.setHostList(urls);
+        LoadBalancedHostManager.Host[] hosts = manager.getHostArray();
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i].recordInspectRtt(i == 0 ? 100_000_000L : 10_000_000L);
+        }
+
+        LoadBalancedOutlierDetector detector = new LoadBalancedOutlierDetector(false)
+                .setHostManager(manager)
+                .setDetectInterval(1000L);
+        try {
+            detector.start();
+            Thread.sleep(1500L);
+            long currentTimeMillis = System.currentTimeMillis();
+            Assert.assertTrue(hosts[0].isInBlockPeriod(currentTimeMillis));
+            for (int i = 1; i < hosts.length; i++) {
+                Assert.assertFalse(hosts[i].isInBlockPeriod(currentTimeMillis));
+            }
+        } finally {
+            detector.close();
+        }
+    }
+
+    /**
+     * 关闭探测往返耗时判定后, 请求量不足时不做判定
+     */
+    @Test
+    public void inspectRttDisabled() throws InterruptedException {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            urls.add("http://127.0.0.1:" + (8001 + i));
+        }
+        LoadBalancedHostManager manager = new LoadBalancedHostManager();
+        manager.setHostList(urls);
+        LoadBalancedHostManager.Host[] hosts = manager.getHostArray();
+        for (int i = 0; i < hosts.length; i++) {
+            hosts[i].recordInspectRtt(i == 0 ? 100_000_000L : 10_000_000L);
+        }
+
+        LoadBalancedOutlierDetector detector = new LoadBalancedOutlierDetector(false)
+                .setHostManager(manager)
+                .setInspectRttEnabled(false)
+                .setDetectInterval(1000L);
+        try {
+            detector.start();
+            Thread.sleep(1500L);
+            Assert.assertFalse(hosts[0].isInBlockPeriod(System.currentTimeMillis()));
+        } finally {
+            detector.close();
+        }
+    }
+
+}
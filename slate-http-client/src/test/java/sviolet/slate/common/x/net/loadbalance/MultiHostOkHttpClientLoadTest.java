@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import sviolet.slate.common.x.net.loadbalance.classic.GsonDataConverter;
+import sviolet.slate.common.x.net.loadbalance.classic.MultiHostOkHttpClient;
+import sviolet.slate.common.x.net.loadbalance.classic.SimpleOkHttpClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 支持均衡负载的OkHttpClient压力测试(本地)
+ *
+ * 测试要点:
+ * 1.不需要外部后端, 在本进程内启动若干个模拟后端(127.0.0.1随机端口), 每个后端可配置延迟/错误率/卡顿
+ * 2.以固定并发量分别驱动同步(sendForBytes)/异步(enqueue)/Bean转换(sendForBean)三种调用方式
+ * 3.输出吞吐量, 耗时分位数, GC次数/耗时, 每个请求的内存分配量, 以及各后端收到的请求数(用于判断均衡负载改动是否退化)
+ * 4.升级前后用相同参数各跑一次, 对比输出结果
+ *
+ * 启动参数(均可选):
+ * -Dloadtest.mode=all              调用方式: sync / enqueue / bean / all
+ * -Dloadtest.concurrency=64        并发量
+ * -Dloadtest.warmup=5000           预热时长ms(不计入结果)
+ * -Dloadtest.duration=20000        每种调用方式的测试时长ms
+ * -Dloadtest.backends=5:0:0,5:0:0,20:0:0,5:10:0,5:0:1   模拟后端, 每个后端为"延迟ms:错误率%:卡顿率%", 逗号分隔
+ * -Dloadtest.stall=3000            卡顿时长ms(应大于客户端readTimeout)
+ * -Dloadtest.bodySize=512          响应报文长度
+ *
+ * 注意: 内存分配量只统计客户端侧线程(模拟后端的线程除外), 测试期间结束的非工作线程(如OkHttp空闲回收的线程)的分配量会丢失, 因此结果为近似值.
+ */
+public class MultiHostOkHttpClientLoadTest {
+
+    private static final String MODE = System.getProperty("loadtest.mode", "all");
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 64);
+    private static final long WARMUP = Long.getLong("loadtest.warmup", 5000L);
+    private static final long DURATION = Long.getLong("loadtest.duration", 20000L);
+    private static final String BACKENDS = System.getProperty("loadtest.backends", "5:0:0,5:0:0,20:0:0,5:10:0,5:0:1");
+    private static final long STALL = Long.getLong("loadtest.stall", 3000L);
+    private static final int BODY_SIZE = Integer.getInteger("loadtest.bodySize", 512);
+
+    private static final String BACKEND_THREAD_PREFIX = "LoadTest-Backend-";
+    private static final int MAX_SAMPLES = 4 * 1024 * 1024;
+
+    private static final AtomicLong workerAllocated = new AtomicLong(0);
+
+    public static void main(String[] args) throws Exception {
+
+        //模拟后端关闭Nagle算法, 避免与客户端的延迟确认叠加产生40ms左右的额外延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        List<Backend> backends = startBackends();
+
+        StringBuilder hosts = new StringBuilder();
+        for (Backend backend : backends) {
+            if (hosts.length() > 0) {
+                hosts.append(",");
+            }
+            hosts.append(backend.url);
+        }
+
+        SimpleOkHttpClient client = (SimpleOkHttpClient) new SimpleOkHttpClient()
+                .setHosts(hosts.toString())
+                .setInitiativeInspectInterval(5000L)
+                .setPassiveBlockDuration(3000L)
+                .setConnectTimeout(1000L)
+                .setWriteTimeout(2000L)
+                .setReadTimeout(2000L)
+                .setMaxThreads(CONCURRENCY * 2)
+                .setMaxThreadsPerHost(CONCURRENCY * 2)
+                .setMaxIdleConnections(CONCURRENCY)
+                .setDataConverter(new GsonDataConverter())
+                .setTag("LoadTest");
+
+        System.out.println("LoadTest: backends " + backends + ", concurrency " + CONCURRENCY + ", warmup " + WARMUP +
+                "ms, duration " + DURATION + "ms, mode " + MODE);
+
+        List<Mode> modes = new ArrayList<>();
+        for (Mode mode : Mode.values()) {
+            if ("all".equalsIgnoreCase(MODE) || mode.name().equalsIgnoreCase(MODE)) {
+                modes.add(mode);
+            }
+        }
+        if (modes.isEmpty()) {
+            throw new IllegalArgumentException("Invalid loadtest.mode " + MODE + ", should be sync / enqueue / bean / all");
+        }
+
+        for (Mode mode : modes) {
+            //预热
+            run(client, mode, WARMUP, backends);
+            Result result = run(client, mode, DURATION, backends);
+            result.print();
+        }
+
+        for (Backend backend : backends) {
+            backend.server.stop(0);
+            backend.executor.shutdownNow();
+        }
+        System.exit(0);
+
+    }
+
+    /* ******************************************************************************************************* */
+
+    private static Result run(final MultiHostOkHttpClient client, final Mode mode, final long duration, List<Backend> backends) throws Exception {
+        final Recorder recorder = new Recorder();
+        workerAllocated.set(0);
+        for (Backend backend : backends) {
+            backend.hits.set(0);
+        }
+
+        long gcCountStart = gcCount();
+        long gcTimeStart = gcTime();
+        Map<Long, Long> allocatedStart = allocatedBytes();
+        long startTime = System.nanoTime();
+        final long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(duration);
+
+        if (mode == Mode.ENQUEUE) {
+            runEnqueue(client, recorder, deadline);
+        } else {
+            Thread[] threads = new Thread[CONCURRENCY];
+            for (int i = 0 ; i < CONCURRENCY ; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        long allocated = currentThreadAllocatedBytes();
+                        while (System.nanoTime() < deadline) {
+                            long begin = System.nanoTime();
+                            try {
+                                if (mode == Mode.SYNC) {
+                                    client.get("/loadtest").sendForBytes();
+                                } else {
+                                    client.post("/loadtest").beanBody(Collections.singletonMap("key", "value")).sendForBean(Map.class);
+                                }
+                                recorder.succeed(System.nanoTime() - begin);
+                            } catch (Exception e) {
+                                recorder.failed(System.nanoTime() - begin, e);
+                            }
+                        }
+                        //工作线程在统计前结束, 由线程自己累加分配量
+                        if (allocated >= 0) {
+                            workerAllocated.addAndGet(currentThreadAllocatedBytes() - allocated);
+                        }
+                    }
+                }, "LoadTest-Worker-" + i);
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        long allocated = allocatedSince(allocatedStart);
+
+        Map<String, Integer> hits = new LinkedHashMap<>();
+        for (Backend backend : backends) {
+            hits.put(backend.toString(), backend.hits.get());
+        }
+        return new Result(mode, elapsed, recorder, gcCount() - gcCountStart, gcTime() - gcTimeStart, allocated, hits);
+    }
+
+    private static void runEnqueue(MultiHostOkHttpClient client, final Recorder recorder, long deadline) throws InterruptedException {
+        //用信号量保持固定的并发量
+        final Semaphore semaphore = new Semaphore(CONCURRENCY);
+        while (System.nanoTime() < deadline) {
+            if (!semaphore.tryAcquire(100L, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            final long begin = System.nanoTime();
+            client.get("/loadtest").enqueue(new MultiHostOkHttpClient.BytesCallback() {
+                @Override
+                public void onSucceed(byte[] body) {
+                    recorder.succeed(System.nanoTime() - begin);
+                    semaphore.release();
+                }
+                @Override
+                protected void onErrorBeforeSend(Exception e) {
+                    recorder.failed(System.nanoTime() - begin, e);
+                    semaphore.release();
+                }
+                @Override
+                protected void onErrorAfterSend(Exception e) {
+                    recorder.failed(System.nanoTime() - begin, e);
+                    semaphore.release();
+                }
+            });
+        }
+        //等待进行中的请求结束
+        semaphore.acquire(CONCURRENCY);
+        semaphore.release(CONCURRENCY);
+    }
+
+    /* ******************************************************************************************************* */
+
+    private static List<Backend> startBackends() throws IOException {
+        String[] profiles = BACKENDS.split(",");
+        List<Backend> backends = new ArrayList<>(profiles.length);
+        for (int i = 0 ; i < profiles.length ; i++) {
+            String[] items = profiles[i].trim().split(":");
+            if (items.length != 3) {
+                throw new IllegalArgumentException("Invalid backend profile " + profiles[i] + ", should be latency:error%:stall%");
+            }
+            backends.add(new Backend(i, Long.parseLong(items[0].trim()), Integer.parseInt(items[1].trim()), Integer.parseInt(items[2].trim())));
+        }
+        return backends;
+    }
+
+    /**
+     * 模拟后端
+     */
+    private static class Backend implements HttpHandler {
+
+        private final long latency;
+        private final int errorPercent;
+        private final int stallPercent;
+        private final byte[] body;
+
+        private final HttpServer server;
+        private final ExecutorService executor;
+        private final String url;
+        private final AtomicInteger hits = new AtomicInteger(0);
+
+        private Backend(final int index, long latency, int errorPercent, int stallPercent) throws IOException {
+            this.latency = latency;
+            this.errorPercent = errorPercent;
+            this.stallPercent = stallPercent;
+
+            StringBuilder stringBuilder = new StringBuilder("{\"backend\":" + index + ",\"data\":\"");
+            while (stringBuilder.length() < BODY_SIZE - 2) {
+                stringBuilder.append('x');
+            }
+            this.body = stringBuilder.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+            executor = Executors.newFixedThreadPool(CONCURRENCY * 2, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, BACKEND_THREAD_PREFIX + index + "-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            server.setExecutor(executor);
+            server.createContext("/", this);
+            server.start();
+            url = "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            hits.incrementAndGet();
+            try (InputStream inputStream = exchange.getRequestBody()) {
+                byte[] buff = new byte[1024];
+                while (inputStream.read(buff) >= 0) {
+                    //skip
+                }
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                if (stallPercent > 0 && random.nextInt(100) < stallPercent) {
+                    Thread.sleep(STALL);
+                } else if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+            } catch (InterruptedException ignore) {
+            }
+            int code = errorPercent > 0 && random.nextInt(100) < errorPercent ? 500 : 200;
+            exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+            exchange.sendResponseHeaders(code, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return url + "(" + latency + "ms/" + errorPercent + "%err/" + stallPercent + "%stall)";
+        }
+
+    }
+
+    /* ******************************************************************************************************* */
+
+    private enum Mode {
+        SYNC,
+        ENQUEUE,
+        BEAN
+    }
+
+    /**
+     * 记录耗时(预分配数组, 避免记录本身产生内存分配)
+     */
+    private static class Recorder {
+
+        private final long[] samples = new long[MAX_SAMPLES];
+        private final AtomicInteger sampleCount = new AtomicInteger(0);
+        private final AtomicLong succeed = new AtomicLong(0);
+        private final AtomicLong failed = new AtomicLong(0);
+        private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+        private void succeed(long elapsed) {
+            succeed.incrementAndGet();
+            record(elapsed);
+        }
+
+        private void failed(long elapsed, Exception e) {
+            failed.incrementAndGet();
+            record(elapsed);
+            String name = e.getClass().getSimpleName();
+            AtomicLong counter = errors.get(name);
+            if (counter == null) {
+                AtomicLong newCounter = new AtomicLong(0);
+                counter = errors.putIfAbsent(name, newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            counter.incrementAndGet();
+        }
+
+        private void record(long elapsed) {
+            int index = sampleCount.getAndIncrement();
+            if (index < MAX_SAMPLES) {
+                samples[index] = elapsed;
+            }
+        }
+
+    }
+
+    private static class Result {
+
+        private final Mode mode;
+        private final long elapsed;
+        private final Recorder recorder;
+        private final long gcCount;
+        private final long gcTime;
+        private final long allocated;
+        private final Map<String, Integer> hits;
+
+        private Result(Mode mode, long elapsed, Recorder recorder, long gcCount, long gcTime, long allocated, Map<String, Integer> hits) {
+            this.mode = mode;
+            this.elapsed = elapsed;
+            this.recorder = recorder;
+            this.gcCount = gcCount;
+            this.gcTime = gcTime;
+            this.allocated = allocated;
+            this.hits = hits;
+        }
+
+        private void print() {
+            long total = recorder.succeed.get() + recorder.failed.get();
+            int count = Math.min(recorder.sampleCount.get(), MAX_SAMPLES);
+            long[] sorted = Arrays.copyOf(recorder.samples, count);
+            Arrays.sort(sorted);
+            double seconds = elapsed / 1000000000d;
+
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append("\n========== LoadTest ").append(mode).append(" ==========\n");
+            stringBuilder.append(String.format("requests   : %d (succeed %d, failed %d) in %.1fs\n", total, recorder.succeed.get(), recorder.failed.get(), seconds));
+            stringBuilder.append(String.format("throughput : %.1f req/s\n", total / seconds));
+            stringBuilder.append(String.format("latency ms : p50 %.2f, p90 %.2f, p99 %.2f, p999 %.2f, max %.2f\n",
+                    percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1)));
+            stringBuilder.append(String.format("gc         : %d times, %dms\n", gcCount, gcTime));
+            stringBuilder.append(allocated >= 0 && total > 0 ?
+                    String.format("allocation : %.1f KB/req (client threads)\n", allocated / 1024d / total) : "allocation : unsupported\n");
+            stringBuilder.append("errors     : ").append(recorder.errors).append("\n");
+            stringBuilder.append("backends   :\n");
+            for (Map.Entry<String, Integer> entry : hits.entrySet()) {
+                stringBuilder.append(String.format("    %s : %d (%.1f%%)\n", entry.getKey(), entry.getValue(), total > 0 ? entry.getValue() * 100d / total : 0d));
+            }
+            System.out.println(stringBuilder.toString());
+        }
+
+        private static double percentile(long[] sorted, double percent) {
+            if (sorted.length == 0) {
+                return 0d;
+            }
+            int index = (int) Math.ceil(percent * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000000d;
+        }
+
+    }
+
+    /* ******************************************************************************************************* */
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * 客户端侧各线程的累计内存分配量(HotSpot), 不支持时返回null
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        Map<Long, Long> result = new HashMap<>();
+        for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+            Thread thread = entry.getKey();
+            if (thread.getName().startsWith(BACKEND_THREAD_PREFIX)) {
+                continue;
+            }
+            long bytes = bean.getThreadAllocatedBytes(thread.getId());
+            if (bytes >= 0) {
+                result.put(thread.getId(), bytes);
+            }
+        }
+        return result;
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1L;
+        }
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long allocatedSince(Map<Long, Long> start) {
+        Map<Long, Long> end = allocatedBytes();
+        if (start == null || end == null) {
+            return -1L;
+        }
+        long total = workerAllocated.get();
+        for (Map.Entry<Long, Long> entry : end.entrySet()) {
+            Long begin = start.get(entry.getKey());
+            total += entry.getValue() - (begin != null ? begin : 0L);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BeanCallbackTest {
+
+    /**
+     * 转换类型由回调自身决定
+     */
+    @Test
+    public void beanTypeOfCallback() throws Exception {
+        MultiHostOkHttpClient client = new MultiHostOkHttpClient();
+        MultiHostOkHttpClient.Endpoint endpoint = client.endpoint("/test")
+                .dataConverter(new TypeNameConverter());
+        final List<Object> results = new ArrayList<>();
+        //请求的DataConverter来自端点, 不使用客户端配置
+
+        //构造参数指定类型
+        MultiHostOkHttpClient.BeanCallback<Integer> explicitCallback = new MultiHostOkHttpClient.BeanCallback<Integer>(Integer.class) {
+            @Override
+            public void onSucceed(Integer bean) {
+                results.add(bean);
+            }
+            @Override
+            protected void onErrorBeforeSend(Exception e) {
+            }
+            @Override
+            protected void onErrorAfterSend(Exception e) {
+            }
+        };
+        explicitCallback.setContext(null, endpoint.request());
+        explicitCallback.onSucceed(new byte[0]);
+
+        //泛型决定类型
+        MultiHostOkHttpClient.BeanCallback<Long> genericCallback = new MultiHostOkHttpClient.BeanCallback<Long>() {
+            @Override
+            public void onSucceed(Long bean) {
+                results.add(bean);
+            }
+            @Override
+            protected void onErrorBeforeSend(Exception e) {
+            }
+            @Override
+            protected void onErrorAfterSend(Exception e) {
+            }
+        };
+        genericCallback.setContext(null, endpoint.request());
+        genericCallback.onSucceed(new byte[0]);
+
+        Assert.assertEquals(1, results.get(0));
+        Assert.assertEquals(2L, results.get(1));
+    }
+
+    private static class TypeNameConverter implements DataConverter {
+
+        @Override
+        public byte[] convert(Object bean) {
+            return new byte[0];
+        }
+
+        @Override
+        public <T> T convert(byte[] data, Class<T> type) {
+            if (type == Integer.class) {
+                return type.cast(1);
+            } else if (type == Long.class) {
+                return type.cast(2L);
+            }
+            return type.cast(type.getName());
+        }
+
+    }
+
+}
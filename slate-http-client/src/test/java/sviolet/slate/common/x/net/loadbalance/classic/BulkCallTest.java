@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import org.junit.Assert;
+import org.junit.Test;
+import sviolet.slate.common.x.net.loadbalance.LoadBalancedHostManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class BulkCallTest {
+
+    /**
+     * 请求在发送前同步失败(没有后端)时, 批量请求逐个处理剩余请求, 不会递归调用导致栈溢出
+     */
+    @Test
+    public void synchronousFailures() {
+        MultiHostOkHttpClient client = new MultiHostOkHttpClient()
+                .setHostManager(new LoadBalancedHostManager());
+        List<MultiHostOkHttpClient.Request> requests = new ArrayList<>();
+        for (int i = 0 ; i < 100000 ; i++) {
+            requests.add(client.get("/test"));
+        }
+        List<BulkResult> results = client.sendAll(requests, 1, 0L);
+        Assert.assertEquals(requests.size(), results.size());
+        for (int i = 0 ; i < results.size() ; i++) {
+            Assert.assertEquals(i, results.get(i).getIndex());
+            Assert.assertTrue(results.get(i).getError() instanceof NoHostException);
+        }
+    }
+
+    /**
+     * 没有健康的后端时, 仍在全部后端间分配, 结果记录实际使用的后端
+     */
+    @Test
+    public void allHostsBlocked() {
+        LoadBalancedHostManager hostManager = new LoadBalancedHostManager()
+                .setHostArray(new String[]{"http://127.0.0.1:1", "http://127.0.0.1:2"});
+        for (LoadBalancedHostManager.Host host : hostManager.getHosts()) {
+            host.feedback(false, 60000L);
+        }
+        Assert.assertTrue(hostManager.getHealthyHosts().isEmpty());
+        MultiHostOkHttpClient client = new MultiHostOkHttpClient()
+                .setHostManager(hostManager)
+                .setConnectTimeout(1000);
+        List<MultiHostOkHttpClient.Request> requests = new ArrayList<>();
+        for (int i = 0 ; i < 4 ; i++) {
+            requests.add(client.get("/test"));
+        }
+        List<BulkResult> results = client.sendAll(requests, 1, 10000L);
+        Set<String> hosts = new HashSet<>();
+        for (BulkResult result : results) {
+            Assert.assertNotNull(result.getHost());
+            hosts.add(result.getHost());
+        }
+        Assert.assertEquals(2, hosts.size());
+    }
+
+}
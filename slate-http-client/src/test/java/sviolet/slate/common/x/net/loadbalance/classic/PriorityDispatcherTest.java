@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import sviolet.slate.common.x.net.loadbalance.LoadBalancedHostManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PriorityDispatcherTest {
+
+    @Test
+    public void laneOrdering() {
+        PriorityDispatcher dispatcher = new PriorityDispatcher();
+        List<String> started = new ArrayList<>();
+        dispatcher.submit(RequestPriority.LOW, record(started, "low1"), 0, 1, 0, 0);
+        dispatcher.submit(RequestPriority.LOW, record(started, "low2"), 0, 1, 0, 0);
+        dispatcher.submit(RequestPriority.NORMAL, record(started, "normal"), 0, 1, 0, 0);
+        dispatcher.submit(RequestPriority.HIGH, record(started, "high"), 0, 1, 0, 0);
+        Assert.assertEquals(listOf("low1"), started);
+
+        //每释放一个并发数, 放行排队中优先级最高的请求
+        dispatcher.finished(RequestPriority.LOW, 1, 0, 0);
+        Assert.assertEquals(listOf("low1", "high"), started);
+        dispatcher.finished(RequestPriority.HIGH, 1, 0, 0);
+        Assert.assertEquals(listOf("low1", "high", "normal"), started);
+        dispatcher.finished(RequestPriority.NORMAL, 1, 0, 0);
+        Assert.assertEquals(listOf("low1", "high", "normal", "low2"), started);
+        dispatcher.finished(RequestPriority.LOW, 1, 0, 0);
+
+        Map<RequestPriority, PriorityLaneStats> stats = dispatcher.getStats();
+        for (RequestPriority priority : RequestPriority.values()) {
+            Assert.assertEquals(0, stats.get(priority).getRunning());
+            Assert.assertEquals(0, stats.get(priority).getQueued());
+        }
+        Assert.assertEquals(2L, stats.get(RequestPriority.LOW).getAdmitted());
+    }
+
+    @Test
+    public void reservation() {
+        //总数4, 为高优先级预留1, 为普通优先级(及以上)预留1: 低优先级最多2, 普通最多3, 高最多4
+        PriorityDispatcher dispatcher = new PriorityDispatcher();
+        List<String> started = new ArrayList<>();
+        for (int i = 0 ; i < 3 ; i++) {
+            dispatcher.submit(RequestPriority.LOW, record(started, "low" + i), 0, 4, 1, 1);
+        }
+        Assert.assertEquals(listOf("low0", "low1"), started);
+        dispatcher.submit(RequestPriority.NORMAL, record(started, "normal0"), 0, 4, 1, 1);
+        dispatcher.submit(RequestPriority.NORMAL, record(started, "normal1"), 0, 4, 1, 1);
+        Assert.assertEquals(listOf("low0", "low1", "normal0"), started);
+        dispatcher.submit(RequestPriority.HIGH, record(started, "high0"), 0, 4, 1, 1);
+        dispatcher.submit(RequestPriority.HIGH, record(started, "high1"), 0, 4, 1, 1);
+        Assert.assertEquals(listOf("low0", "low1", "normal0", "high0"), started);
+
+        Map<RequestPriority, PriorityLaneStats> stats = dispatcher.getStats();
+        Assert.assertEquals(1, stats.get(RequestPriority.HIGH).getQueued());
+        Assert.assertEquals(1, stats.get(RequestPriority.NORMAL).getQueued());
+        Assert.assertEquals(1, stats.get(RequestPriority.LOW).getQueued());
+
+        //低优先级释放后, 总数3, 高优先级先放行
+        dispatcher.finished(RequestPriority.LOW, 4, 1, 1);
+        Assert.assertEquals("high1", started.get(started.size() - 1));
+        //执行中3个, 普通优先级的上限是3, 不放行
+        dispatcher.finished(RequestPriority.HIGH, 4, 1, 1);
+        Assert.assertEquals("high1", started.get(started.size() - 1));
+        //执行中2个, 放行普通优先级, 之后执行中3个, 低优先级的上限是2, 不放行
+        dispatcher.finished(RequestPriority.LOW, 4, 1, 1);
+        Assert.assertEquals("normal1", started.get(started.size() - 1));
+        Assert.assertEquals(1, dispatcher.getStats().get(RequestPriority.LOW).getQueued());
+        //预留数过大时, 每个优先级至少保留1个并发数
+        PriorityDispatcher small = new PriorityDispatcher();
+        List<String> smallStarted = new ArrayList<>();
+        small.submit(RequestPriority.LOW, record(smallStarted, "low"), 0, 2, 5, 5);
+        Assert.assertEquals(listOf("low"), smallStarted);
+    }
+
+    @Test
+    public void hostPermits() {
+        final Map<String, Integer> permits = new HashMap<>();
+        permits.put("a", 1);
+        permits.put("b", 1);
+        PriorityDispatcher dispatcher = new PriorityDispatcher(new PriorityDispatcher.HostPermits() {
+            @Override
+            public boolean tryAcquire(String host) {
+                int permit = permits.get(host);
+                if (permit <= 0) {
+                    return false;
+                }
+                permits.put(host, permit - 1);
+                return true;
+            }
+        });
+        List<String> started = new ArrayList<>();
+        dispatcher.submit(RequestPriority.NORMAL, "a", record(started, "a1"), 0, 10, 0, 0);
+        dispatcher.submit(RequestPriority.NORMAL, "a", record(started, "a2"), 0, 10, 0, 0);
+        //后端a没有许可, 后面发往后端b的请求先放行, 排队中的请求不占用并发数
+        dispatcher.submit(RequestPriority.NORMAL, "b", record(started, "b1"), 0, 10, 0, 0);
+        Assert.assertEquals(listOf("a1", "b1"), started);
+        Assert.assertEquals(2, dispatcher.getStats().get(RequestPriority.NORMAL).getRunning());
+        Assert.assertEquals(1, dispatcher.getStats().get(RequestPriority.NORMAL).getQueued());
+
+        //许可归还, 重新放行
+        permits.put("a", 1);
+        dispatcher.hostPermitReleased("a", 10, 0, 0);
+        Assert.assertEquals(listOf("a1", "b1", "a2"), started);
+        Assert.assertEquals(0, dispatcher.getStats().get(RequestPriority.NORMAL).getQueued());
+    }
+
+    /**
+     * 等待后端许可的请求按后端索引, 许可归还时只重试该后端, 且保持先后顺序
+     */
+    @Test
+    public void hostWaiters() {
+        final Map<String, Integer> permits = new HashMap<>();
+        final List<String> tried = new ArrayList<>();
+        PriorityDispatcher dispatcher = new PriorityDispatcher(new PriorityDispatcher.HostPermits() {
+            @Override
+            public boolean tryAcquire(String host) {
+                tried.add(host);
+                Integer permit = permits.get(host);
+                if (permit == null || permit <= 0) {
+                    return false;
+                }
+                permits.put(host, permit - 1);
+                return true;
+            }
+        });
+        List<String> started = new ArrayList<>();
+        for (int i = 0 ; i < 100 ; i++) {
+            dispatcher.submit(RequestPriority.LOW, "host" + i, record(started, "low" + i), 0, 1000, 0, 0);
+        }
+        dispatcher.submit(RequestPriority.LOW, "a", record(started, "a1"), 0, 1000, 0, 0);
+        dispatcher.submit(RequestPriority.HIGH, "a", record(started, "a2"), 0, 1000, 0, 0);
+        dispatcher.submit(RequestPriority.LOW, "a", record(started, "a3"), 0, 1000, 0, 0);
+        Assert.assertTrue(started.isEmpty());
+        Assert.assertEquals(102, dispatcher.getStats().get(RequestPriority.LOW).getQueued());
+        //后端a已有请求等待, 后面的请求直接排在后面, 不再尝试获取许可
+        Assert.assertEquals(101, tried.size());
+
+        //无关后端归还许可, 不扫描
+        tried.clear();
+        dispatcher.hostPermitReleased("b", 1000, 0, 0);
+        dispatcher.finished(RequestPriority.LOW, 1000, 0, 0);
+        Assert.assertTrue(tried.isEmpty());
+
+        //后端a归还2个许可, 先放行高优先级, 再按先后顺序放行
+        permits.put("a", 2);
+        dispatcher.hostPermitReleased("a", 1000, 0, 0);
+        Assert.assertEquals(listOf("a2", "a1"), started);
+        Assert.assertEquals(listOf("a", "a", "a"), tried);
+        permits.put("a", 1);
+        dispatcher.hostPermitReleased("a", 1000, 0, 0);
+        Assert.assertEquals(listOf("a2", "a1", "a3"), started);
+        Assert.assertEquals(100, dispatcher.getStats().get(RequestPriority.LOW).getQueued());
+        Assert.assertEquals(0, dispatcher.getStats().get(RequestPriority.HIGH).getQueued());
+    }
+
+    @Test
+    public void maxQueued() {
+        PriorityDispatcher dispatcher = new PriorityDispatcher();
+        List<String> started = new ArrayList<>();
+        Assert.assertTrue(dispatcher.submit(RequestPriority.LOW, record(started, "low0"), 2, 1, 0, 0));
+        Assert.assertTrue(dispatcher.submit(RequestPriority.LOW, record(started, "low1"), 2, 1, 0, 0));
+        Assert.assertTrue(dispatcher.submit(RequestPriority.LOW, record(started, "low2"), 2, 1, 0, 0));
+        //低优先级排队数达到上限, 拒绝
+        Assert.assertFalse(dispatcher.submit(RequestPriority.LOW, record(started, "low3"), 2, 1, 0, 0));
+        //每个优先级单独计算
+        Assert.assertTrue(dispatcher.submit(RequestPriority.HIGH, record(started, "high0"), 2, 1, 0, 0));
+        Assert.assertEquals(listOf("low0"), started);
+
+        Map<RequestPriority, PriorityLaneStats> stats = dispatcher.getStats();
+        Assert.assertEquals(2, stats.get(RequestPriority.LOW).getQueued());
+        Assert.assertEquals(1L, stats.get(RequestPriority.LOW).getRejected());
+        Assert.assertEquals(0L, stats.get(RequestPriority.HIGH).getRejected());
+
+        //排队的请求放行后可以继续提交
+        dispatcher.finished(RequestPriority.LOW, 1, 0, 0);
+        Assert.assertEquals(listOf("low0", "high0"), started);
+        dispatcher.finished(RequestPriority.HIGH, 1, 0, 0);
+        Assert.assertTrue(dispatcher.submit(RequestPriority.LOW, record(started, "low4"), 2, 1, 0, 0));
+        Assert.assertEquals(listOf("low0", "high0", "low1"), started);
+    }
+
+    /**
+     * 放行的请求同步结束(在执行中调用finished)时, 排队的请求逐个执行, 不递归
+     */
+    @Test
+    public void synchronousFinish() {
+        final PriorityDispatcher dispatcher = new PriorityDispatcher();
+        final int[] count = {0};
+        //占用唯一的并发数, 其余请求排队
+        dispatcher.submit(RequestPriority.NORMAL, record(new ArrayList<String>(), "first"), 0, 1, 0, 0);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                count[0]++;
+                dispatcher.finished(RequestPriority.NORMAL, 1, 0, 0);
+            }
+        };
+        for (int i = 0 ; i < 100000 ; i++) {
+            dispatcher.submit(RequestPriority.NORMAL, task, 0, 1, 0, 0);
+        }
+        Assert.assertEquals(0, count[0]);
+        dispatcher.finished(RequestPriority.NORMAL, 1, 0, 0);
+        Assert.assertEquals(100000, count[0]);
+        Assert.assertEquals(0, dispatcher.getStats().get(RequestPriority.NORMAL).getQueued());
+        Assert.assertEquals(0, dispatcher.getStats().get(RequestPriority.NORMAL).getRunning());
+    }
+
+    /**
+     * 排队到截止时间仍未放行的请求移出队列, 执行expiredTask, 之后不再放行
+     */
+    @Test
+    public void deadlineExpiry() throws InterruptedException {
+        final Map<String, Integer> permits = new HashMap<>();
+        PriorityDispatcher dispatcher = new PriorityDispatcher(new PriorityDispatcher.HostPermits() {
+            @Override
+            public boolean tryAcquire(String host) {
+                Integer permit = permits.get(host);
+                if (permit == null || permit <= 0) {
+                    return false;
+                }
+                permits.put(host, permit - 1);
+                return true;
+            }
+        });
+        final List<String> started = new ArrayList<>();
+        final List<String> expired = Collections.synchronizedList(new ArrayList<String>());
+        long deadline = System.currentTimeMillis() + 100L;
+        //后端b没有许可
+        dispatcher.submit(RequestPriority.HIGH, "b", record(started, "b"), deadline, record(expired, "b"), 0, 1, 0, 0);
+        permits.put("a", 1);
+        dispatcher.submit(RequestPriority.NORMAL, "a", record(started, "first"), deadline, record(expired, "first"), 0, 1, 0, 0);
+        //没有并发数
+        for (int i = 0 ; i < 200 ; i++) {
+            dispatcher.submit(RequestPriority.LOW, null, record(started, "low" + i), deadline, record(expired, "low" + i), 0, 1, 0, 0);
+        }
+        //没有截止时间
+        dispatcher.submit(RequestPriority.LOW, null, record(started, "noDeadline"), 0L, null, 0, 1, 0, 0);
+        Assert.assertEquals(listOf("first"), started);
+
+        long timeout = System.currentTimeMillis() + 5000L;
+        while (expired.size() < 201 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(201, expired.size());
+        Assert.assertFalse(expired.contains("first"));
+        Map<RequestPriority, PriorityLaneStats> stats = dispatcher.getStats();
+        Assert.assertEquals(1, stats.get(RequestPriority.LOW).getQueued());
+        Assert.assertEquals(200L, stats.get(RequestPriority.LOW).getExpired());
+        Assert.assertEquals(0, stats.get(RequestPriority.HIGH).getQueued());
+        Assert.assertEquals(1L, stats.get(RequestPriority.HIGH).getExpired());
+
+        //过期的请求不再放行
+        permits.put("b", 1);
+        dispatcher.hostPermitReleased("b", 1, 0, 0);
+        dispatcher.finished(RequestPriority.NORMAL, 1, 0, 0);
+        Assert.assertEquals(listOf("first", "noDeadline"), started);
+        Assert.assertEquals(0, dispatcher.getStats().get(RequestPriority.LOW).getQueued());
+    }
+
+    /**
+     * 截止时间已过/发送前异常时, 请求要释放并发数和后端许可, 否则后续请求会一直排队
+     */
+    @Test
+    public void releaseOnEarlyFailure() {
+        LoadBalancedHostManager hostManager = new LoadBalancedHostManager()
+                .setHostArray(new String[]{"http://127.0.0.1:8000"});
+        MultiHostOkHttpClient client = new MultiHostOkHttpClient() {
+            @Override
+            protected OkHttpClient createOkHttpClient(Settings settings) {
+                return new OkHttpClient() {
+                    @Override
+                    public Call newCall(okhttp3.Request request) {
+                        throw new IllegalStateException("test");
+                    }
+                };
+            }
+        }
+                .setHostManager(hostManager)
+                .setMaxThreads(1)
+                .setMaxConnectionsPerHost(1);
+
+        List<Exception> errors = new ArrayList<>();
+        //截止时间已过
+        for (int i = 0 ; i < 3 ; i++) {
+            client.get("/test").deadlineAt(System.currentTimeMillis() - 1000L).enqueue(errorCallback(errors));
+        }
+        //newCall异常
+        for (int i = 0 ; i < 3 ; i++) {
+            client.get("/test").priority(RequestPriority.LOW).enqueue(errorCallback(errors));
+        }
+
+        Assert.assertEquals(6, errors.size());
+        for (int i = 0 ; i < 3 ; i++) {
+            Assert.assertTrue(errors.get(i) instanceof DeadlineExceededException);
+        }
+        for (int i = 3 ; i < 6 ; i++) {
+            Assert.assertTrue(errors.get(i) instanceof RequestBuildException);
+        }
+        Map<RequestPriority, PriorityLaneStats> stats = client.getPriorityLaneStats();
+        for (RequestPriority priority : RequestPriority.values()) {
+            Assert.assertEquals(0, stats.get(priority).getRunning());
+            Assert.assertEquals(0, stats.get(priority).getQueued());
+        }
+    }
+
+    private static Runnable record(final List<String> started, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                started.add(name);
+            }
+        };
+    }
+
+    private static MultiHostOkHttpClient.ResponsePackageCallback errorCallback(final List<Exception> errors) {
+        return new MultiHostOkHttpClient.ResponsePackageCallback() {
+            @Override
+            protected void onSucceed(MultiHostOkHttpClient.ResponsePackage responsePackage) {
+                Assert.fail();
+            }
+            @Override
+            protected void onErrorBeforeSend(Exception e) {
+                errors.add(e);
+            }
+            @Override
+            protected void onErrorAfterSend(Exception e) {
+                Assert.fail();
+            }
+        };
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import okio.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class StreamReaderTest {
+
+    @Test
+    public void lines() throws Exception {
+        StreamReader reader = newReader("a\r\nbb\nccc", false, 8);
+        Assert.assertEquals("a", reader.next().getData());
+        Assert.assertEquals("bb", reader.next().getData());
+        Assert.assertEquals("ccc", reader.next().getData());
+        Assert.assertNull(reader.next());
+    }
+
+    @Test
+    public void lineOutOfLimit() throws Exception {
+        //有换行符但超长
+        StreamReader reader = newReader("12345678\n123456789\n", false, 8);
+        Assert.assertEquals("12345678", reader.next().getData());
+        try {
+            reader.next();
+            Assert.fail();
+        } catch (ResponseConvertException ignore) {
+        }
+        //没有换行符且超长
+        reader = newReader("123456789", false, 8);
+        try {
+            reader.next();
+            Assert.fail();
+        } catch (ResponseConvertException ignore) {
+        }
+        //不限制
+        reader = newReader("123456789", false, 0);
+        Assert.assertEquals("123456789", reader.next().getData());
+    }
+
+    @Test
+    public void eventOutOfLimit() throws Exception {
+        StreamReader reader = newReader("id: 1\ndata: 1234\ndata: 5678\n\n", true, 16);
+        StreamEvent event = reader.next();
+        Assert.assertEquals("1234\n5678", event.getData());
+        Assert.assertEquals("1", event.getId());
+        //每行都不超长, 但累积的data超长
+        reader = newReader("data: 123456\ndata: 123456\ndata: 123456\n\n", true, 16);
+        try {
+            reader.next();
+            Assert.fail();
+        } catch (ResponseConvertException ignore) {
+        }
+    }
+
+    private StreamReader newReader(String content, boolean sse, long maxLength) {
+        return new StreamReader(new Buffer().writeUtf8(content), StandardCharsets.UTF_8, sse, null, maxLength);
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.net.loadbalance.classic;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucketRateLimiterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void acquire() throws InterruptedException {
+        //10个每秒, 初始1个令牌
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(10, 0);
+        Assert.assertTrue(limiter.acquire(0));
+        //令牌不足, 需要等待约100ms
+        Assert.assertFalse(limiter.acquire(0));
+        Assert.assertFalse(limiter.acquire(30 * MS));
+        long start = System.nanoTime();
+        Assert.assertTrue(limiter.acquire(1000 * MS));
+        Assert.assertTrue(System.nanoTime() - start >= 50 * MS);
+    }
+
+    @Test
+    public void refund() throws InterruptedException {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 0);
+        Assert.assertTrue(limiter.acquire(0));
+        Assert.assertFalse(limiter.acquire(0));
+        //归还未使用的许可
+        limiter.refund();
+        Assert.assertTrue(limiter.acquire(0));
+        Assert.assertFalse(limiter.acquire(0));
+    }
+
+    @Test
+    public void refundNotExceedBurst() throws InterruptedException {
+        //归还不会使积攒的令牌超过1秒的量(速率小于1时为1个)
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 0);
+        limiter.refund();
+        limiter.refund();
+        Assert.assertTrue(limiter.acquire(0));
+        Assert.assertFalse(limiter.acquire(0));
+    }
+
+    @Test
+    public void setPermitsPerSecond() throws InterruptedException {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 0);
+        Assert.assertTrue(limiter.acquire(0));
+        //1个每秒需要等待约1s
+        Assert.assertFalse(limiter.acquire(300 * MS));
+        //调高到100个每秒, 约10ms
+        limiter.setPermitsPerSecond(100);
+        Assert.assertEquals(100d, limiter.getPermitsPerSecond(), 0d);
+        Assert.assertTrue(limiter.acquire(300 * MS));
+    }
+
+    @Test
+    public void warmup() throws InterruptedException {
+        //预热期从1/3速率开始: 30个每秒, 冷启动时约10个每秒, 下一个令牌约100ms
+        TokenBucketRateLimiter cold = new TokenBucketRateLimiter(30, 60000L);
+        Assert.assertTrue(cold.acquire(0));
+        Assert.assertFalse(cold.acquire(60 * MS));
+        //不预热, 下一个令牌约33ms
+        TokenBucketRateLimiter warm = new TokenBucketRateLimiter(30, 0);
+        Assert.assertTrue(warm.acquire(0));
+        Assert.assertTrue(warm.acquire(60 * MS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void illegalRate() {
+        new TokenBucketRateLimiter(0, 0);
+    }
+
+}
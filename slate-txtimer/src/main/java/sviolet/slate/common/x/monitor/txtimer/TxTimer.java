@@ -44,6 +44,10 @@ import java.util.LinkedList;
  * <p>默认实现的启动参数(不可动态修改):<br>
  *      -Dslate.txtimer.report.interval=5 日志报告输出间隔, 单位分钟, [2-60], 默认5 <br>
  *      -Dslate.txtimer.pagelines=20 日志每次输出的最大行数, 大于该行数会分页, 默认20 <br>
+ *      -Dslate.txtimer.maxgroups=256 组别数量上限, 超过上限的组别归入溢出组别(&lt;overflow&gt;), 默认256 <br>
+ *      -Dslate.txtimer.maxtransactionspergroup=1024 每个组别的交易数量上限, 超过的归入溢出交易(&lt;overflow&gt;), 默认1024 <br>
+ *      -Dslate.txtimer.maxtransactions=8192 全局交易数量上限, 超过的归入溢出交易(&lt;overflow&gt;), 默认8192 <br>
+ *      -Dslate.txtimer.evictidle=12 交易连续空闲N个报告周期后从内存中移除, 0表示不移除, 默认12 <br>
  * </p>
  *
  * <p>默认实现的启动参数(可动态修改):<br>
@@ -51,6 +55,8 @@ import java.util.LinkedList;
  *      -Dslate.txtimer.threshold.avg=2000 打印周期内平均耗时超过该值的交易, 单位:毫秒<br>
  *      -Dslate.txtimer.threshold.max=10000 打印周期内最大耗时超过该值的交易, 单位:毫秒<br>
  *      -Dslate.txtimer.threshold.min=1000 打印周期内最小耗时超过该值的交易, 单位:毫秒<br>
+ *      -Dslate.txtimer.report.percentiles=50,90,99,99.9 报告中输出的耗时百分位, 逗号分隔, 默认不输出(输出时报告增加一列)<br>
+ *      -Dslate.txtimer.report.micros=true 报告中的耗时以微秒为单位输出, 默认false(毫秒)<br>
  * </p>
  *
  * <p>slate.txtimer.threshold系列参数均未配置, 则输出全部交易的报告. 若设置了任意一个, 则只有满足条件的交易才输出:
@@ -163,6 +169,31 @@ public class TxTimer {
         }
     }
 
+    /**
+     * <p>获取预先解析的计时句柄, 建议保存在静态变量中复用. 句柄的entry/exit不查找Map, 也不创建上下文对象,
+     * 适合在调用非常频繁的代码中使用.</p>
+     *
+     * <code>
+     *  private static final TxTimerHandle HANDLE = TxTimer.handle("Entrance", "TestService");
+     *
+     *  long startTime = HANDLE.entry();
+     *  try {
+     *      // 交易逻辑 ......
+     *  } finally {
+     *      HANDLE.exit(startTime);
+     *  }
+     * </code>
+     *
+     * @param groupName 组别
+     * @param transactionName 交易名
+     */
+    public static TxTimerHandle handle(String groupName, String transactionName){
+        if (PROVIDER != null) {
+            return PROVIDER.handle(groupName, transactionName);
+        }
+        return DUMMY_HANDLE;
+    }
+
     public static TxTimerProvider2 getProvider(){
         if (PROVIDER != null && PROVIDER.canBeGet()) {
             return PROVIDER;
@@ -178,6 +209,21 @@ public class TxTimer {
         }
     };
 
+    private static final TxTimerHandle DUMMY_HANDLE = new TxTimerHandle() {
+        @Override
+        public long entry() {
+            return 0L;
+        }
+        @Override
+        public void exit(long startTime) {
+            //do nothing
+        }
+        @Override
+        public void exit(long startTime, int resultCode) {
+            //do nothing
+        }
+    };
+
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Deprecated ///////////////////////////////////////////////////////////////////////////////////////////////////
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////////
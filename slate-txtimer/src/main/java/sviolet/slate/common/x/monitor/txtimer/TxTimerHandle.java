@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.monitor.txtimer;
+
+import java.util.LinkedList;
+
+/**
+ * <p>预先解析的交易计时句柄, 通过TxTimer.handle(groupName, transactionName)获得</p>
+ *
+ * <p>句柄在创建时就确定了组别和交易名, 之后entry/exit不再查找Map, 也不创建上下文对象, entry返回的开始时间是一个基本类型,
+ * 由调用者保存并在exit时传回, 适合在调用非常频繁的代码中使用. 句柄是线程安全的, 建议保存在静态变量中复用.</p>
+ *
+ * <code>
+ *  private static final TxTimerHandle HANDLE = TxTimer.handle("Entrance", "TestService");
+ *
+ *  long startTime = HANDLE.entry();
+ *  try {
+ *      // 交易逻辑 ......
+ *  } finally {
+ *      HANDLE.exit(startTime);
+ *  }
+ * </code>
+ *
+ * @see TxTimer
+ * @author S.Violet
+ */
+public interface TxTimerHandle {
+
+    /**
+     * 交易开始时调用
+     *
+     * @return 开始时间戳, 在exit时原样传回, 含义由实现决定(缺省实现为System.nanoTime())
+     */
+    long entry();
+
+    /**
+     * 交易结束时调用
+     *
+     * @param startTime entry返回的开始时间
+     */
+    void exit(long startTime);
+
+    /**
+     * 交易结束时调用
+     *
+     * @param startTime entry返回的开始时间
+     * @param resultCode 结果码
+     */
+    void exit(long startTime, int resultCode);
+
+    /**
+     * <p>TxTimerHandle的适配实现, 用于未实现TxTimerProvider2#handle的扩展实现.</p>
+     *
+     * <p>内部仍然调用TxTimerProvider2的entry/exit, 上下文保存在ThreadLocal堆栈中, 因此entry和exit必须在同一个线程中按顺序调用,
+     * 且没有性能优势.</p>
+     */
+    class Adapter implements TxTimerHandle {
+
+        //用于entry和exit之间的上下文传递
+        private static final ThreadLocal<LinkedList<TimerContext>> contextStack = new ThreadLocal<>();
+
+        private final TxTimerProvider2 provider;
+        private final String groupName;
+        private final String transactionName;
+
+        public Adapter(TxTimerProvider2 provider, String groupName, String transactionName) {
+            this.provider = provider;
+            this.groupName = groupName;
+            this.transactionName = transactionName;
+        }
+
+        @Override
+        public long entry() {
+            TimerContext timerContext = provider.entry(groupName, transactionName);
+            //存入堆栈
+            LinkedList<TimerContext> contextStack = Adapter.contextStack.get();
+            if (contextStack == null) {
+                contextStack = new LinkedList<>();
+                Adapter.contextStack.set(contextStack);
+            }
+            contextStack.addLast(timerContext);
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void exit(long startTime) {
+            exit(startTime, 0);
+        }
+
+        @Override
+        public void exit(long startTime, int resultCode) {
+            //从堆栈取出上下文, 若不存在则不正常
+            LinkedList<TimerContext> contextStack = Adapter.contextStack.get();
+            if (contextStack == null) {
+                return;
+            }
+            TimerContext timerContext = contextStack.pollLast();
+            //如果栈里没记录, 则删除栈
+            if (contextStack.size() <= 0) {
+                Adapter.contextStack.remove();
+            }
+            if (timerContext != null) {
+                provider.exit(timerContext, resultCode);
+            }
+        }
+
+    }
+
+}
@@ -50,6 +50,19 @@ public interface TxTimerProvider2 {
      */
     void exit(TimerContext timerContext, int resultCode);
 
+    /**
+     * <p>获取预先解析的计时句柄, 句柄的entry/exit不查找Map, 也不创建上下文对象.</p>
+     *
+     * <p>默认返回适配实现(TxTimerHandle.Adapter), 内部仍然调用entry/exit, 只支持同一线程内按顺序entry/exit,
+     * 扩展实现应当覆盖本方法.</p>
+     *
+     * @param groupName 组别
+     * @param transactionName 交易名
+     */
+    default TxTimerHandle handle(String groupName, String transactionName) {
+        return new TxTimerHandle.Adapter(this, groupName, transactionName);
+    }
+
     /**
      * 是否启用统计功能
      * @return true 启用
@@ -22,6 +22,8 @@ package sviolet.slate.common.x.monitor.txtimer.def;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+
 /**
  * <p>默认交易耗时统计的配置</p>
  *
@@ -67,6 +69,19 @@ public class DefaultTxTimerConfig {
      */
     static boolean reportPrintsPerMinute = false;
     static boolean lockReportPrintsPerMinute = true;
+    /**
+     * 可动态调整, 启动参数优先级大于动态配置<br>
+     * [基本设置]统计报告中输出的耗时百分位, 逗号分隔, 取值(0-100], 例如50,90,99,99.9, 空字符串表示不输出百分位, 默认不输出.
+     * 注意: 输出百分位会在报告中增加一列, 开启前请确认报告的解析方支持<br>
+     */
+    static double[] reportPercentiles = new double[0];
+    static boolean lockReportPercentiles = false;
+    /**
+     * 可动态调整, 启动参数优先级大于动态配置<br>
+     * [基本设置]true时, 统计报告中的耗时以微秒(us)为单位输出(报告版本2), false时以毫秒(ms)为单位输出(报告版本1), 默认false<br>
+     */
+    static boolean reportMicros = false;
+    static boolean lockReportMicros = false;
 
     /* ******************************************************************************************************************* */
 
@@ -230,6 +245,48 @@ public class DefaultTxTimerConfig {
         setReportPrintsPerMinute(value);
     }
 
+    /**
+     * 可动态调整, 启动参数优先级大于动态配置<br>
+     * [基本设置]统计报告中输出的耗时百分位, 逗号分隔, 取值(0-100], 例如50,90,99,99.9, 空字符串表示不输出百分位, 默认不输出.
+     * 注意: 输出百分位会在报告中增加一列, 开启前请确认报告的解析方支持<br>
+     */
+    public static void setReportPercentiles(String reportPercentiles) {
+        if (lockReportPercentiles) {
+            logger.warn("TxTimer | Config: reportPercentiles has been locked by -Dslate.txtimer.report.percentiles, can not change");
+            return;
+        }
+        double[] value;
+        try {
+            value = parsePercentiles(reportPercentiles);
+        } catch (Exception e) {
+            logger.error("TxTimer | Config: Error while parsing reportPercentiles " + reportPercentiles + " to double[], change reportPercentiles failed", e);
+            return;
+        }
+        DefaultTxTimerConfig.reportPercentiles = value;
+        logger.info("TxTimer | Config: reportPercentiles change to " + Arrays.toString(value));
+    }
+
+    /**
+     * 可动态调整, 启动参数优先级大于动态配置<br>
+     * [基本设置]true时, 统计报告中的耗时以微秒(us)为单位输出(报告版本2), false时以毫秒(ms)为单位输出(报告版本1), 默认false<br>
+     */
+    public static void setReportMicros(boolean reportMicros) {
+        if (lockReportMicros) {
+            logger.warn("TxTimer | Config: reportMicros has been locked by -Dslate.txtimer.report.micros, can not change");
+            return;
+        }
+        DefaultTxTimerConfig.reportMicros = reportMicros;
+        logger.info("TxTimer | Config: reportMicros change to " + reportMicros);
+    }
+
+    /**
+     * 可动态调整, 启动参数优先级大于动态配置<br>
+     * [基本设置]true时, 统计报告中的耗时以微秒(us)为单位输出(报告版本2), false时以毫秒(ms)为单位输出(报告版本1), 默认false<br>
+     */
+    public static void setReportMicros(String reportMicros) {
+        setReportMicros(Boolean.parseBoolean(reportMicros));
+    }
+
     /* ******************************************************************************************************************* */
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultTxTimerConfig.class);
@@ -272,6 +329,39 @@ public class DefaultTxTimerConfig {
             lockReportPrintsPerMinute = false;
         }
         DefaultTxTimerConfig.reportPrintsPerMinute = reportPrintsPerMinute;
+
+        Boolean reportMicros = getBooleanFromProperty("slate.txtimer.report.micros", null);
+        if (reportMicros != null) {
+            DefaultTxTimerConfig.reportMicros = reportMicros;
+            lockReportMicros = true;
+            logger.debug("TxTimer | Config: reportMicros is locked by -Dslate.txtimer.report.micros=" + reportMicros);
+        }
+
+        String reportPercentiles = System.getProperty("slate.txtimer.report.percentiles");
+        if (reportPercentiles != null) {
+            try {
+                DefaultTxTimerConfig.reportPercentiles = parsePercentiles(reportPercentiles);
+                lockReportPercentiles = true;
+                logger.debug("TxTimer | Config: reportPercentiles is locked by -Dslate.txtimer.report.percentiles=" + reportPercentiles);
+            } catch (Exception e) {
+                logger.error("TxTimer | Config: Error while parsing -Dslate.txtimer.report.percentiles to double[], using default", e);
+            }
+        }
+    }
+
+    private static double[] parsePercentiles(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return new double[0];
+        }
+        String[] elements = value.split(",");
+        double[] percentiles = new double[elements.length];
+        for (int i = 0 ; i < elements.length ; i++) {
+            percentiles[i] = Double.parseDouble(elements[i].trim());
+            if (percentiles[i] <= 0d || percentiles[i] > 100d) {
+                throw new IllegalArgumentException("percentile must > 0 and <= 100, illegal value: " + elements[i]);
+            }
+        }
+        return percentiles;
     }
 
     private static int getIntFromProperty(String key, int def) {
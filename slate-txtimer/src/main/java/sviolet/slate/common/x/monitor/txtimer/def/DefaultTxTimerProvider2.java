@@ -24,12 +24,16 @@ import com.github.shepherdviolet.glaciion.api.interfaces.InitializableImplementa
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sviolet.slate.common.x.monitor.txtimer.TimerContext;
+import sviolet.slate.common.x.monitor.txtimer.TxTimerHandle;
 import sviolet.slate.common.x.monitor.txtimer.TxTimerProvider2;
 import sviolet.thistle.model.concurrent.lock.UnsafeHashSpinLocks;
 import sviolet.thistle.model.concurrent.lock.UnsafeSpinLock;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * <p>默认实现了交易耗时的统计, 并通过日志定时输出报告. 可以使用Glaciion SPI替换实现.</p>
@@ -65,10 +69,36 @@ public class DefaultTxTimerProvider2 implements TxTimerProvider2, InitializableI
     int hashLockNum;
     /**
      * 启动后固定
-     * [调优设置]内部一些非锁更新操作的最大尝试次数
+     * [调优设置]内部一些非锁更新操作的最大尝试次数<br>
+     * 已不再使用: 统计单元改为分段计数(LongAdder/LongAccumulator), 更新不会失败, 无需重试. 保留该参数仅为兼容配置
      */
     @PropertyInject(getVmOptionFirst = "slate.txtimer.updateattemps")
     int updateAttempts;
+    /**
+     * 启动后固定
+     * [容量设置]组别数量上限, 超过上限的组别归入溢出组别(<overflow>), 默认256
+     */
+    @PropertyInject(getVmOptionFirst = "slate.txtimer.maxgroups")
+    int maxGroups;
+    /**
+     * 启动后固定
+     * [容量设置]每个组别的交易数量上限, 超过上限的交易归入该组别的溢出交易(<overflow>), 默认1024
+     */
+    @PropertyInject(getVmOptionFirst = "slate.txtimer.maxtransactionspergroup")
+    int maxTransactionsPerGroup;
+    /**
+     * 启动后固定
+     * [容量设置]全局交易数量上限, 超过上限的交易归入所在组别的溢出交易(<overflow>), 默认8192
+     */
+    @PropertyInject(getVmOptionFirst = "slate.txtimer.maxtransactions")
+    int maxTransactions;
+    /**
+     * 启动后固定
+     * [容量设置]交易连续空闲(无交易完成且无执行中交易)达到N个报告周期后, 从内存中移除, 0表示不移除, 默认12.
+     * 通过TxTimer.handle获得句柄的交易不会被移除
+     */
+    @PropertyInject(getVmOptionFirst = "slate.txtimer.evictidle")
+    int evictIdle;
 
     /* ******************************************************************************************************** */
 
@@ -76,9 +106,24 @@ public class DefaultTxTimerProvider2 implements TxTimerProvider2, InitializableI
 
     //每分钟的毫秒数
     static final long MINUTE_MILLIS = 60L * 1000L;
+    //溢出组别名/交易名
+    static final String OVERFLOW_NAME = "<overflow>";
 
     //组Map
     Map<String, Group> groups = new ConcurrentHashMap<>();
+    //溢出组别, 不放入组Map, 避免与名称恰好为OVERFLOW_NAME的组别混淆
+    volatile Group overflowGroup;
+    //组别数量(不含溢出组别)
+    AtomicInteger groupNum = new AtomicInteger(0);
+    //交易数量(不含溢出交易)
+    AtomicInteger transactionNum = new AtomicInteger(0);
+
+    //归入溢出组别的调用次数
+    LongAdder overflowGroupCount = new LongAdder();
+    //归入溢出交易的调用次数
+    LongAdder overflowTransactionCount = new LongAdder();
+    //因空闲被移除的交易数
+    AtomicLong evictedTransactionCount = new AtomicLong(0);
 
     //锁
     UnsafeHashSpinLocks locks;
@@ -106,6 +151,24 @@ public class DefaultTxTimerProvider2 implements TxTimerProvider2, InitializableI
         if (updateAttempts < 1) {
             throw new IllegalArgumentException("slate.txtimer.updateattemps must >= 1");
         }
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("slate.txtimer.maxgroups must >= 1");
+        }
+        if (maxTransactionsPerGroup < 1) {
+            throw new IllegalArgumentException("slate.txtimer.maxtransactionspergroup must >= 1");
+        }
+        if (maxTransactions < 1) {
+            throw new IllegalArgumentException("slate.txtimer.maxtransactions must >= 1");
+        }
+        if (evictIdle < 0) {
+            throw new IllegalArgumentException("slate.txtimer.evictidle must >= 0");
+        }
+        logger.info("TxTimer | Config: Max groups " + maxGroups + ", max transactions " + maxTransactions +
+                " (" + maxTransactionsPerGroup + " per group), evict idle transactions " +
+                (evictIdle > 0 ? "after " + evictIdle + " report intervals" : "disabled"));
+
+        //启动定时报告
+        reporter.start();
     }
 
     @Override
@@ -116,12 +179,20 @@ public class DefaultTxTimerProvider2 implements TxTimerProvider2, InitializableI
         if (transactionName == null) {
             transactionName = "<null>";
         }
-        //获得交易记录实例
-        Transaction transaction = getGroup(groupName).getTransaction(transactionName);
-        //标记为正在执行
-        transaction.running();
+        //获得交易记录实例, 并标记为正在执行
+        Transaction transaction;
+        while (true) {
+            transaction = getGroup(groupName).getTransaction(transactionName);
+            transaction.running();
+            //先标记执行中再检查是否被移除(与Reporter#evict的顺序相反), 保证不会记录到已移除的交易
+            if (!transaction.evicted) {
+                break;
+            }
+            //交易恰好被移除, 撤销标记, 重新获取
+            transaction.runningCount.decrement();
+        }
         //创建并返回上下文
-        return new Record(groupName, transactionName);
+        return new Record(transaction);
     }
 
     @Override
@@ -130,12 +201,28 @@ public class DefaultTxTimerProvider2 implements TxTimerProvider2, InitializableI
             return;
         }
         Record record = (Record) timerContext;
-        //计算时长
-        long elapse = System.currentTimeMillis() - record.getStartTime();
-        //获得交易记录实例
-        Transaction transaction = getGroup(record.getGroupName()).getTransaction(record.getTransactionName());
-        //标记为完成交易, 并记录时间
-        transaction.finish(System.currentTimeMillis(), elapse);
+        //计算时长(us), 用单调时钟计算, 不受系统时间调整影响
+        long elapse = (System.nanoTime() - record.getStartTime()) / 1000L;
+        //上下文中持有交易记录实例, 无需再次查找, 标记为完成交易, 并记录时间(统计单元按墙上时间划分)
+        record.getTransaction().finish(System.currentTimeMillis(), elapse);
+    }
+
+    @Override
+    public TxTimerHandle handle(String groupName, String transactionName) {
+        if (groupName == null) {
+            groupName = "<null>";
+        }
+        if (transactionName == null) {
+            transactionName = "<null>";
+        }
+        //创建时解析交易记录实例, 之后entry/exit直接使用
+        Transaction transaction;
+        do {
+            transaction = getGroup(groupName).getTransaction(transactionName);
+            //句柄持有的交易不能被移除, 若恰好被移除则重新获取
+            transaction.pinned = true;
+        } while (transaction.evicted);
+        return new Handle(transaction);
     }
 
     @Override
@@ -151,14 +238,47 @@ public class DefaultTxTimerProvider2 implements TxTimerProvider2, InitializableI
     private Group getGroup(String groupName) {
         Group group = groups.get(groupName);
         if (group == null) {
+            //超过上限的组别归入溢出组别, 不加锁
+            if (groupNum.get() >= maxGroups) {
+                overflowGroupCount.increment();
+                return getOverflowGroup();
+            }
             //用UnsafeHashSpinLocks分散碰撞的可能性
+            @SuppressWarnings("deprecation")
             UnsafeSpinLock lock = locks.getLock(groupName);
             try {
                 lock.lock();
                 group = groups.get(groupName);
+                if (group == null) {
+                    if (groupNum.incrementAndGet() > maxGroups) {
+                        groupNum.decrementAndGet();
+                        overflowGroupCount.increment();
+                    } else {
+                        group = new Group(this);
+                        groups.put(groupName, group);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (group == null) {
+                return getOverflowGroup();
+            }
+        }
+        return group;
+    }
+
+    private Group getOverflowGroup() {
+        Group group = overflowGroup;
+        if (group == null) {
+            @SuppressWarnings("deprecation")
+            UnsafeSpinLock lock = locks.getLock(OVERFLOW_NAME);
+            try {
+                lock.lock();
+                group = overflowGroup;
                 if (group == null) {
                     group = new Group(this);
-                    groups.put(groupName, group);
+                    overflowGroup = group;
                 }
             } finally {
                 lock.unlock();
@@ -69,6 +69,8 @@ public interface DefaultTxTimerReportParser {
         int CURR_MAX_1 = 13;
         int CURR_AVG_1 = 14;
         int CURR_CNT_1 = 15;
+        //可选, 百分位耗时, 格式: p50=12,p90=30,p99=45,p99.9=80
+        int CURR_PCT_1 = 16;
 
         @Override
         public RawData parseLine(String line) throws Exception {
@@ -84,6 +86,10 @@ public interface DefaultTxTimerReportParser {
             if ("1".equals(elements[VER])) {
                 return parseLineV1(elements);
             }
+            //版本2与版本1格式相同, 区别在于耗时单位为us
+            if ("2".equals(elements[VER])) {
+                return parseLineV1(elements);
+            }
 
             throw new Exception("Unsupported report version " + elements[VER]);
         }
@@ -103,6 +109,10 @@ public interface DefaultTxTimerReportParser {
             rawData.setCurrMax(Integer.parseInt(elements[CURR_MAX_1]));
             rawData.setCurrAvg(Integer.parseInt(elements[CURR_AVG_1]));
             rawData.setCurrCnt(Integer.parseInt(elements[CURR_CNT_1]));
+            //行尾有'|', 有百分位时最后一个元素之前还有一个元素
+            if (elements.length > CURR_PCT_1 + 1) {
+                rawData.setCurrPct(elements[CURR_PCT_1]);
+            }
             return rawData;
         }
 
@@ -113,7 +123,7 @@ public interface DefaultTxTimerReportParser {
      ************************************************************************************************ */
 
     /**
-     * 报告解析器解析出来的原始数据
+     * 报告解析器解析出来的原始数据, 耗时单位: 版本1为ms, 版本2为us
      */
     class RawData {
         private int ver;
@@ -129,6 +139,7 @@ public interface DefaultTxTimerReportParser {
         private int currMax;
         private int currAvg;
         private int currCnt;
+        private String currPct;
 
         public int getVer() {
             return ver;
@@ -234,6 +245,14 @@ public interface DefaultTxTimerReportParser {
             this.currCnt = currCnt;
         }
 
+        public String getCurrPct() {
+            return currPct;
+        }
+
+        public void setCurrPct(String currPct) {
+            this.currPct = currPct;
+        }
+
         @Override
         public String toString() {
             return "RawData{" +
@@ -250,6 +269,7 @@ public interface DefaultTxTimerReportParser {
                     ", currMax=" + currMax +
                     ", currAvg=" + currAvg +
                     ", currCnt=" + currCnt +
+                    ", currPct='" + currPct + '\'' +
                     '}';
         }
     }
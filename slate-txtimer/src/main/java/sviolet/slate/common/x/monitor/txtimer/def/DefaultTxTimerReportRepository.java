@@ -79,6 +79,12 @@ public interface DefaultTxTimerReportRepository <R> {
             int avgElapse = rawData.getCurrAvg();
             int maxElapse = rawData.getCurrMax();
             int minElapse = rawData.getCurrMin();
+            //版本2的耗时单位为us, 换算为ms
+            if (rawData.getVer() == 2) {
+                avgElapse /= 1000;
+                maxElapse /= 1000;
+                minElapse /= 1000;
+            }
 
             //跳过没交易的记录
             if (count <= 0d) {
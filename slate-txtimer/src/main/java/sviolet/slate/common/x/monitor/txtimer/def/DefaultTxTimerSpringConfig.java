@@ -68,4 +68,18 @@ public class DefaultTxTimerSpringConfig {
         }
     }
 
+    @Value("${slate.txtimer.report.percentiles:}")
+    private void setReportPercentiles(String reportPercentiles){
+        if (!CheckUtils.isEmptyOrBlank(reportPercentiles)){
+            DefaultTxTimerConfig.setReportPercentiles(reportPercentiles);
+        }
+    }
+
+    @Value("${slate.txtimer.report.micros:}")
+    private void setReportMicros(String reportMicros){
+        if (!CheckUtils.isEmptyOrBlank(reportMicros)){
+            DefaultTxTimerConfig.setReportMicros(reportMicros);
+        }
+    }
+
 }
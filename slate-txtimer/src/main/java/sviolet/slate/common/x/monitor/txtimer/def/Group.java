@@ -23,12 +23,19 @@ import sviolet.thistle.model.concurrent.lock.UnsafeSpinLock;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static sviolet.slate.common.x.monitor.txtimer.def.DefaultTxTimerProvider2.OVERFLOW_NAME;
 
 class Group {
 
     private DefaultTxTimerProvider2 provider;
 
     Map<String, Transaction> transactions;
+    //溢出交易, 不放入交易Map, 避免与名称恰好为OVERFLOW_NAME的交易混淆
+    volatile Transaction overflowTransaction;
+    //交易数量(不含溢出交易)
+    AtomicInteger transactionNum = new AtomicInteger(0);
 
     Group(DefaultTxTimerProvider2 provider) {
         this.provider = provider;
@@ -38,15 +45,80 @@ class Group {
     Transaction getTransaction(String transactionName){
         Transaction transaction = transactions.get(transactionName);
         if (transaction == null) {
+            //超过上限的交易归入溢出交易, 不加锁
+            if (isFull()) {
+                provider.overflowTransactionCount.increment();
+                return getOverflowTransaction();
+            }
             //用StringHashLocks分散碰撞的可能性
             @SuppressWarnings("deprecation")
             UnsafeSpinLock lock = provider.locks.getLock(transactionName);
             try {
                 lock.lock();
                 transaction = transactions.get(transactionName);
+                if (transaction == null) {
+                    //锁是按名称分散的, 计数需要先占位再判断
+                    if (transactionNum.incrementAndGet() > provider.maxTransactionsPerGroup) {
+                        transactionNum.decrementAndGet();
+                    } else if (provider.transactionNum.incrementAndGet() > provider.maxTransactions) {
+                        provider.transactionNum.decrementAndGet();
+                        transactionNum.decrementAndGet();
+                    } else {
+                        transaction = new Transaction(provider);
+                        transactions.put(transactionName, transaction);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (transaction == null) {
+                provider.overflowTransactionCount.increment();
+                return getOverflowTransaction();
+            }
+        }
+        return transaction;
+    }
+
+    /**
+     * 移除空闲的交易(仅由报告线程调用). 先标记移除再检查计数(与entry/handle的顺序相反), 若期间有新的调用则放弃移除,
+     * 保证调用方不会持有已移除的交易.
+     * @param lastFinishCount 判断空闲时的完成计数
+     */
+    boolean evict(String transactionName, Transaction transaction, long lastFinishCount){
+        transaction.evicted = true;
+        if (transaction.pinned ||
+                transaction.runningCount.sum() > 0 ||
+                transaction.finishCount.sum() != lastFinishCount) {
+            transaction.evicted = false;
+            return false;
+        }
+        if (transactions.remove(transactionName, transaction)) {
+            transactionNum.decrementAndGet();
+            provider.transactionNum.decrementAndGet();
+            return true;
+        }
+        transaction.evicted = false;
+        return false;
+    }
+
+    private boolean isFull(){
+        return transactionNum.get() >= provider.maxTransactionsPerGroup ||
+                provider.transactionNum.get() >= provider.maxTransactions;
+    }
+
+    private Transaction getOverflowTransaction(){
+        Transaction transaction = overflowTransaction;
+        if (transaction == null) {
+            @SuppressWarnings("deprecation")
+            UnsafeSpinLock lock = provider.locks.getLock(OVERFLOW_NAME);
+            try {
+                lock.lock();
+                transaction = overflowTransaction;
                 if (transaction == null) {
                     transaction = new Transaction(provider);
-                    transactions.put(transactionName, transaction);
+                    //溢出交易不计数, 也不移除
+                    transaction.pinned = true;
+                    overflowTransaction = transaction;
                 }
             } finally {
                 lock.unlock();
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.monitor.txtimer.def;
+
+import sviolet.slate.common.x.monitor.txtimer.TxTimerHandle;
+
+/**
+ * 预先解析的计时句柄, 直接持有Transaction, entry/exit不查找Map, 也不创建对象.
+ * entry返回System.nanoTime(), 耗时用单调时钟计算, 统计单元仍按墙上时间划分.
+ *
+ * @author S.Violet
+ */
+class Handle implements TxTimerHandle {
+
+    private final Transaction transaction;
+
+    Handle(Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    @Override
+    public long entry() {
+        //标记为正在执行
+        transaction.running();
+        return System.nanoTime();
+    }
+
+    @Override
+    public void exit(long startTime) {
+        exit(startTime, 0);
+    }
+
+    @Override
+    public void exit(long startTime, int resultCode) {
+        //耗时(us)
+        long elapse = (System.nanoTime() - startTime) / 1000L;
+        //标记为完成交易, 并记录时间
+        transaction.finish(System.currentTimeMillis(), elapse);
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.monitor.txtimer.def;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <p>对数-线性分桶的耗时直方图, 用于计算百分位耗时</p>
+ *
+ * <p>小于8的值每个值一个桶, 之后每个2的幂区间[2^n, 2^(n+1))再线性划分为8个桶, 桶宽与值的相对误差不超过1/8.
+ * 桶数固定(272个), 可记录的最大值为2^36-1(以us计约19小时), 超出的值记入最后一个桶. 记录时只做一次原子自增, 无锁.
+ * 多个直方图的计数可以直接逐桶相加合并.</p>
+ *
+ * <p>计数数组(约1.1KB)在第一次记录时才分配, 重置时释放, 没有记录的统计单元不占用内存.</p>
+ *
+ * <p>热点交易的耗时集中在少数几个桶里, 多线程对同一个桶自增会反复竞争同一个缓存行. 与LongAdder类似, 记录时先对共享的计数数组做CAS,
+ * 一旦CAS失败(出现竞争), 该直方图改为按线程分段记录(最多STRIPE_COUNT个分段, 按需分配), 报告时逐段合并. 重置时恢复为不分段.</p>
+ *
+ * @author S.Violet
+ */
+class Histogram {
+
+    //每个2的幂区间划分的线性子桶数(2^3=8)
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    //可记录的最大指数, 大于2^(MAX_EXPONENT+1)-1的值记入最后一个桶
+    static final int MAX_EXPONENT = 35;
+    //桶数
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    //分段数(2的幂), 不超过CPU数和8
+    static final int STRIPE_COUNT = Integer.highestOneBit(Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors())));
+
+    private static final AtomicReferenceFieldUpdater<Histogram, AtomicIntegerArray> COUNTS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Histogram.class, AtomicIntegerArray.class, "counts");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Histogram, AtomicReferenceArray> STRIPES_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Histogram.class, AtomicReferenceArray.class, "stripes");
+
+    //计数, 第一次记录时分配
+    private volatile AtomicIntegerArray counts;
+    //分段计数, 出现竞争后分配, 每个分段按需分配
+    private volatile AtomicReferenceArray<AtomicIntegerArray> stripes;
+
+    /**
+     * 记录一个值
+     */
+    void record(long value){
+        int index = bucketIndex(value);
+        AtomicReferenceArray<AtomicIntegerArray> stripes = this.stripes;
+        if (stripes == null) {
+            AtomicIntegerArray counts = counts();
+            if (STRIPE_COUNT <= 1) {
+                counts.incrementAndGet(index);
+                return;
+            }
+            int count = counts.get(index);
+            if (counts.compareAndSet(index, count, count + 1)) {
+                return;
+            }
+            //出现竞争, 改为分段记录
+            STRIPES_UPDATER.compareAndSet(this, null, new AtomicReferenceArray<AtomicIntegerArray>(STRIPE_COUNT));
+            stripes = this.stripes;
+            if (stripes == null) {
+                //被并发重置
+                counts().incrementAndGet(index);
+                return;
+            }
+        }
+        int stripe = (int) Thread.currentThread().getId() & (STRIPE_COUNT - 1);
+        AtomicIntegerArray stripeCounts;
+        while ((stripeCounts = stripes.get(stripe)) == null) {
+            stripes.compareAndSet(stripe, null, new AtomicIntegerArray(BUCKET_COUNT));
+        }
+        stripeCounts.incrementAndGet(index);
+    }
+
+    private AtomicIntegerArray counts() {
+        AtomicIntegerArray counts;
+        while ((counts = this.counts) == null) {
+            COUNTS_UPDATER.compareAndSet(this, null, new AtomicIntegerArray(BUCKET_COUNT));
+        }
+        return counts;
+    }
+
+    /**
+     * 清空计数(释放计数数组, 恢复为不分段)
+     */
+    void reset(){
+        counts = null;
+        stripes = null;
+    }
+
+    /**
+     * 将计数(包括所有分段)累加到目标数组中(合并), 目标数组长度为BUCKET_COUNT
+     */
+    void mergeTo(long[] target){
+        mergeTo(counts, target);
+        AtomicReferenceArray<AtomicIntegerArray> stripes = this.stripes;
+        if (stripes == null) {
+            return;
+        }
+        for (int i = 0 ; i < stripes.length() ; i++) {
+            mergeTo(stripes.get(i), target);
+        }
+    }
+
+    private static void mergeTo(AtomicIntegerArray counts, long[] target) {
+        if (counts == null) {
+            return;
+        }
+        for (int i = 0 ; i < BUCKET_COUNT ; i++) {
+            target[i] += counts.get(i);
+        }
+    }
+
+    /**
+     * 值对应的桶序号
+     */
+    static int bucketIndex(long value){
+        if (value < SUB_BUCKET_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        //最高的SUB_BUCKET_BITS+1位确定子桶
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT +
+                (int) ((value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    static long bucketHighestValue(int index){
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * 根据合并后的计数计算百分位值(取所在桶的最大值)
+     *
+     * @param counts 合并后的计数
+     * @param total 计数合计
+     * @param percentile 百分位, (0, 100]
+     */
+    static long percentile(long[] counts, long total, double percentile){
+        if (total <= 0) {
+            return 0;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100d));
+        long sum = 0;
+        for (int i = 0 ; i < counts.length ; i++) {
+            sum += counts[i];
+            if (sum >= rank) {
+                return bucketHighestValue(i);
+            }
+        }
+        return bucketHighestValue(counts.length - 1);
+    }
+
+}
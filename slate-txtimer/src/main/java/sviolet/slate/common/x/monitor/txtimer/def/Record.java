@@ -23,25 +23,18 @@ import sviolet.slate.common.x.monitor.txtimer.TimerContext;
 
 class Record extends TimerContext.Basic {
 
-    //组名
-    private String groupName;
-    //交易名
-    private String transactionName;
-    //开始时间
+    //交易记录实例(entry时已解析, exit时直接使用)
+    private Transaction transaction;
+    //开始时间(System.nanoTime(), 只用于计算耗时)
     private long startTime;
 
-    Record(String groupName, String transactionName) {
-        this.groupName = groupName;
-        this.transactionName = transactionName;
-        this.startTime = System.currentTimeMillis();
+    Record(Transaction transaction) {
+        this.transaction = transaction;
+        this.startTime = System.nanoTime();
     }
 
-    String getGroupName() {
-        return groupName;
-    }
-
-    String getTransactionName() {
-        return transactionName;
+    Transaction getTransaction() {
+        return transaction;
     }
 
     long getStartTime() {
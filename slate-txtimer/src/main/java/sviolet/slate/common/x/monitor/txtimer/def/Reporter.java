@@ -22,32 +22,58 @@ package sviolet.slate.common.x.monitor.txtimer.def;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Base64Utils;
+import sviolet.thistle.compat.concurrent.CompatThreadFactoryBuilder;
 import sviolet.thistle.util.concurrent.ConcurrentUtils;
-import sviolet.thistle.util.concurrent.ThreadPoolExecutorUtils;
 import sviolet.thistle.util.crypto.SecureRandomUtils;
 
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static sviolet.slate.common.x.monitor.txtimer.def.DefaultTxTimerProvider2.*;
 
+/**
+ * <p>统计报告输出器</p>
+ *
+ * <p>由定时线程按报告间隔(reportInterval)驱动, entry/exit热点路径上不做任何调度操作. 若一个周期内没有交易完成, 且没有执行中的交易,
+ * 本周期不输出报告.</p>
+ *
+ * <p>每个周期结束时, 移除连续空闲达到evictIdle个周期的交易(句柄持有的交易和溢出交易除外). 空闲判断只比较报告线程保存的计数快照,
+ * entry/exit不需要记录最后访问时间. 移除前先标记交易再复查计数, entry/handle获取到已标记的交易会重新获取, 调用不会记录到已移除的交易.</p>
+ *
+ * <p>百分位耗时由报告时间段内各统计单元的直方图合并后计算, 取值为所在桶的最大值(不超过时间段内的最大耗时).</p>
+ *
+ * <p>统计单元中的耗时单位为微秒(us), 输出时按配置换算为毫秒(版本1)或保持微秒(版本2).</p>
+ *
+ * @author S.Violet
+ */
 class Reporter {
 
+    //版本1: 耗时单位ms, 版本2: 耗时单位us, 其他格式相同
     private static final String VERSION = "1";
-    private static final String COMMENT = "\n   Ver Rand StartTime Duration Group Name RunCnt     TotAvg TotCnt     CurrMin CurrMax CurrAvg CurrCnt (TimeUnit:ms)";
+    private static final String VERSION_MICROS = "2";
+    private static final String COMMENT = "\n   Ver Rand StartTime Duration Group Name RunCnt     TotAvg TotCnt     CurrMin CurrMax CurrAvg CurrCnt";
+    private static final String COMMENT_PERCENTILES = " CurrPct";
+    private static final String COMMENT_MILLIS = " (TimeUnit:ms)";
+    private static final String COMMENT_MICROS = " (TimeUnit:us)";
 
     private DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd HH:mm:ss").withZone(ZoneId.systemDefault());
 
     private static final Logger logger = LoggerFactory.getLogger(Reporter.class);
 
     private DefaultTxTimerProvider2 provider;
-    private ExecutorService reportThreadPool = ThreadPoolExecutorUtils.createLazy(60, "Slate-TxTimer-Report-%d");
+    private final ScheduledThreadPoolExecutor reportTimer = new ScheduledThreadPoolExecutor(1,
+            new CompatThreadFactoryBuilder().setNameFormat("Slate-TxTimer-Report-%d").setDaemon(true).build());
 
     private volatile boolean shutdown = false;
     private long lastReportAllTime = System.currentTimeMillis();
+    //上个周期的完成计数合计, 用于判断周期内是否有交易
+    private long lastFinishCountSum = 0;
+    //已移除交易的完成计数合计, 与现存交易的完成计数相加得到单调递增的总计数, 移除交易不会被误判为周期内有交易
+    private long evictedFinishCountSum = 0;
 
     Reporter(DefaultTxTimerProvider2 provider) {
         this.provider = provider;
@@ -59,7 +85,7 @@ class Reporter {
             public void run() {
                 shutdown = true;
                 try {
-                    reportThreadPool.shutdownNow();
+                    reportTimer.shutdownNow();
                 } catch (Exception ignore) {
                 }
             }
@@ -67,12 +93,10 @@ class Reporter {
     }
 
     /**
-     * 提醒日志输出线程工作, 使用了Lazy线程池, 反复调用execute至多执行2次, 这样在有交易时, 会进行日志输出, 若无交易, 则线程会结束
+     * 启动定时报告, 在DefaultTxTimerProvider2参数初始化后调用
      */
-    void notifyReport(){
-        if (!shutdown) {
-            reportThreadPool.execute(reportTask);
-        }
+    void start(){
+        reportTimer.scheduleAtFixedRate(reportTask, provider.reportIntervalMillis, provider.reportIntervalMillis, TimeUnit.MILLISECONDS);
     }
 
     private Runnable reportTask = new Runnable() {
@@ -81,22 +105,106 @@ class Reporter {
             if (shutdown) {
                 return;
             }
-            //等待报告输出间隔时间到
-            long startTime = System.currentTimeMillis();
-            while (System.currentTimeMillis() - startTime < provider.reportIntervalMillis) {
-                try {
-                    Thread.sleep(MINUTE_MILLIS);
-                } catch (InterruptedException ignored) {
-                }
-                if (shutdown) {
-                    return;
+            try {
+                //周期内有交易才输出
+                if (hasActivity()) {
+                    //输出报告
+                    report(System.currentTimeMillis());
+                    //容量统计
+                    reportCardinality();
                 }
+                //移除空闲的交易
+                evictIdleTransactions();
+            } catch (Throwable t) {
+                //异常不能抛出, 否则定时任务会终止
+                logger.error("TxTimer | Error while reporting", t);
             }
-            //输出报告
-            report(System.currentTimeMillis());
         }
     };
 
+    /**
+     * 周期内是否有交易完成, 或有执行中的交易
+     */
+    private boolean hasActivity(){
+        long finishCountSum = evictedFinishCountSum;
+        boolean running = false;
+        for (Group group : getGroups()) {
+            for (Transaction transaction : group.transactions.values()) {
+                finishCountSum += transaction.finishCount.sum();
+                if (transaction.runningCount.sum() > 0) {
+                    running = true;
+                }
+            }
+            Transaction overflowTransaction = group.overflowTransaction;
+            if (overflowTransaction != null) {
+                finishCountSum += overflowTransaction.finishCount.sum();
+                if (overflowTransaction.runningCount.sum() > 0) {
+                    running = true;
+                }
+            }
+        }
+        boolean finished = finishCountSum != lastFinishCountSum;
+        lastFinishCountSum = finishCountSum;
+        return finished || running;
+    }
+
+    /**
+     * 移除连续空闲达到evictIdle个周期的交易, 只移除交易, 组别不移除(组别数量由maxGroups限制)
+     */
+    private void evictIdleTransactions(){
+        if (provider.evictIdle <= 0) {
+            return;
+        }
+        for (Group group : getGroups()) {
+            for (Map.Entry<String, Transaction> entry : group.transactions.entrySet()) {
+                Transaction transaction = entry.getValue();
+                if (transaction.pinned) {
+                    continue;
+                }
+                long finishCount = transaction.finishCount.sum();
+                if (finishCount != transaction.lastFinishCount || transaction.runningCount.sum() > 0) {
+                    //周期内有交易
+                    transaction.lastFinishCount = finishCount;
+                    transaction.idleIntervals = 0;
+                    continue;
+                }
+                if (++transaction.idleIntervals >= provider.evictIdle && group.evict(entry.getKey(), transaction, finishCount)) {
+                    evictedFinishCountSum += finishCount;
+                    provider.evictedTransactionCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * 所有组别(包括溢出组别), 溢出交易不在Group#transactions中, 需要单独处理
+     */
+    private List<Group> getGroups(){
+        List<Group> groups = new ArrayList<>(provider.groups.values());
+        Group overflowGroup = provider.overflowGroup;
+        if (overflowGroup != null) {
+            groups.add(overflowGroup);
+        }
+        return groups;
+    }
+
+    /**
+     * 发生过溢出或移除时, 输出容量统计
+     */
+    private void reportCardinality(){
+        long overflowGroupCount = provider.overflowGroupCount.sum();
+        long overflowTransactionCount = provider.overflowTransactionCount.sum();
+        long evictedTransactionCount = provider.evictedTransactionCount.get();
+        if (overflowGroupCount <= 0 && overflowTransactionCount <= 0 && evictedTransactionCount <= 0) {
+            return;
+        }
+        logger.info("TxTimer | Cardinality: groups " + provider.groupNum.get() + "/" + provider.maxGroups +
+                ", transactions " + provider.transactionNum.get() + "/" + provider.maxTransactions +
+                ", overflow group calls " + overflowGroupCount +
+                ", overflow transaction calls " + overflowTransactionCount +
+                ", evicted transactions " + evictedTransactionCount);
+    }
+
     private void report(long currentTime){
 
         //判断是否打印全量日志
@@ -125,114 +233,190 @@ class Reporter {
     }
 
     private void report(long reportStartTime, long reportEndTime, boolean reportAll) {
+        //本次报告输出的百分位
+        double[] percentiles = DefaultTxTimerConfig.reportPercentiles;
+        boolean printPercentiles = percentiles.length > 0;
+        //本次报告的耗时单位
+        boolean reportMicros = DefaultTxTimerConfig.reportMicros;
+
         //遍历groups
         Map<String, Group> groupsSnap = ConcurrentUtils.getSnapShot(provider.groups);
         for (Map.Entry<String, Group> groupEntry : groupsSnap.entrySet()) {
+            report(reportStartTime, reportEndTime, reportAll, percentiles, printPercentiles, reportMicros, groupEntry.getKey(), groupEntry.getValue());
+        }
+        Group overflowGroup = provider.overflowGroup;
+        if (overflowGroup != null) {
+            report(reportStartTime, reportEndTime, reportAll, percentiles, printPercentiles, reportMicros, OVERFLOW_NAME, overflowGroup);
+        }
 
-            Map<String, Transaction> transactionsSnap = ConcurrentUtils.getSnapShot(groupEntry.getValue().transactions);
-            List<Info> infos = new ArrayList<>(transactionsSnap.size());
-
-            //遍历transactions
-            for (Map.Entry<String, Transaction> transactionEntry : transactionsSnap.entrySet()) {
-
-                //将时间段内的多个统计单元做合并计算
-                int finishCountSum = 0;
-                long totalElapseSum = 0;
-                long maxElapse = Long.MIN_VALUE;
-                long minElapse = Long.MAX_VALUE;
-                int unitNum = 0;
-
-                //遍历时间段内的统计单元
-                List<Unit> unitList = transactionEntry.getValue().getUnits(reportStartTime, reportEndTime);
-                for (Unit unit : unitList) {
-                    //记录时间商数, 若最后该值变化, 说明单元被翻篇, 数据无效
-                    long unitQuotient = unit.timeQuotient.get();
-                    long unitStartTime = unit.startTime.get();
-                    //排除非报告期间的单元
-                    if (unitStartTime < reportStartTime || unitStartTime >= reportEndTime) {
-                        continue;
-                    }
-                    //取值
-                    int unitFinishCount = unit.finishCount.get();
-                    long unitTotalElapse = unit.totalElapse.get();
-                    long unitMaxElapse = unit.maxElapse.get();
-                    long unitMinElapse = unit.minElapse.get();
-                    //若单元被翻篇, 数据无效
-                    if (unit.timeQuotient.get() != unitQuotient) {
-                        continue;
-                    }
-                    //若单元无交易, 则无效
-                    if (unitFinishCount <= 0) {
-                        continue;
-                    }
-                    finishCountSum += unitFinishCount;
-                    totalElapseSum += unitTotalElapse;
-                    maxElapse = Math.max(maxElapse, unitMaxElapse);
-                    minElapse = Math.min(minElapse, unitMinElapse);
-                    unitNum++;
-                }
-
-                //交易统计结果
-                Info info = new Info();
-                info.transactionName = transactionEntry.getKey();
-                info.finishTotal = transactionEntry.getValue().finishCount.get();
-                info.runningTotal = transactionEntry.getValue().runningCount.get();
-                info.finish = finishCountSum;
-                info.averageElapse = finishCountSum > 0 ? totalElapseSum / finishCountSum : 0;
-                info.maxElapse = maxElapse != Long.MIN_VALUE ? maxElapse : 0;
-                info.minElapse = minElapse != Long.MAX_VALUE ? minElapse : 0;
-                info.unitNum = unitNum;
-
-                //粗略地估算总平均耗时
-                if (transactionEntry.getValue().averageElapseTotal == 0){
-                    transactionEntry.getValue().averageElapseTotal = info.averageElapse;
-                } else if (info.finish > 0) {
-                    float changeRate;
-                    if (info.finishTotal > 10000) {
-                        changeRate = 0.03f;
-                    } else {
-                        changeRate = (float)info.finish / (float)info.finishTotal;
-                        if (changeRate < 0.03f) {
-                            changeRate = 0.03f;
-                        }
-                    }
-                    transactionEntry.getValue().averageElapseTotal =
-                            (long) ((float)transactionEntry.getValue().averageElapseTotal * (1f - changeRate) +
-                                   (float)info.averageElapse * changeRate);
-                }
+        //保证日志都写完
+        finish();
+    }
 
-                info.averageElapseTotal = transactionEntry.getValue().averageElapseTotal;
-                infos.add(info);
+    private void report(long reportStartTime, long reportEndTime, boolean reportAll, double[] percentiles, boolean printPercentiles,
+                        boolean reportMicros, String groupName, Group group) {
+        //遍历transactions
+        Map<String, Transaction> transactionsSnap = ConcurrentUtils.getSnapShot(group.transactions);
+        List<Info> infos = new ArrayList<>(transactionsSnap.size() + 1);
+        for (Map.Entry<String, Transaction> transactionEntry : transactionsSnap.entrySet()) {
+            infos.add(collect(reportStartTime, reportEndTime, percentiles, printPercentiles, reportMicros,
+                    transactionEntry.getKey(), transactionEntry.getValue()));
+        }
+        Transaction overflowTransaction = group.overflowTransaction;
+        if (overflowTransaction != null) {
+            infos.add(collect(reportStartTime, reportEndTime, percentiles, printPercentiles, reportMicros,
+                    OVERFLOW_NAME, overflowTransaction));
+        }
 
+        //排序
+        infos.sort(comparator);
+
+        //批次公共信息
+        this.reportAll = reportAll;
+        this.printPercentiles = printPercentiles;
+        this.reportMicros = reportMicros;
+
+        //输出日志
+        for (Info info : infos) {
+            if (reportAll ||
+                    !DefaultTxTimerConfig.thresholdEnabled ||
+                    info.averageElapse >= DefaultTxTimerConfig.thresholdAvg * 1000L ||
+                    info.maxElapse >= DefaultTxTimerConfig.thresholdMax * 1000L ||
+                    info.minElapse >= DefaultTxTimerConfig.thresholdMin * 1000L) {
+                print(reportStartTime, reportEndTime, groupName, info);
             }
+        }
+    }
 
-            //排序
-            infos.sort(comparator);
+    /**
+     * 将时间段内的多个统计单元做合并计算
+     */
+    private Info collect(long reportStartTime, long reportEndTime, double[] percentiles, boolean printPercentiles, boolean reportMicros,
+                         String transactionName, Transaction transaction) {
+
+        int finishCountSum = 0;
+        long totalElapseSum = 0;
+        long maxElapse = Long.MIN_VALUE;
+        long minElapse = Long.MAX_VALUE;
+        int unitNum = 0;
+        //时间段内的直方图合并结果
+        if (printPercentiles) {
+            Arrays.fill(mergedCounts, 0L);
+        }
 
-            //批次公共信息
-            this.reportAll = reportAll;
+        //遍历时间段内的统计单元
+        List<Unit> unitList = transaction.getUnits(reportStartTime, reportEndTime);
+        for (Unit unit : unitList) {
+            //记录时间商数, 若最后该值变化, 说明单元被翻篇, 数据无效
+            long unitQuotient = unit.timeQuotient.get();
+            long unitStartTime = unit.startTime.get();
+            //排除非报告期间的单元
+            if (unitStartTime < reportStartTime || unitStartTime >= reportEndTime) {
+                continue;
+            }
+            //取值
+            int unitFinishCount = unit.finishCount.intValue();
+            long unitTotalElapse = unit.totalElapse.sum();
+            long unitMaxElapse = unit.maxElapse.get();
+            long unitMinElapse = unit.minElapse.get();
+            if (printPercentiles) {
+                Arrays.fill(unitCounts, 0L);
+                unit.histogram.mergeTo(unitCounts);
+            }
+            //若单元被翻篇, 数据无效
+            if (unit.timeQuotient.get() != unitQuotient) {
+                continue;
+            }
+            //若单元无交易, 则无效
+            if (unitFinishCount <= 0) {
+                continue;
+            }
+            finishCountSum += unitFinishCount;
+            totalElapseSum += unitTotalElapse;
+            maxElapse = Math.max(maxElapse, unitMaxElapse);
+            minElapse = Math.min(minElapse, unitMinElapse);
+            unitNum++;
+            //合并直方图
+            if (printPercentiles) {
+                for (int i = 0 ; i < unitCounts.length ; i++) {
+                    mergedCounts[i] += unitCounts[i];
+                }
+            }
+        }
+
+        //交易统计结果
+        Info info = new Info();
+        info.transactionName = transactionName;
+        info.finishTotal = transaction.finishCount.intValue();
+        info.runningTotal = transaction.runningCount.intValue();
+        info.finish = finishCountSum;
+        info.averageElapse = finishCountSum > 0 ? totalElapseSum / finishCountSum : 0;
+        info.maxElapse = maxElapse != Long.MIN_VALUE ? maxElapse : 0;
+        info.minElapse = minElapse != Long.MAX_VALUE ? minElapse : 0;
+        info.unitNum = unitNum;
+        if (printPercentiles) {
+            info.percentiles = formatPercentiles(percentiles, info.maxElapse, reportMicros);
+        }
 
-            //输出日志
-            for (Info info : infos) {
-                if (reportAll ||
-                        !DefaultTxTimerConfig.thresholdEnabled ||
-                        info.averageElapse >= DefaultTxTimerConfig.thresholdAvg ||
-                        info.maxElapse >= DefaultTxTimerConfig.thresholdMax ||
-                        info.minElapse >= DefaultTxTimerConfig.thresholdMin) {
-                    print(reportStartTime, reportEndTime, groupEntry.getKey(), info);
+        //粗略地估算总平均耗时
+        if (transaction.averageElapseTotal == 0){
+            transaction.averageElapseTotal = info.averageElapse;
+        } else if (info.finish > 0) {
+            float changeRate;
+            if (info.finishTotal > 10000) {
+                changeRate = 0.03f;
+            } else {
+                changeRate = (float)info.finish / (float)info.finishTotal;
+                if (changeRate < 0.03f) {
+                    changeRate = 0.03f;
                 }
             }
+            transaction.averageElapseTotal =
+                    (long) ((float)transaction.averageElapseTotal * (1f - changeRate) +
+                           (float)info.averageElapse * changeRate);
+        }
+
+        info.averageElapseTotal = transaction.averageElapseTotal;
+        return info;
+    }
 
+    /**
+     * 根据合并后的直方图计算百分位, 格式: p50=12,p90=30,p99=45,p99.9=80
+     */
+    private String formatPercentiles(double[] percentiles, long maxElapse, boolean reportMicros) {
+        long total = 0;
+        for (long count : mergedCounts) {
+            total += count;
         }
+        StringBuilder stringBuilder = new StringBuilder();
+        for (int i = 0 ; i < percentiles.length ; i++) {
+            if (i > 0) {
+                stringBuilder.append(',');
+            }
+            //桶内最大值可能超过实际最大耗时
+            long value = total > 0 ? Math.min(Histogram.percentile(mergedCounts, total, percentiles[i]), maxElapse) : 0;
+            stringBuilder.append('p');
+            if (percentiles[i] == (long) percentiles[i]) {
+                stringBuilder.append((long) percentiles[i]);
+            } else {
+                stringBuilder.append(percentiles[i]);
+            }
+            stringBuilder.append('=').append(toReportUnit(value, reportMicros));
+        }
+        return stringBuilder.toString();
+    }
 
-        //保证日志都写完
-        finish();
+    /**
+     * 耗时(us)换算为报告单位
+     */
+    private static long toReportUnit(long elapseMicros, boolean reportMicros) {
+        return reportMicros ? elapseMicros : elapseMicros / 1000L;
     }
 
     private Comparator<Info> comparator = new Comparator<Info>() {
         @Override
         public int compare(Info o1, Info o2) {
-            return (int) (o2.averageElapse - o1.averageElapse);
+            return Long.compare(o2.averageElapse, o1.averageElapse);
         }
     };
 
@@ -246,12 +430,18 @@ class Reporter {
         private long minElapse;
         private long averageElapse;
         private int unitNum;
+        private String percentiles;
     }
 
     /* *********************************************************************************************************** */
 
     private final String RANDOM = getRandomString();
     private boolean reportAll;
+    private boolean printPercentiles;
+    private boolean reportMicros;
+    //直方图合并缓存, 仅在报告线程中使用
+    private final long[] unitCounts = new long[Histogram.BUCKET_COUNT];
+    private final long[] mergedCounts = new long[Histogram.BUCKET_COUNT];
     private int page = 1;
     private List<String> messagePool;
 
@@ -275,18 +465,19 @@ class Reporter {
                 '|' +
                 info.runningTotal +
                 "||" +
-                info.averageElapseTotal +
+                toReportUnit(info.averageElapseTotal, reportMicros) +
                 '|' +
                 info.finishTotal +
                 "||" +
-                info.minElapse +
+                toReportUnit(info.minElapse, reportMicros) +
                 '|' +
-                info.maxElapse +
+                toReportUnit(info.maxElapse, reportMicros) +
                 '|' +
-                info.averageElapse +
+                toReportUnit(info.averageElapse, reportMicros) +
                 '|' +
                 info.finish +
-                '|';
+                '|' +
+                (printPercentiles ? info.percentiles + '|' : "");
         messagePool.add(msgBuilder);
     }
 
@@ -299,11 +490,13 @@ class Reporter {
         StringBuilder stringBuilder = new StringBuilder(reportAll ? "ReportAll " : "")
                 .append("Page ")
                 .append(page)
-                .append(COMMENT);
+                .append(COMMENT)
+                .append(printPercentiles ? COMMENT_PERCENTILES : "")
+                .append(reportMicros ? COMMENT_MICROS : COMMENT_MILLIS);
 
         for (String msg : messagePool) {
             stringBuilder.append("\nTxT|")
-                    .append(VERSION)
+                    .append(reportMicros ? VERSION_MICROS : VERSION)
                     .append("|")
                     .append(msg);
         }
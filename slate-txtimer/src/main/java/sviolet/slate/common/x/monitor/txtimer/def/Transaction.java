@@ -21,7 +21,7 @@ package sviolet.slate.common.x.monitor.txtimer.def;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import static sviolet.slate.common.x.monitor.txtimer.def.DefaultTxTimerProvider2.*;
 
@@ -29,14 +29,22 @@ class Transaction {
 
     private DefaultTxTimerProvider2 provider;
 
-    //完成计数(总计)
-    AtomicInteger finishCount = new AtomicInteger(0);
-    //执行中计数
-    AtomicInteger runningCount = new AtomicInteger(0);
+    //完成计数(总计), 分段计数, 报告时求和
+    LongAdder finishCount = new LongAdder();
+    //执行中计数, 分段计数, 报告时求和
+    LongAdder runningCount = new LongAdder();
 
-    //用于粗略地估算总平均耗时
+    //用于粗略地估算总平均耗时(us)
     long averageElapseTotal = 0;
 
+    //true: 不会因空闲被移除(句柄持有的交易/溢出交易)
+    volatile boolean pinned = false;
+    //true: 已被(或正在被)报告线程移除, entry/handle获取到该交易时需要重新获取
+    volatile boolean evicted = false;
+    //以下仅由报告线程访问, 用于判断空闲: 上次检查时的完成计数, 连续空闲的报告周期数
+    long lastFinishCount = 0;
+    int idleIntervals = 0;
+
     //将统计单元按分钟划分, 预置并重复使用
     private Unit[] units;
 
@@ -55,23 +63,22 @@ class Transaction {
      */
     void running(){
         //执行中+1
-        runningCount.incrementAndGet();
-        //提醒日志输出线程工作
-        provider.reporter.notifyReport();
+        runningCount.increment();
     }
 
     /**
      * 完成交易
+     *
+     * @param currentTime 当前时间(墙上时间ms), 用于确定统计单元
+     * @param elapse 耗时(us)
      */
     void finish(long currentTime, long elapse) {
-        //执行中-1
-        runningCount.decrementAndGet();
         //完成计数+1
-        finishCount.incrementAndGet();
+        finishCount.increment();
         //根据当前时间获得统计单元, 记录耗时
         getUnit(currentTime).record(elapse);
-        //提醒日志输出线程工作
-        provider.reporter.notifyReport();
+        //执行中-1, 放在最后: 报告线程看到执行中计数为0时, 之前的记录都已完成(移除交易时依赖这个顺序)
+        runningCount.decrement();
     }
 
     /**
@@ -19,8 +19,9 @@
 
 package sviolet.slate.common.x.monitor.txtimer.def;
 
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 import static sviolet.slate.common.x.monitor.txtimer.def.DefaultTxTimerProvider2.MINUTE_MILLIS;
 
@@ -32,14 +33,17 @@ class Unit {
     AtomicLong startTime = new AtomicLong(0);
     //时间商数(重要), 1.确定统计单元的版本, 2.判断是否需要翻篇, 3.判断是否更新, 4.竞争该值获得重置权
     AtomicLong timeQuotient = new AtomicLong(0);
+    //以下计数为分段(Striped)实现, 竞争激烈时自动分散到多个单元, 报告时求和, 记录不会丢失
     //完成计数
-    AtomicInteger finishCount = new AtomicInteger(0);
-    //总耗时
-    AtomicLong totalElapse = new AtomicLong(0);
-    //最大耗时
-    AtomicLong maxElapse = new AtomicLong(Long.MIN_VALUE);
-    //最小耗时
-    AtomicLong minElapse = new AtomicLong(Long.MAX_VALUE);
+    LongAdder finishCount = new LongAdder();
+    //总耗时(us)
+    LongAdder totalElapse = new LongAdder();
+    //最大耗时(us)
+    LongAccumulator maxElapse = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    //最小耗时(us)
+    LongAccumulator minElapse = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    //耗时直方图(us), 用于计算百分位, 不输出百分位时不记录
+    Histogram histogram = new Histogram();
 
     Unit(DefaultTxTimerProvider2 provider) {
         this.provider = provider;
@@ -61,40 +65,31 @@ class Unit {
             if (timeQuotient.compareAndSet(previousQuotient, quotient)) {
                 //更新成功则重置统计单元
                 this.startTime.set((startTime / MINUTE_MILLIS) * MINUTE_MILLIS);
-                this.minElapse.set(Long.MAX_VALUE);
-                this.maxElapse.set(Long.MIN_VALUE);
-                this.totalElapse.set(0);
-                this.finishCount.set(0);
+                this.minElapse.reset();
+                this.maxElapse.reset();
+                this.totalElapse.reset();
+                this.finishCount.reset();
+                this.histogram.reset();
                 return true;
             }
         }
     }
 
     /**
-     * 记录耗时
+     * 记录耗时(us)
      */
     void record(long elapse){
         //完成+1
-        finishCount.incrementAndGet();
+        finishCount.increment();
         //耗时累计
-        totalElapse.addAndGet(elapse);
+        totalElapse.add(elapse);
         //max elapse
-        for (int i = 0 ; i < provider.updateAttempts; i++) {
-            long previous = maxElapse.get();
-            if (elapse > previous) {
-                if (maxElapse.compareAndSet(previous, elapse)) {
-                    break;
-                }
-            }
-        }
+        maxElapse.accumulate(elapse);
         //min elapse
-        for (int i = 0 ; i < provider.updateAttempts; i++) {
-            long previous = minElapse.get();
-            if (elapse < previous) {
-                if (minElapse.compareAndSet(previous, elapse)) {
-                    break;
-                }
-            }
+        minElapse.accumulate(elapse);
+        //直方图(不输出百分位时不记录, 不分配计数数组)
+        if (DefaultTxTimerConfig.reportPercentiles.length > 0) {
+            histogram.record(elapse);
         }
     }
 
@@ -20,6 +20,7 @@
 package sviolet.slate.common.x.monitor.txtimer.noref;
 
 import sviolet.slate.common.x.monitor.txtimer.TimerContext;
+import sviolet.slate.common.x.monitor.txtimer.TxTimerHandle;
 import sviolet.slate.common.x.monitor.txtimer.TxTimerProvider2;
 
 /**
@@ -38,6 +39,8 @@ public interface NoRefTxTimer {
 
     void exit(TimerContext timerContext, int resultCode);
 
+    TxTimerHandle handle(String groupName, String transactionName);
+
     TxTimerProvider2 getProvider();
 
 }
@@ -22,6 +22,7 @@ package sviolet.slate.common.x.monitor.txtimer.noref;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sviolet.slate.common.x.monitor.txtimer.TimerContext;
+import sviolet.slate.common.x.monitor.txtimer.TxTimerHandle;
 import sviolet.slate.common.x.monitor.txtimer.TxTimerProvider2;
 
 /**
@@ -57,6 +58,10 @@ public class NoRefTxTimerFactory {
         public void exit(TimerContext timerContext, int resultCode) {
         }
         @Override
+        public TxTimerHandle handle(String groupName, String transactionName) {
+            return DUMMY_HANDLE;
+        }
+        @Override
         public TxTimerProvider2 getProvider() {
             return null;
         }
@@ -69,4 +74,19 @@ public class NoRefTxTimerFactory {
         }
     };
 
+    private static final TxTimerHandle DUMMY_HANDLE = new TxTimerHandle() {
+        @Override
+        public long entry() {
+            return 0L;
+        }
+        @Override
+        public void exit(long startTime) {
+            //do nothing
+        }
+        @Override
+        public void exit(long startTime, int resultCode) {
+            //do nothing
+        }
+    };
+
 }
@@ -21,6 +21,7 @@ package sviolet.slate.common.x.monitor.txtimer.noref;
 
 import sviolet.slate.common.x.monitor.txtimer.TimerContext;
 import sviolet.slate.common.x.monitor.txtimer.TxTimer;
+import sviolet.slate.common.x.monitor.txtimer.TxTimerHandle;
 import sviolet.slate.common.x.monitor.txtimer.TxTimerProvider2;
 
 /**
@@ -45,6 +46,11 @@ class NoRefTxTimerImpl implements NoRefTxTimer {
         TxTimer.exit(timerContext, resultCode);
     }
 
+    @Override
+    public TxTimerHandle handle(String groupName, String transactionName) {
+        return TxTimer.handle(groupName, transactionName);
+    }
+
     @Override
     public TxTimerProvider2 getProvider() {
         return TxTimer.getProvider();
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015-2018 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.monitor.txtimer.def;
+
+import sviolet.slate.common.x.monitor.txtimer.TimerContext;
+import sviolet.slate.common.x.monitor.txtimer.TxTimerHandle;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>DefaultTxTimerProvider2 entry/exit 单次调用开销基准</p>
+ *
+ * <p>多线程反复执行entry/exit(不做业务耗时), 输出每次(entry+exit)的平均耗时和分配字节数. 启动参数:<br>
+ * -Dbenchmark.modes=context,handle 测试方式(逗号分隔, 依次测试), context:provider.entry/exit, handle:预先解析的TxTimerHandle<br>
+ * -Dbenchmark.threads=1,4,16 线程数(逗号分隔, 依次测试)<br>
+ * -Dbenchmark.names=50 交易名数量<br>
+ * -Dbenchmark.warmup=2000000 每线程预热次数<br>
+ * -Dbenchmark.calls=5000000 每线程测试次数<br>
+ * </p>
+ *
+ * @author S.Violet
+ */
+public class DefaultTxTimerProvider2Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        String[] modes = System.getProperty("benchmark.modes", "context,handle").split(",");
+        String[] threadsArray = System.getProperty("benchmark.threads", "1,4,16").split(",");
+        int names = Integer.getInteger("benchmark.names", 50);
+        long warmup = Long.getLong("benchmark.warmup", 2000000L);
+        long calls = Long.getLong("benchmark.calls", 5000000L);
+
+        DefaultTxTimerProvider2 provider = new DefaultTxTimerProvider2();
+        provider.reportInterval = 5;
+        provider.pageLines = 20;
+        provider.mapInitCap = 128;
+        provider.hashLockNum = 16;
+        provider.updateAttempts = 10;
+        provider.maxGroups = 256;
+        provider.maxTransactionsPerGroup = 1024;
+        provider.maxTransactions = 8192;
+        provider.evictIdle = 12;
+        provider.onServiceCreated();
+
+        //交易名预先生成, 避免测试中拼接字符串
+        String[] transactionNames = new String[names];
+        for (int i = 0 ; i < names ; i++) {
+            transactionNames[i] = "Service" + i;
+        }
+
+        //句柄预先解析
+        TxTimerHandle[] handles = new TxTimerHandle[names];
+        for (int i = 0 ; i < names ; i++) {
+            handles[i] = provider.handle("Benchmark", transactionNames[i]);
+        }
+
+        for (String mode : modes) {
+            boolean handleMode = "handle".equals(mode.trim());
+            for (String threads : threadsArray) {
+                run(provider, handleMode, Integer.parseInt(threads.trim()), transactionNames, handles, warmup, false);
+                run(provider, handleMode, Integer.parseInt(threads.trim()), transactionNames, handles, calls, true);
+            }
+        }
+    }
+
+    private static void run(final DefaultTxTimerProvider2 provider, final boolean handleMode, int threads, final String[] transactionNames,
+                            final TxTimerHandle[] handles, final long calls, boolean print) throws InterruptedException {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        final boolean allocationSupported = threadMXBean instanceof com.sun.management.ThreadMXBean;
+        final AtomicLong allocated = new AtomicLong(0);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch finishLatch = new CountDownLatch(threads);
+
+        for (int t = 0 ; t < threads ; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long allocatedStart = allocationSupported ?
+                            ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    if (handleMode) {
+                        for (long i = 0 ; i < calls ; i++) {
+                            TxTimerHandle handle = handles[(int) ((i + offset) % handles.length)];
+                            handle.exit(handle.entry(), 0);
+                        }
+                    } else {
+                        for (long i = 0 ; i < calls ; i++) {
+                            TimerContext timerContext = provider.entry("Benchmark", transactionNames[(int) ((i + offset) % transactionNames.length)]);
+                            provider.exit(timerContext, 0);
+                        }
+                    }
+                    if (allocationSupported) {
+                        allocated.addAndGet(((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedStart);
+                    }
+                    finishLatch.countDown();
+                }
+            }, "Benchmark-" + t);
+            thread.start();
+        }
+
+        long startTime = System.nanoTime();
+        startLatch.countDown();
+        finishLatch.await();
+        long elapse = System.nanoTime() - startTime;
+
+        if (print) {
+            long total = calls * threads;
+            System.out.println(String.format("%-7s threads=%-3d calls=%-10d %8.1f ns/call (wall, per thread)  %10.0f calls/s  %6.1f bytes/call",
+                    handleMode ? "handle" : "context",
+                    threads,
+                    total,
+                    (double) elapse * threads / total,
+                    (double) total * 1000000000L / elapse,
+                    allocationSupported ? (double) allocated.get() / total : -1d));
+        }
+    }
+
+}
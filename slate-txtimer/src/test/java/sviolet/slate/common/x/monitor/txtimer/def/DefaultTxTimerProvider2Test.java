@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+
+package sviolet.slate.common.x.monitor.txtimer.def;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import static sviolet.slate.common.x.monitor.txtimer.def.DefaultTxTimerProvider2.OVERFLOW_NAME;
+
+public class DefaultTxTimerProvider2Test {
+
+    @Test
+    public void evictedTransactionIsReplaced() {
+        DefaultTxTimerProvider2 provider = newProvider(1024);
+        provider.exit(provider.entry("group", "tx"), 0);
+        Group group = provider.groups.get("group");
+        Transaction transaction = group.transactions.get("tx");
+
+        Assert.assertTrue(group.evict("tx", transaction, transaction.finishCount.sum()));
+        Assert.assertTrue(transaction.evicted);
+        Assert.assertEquals(0, provider.transactionNum.get());
+
+        //移除后的调用记录到新的交易中
+        Record record = (Record) provider.entry("group", "tx");
+        Assert.assertNotSame(transaction, record.getTransaction());
+        Assert.assertSame(group.transactions.get("tx"), record.getTransaction());
+        provider.exit(record, 0);
+        Assert.assertEquals(1L, record.getTransaction().finishCount.sum());
+        Assert.assertEquals(1L, transaction.finishCount.sum());
+    }
+
+    @Test
+    public void evictAbortedByConcurrentCall() {
+        DefaultTxTimerProvider2 provider = newProvider(1024);
+        provider.exit(provider.entry("group", "tx"), 0);
+        Group group = provider.groups.get("group");
+        Transaction transaction = group.transactions.get("tx");
+        long lastFinishCount = transaction.finishCount.sum();
+
+        //执行中的交易不移除
+        Record record = (Record) provider.entry("group", "tx");
+        Assert.assertFalse(group.evict("tx", transaction, lastFinishCount));
+        Assert.assertFalse(transaction.evicted);
+
+        //判断空闲之后又有交易完成, 不移除
+        provider.exit(record, 0);
+        Assert.assertFalse(group.evict("tx", transaction, lastFinishCount));
+        Assert.assertFalse(transaction.evicted);
+        Assert.assertSame(transaction, group.transactions.get("tx"));
+
+        //句柄持有的交易不移除
+        provider.handle("group", "tx");
+        Assert.assertFalse(group.evict("tx", transaction, transaction.finishCount.sum()));
+    }
+
+    @Test
+    public void overflowNameDoesNotCollide() {
+        DefaultTxTimerProvider2 provider = newProvider(1);
+        //名称恰好为<overflow>的交易是普通交易, 占用数量, 可以被移除
+        Record named = (Record) provider.entry("group", OVERFLOW_NAME);
+        Record overflow = (Record) provider.entry("group", "other");
+        Group group = provider.groups.get("group");
+        Assert.assertEquals(1, group.transactionNum.get());
+        Assert.assertSame(group.transactions.get(OVERFLOW_NAME), named.getTransaction());
+        Assert.assertSame(group.overflowTransaction, overflow.getTransaction());
+        Assert.assertNotSame(named.getTransaction(), overflow.getTransaction());
+        Assert.assertFalse(named.getTransaction().pinned);
+        Assert.assertTrue(overflow.getTransaction().pinned);
+        Assert.assertNull(provider.groups.get(OVERFLOW_NAME));
+    }
+
+    private DefaultTxTimerProvider2 newProvider(int maxTransactionsPerGroup) {
+        DefaultTxTimerProvider2 provider = new DefaultTxTimerProvider2();
+        provider.reportInterval = 5;
+        provider.pageLines = 20;
+        provider.mapInitCap = 128;
+        provider.hashLockNum = 16;
+        provider.updateAttempts = 10;
+        provider.maxGroups = 256;
+        provider.maxTransactionsPerGroup = maxTransactionsPerGroup;
+        provider.maxTransactions = 8192;
+        provider.evictIdle = 12;
+        provider.onServiceCreated();
+        return provider;
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015-2019 S.Violet
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Project GitHub: https://github.com/shepherdviolet/slate
+ * Email: shepherdviolet@163.com
+ */
+
+package sviolet.slate.common.x.monitor.txtimer.def;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketIndex() {
+        //小于8的值每个值一个桶
+        for (int i = 0 ; i < Histogram.SUB_BUCKET_COUNT ; i++) {
+            Assert.assertEquals(i, Histogram.bucketIndex(i));
+        }
+        Assert.assertEquals(0, Histogram.bucketIndex(-1));
+        //[8, 16)桶宽1, [16, 32)桶宽2
+        Assert.assertEquals(8, Histogram.bucketIndex(8));
+        Assert.assertEquals(15, Histogram.bucketIndex(15));
+        Assert.assertEquals(16, Histogram.bucketIndex(16));
+        Assert.assertEquals(16, Histogram.bucketIndex(17));
+        Assert.assertEquals(17, Histogram.bucketIndex(18));
+        //超出范围的值记入最后一个桶
+        Assert.assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex((1L << (Histogram.MAX_EXPONENT + 1)) - 1));
+        Assert.assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex(1L << (Histogram.MAX_EXPONENT + 1)));
+        Assert.assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void bucketHighestValue() {
+        //桶序号单调, 桶内最大值不小于原值, 相对误差不超过1/8
+        int previousIndex = 0;
+        for (long value = 0 ; value < (1L << 20) ; value += 1 + value / 64) {
+            int index = Histogram.bucketIndex(value);
+            Assert.assertTrue(index >= previousIndex);
+            previousIndex = index;
+            long highest = Histogram.bucketHighestValue(index);
+            Assert.assertTrue(value + " -> " + highest, highest >= value);
+            Assert.assertTrue(value + " -> " + highest, highest - value <= value / Histogram.SUB_BUCKET_COUNT);
+            //桶内最大值落在同一个桶
+            Assert.assertEquals(index, Histogram.bucketIndex(highest));
+        }
+    }
+
+    @Test
+    public void percentile() {
+        Histogram histogram = new Histogram();
+        for (int i = 1 ; i <= 1000 ; i++) {
+            histogram.record(i);
+        }
+        long[] counts = new long[Histogram.BUCKET_COUNT];
+        histogram.mergeTo(counts);
+
+        assertPercentile(500, Histogram.percentile(counts, 1000, 50d));
+        assertPercentile(900, Histogram.percentile(counts, 1000, 90d));
+        assertPercentile(990, Histogram.percentile(counts, 1000, 99d));
+        assertPercentile(1000, Histogram.percentile(counts, 1000, 100d));
+        //最小的百分位取第一个值
+        Assert.assertEquals(1, Histogram.percentile(counts, 1000, 0.01d));
+        //无计数
+        Assert.assertEquals(0, Histogram.percentile(new long[Histogram.BUCKET_COUNT], 0, 50d));
+    }
+
+    @Test
+    public void mergeAndReset() {
+        Histogram histogram1 = new Histogram();
+        Histogram histogram2 = new Histogram();
+        long[] counts = new long[Histogram.BUCKET_COUNT];
+
+        //未记录过的直方图不分配计数, 合并结果为空
+        histogram1.mergeTo(counts);
+        Assert.assertEquals(0, sum(counts));
+
+        histogram1.record(3);
+        histogram1.record(100);
+        histogram2.record(100);
+        histogram1.mergeTo(counts);
+        histogram2.mergeTo(counts);
+        Assert.assertEquals(3, sum(counts));
+        Assert.assertEquals(1, counts[3]);
+        Assert.assertEquals(2, counts[Histogram.bucketIndex(100)]);
+
+        histogram1.reset();
+        counts = new long[Histogram.BUCKET_COUNT];
+        histogram1.mergeTo(counts);
+        Assert.assertEquals(0, sum(counts));
+        histogram1.record(5);
+        histogram1.mergeTo(counts);
+        Assert.assertEquals(1, counts[5]);
+    }
+
+    @Test
+    public void concurrentRecord() throws InterruptedException {
+        //多线程竞争同一个桶时改为分段记录, 合并后计数不丢失
+        final Histogram histogram = new Histogram();
+        final int times = 100000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0 ; i < threads.length ; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0 ; j < times ; j++) {
+                        histogram.record(100);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] counts = new long[Histogram.BUCKET_COUNT];
+        histogram.mergeTo(counts);
+        Assert.assertEquals(times * threads.length, counts[Histogram.bucketIndex(100)]);
+        Assert.assertEquals(times * threads.length, sum(counts));
+
+        histogram.reset();
+        counts = new long[Histogram.BUCKET_COUNT];
+        histogram.mergeTo(counts);
+        Assert.assertEquals(0, sum(counts));
+    }
+
+    @Test
+    public void skipWithoutPercentiles() {
+        double[] percentiles = DefaultTxTimerConfig.reportPercentiles;
+        try {
+            Unit unit = new Unit(null);
+            long[] counts = new long[Histogram.BUCKET_COUNT];
+
+            //不输出百分位时不记录直方图
+            DefaultTxTimerConfig.reportPercentiles = new double[0];
+            unit.record(100);
+            unit.histogram.mergeTo(counts);
+            Assert.assertEquals(0, sum(counts));
+            Assert.assertEquals(1, unit.finishCount.intValue());
+
+            DefaultTxTimerConfig.reportPercentiles = new double[]{50d};
+            unit.record(100);
+            unit.histogram.mergeTo(counts);
+            Assert.assertEquals(1, sum(counts));
+        } finally {
+            DefaultTxTimerConfig.reportPercentiles = percentiles;
+        }
+    }
+
+    private static void assertPercentile(long expected, long actual) {
+        //取所在桶的最大值, 不小于精确值, 相对误差不超过1/8
+        Assert.assertTrue(expected + " -> " + actual, actual >= expected && actual - expected <= expected / Histogram.SUB_BUCKET_COUNT);
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+}